@@ -0,0 +1,375 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.pipe;
+
+import java.io.*;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.ConcurrentAlphabet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.util.CharSequenceLexer;
+
+/**
+ *  Tokenize a character sequence, lowercase the tokens, remove stopwords and look the tokens up
+ *   in the data alphabet in one pass over its characters, producing a feature sequence.
+ *  <p>
+ *  The output is that of {@link CharSequence2TokenSequence} followed by {@link TokenSequenceLowercase},
+ *   {@link TokenSequenceRemoveStopwords} and {@link TokenSequence2FeatureSequence}, but no Token or
+ *   substring is made for a token that has been seen before.  Only the token patterns for which
+ *   {@link #supports(Pattern)} is true are scanned this way:
+ *   <code>\p{L}[\p{L}\p{P}]+\p{L}</code> and {@link CharSequenceLexer#LEX_ALPHA}.
+ *  <p>
+ *  Like {@link TokenSequence2FeatureSequence}, the pipe may run on several threads at once only
+ *   if its alphabet is a {@link ConcurrentAlphabet} or has stopped growing.
+ */
+
+public class CharSequence2FeatureSequence extends Pipe implements Serializable
+{
+	public static final String LETTERS_WITH_INNER_PUNCTUATION = "\\p{L}[\\p{L}\\p{P}]+\\p{L}";
+
+	static final int SCAN_LETTERS_WITH_INNER_PUNCTUATION = 0;
+	static final int SCAN_ALPHA = 1;
+
+	// Character classes of the BMP characters
+	static final byte LETTER = 1;
+	static final byte PUNCTUATION = 2;
+	static final byte ALPHA = 4;
+	static final byte[] charClasses = new byte[Character.MAX_VALUE + 1];
+	static {
+		for (int c = 0; c <= Character.MAX_VALUE; c++)
+			charClasses[c] = charClass (c);
+	}
+
+	int scan;
+	String pattern;
+	boolean lowercase;
+	Alphabet stoplist;				// null if no stopwords are removed
+	boolean stopCaseSensitive;
+
+	// Indices of the tokens already looked up in a growing, non-concurrent alphabet
+	transient TokenIndexCache cache;
+
+	/**
+	 *  @param tokenPattern A pattern for which {@link #supports(Pattern)} is true
+	 *  @param lowercase Whether to lowercase the tokens, as {@link TokenSequenceLowercase}
+	 *  @param stopwords The stopwords to remove, or null to keep every token
+	 */
+	public CharSequence2FeatureSequence (Pattern tokenPattern, boolean lowercase,
+										 TokenSequenceRemoveStopwords stopwords, Alphabet dataDict)
+	{
+		super (dataDict, null);
+		if (! supports (tokenPattern))
+			throw new IllegalArgumentException ("Cannot scan tokens of the pattern "+tokenPattern);
+		this.pattern = tokenPattern.pattern();
+		this.scan = pattern.equals (LETTERS_WITH_INNER_PUNCTUATION) ? SCAN_LETTERS_WITH_INNER_PUNCTUATION : SCAN_ALPHA;
+		this.lowercase = lowercase;
+		if (stopwords != null) {
+			stoplist = new Alphabet (stopwords.stoplist.size(), String.class);
+			for (String word : stopwords.stoplist)
+				stoplist.lookupIndex (word);
+			stoplist.stopGrowth ();
+			stopCaseSensitive = stopwords.caseSensitive;
+		}
+	}
+
+	public CharSequence2FeatureSequence (Pattern tokenPattern, boolean lowercase, TokenSequenceRemoveStopwords stopwords)
+	{
+		this (tokenPattern, lowercase, stopwords, new Alphabet());
+	}
+
+	/** Whether tokens of the pattern can be scanned by this pipe. */
+	public static boolean supports (Pattern tokenPattern)
+	{
+		return tokenPattern.flags() == 0
+			&& (tokenPattern.pattern().equals (LETTERS_WITH_INNER_PUNCTUATION)
+				|| tokenPattern.pattern().equals (CharSequenceLexer.LEX_ALPHA.pattern()));
+	}
+
+	private static byte charClass (int c)
+	{
+		byte charClass = 0;
+		if (Character.isLetter (c))
+			charClass |= LETTER;
+		switch (Character.getType (c)) {
+		case Character.CONNECTOR_PUNCTUATION:
+		case Character.DASH_PUNCTUATION:
+		case Character.START_PUNCTUATION:
+		case Character.END_PUNCTUATION:
+		case Character.INITIAL_QUOTE_PUNCTUATION:
+		case Character.FINAL_QUOTE_PUNCTUATION:
+		case Character.OTHER_PUNCTUATION:
+			charClass |= PUNCTUATION;
+		}
+		if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+			charClass |= ALPHA;
+		return charClass;
+	}
+
+	private static byte charClassAt (char[] text, int i, int end)
+	{
+		char c = text[i];
+		if (Character.isHighSurrogate (c) && i + 1 < end && Character.isLowSurrogate (text[i+1]))
+			return charClass (Character.toCodePoint (c, text[i+1]));
+		return charClasses[c];
+	}
+
+	private static int charCountAt (char[] text, int i, int end)
+	{
+		return Character.isHighSurrogate (text[i]) && i + 1 < end && Character.isLowSurrogate (text[i+1]) ? 2 : 1;
+	}
+
+	/** The end of the token that starts at <code>start</code>, or -1 if none does. */
+	private int tokenEnd (char[] text, int start, int end)
+	{
+		if (scan == SCAN_ALPHA) {
+			int i = start;
+			while (i < end && (charClasses[text[i]] & ALPHA) != 0)
+				i++;
+			return i > start ? i : -1;
+		}
+
+		if ((charClassAt (text, start, end) & LETTER) == 0)
+			return -1;
+		// The longest run of letters and punctuation, ending in a letter after at least one inner character
+		int i = start + charCountAt (text, start, end);
+		boolean inner = false;
+		int tokenEnd = -1;
+		while (i < end) {
+			byte charClass = charClassAt (text, i, end);
+			if ((charClass & (LETTER | PUNCTUATION)) == 0)
+				break;
+			int next = i + charCountAt (text, i, end);
+			if (! inner)
+				inner = true;
+			else if ((charClass & LETTER) != 0)
+				tokenEnd = next;
+			i = next;
+		}
+		return tokenEnd;
+	}
+
+	/** Lowercase <code>text[start, end)</code> into the same positions of <code>lower</code>,
+	 *  or return false if String.toLowerCase() might change the length or depend on the context. */
+	private static boolean lowercase (char[] text, char[] lower, int start, int end)
+	{
+		for (int i = start; i < end; i++) {
+			char c = text[i];
+			if (c < 0x80)
+				lower[i] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+			else if (Character.isSurrogate (c) || c == '\u03A3' || c == '\u0130')
+				return false;
+			else
+				lower[i] = Character.toLowerCase (c);
+		}
+		return true;
+	}
+
+	public boolean isConcurrent ()
+	{
+		Alphabet dict = getDataAlphabet();
+		return dict instanceof ConcurrentAlphabet || (dict != null && dict.growthStopped());
+	}
+
+	public Instance pipe (Instance carrier)
+	{
+		CharSequence data = (CharSequence) carrier.getData();
+		int length = data.length();
+		char[] text = new char[length];
+		if (data instanceof String)
+			((String) data).getChars (0, length, text, 0);
+		else
+			data.toString().getChars (0, length, text, 0);
+
+		// String.toLowerCase() of these languages differs from that of the characters
+		String language = Locale.getDefault().getLanguage();
+		boolean localeLowercase = language.equals ("tr") || language.equals ("az") || language.equals ("lt");
+
+		boolean needLower = lowercase || (stoplist != null && ! stopCaseSensitive);
+		char[] lower = needLower ? new char[length] : null;
+		CharBuffer textChars = CharBuffer.wrap (text);
+		CharBuffer lowerChars = needLower ? CharBuffer.wrap (lower) : null;
+
+		Alphabet dict = getDataAlphabet();
+		int[] features = new int[length / 6 + 2];
+		int numFeatures = 0;
+
+		int i = 0;
+		while (i < length) {
+			int end = tokenEnd (text, i, length);
+			if (end < 0) {
+				i++;
+				continue;
+			}
+			int start = i;
+			i = end;
+
+			if (needLower && (localeLowercase || ! lowercase (text, lower, start, end))) {
+				// A token whose lowercase is not one character for each, looked up as Strings
+				String token = new String (text, start, end - start);
+				String lowerToken = token.toLowerCase();
+				String output = lowercase ? lowerToken : token;
+				if (stoplist != null && stoplist.lookupIndex (stopCaseSensitive ? output : lowerToken, false) >= 0)
+					continue;
+				int index = dict.lookupIndex (output);
+				if (index >= 0) {
+					if (numFeatures == features.length)
+						features = Arrays.copyOf (features, 2 * features.length);
+					features[numFeatures++] = index;
+				}
+				continue;
+			}
+
+			if (stoplist != null) {
+				CharBuffer stopChars = stopCaseSensitive && ! lowercase ? textChars : lowerChars;
+				if (stoplist.lookupIndex (stopChars, start, end) >= 0)
+					continue;
+			}
+
+			char[] output = lowercase ? lower : text;
+			int index;
+			if (dict.growthStopped())
+				index = dict.lookupIndex (lowercase ? lowerChars : textChars, start, end);
+			else if (dict instanceof ConcurrentAlphabet)
+				index = dict.lookupIndex (new String (output, start, end - start));
+			else
+				index = cachedIndex (dict, output, start, end);
+			if (index >= 0) {
+				if (numFeatures == features.length)
+					features = Arrays.copyOf (features, 2 * features.length);
+				features[numFeatures++] = index;
+			}
+		}
+
+		// Copied to an array of the tokens found, as TokenSequence2FeatureSequence sizes it
+		carrier.setData (new FeatureSequence (dict, features, numFeatures));
+		return carrier;
+	}
+
+	private int cachedIndex (Alphabet dict, char[] chars, int start, int end)
+	{
+		if (cache == null || cache.alphabet != dict)
+			cache = new TokenIndexCache (dict);
+		int hash = 0;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + chars[i];
+		int index = cache.get (chars, start, end, hash);
+		if (index < 0) {
+			String token = new String (chars, start, end - start);
+			index = dict.lookupIndex (token);
+			if (index >= 0)
+				cache.put (token, hash, index);
+		}
+		return index;
+	}
+
+	/** An open-addressed table from token characters to their indices in an alphabet. */
+	static class TokenIndexCache
+	{
+		final Alphabet alphabet;
+		String[] keys;		// indexed by <slot>
+		int[] hashes;
+		int[] indices;		// -1 for an empty slot
+		int size;
+
+		TokenIndexCache (Alphabet alphabet)
+		{
+			this.alphabet = alphabet;
+			allocate (1024);
+		}
+
+		private void allocate (int capacity)
+		{
+			keys = new String[capacity];
+			hashes = new int[capacity];
+			indices = new int[capacity];
+			Arrays.fill (indices, -1);
+			size = 0;
+		}
+
+		private static int spread (int hash)
+		{
+			return hash ^ (hash >>> 16);
+		}
+
+		int get (char[] chars, int start, int end, int hash)
+		{
+			int mask = keys.length - 1;
+			for (int slot = spread (hash) & mask; indices[slot] >= 0; slot = (slot + 1) & mask) {
+				if (hashes[slot] == hash && matches (keys[slot], chars, start, end))
+					return indices[slot];
+			}
+			return -1;
+		}
+
+		private static boolean matches (String key, char[] chars, int start, int end)
+		{
+			if (key.length() != end - start)
+				return false;
+			for (int i = 0; i < key.length(); i++) {
+				if (key.charAt(i) != chars[start + i])
+					return false;
+			}
+			return true;
+		}
+
+		void put (String key, int hash, int index)
+		{
+			if (2 * (size + 1) > keys.length) {
+				String[] oldKeys = keys;
+				int[] oldHashes = hashes;
+				int[] oldIndices = indices;
+				allocate (2 * keys.length);
+				for (int slot = 0; slot < oldKeys.length; slot++) {
+					if (oldIndices[slot] >= 0)
+						insert (oldKeys[slot], oldHashes[slot], oldIndices[slot]);
+				}
+			}
+			insert (key, hash, index);
+		}
+
+		private void insert (String key, int hash, int index)
+		{
+			int mask = keys.length - 1;
+			int slot = spread (hash) & mask;
+			while (indices[slot] >= 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			hashes[slot] = hash;
+			indices[slot] = index;
+			size++;
+		}
+	}
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeObject (pattern);
+		out.writeBoolean (lowercase);
+		out.writeObject (stoplist);
+		out.writeBoolean (stopCaseSensitive);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		pattern = (String) in.readObject();
+		scan = pattern.equals (LETTERS_WITH_INNER_PUNCTUATION) ? SCAN_LETTERS_WITH_INNER_PUNCTUATION : SCAN_ALPHA;
+		lowercase = in.readBoolean();
+		stoplist = (Alphabet) in.readObject();
+		stopCaseSensitive = in.readBoolean();
+	}
+
+}
@@ -37,6 +37,8 @@ import cc.mallet.util.Lexer;
 public class CharSequence2TokenSequence extends Pipe implements Serializable
 {
 	CharSequenceLexer lexer;
+	// A copy of the lexer for each thread that tokenizes, so that instances may be tokenized on several threads
+	transient ThreadLocal<CharSequenceLexer> threadLexers = newThreadLexers ();
 	
 	public CharSequence2TokenSequence (CharSequenceLexer lexer)
 	{
@@ -53,22 +55,45 @@ public class CharSequence2TokenSequence extends Pipe implements Serializable
 		this.lexer = new CharSequenceLexer (regex);
 	}
 
+	private ThreadLocal<CharSequenceLexer> newThreadLexers ()
+	{
+		return new ThreadLocal<CharSequenceLexer>() {
+			protected CharSequenceLexer initialValue () {
+				return new CharSequenceLexer (lexer.getRegex());
+			}
+		};
+	}
+
 	public CharSequence2TokenSequence ()
 	{
 		this (new CharSequenceLexer());
 	}
 
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier)
 	{
 		CharSequence string = (CharSequence) carrier.getData();
+		if (lexer.getClass() != CharSequenceLexer.class) {
+			// A subclass may keep state of its own, so it cannot be copied
+			synchronized (lexer) {
+				carrier.setData(tokenize (string, lexer));
+			}
+			return carrier;
+		}
+		carrier.setData(tokenize (string, threadLexers.get()));
+		return carrier;
+	}
+
+	private TokenSequence tokenize (CharSequence string, CharSequenceLexer lexer)
+	{
 		lexer.setCharSequence (string);
 		TokenSequence ts = new StringTokenization (string);
 		while (lexer.hasNext()) {
 			lexer.next();
 			ts.add (new StringSpan (string, lexer.getStartOffset (), lexer.getEndOffset ()));
 		}
-		carrier.setData(ts);
-		return carrier;
+		return ts;
 	}
 
 	public static void main (String[] args)
@@ -104,6 +129,7 @@ public class CharSequence2TokenSequence extends Pipe implements Serializable
 	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
 		int version = in.readInt ();
 		lexer = (CharSequenceLexer) in.readObject();
+		threadLexers = newThreadLexers ();
 	}
 
 
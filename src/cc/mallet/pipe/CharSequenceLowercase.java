@@ -20,6 +20,8 @@ import cc.mallet.types.TokenSequence;
 
 public class CharSequenceLowercase extends Pipe implements Serializable {
 	
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier) {
 
 		if (carrier.getData() instanceof String) {
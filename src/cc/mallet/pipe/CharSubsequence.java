@@ -40,6 +40,8 @@ public class CharSubsequence extends Pipe implements Serializable
 		this (regex, 1);
 	}
 		
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier)
 	{
 		CharSequence string = (CharSequence) carrier.getData();
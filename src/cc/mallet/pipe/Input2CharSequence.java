@@ -18,7 +18,11 @@ package cc.mallet.pipe;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 
+import cc.mallet.pipe.iterator.PrefetchedFile;
 import cc.mallet.types.Instance;
 import cc.mallet.util.CharSequenceLexer;
 
@@ -40,6 +44,8 @@ public class Input2CharSequence extends Pipe implements Serializable
 		this.encoding = encoding;
 	}
 
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier)
 	{
 		try {
@@ -73,6 +79,16 @@ public class Input2CharSequence extends Pipe implements Serializable
 	public CharSequence pipe (File file)
 		throws FileNotFoundException, IOException
 	{
+		if (file instanceof PrefetchedFile) {
+			byte[] contents = ((PrefetchedFile) file).takeContents();
+			if (contents != null) {
+				// Decoded like the readers below, replacing malformed input
+				Charset charset = encoding == null ? Charset.defaultCharset() : Charset.forName (encoding);
+				CharBuffer chars = charset.decode (ByteBuffer.wrap (contents));
+				return new StringBuffer (chars.remaining()).append (chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+			}
+		}
+
 		BufferedReader br = null;
 
 		if (encoding == null) {
@@ -247,6 +247,14 @@ public abstract class Pipe implements Serializable, AlphabetCarrying
 		return targetProcessing;
 	}
 
+	/** Return true iff this pipe is one-to-one, keeps no state between instances
+			and adds no entries to an alphabet, so that it may process different
+			instances on several threads at once.  By default, this is false. */
+	public boolean isConcurrent ()
+	{
+		return false;
+	}
+
 	// If this Pipe produces objects that use a Alphabet, this
 	// method returns that dictionary.  Even if this particular Pipe
 	// doesn't use a Alphabet it may return non-null if
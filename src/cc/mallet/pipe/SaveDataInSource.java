@@ -26,6 +26,8 @@ public class SaveDataInSource extends Pipe implements Serializable
 	{
 	}
 
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier)
 	{
 		carrier.setSource (carrier.getData());
@@ -11,7 +11,13 @@ import java.lang.reflect.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.io.*;
 
 import cc.mallet.pipe.Pipe;
@@ -98,6 +104,118 @@ public class SerialPipes extends Pipe implements Serializable
 		return ret;
 	}
 	
+	/** The number of instances that one task pipes through the concurrent pipes. */
+	public static final int CONCURRENT_BATCH_SIZE = 32;
+
+	/**
+	 * Return an iterator that pipes the instances of the source through these pipes,
+	 * running the first run of concurrent pipes (see {@link Pipe#isConcurrent()}) on the executor.
+	 * The instances are handed to the executor in batches of {@link #CONCURRENT_BATCH_SIZE},
+	 * at most <code>2 * numThreads</code> batches at a time. The pipes before and after the
+	 * concurrent ones, such as those that add to alphabets, run on the thread that calls
+	 * <code>next()</code>, and the instances come out in the order of the source, so the
+	 * results are the same as those of {@link #newIteratorFrom(Iterator)}.
+	 */
+	public Iterator<Instance> newIteratorFrom (Iterator<Instance> source, ExecutorService executor, int numThreads)
+	{
+		int start = 0;
+		while (start < pipes.size() && !pipes.get(start).isConcurrent())
+			start++;
+		int end = start;
+		while (end < pipes.size() && pipes.get(end).isConcurrent())
+			end++;
+		if (executor == null || start == end)
+			return newIteratorFrom (source);
+
+		Iterator<Instance> ret = source;
+		for (int i = 0; i < start; i++)
+			ret = pipes.get(i).newIteratorFrom(ret);
+		ret = new ConcurrentPipesIterator (ret, pipes.subList(start, end), executor, 2 * numThreads);
+		for (int i = end; i < pipes.size(); i++)
+			ret = pipes.get(i).newIteratorFrom(ret);
+		return ret;
+	}
+
+	public boolean isConcurrent ()
+	{
+		for (Pipe p : pipes)
+			if (!p.isConcurrent())
+				return false;
+		return true;
+	}
+
+	/** Pipes batches of instances through one-to-one pipes on an executor, and returns them in order. */
+	private static class ConcurrentPipesIterator implements Iterator<Instance>
+	{
+		Iterator<Instance> source;
+		Pipe[] pipes;
+		ExecutorService executor;
+		int maxBatches;
+		LinkedList<Future<Instance[]>> batches = new LinkedList<Future<Instance[]>>();
+		Instance[] current = null;
+		int position = 0;
+
+		public ConcurrentPipesIterator (Iterator<Instance> source, List<Pipe> pipes, ExecutorService executor, int maxBatches)
+		{
+			this.source = source;
+			this.pipes = pipes.toArray(new Pipe[pipes.size()]);
+			this.executor = executor;
+			this.maxBatches = Math.max(1, maxBatches);
+		}
+
+		private void submitBatches ()
+		{
+			while (batches.size() < maxBatches && source.hasNext()) {
+				ArrayList<Instance> batch = new ArrayList<Instance> (CONCURRENT_BATCH_SIZE);
+				while (batch.size() < CONCURRENT_BATCH_SIZE && source.hasNext())
+					batch.add (source.next());
+				final Instance[] instances = batch.toArray(new Instance[batch.size()]);
+				batches.add (executor.submit (new Callable<Instance[]>() {
+						public Instance[] call () {
+							for (int i = 0; i < instances.length; i++) {
+								Instance inst = instances[i];
+								for (Pipe p : pipes)
+									if (p.precondition(inst))
+										inst = p.pipe(inst);
+								instances[i] = inst;
+							}
+							return instances;
+						}
+					}));
+			}
+		}
+
+		public boolean hasNext ()
+		{
+			while (current == null || position == current.length) {
+				submitBatches();
+				if (batches.isEmpty())
+					return false;
+				try {
+					current = batches.removeFirst().get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException ("Piping instances was interrupted.", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException) e.getCause();
+					throw new IllegalStateException ("Piping instances failed.", e.getCause());
+				}
+				position = 0;
+			}
+			return true;
+		}
+
+		public Instance next ()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException ();
+			return current[position++];
+		}
+
+		public void remove () { throw new IllegalStateException ("Not supported."); }
+	}
+
 	public int size()
 	{
 		return pipes.size();
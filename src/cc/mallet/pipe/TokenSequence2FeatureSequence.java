@@ -14,6 +14,7 @@ package cc.mallet.pipe;
 import java.io.*;
 
 import cc.mallet.types.Alphabet;
+import cc.mallet.types.ConcurrentAlphabet;
 import cc.mallet.types.FeatureSequence;
 import cc.mallet.types.Instance;
 import cc.mallet.types.Token;
@@ -35,6 +36,15 @@ public class TokenSequence2FeatureSequence extends Pipe
 		super(new Alphabet(), null);
 	}
 	
+	/** True when the alphabet is a {@link ConcurrentAlphabet}, or has stopped growing.
+	 *  A ConcurrentAlphabet grown on several threads numbers new entries in the order
+	 *  the threads reach them, rather than in the order of the instances. */
+	public boolean isConcurrent ()
+	{
+		Alphabet dict = getDataAlphabet();
+		return dict instanceof ConcurrentAlphabet || (dict != null && dict.growthStopped());
+	}
+
 	public Instance pipe (Instance carrier)
 	{
 		TokenSequence ts = (TokenSequence) carrier.getData();
@@ -47,4 +57,9 @@ public class TokenSequence2FeatureSequence extends Pipe
 		return carrier;
 	}
 
+	// Serialization
+
+	// The UID the class had before it declared one, so that saved pipes still read
+	private static final long serialVersionUID = -5784233188969098375L;
+
 }
@@ -24,6 +24,8 @@ import cc.mallet.types.TokenSequence;
 public class TokenSequenceLowercase extends Pipe implements Serializable
 {
 	
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier)
 	{
 		TokenSequence ts = (TokenSequence) carrier.getData();
@@ -31,6 +31,8 @@ public class TokenSequenceNGrams extends Pipe implements Serializable
 		this.gramSizes = sizes;
 	}
 	
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier)
 	{
 		String newTerm = null;
@@ -35,6 +35,8 @@ public class TokenSequenceRemoveNonAlpha extends Pipe {
 		this (false);
 	}
 
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier)
 	{
 		TokenSequence ts = (TokenSequence) carrier.getData();
@@ -146,6 +146,8 @@ public class TokenSequenceRemoveStopwords extends Pipe implements Serializable
 		return (String[]) wordarray.toArray(new String[]{});
 	}
 	
+	public boolean isConcurrent () { return true; }
+
 	public Instance pipe (Instance carrier)
 	{
 		TokenSequence ts = (TokenSequence) carrier.getData();
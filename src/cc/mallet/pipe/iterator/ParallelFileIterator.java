@@ -0,0 +1,248 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.pipe.iterator;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import cc.mallet.types.Instance;
+import cc.mallet.util.Strings;
+
+/**
+ * An iterator over the files below a set of directories, like {@link FileIterator},
+ * that lists the directories and reads the files on a pool of threads.
+ * <p>
+ * Each directory is listed by its own task with {@link Files#walkFileTree}, as soon as
+ * its parent has been listed, so the first instances are returned before the whole
+ * tree is known.  The instances come in the same order as from FileIterator, and their
+ * targets are found the same way, including for {@link FileIterator#STARTING_DIRECTORIES}.
+ * <p>
+ * The contents of up to <code>readAhead</code> files past the current one are read in
+ * the background.  The data of each instance is a {@link PrefetchedFile}, from which
+ * {@link cc.mallet.pipe.Input2CharSequence} takes the contents without opening the file again.
+ * The file filter, if any, is called on the thread that calls {@link #next()}.
+ */
+public class ParallelFileIterator implements Iterator<Instance>
+{
+	public static final int DEFAULT_READ_AHEAD = 256;
+
+	FileFilter fileFilter;
+	Pattern targetPattern;
+	File[] startingDirectories;
+	int commonPrefixIndex;
+	int readAhead;
+	ExecutorService executor;
+
+	// The listing of each starting directory, and the directories open in the depth-first walk
+	List<Future<List<Entry>>> listings;
+	int directoryIndex;
+	ArrayDeque<Iterator<Entry>> walk;
+
+	// The instances of the files found ahead of the caller, in order
+	ArrayDeque<Future<Instance>> pending;
+
+	static class Entry
+	{
+		final Path path;
+		final boolean directory;
+		Future<List<Entry>> listing;		// of a directory, submitted when its parent was listed
+
+		Entry (Path path, boolean directory)
+		{
+			this.path = path;
+			this.directory = directory;
+		}
+	}
+
+	/**
+	 * @param directories  Array of directories to collect files from
+	 * @param fileFilter   Decides which files to accept. May be null.
+	 * @param targetPattern  As for {@link FileIterator}
+	 * @param removeCommonPrefix As for {@link FileIterator}
+	 * @param numThreads   The number of threads that list directories and read files
+	 * @param readAhead    The number of files whose contents may be read ahead of the caller
+	 */
+	public ParallelFileIterator (File[] directories, FileFilter fileFilter, Pattern targetPattern,
+	                             boolean removeCommonPrefix, int numThreads, int readAhead)
+	{
+		for (int i = 0; i < directories.length; i++) {
+			if (!directories[i].isDirectory())
+				throw new IllegalArgumentException (directories[i].getAbsolutePath()
+				                                    + " is not a directory.");
+		}
+		this.startingDirectories = directories;
+		this.fileFilter = fileFilter;
+		this.targetPattern = targetPattern;
+		this.readAhead = Math.max (1, readAhead);
+
+		String[] dirStrings = new String[directories.length];
+		for (int i = 0; i < directories.length; i++)
+			dirStrings[i] = directories[i].toString();
+		if (removeCommonPrefix)
+			this.commonPrefixIndex = Strings.commonPrefixIndex (dirStrings);
+
+		// Daemon threads, so that an iterator that is not run to the end does not keep the VM alive
+		this.executor = Executors.newFixedThreadPool (Math.max (1, numThreads), new ThreadFactory() {
+			public Thread newThread (Runnable runnable) {
+				Thread thread = new Thread (runnable, "ParallelFileIterator");
+				thread.setDaemon (true);
+				return thread;
+			}
+		});
+
+		this.listings = new ArrayList<Future<List<Entry>>> ();
+		for (int i = 0; i < directories.length; i++)
+			listings.add (submitListing (directories[i].toPath()));
+		this.directoryIndex = -1;
+		this.walk = new ArrayDeque<Iterator<Entry>> ();
+		this.pending = new ArrayDeque<Future<Instance>> ();
+		fill ();
+	}
+
+	public ParallelFileIterator (File[] directories, Pattern targetPattern, boolean removeCommonPrefix, int numThreads)
+	{
+		this (directories, null, targetPattern, removeCommonPrefix, numThreads, DEFAULT_READ_AHEAD);
+	}
+
+	public ParallelFileIterator (String[] directories, Pattern targetPattern, boolean removeCommonPrefix, int numThreads)
+	{
+		this (FileIterator.stringArray2FileArray (directories), targetPattern, removeCommonPrefix, numThreads);
+	}
+
+	private Future<List<Entry>> submitListing (final Path directory)
+	{
+		return executor.submit (new Callable<List<Entry>>() {
+			public List<Entry> call () throws IOException {
+				final List<Entry> entries = new ArrayList<Entry> ();
+				// Like File.isDirectory, follow links to tell directories from files
+				Files.walkFileTree (directory, EnumSet.of (FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+					public FileVisitResult visitFile (Path file, BasicFileAttributes attributes) {
+						entries.add (new Entry (file, attributes.isDirectory()));
+						return FileVisitResult.CONTINUE;
+					}
+				});
+				for (Entry entry : entries) {
+					if (entry.directory)
+						entry.listing = submitListing (entry.path);
+				}
+				return entries;
+			}
+		});
+	}
+
+	private Future<Instance> submitRead (final File file, final int directory)
+	{
+		return executor.submit (new Callable<Instance>() {
+			public Instance call () throws IOException {
+				PrefetchedFile data = new PrefetchedFile (file.getPath(), Files.readAllBytes (file.toPath()));
+				return new Instance (data, targetName (data, directory), data.toURI(), null);
+			}
+		});
+	}
+
+	private String targetName (File file, int directory)
+	{
+		if (targetPattern == FileIterator.STARTING_DIRECTORIES)
+			return startingDirectories[directory].getPath().substring (commonPrefixIndex);
+		if (targetPattern != null) {
+			Matcher m = targetPattern.matcher (file.getAbsolutePath());
+			if (m.find ())
+				return m.group (1);
+		}
+		return null;
+	}
+
+	/** The next accepted file of the depth-first walk, or null at the end of the last directory. */
+	private File nextFile ()
+	{
+		while (true) {
+			if (walk.isEmpty()) {
+				if (directoryIndex + 1 == startingDirectories.length)
+					return null;
+				directoryIndex++;
+				walk.push (get (listings.get (directoryIndex)).iterator());
+				continue;
+			}
+			Iterator<Entry> entries = walk.peek();
+			if (!entries.hasNext()) {
+				walk.pop();
+				continue;
+			}
+			Entry entry = entries.next();
+			if (entry.directory) {
+				walk.push (get (entry.listing).iterator());
+				continue;
+			}
+			File file = entry.path.toFile();
+			if (fileFilter == null || fileFilter.accept (file))
+				return file;
+		}
+	}
+
+	private void fill ()
+	{
+		while (pending.size() < readAhead) {
+			File file = nextFile ();
+			if (file == null)
+				break;
+			pending.add (submitRead (file, directoryIndex));
+		}
+		if (pending.isEmpty())
+			executor.shutdown ();
+	}
+
+	private static <T> T get (Future<T> future)
+	{
+		try {
+			return future.get ();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException ("Walking the directories was interrupted.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException ("Walking the directories failed.", e.getCause());
+		}
+	}
+
+	public boolean hasNext ()	{	return !pending.isEmpty();	}
+
+	public Instance next ()
+	{
+		if (pending.isEmpty())
+			throw new NoSuchElementException ();
+		Instance instance = get (pending.poll());
+		fill ();
+		return instance;
+	}
+
+	public void remove () {
+		throw new IllegalStateException ("This Iterator<Instance> does not support remove().");
+	}
+
+	/** Stop listing and reading, for an iterator that is not run to the end. */
+	public void close ()
+	{
+		executor.shutdownNow ();
+		pending.clear ();
+		walk.clear ();
+		directoryIndex = startingDirectories.length - 1;
+	}
+}
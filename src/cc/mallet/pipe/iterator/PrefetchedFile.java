@@ -0,0 +1,43 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.pipe.iterator;
+
+import java.io.File;
+import java.io.ObjectStreamException;
+
+/**
+ * A file whose contents were read ahead by {@link ParallelFileIterator}.
+ * {@link cc.mallet.pipe.Input2CharSequence} takes the contents instead of opening the file;
+ * everything else sees an ordinary File, and it is serialized as one.
+ */
+public class PrefetchedFile extends File
+{
+	transient byte[] contents;
+
+	public PrefetchedFile (String path, byte[] contents)
+	{
+		super (path);
+		this.contents = contents;
+	}
+
+	/** The contents read ahead, or null if they were taken already.  Later calls return null,
+	 *  so that the contents are not kept for as long as the instance is. */
+	public synchronized byte[] takeContents ()
+	{
+		byte[] ret = contents;
+		contents = null;
+		return ret;
+	}
+
+	private Object writeReplace () throws ObjectStreamException
+	{
+		return new File (getPath());
+	}
+
+	private static final long serialVersionUID = 1;
+}
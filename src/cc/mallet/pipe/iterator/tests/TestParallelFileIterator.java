@@ -0,0 +1,175 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.pipe.iterator.tests;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+import junit.framework.*;
+
+import cc.mallet.pipe.Input2CharSequence;
+import cc.mallet.pipe.iterator.*;
+import cc.mallet.types.Instance;
+
+/**
+ * Checks that {@link ParallelFileIterator} returns the instances of {@link FileIterator},
+ * in the same order and with the same targets, names and file contents.
+ */
+public class TestParallelFileIterator extends TestCase
+{
+	File root;
+	File[] directories;
+
+	public TestParallelFileIterator (String name)
+	{
+		super (name);
+	}
+
+	protected void setUp () throws IOException
+	{
+		root = File.createTempFile ("parallelFileIterator", "");
+		root.delete ();
+		root.mkdir ();
+		directories = new File[] { new File (root, "sports"), new File (root, "politics"), new File (root, "empty") };
+
+		// Files at several depths, names that sort differently by case and number, and empty directories
+		write (new File (directories[0], "b.txt"), "the ball");
+		write (new File (directories[0], "A.txt"), "the goal");
+		write (new File (directories[0], "10.txt"), "");
+		write (new File (directories[0], "9.txt"), "nine");
+		write (new File (directories[0], "teams/red/1.txt"), "red team");
+		write (new File (directories[0], "teams/blue/1.txt"), "blue team");
+		write (new File (directories[0], "teams/z.log"), "a log");
+		new File (directories[0], "teams/none").mkdirs ();
+		write (new File (directories[1], "senate.txt"), "the vote");
+		write (new File (directories[1], "house/bill.txt"), "déjà vu ünïcode");
+		for (int i = 0; i < 300; i++)
+			write (new File (directories[1], "many/" + i + ".txt"), "document " + i);
+		directories[2].mkdirs ();
+	}
+
+	protected void tearDown ()
+	{
+		delete (root);
+	}
+
+	private static void write (File file, String text) throws IOException
+	{
+		file.getParentFile ().mkdirs ();
+		FileOutputStream out = new FileOutputStream (file);
+		try {
+			out.write (text.getBytes ("UTF-8"));
+		} finally {
+			out.close ();
+		}
+	}
+
+	private static void delete (File file)
+	{
+		File[] files = file.listFiles ();
+		if (files != null)
+			for (File child : files)
+				delete (child);
+		file.delete ();
+	}
+
+	private static List<Instance> toList (Iterator<Instance> iterator)
+	{
+		List<Instance> instances = new ArrayList<Instance> ();
+		while (iterator.hasNext ())
+			instances.add (iterator.next ());
+		return instances;
+	}
+
+	private static void assertSameInstances (String message, List<Instance> expected, List<Instance> actual) throws IOException
+	{
+		assertEquals (message, expected.size (), actual.size ());
+		Input2CharSequence pipe = new Input2CharSequence ("UTF-8");
+		for (int i = 0; i < expected.size (); i++) {
+			File expectedFile = (File) expected.get(i).getData ();
+			File actualFile = (File) actual.get(i).getData ();
+			assertEquals (message + ", instance " + i, expectedFile, actualFile);
+			assertEquals (message + ", instance " + i, expected.get(i).getTarget (), actual.get(i).getTarget ());
+			assertEquals (message + ", instance " + i, expected.get(i).getName (), actual.get(i).getName ());
+			assertEquals (message + ", instance " + i, expected.get(i).getSource (), actual.get(i).getSource ());
+
+			// The contents read ahead are those of the file, and the pipe reads them as it reads the file
+			assertTrue (actualFile instanceof PrefetchedFile);
+			String expectedText = pipe.pipe (new Instance (expectedFile, null, null, null)).getData ().toString ();
+			assertEquals (message + ", instance " + i, expectedText, pipe.pipe (actual.get(i)).getData ().toString ());
+			assertEquals (new String (Files.readAllBytes (expectedFile.toPath ()), "UTF-8"), expectedText);
+		}
+	}
+
+	public void testStartingDirectories () throws IOException
+	{
+		List<Instance> expected = toList (new FileIterator (directories, FileIterator.STARTING_DIRECTORIES, true));
+		assertEquals (309, expected.size ());
+		for (int numThreads : new int[] { 1, 2, 5 }) {
+			List<Instance> actual = toList (new ParallelFileIterator (directories, FileIterator.STARTING_DIRECTORIES, true, numThreads));
+			assertSameInstances (numThreads + " threads", expected, actual);
+		}
+
+		// Without removing the common prefix, the targets are the whole directory names
+		assertSameInstances ("common prefix",
+		                     toList (new FileIterator (directories, FileIterator.STARTING_DIRECTORIES, false)),
+		                     toList (new ParallelFileIterator (directories, FileIterator.STARTING_DIRECTORIES, false, 3)));
+	}
+
+	public void testFilterAndTargetPattern () throws IOException
+	{
+		FileFilter textFiles = new FileFilter () {
+			public boolean accept (File file) {
+				return file.getName ().endsWith (".txt");
+			}
+		};
+		Pattern parentDirectory = Pattern.compile ("([^/\\\\]+)[/\\\\][^/\\\\]+$");
+		List<Instance> expected = toList (new FileIterator (directories, textFiles, parentDirectory));
+		for (int readAhead : new int[] { 1, 4, ParallelFileIterator.DEFAULT_READ_AHEAD }) {
+			List<Instance> actual = toList (new ParallelFileIterator (directories, textFiles, parentDirectory, false, 3, readAhead));
+			assertSameInstances ("read ahead " + readAhead, expected, actual);
+		}
+	}
+
+	public void testEnd ()
+	{
+		Iterator<Instance> files = new ParallelFileIterator (new File[] { directories[2] }, FileIterator.STARTING_DIRECTORIES, true, 2);
+		assertFalse (files.hasNext ());
+		try {
+			files.next ();
+			fail ("next() past the last file");
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+
+		try {
+			new ParallelFileIterator (new File[] { new File (directories[0], "b.txt") }, null, false, 2);
+			fail ("a file is not a directory");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestParallelFileIterator.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
@@ -0,0 +1,142 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.pipe.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.*;
+
+import cc.mallet.pipe.*;
+import cc.mallet.types.*;
+import cc.mallet.util.CharSequenceLexer;
+
+/**
+ * Checks that {@link CharSequence2FeatureSequence} produces the feature sequences and alphabet of
+ * {@link CharSequence2TokenSequence}, {@link TokenSequenceLowercase}, {@link TokenSequenceRemoveStopwords}
+ * and {@link TokenSequence2FeatureSequence}, for each supported pattern and option.
+ */
+public class TestCharSequence2FeatureSequence extends TestCase
+{
+	static final String[] TEXTS = {
+		"The quick brown Fox jumps over the lazy dog.",
+		"It's a dog-eat-dog world, isn't it?  THE END -- or is it...",
+		"",
+		"   ",
+		"a",
+		"x y z 1234 e-mail ab-- --cd (e)f g'h",
+		"Über café DÉJÀ vu, naïve Straße",
+		"İstanbul İI ΟΔΟΣ ΣΟΦΟΣ σοφός",			// Turkish dotted I and Greek final sigma
+		"𝐀𝐁 x𝐀y 𐐀𐐁",	// letters outside the BMP
+		"She said: «Hello», then “goodbye” and left; The THE the",
+	};
+
+	public TestCharSequence2FeatureSequence (String name)
+	{
+		super (name);
+	}
+
+	private static Instance[] pipeAll (Pipe pipe)
+	{
+		Instance[] instances = new Instance[TEXTS.length];
+		for (int i = 0; i < TEXTS.length; i++)
+			instances[i] = pipe.instanceFrom (new Instance (TEXTS[i], null, "text" + i, null));
+		return instances;
+	}
+
+	private static void assertSameOutput (String message, Pattern pattern, boolean lowercase, TokenSequenceRemoveStopwords stopwords)
+	{
+		List<Pipe> chain = new ArrayList<Pipe> ();
+		chain.add (new CharSequence2TokenSequence (pattern));
+		if (lowercase)
+			chain.add (new TokenSequenceLowercase ());
+		if (stopwords != null)
+			chain.add (stopwords);
+		chain.add (new TokenSequence2FeatureSequence ());
+		Instance[] expected = pipeAll (new SerialPipes (chain));
+
+		Pipe fused = new CharSequence2FeatureSequence (pattern, lowercase, stopwords);
+		Instance[] actual = pipeAll (fused);
+
+		for (int i = 0; i < TEXTS.length; i++) {
+			FeatureSequence expectedFeatures = (FeatureSequence) expected[i].getData ();
+			FeatureSequence actualFeatures = (FeatureSequence) actual[i].getData ();
+			assertEquals (message + ", text " + i, expectedFeatures.getLength (), actualFeatures.getLength ());
+			// The same array, without padding beyond that of the chain
+			assertTrue (message + ", text " + i, Arrays.equals (expectedFeatures.getFeatures (), actualFeatures.getFeatures ()));
+		}
+		assertTrue (message, Arrays.equals (expected[0].getDataAlphabet ().toArray (), fused.getDataAlphabet ().toArray ()));
+	}
+
+	public void testMatchesTokenSequencePipes ()
+	{
+		Pattern[] patterns = {
+			Pattern.compile (CharSequence2FeatureSequence.LETTERS_WITH_INNER_PUNCTUATION),
+			CharSequenceLexer.LEX_ALPHA,
+		};
+		for (Pattern pattern : patterns) {
+			assertTrue (CharSequence2FeatureSequence.supports (pattern));
+			for (boolean lowercase : new boolean[] { true, false }) {
+				String message = pattern.pattern () + (lowercase ? ", lowercase" : "");
+				assertSameOutput (message, pattern, lowercase, null);
+				assertSameOutput (message + ", stopwords", pattern, lowercase, new TokenSequenceRemoveStopwords (false, false));
+				assertSameOutput (message + ", case sensitive stopwords", pattern, lowercase,
+				                  new TokenSequenceRemoveStopwords (true, false).addStopWords (new String[] { "THE", "Fox" }));
+			}
+		}
+		assertFalse (CharSequence2FeatureSequence.supports (CharSequenceLexer.LEX_NONWHITESPACE_TOGETHER));
+	}
+
+	private static List<Instance> documents (int numDocs)
+	{
+		List<Instance> documents = new ArrayList<Instance> ();
+		for (int doc = 0; doc < numDocs; doc++)
+			documents.add (new Instance (TEXTS[doc % TEXTS.length] + " word" + doc, null, "doc" + doc, null));
+		return documents;
+	}
+
+	/** With a ConcurrentAlphabet the pipe runs on several threads, and each document has the same tokens. */
+	public void testConcurrentAlphabet ()
+	{
+		Pattern pattern = Pattern.compile (CharSequence2FeatureSequence.LETTERS_WITH_INNER_PUNCTUATION);
+		Pipe serial = new CharSequence2FeatureSequence (pattern, true, new TokenSequenceRemoveStopwords (false, false));
+		Pipe concurrent = new CharSequence2FeatureSequence (pattern, true, new TokenSequenceRemoveStopwords (false, false),
+		                                                    new ConcurrentAlphabet ());
+		assertFalse (serial.isConcurrent ());
+		assertTrue (concurrent.isConcurrent ());
+
+		InstanceList expected = new InstanceList (new SerialPipes (new Pipe[] { serial }));
+		expected.addThruPipe (documents (500).iterator ());
+		InstanceList actual = new InstanceList (new SerialPipes (new Pipe[] { concurrent }));
+		actual.addThruPipe (documents (500).iterator (), 3);
+
+		assertEquals (expected.size (), actual.size ());
+		assertEquals (expected.getDataAlphabet ().size (), actual.getDataAlphabet ().size ());
+		for (int doc = 0; doc < expected.size (); doc++) {
+			assertEquals (expected.get (doc).getName (), actual.get (doc).getName ());
+			FeatureSequence expectedFeatures = (FeatureSequence) expected.get (doc).getData ();
+			FeatureSequence actualFeatures = (FeatureSequence) actual.get (doc).getData ();
+			// The indices depend on the order the threads add words, so the words are compared
+			assertEquals (expectedFeatures.getLength (), actualFeatures.getLength ());
+			for (int position = 0; position < expectedFeatures.getLength (); position++)
+				assertEquals (expectedFeatures.getObjectAtPosition (position), actualFeatures.getObjectAtPosition (position));
+		}
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestCharSequence2FeatureSequence.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
@@ -0,0 +1,491 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import cc.mallet.types.*;
+import cc.mallet.util.Randoms;
+
+/**
+ * A WorkerRunnable that samples each token with a few Metropolis-Hastings steps
+ *  instead of walking the topic/term bucket, in the style of LightLDA:
+ *  the steps alternate between a word proposal, n_{w|t} + beta, drawn by picking
+ *  another token of the word (or a uniform topic), and a document proposal,
+ *  n_{t|d} + alpha_t, drawn by picking another token of the document (or from an
+ *  alias table of alpha). Drawing a proposal and accepting it takes constant time,
+ *  so the cost of a token does not grow with the number of topics.
+ * <p>
+ * Both proposals use the current counts without the token being sampled, so they do
+ *  not depend on its topic or on earlier states of the chain, and the sampler keeps
+ *  the exact posterior of the SparseLDA sampler. (Proposal tables built once per sweep
+ *  from stale counts, as in LightLDA, would bias it.) To pick a token of a word, the
+ *  positions of the tokens of each word in this worker's documents and a copy of their
+ *  topics are kept, two ints per token. The tokens of the word in the other workers'
+ *  documents do not change during a sweep; their topics are drawn from an alias table
+ *  of the word, built from its counts on its first token in the sweep.
+ * <p>
+ * While sampling, the counts of a word are kept in a small hash table (topic to count),
+ *  which gives the constant time lookups of the acceptance ratio. The packed type/topic
+ *  arrays are only read during the sweep and rebuilt from the topic assignments at its end,
+ *  so the model merges and writes the counts as for the SparseLDA sampler.
+ */
+
+public class AliasWorkerRunnable extends WorkerRunnable {
+
+	public static final int DEFAULT_MH_STEPS = 2;
+
+	protected int numMHSteps = DEFAULT_MH_STEPS;
+
+	int sweep = 0;
+
+	// The tokens of this worker's documents: their positions by type and a copy of their topics
+	protected int[] docOffsets; // indexed by <document index - startDoc>, into tokenTopics
+	protected int[][] typeTokens; // indexed by <feature index, occurrence>, into tokenTopics
+	protected int[] tokenTopics;
+	protected int docOffset; // of the document being sampled
+
+	// Per type, built on the first token of the type in a sweep
+	protected int[] preparedInSweep; // indexed by <feature index>
+	protected int[][] countTables; // open addressing, (count << topicBits) + topic, -1 if empty
+	protected int[] countTableSizes; // number of topics in the table
+	protected AliasTable[] otherTables; // counts of the type in the other workers' documents
+
+	// Shared by all types
+	protected AliasTable alphaTable; // smoothing part of the document proposal
+	protected AliasTable emptyTable; // the other tables of types only in this worker's documents
+
+	// Per-document and per-type buffers
+	protected int[] localTopicCounts;
+	protected int[] typeWork;
+	protected int[] aliasWork;
+
+	public AliasWorkerRunnable (int numTopics,
+								double[] alpha, double alphaSum,
+								double beta, Randoms random,
+								ArrayList<TopicAssignment> data,
+								int[][] typeTopicCounts,
+								int[] tokensPerTopic,
+								int startDoc, int numDocs) {
+		super(numTopics, alpha, alphaSum, beta, random, data, typeTopicCounts, tokensPerTopic, startDoc, numDocs);
+
+		preparedInSweep = new int[numTypes];
+		countTables = new int[numTypes][];
+		countTableSizes = new int[numTypes];
+		otherTables = new AliasTable[numTypes];
+
+		alphaTable = new AliasTable(numTopics);
+		for (int topic = 0; topic < numTopics; topic++) {
+			alphaTable.outcomes[topic] = topic;
+		}
+		emptyTable = new AliasTable(0);
+
+		localTopicCounts = new int[numTopics];
+		typeWork = new int[numTopics];
+		aliasWork = new int[numTopics];
+
+		// Index the tokens of this worker's documents by type
+		int endDoc = Math.min(data.size(), startDoc + numDocs);
+		docOffsets = new int[Math.max(0, endDoc - startDoc) + 1];
+		int[] typeLengths = new int[numTypes];
+		for (int doc = startDoc; doc < endDoc; doc++) {
+			FeatureSequence tokens = (FeatureSequence) data.get(doc).instance.getData();
+			docOffsets[doc - startDoc + 1] = docOffsets[doc - startDoc] + tokens.getLength();
+			for (int position = 0; position < tokens.getLength(); position++) {
+				typeLengths[tokens.getIndexAtPosition(position)]++;
+			}
+		}
+		typeTokens = new int[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			typeTokens[type] = new int[typeLengths[type]];
+			typeLengths[type] = 0;
+		}
+		for (int doc = startDoc; doc < endDoc; doc++) {
+			FeatureSequence tokens = (FeatureSequence) data.get(doc).instance.getData();
+			for (int position = 0; position < tokens.getLength(); position++) {
+				int type = tokens.getIndexAtPosition(position);
+				typeTokens[type][typeLengths[type]++] = docOffsets[doc - startDoc] + position;
+			}
+		}
+		tokenTopics = new int[docOffsets[docOffsets.length - 1]];
+	}
+
+	/** The number of Metropolis-Hastings steps per token, alternating word and document proposals. */
+	public void setNumMHSteps(int numMHSteps) {
+		this.numMHSteps = Math.max(1, numMHSteps);
+	}
+
+	public void run () {
+
+		try {
+
+			if (! isFinished) { System.out.println("already running!"); return; }
+
+			isFinished = false;
+
+			// Tables of this sweep: the type tables are rebuilt when a type is first seen
+			sweep++;
+			for (int topic = 0; topic < numTopics; topic++) {
+				alphaTable.probability[topic] = alpha[topic];
+			}
+			alphaTable.build(numTopics, aliasWork);
+
+			// The topics may have been set since the last sweep
+			for (int doc = startDoc; doc < startDoc + docOffsets.length - 1; doc++) {
+				int[] topics = data.get(doc).topicSequence.getFeatures();
+				int offset = docOffsets[doc - startDoc];
+				System.arraycopy(topics, 0, tokenTopics, offset, docOffsets[doc - startDoc + 1] - offset);
+			}
+
+			for (int doc = startDoc;
+				 doc < data.size() && doc < startDoc + numDocs;
+				 doc++) {
+
+				FeatureSequence tokenSequence =
+					(FeatureSequence) data.get(doc).instance.getData();
+				LabelSequence topicSequence = data.get(doc).topicSequence;
+
+				docOffset = docOffsets[doc - startDoc];
+				sampleTopicsForOneDoc (tokenSequence, topicSequence,
+									   true);
+			}
+
+			// The packed counts were only read during the sweep. With one thread
+			//  this worker's documents are the whole corpus, so these are the model's counts.
+			buildLocalTypeTopicCounts();
+
+			shouldSaveState = false;
+			isFinished = true;
+
+		} catch (RuntimeException e) {
+			// Let the next sweep start again, and let the caller's Future report the failure
+			isFinished = true;
+			throw new RuntimeException ("Sampling documents " + startDoc + " to " +
+										(startDoc + numDocs - 1) + " failed.", e);
+		}
+	}
+
+	protected void sampleTopicsForOneDoc (FeatureSequence tokenSequence,
+										  FeatureSequence topicSequence,
+										  boolean readjustTopicsAndStats /* currently ignored */) {
+
+		int[] oneDocTopics = topicSequence.getFeatures();
+		int docLength = tokenSequence.getLength();
+
+		//		populate topic counts
+		for (int position = 0; position < docLength; position++) {
+			if (oneDocTopics[position] == ParallelTopicModel.UNASSIGNED_TOPIC) { continue; }
+			localTopicCounts[oneDocTopics[position]]++;
+		}
+
+		//	Iterate over the positions (words) in the document
+		for (int position = 0; position < docLength; position++) {
+			int type = tokenSequence.getIndexAtPosition(position);
+			int oldTopic = oneDocTopics[position];
+			int token = docOffset + position;
+
+			if (preparedInSweep[type] != sweep) {
+				prepareType(type);
+			}
+			int[] table = countTables[type];
+			AliasTable otherTable = otherTables[type];
+			int[] tokens = typeTokens[type];
+			// Mass of the word proposal: the other workers' tokens, the other tokens here, beta
+			double wordMass = otherTable.mass + (tokens.length - 1) + numTopics * beta;
+
+			//	Remove this token from all counts.
+			int current;
+			if (oldTopic != ParallelTopicModel.UNASSIGNED_TOPIC) {
+				localTopicCounts[oldTopic]--;
+				tokensPerTopic[oldTopic]--;
+				table[findSlot(table, oldTopic)] -= 1 << topicBits;
+				current = oldTopic;
+			}
+			else {
+				// Start from a draw of the word proposal
+				do {
+					current = sampleWordProposal(otherTable, tokens, token, wordMass);
+				} while (current == ParallelTopicModel.UNASSIGNED_TOPIC);
+			}
+			double currentProbability = conditional(table, current);
+
+			for (int step = 0; step < numMHSteps; step++) {
+				int proposal;
+				double ratio;
+
+				if (step % 2 == 0) {
+					// Word proposal: the topic of another token of the word, or a uniform topic
+					proposal = sampleWordProposal(otherTable, tokens, token, wordMass);
+					if (proposal == ParallelTopicModel.UNASSIGNED_TOPIC || proposal == current) { continue; }
+					double proposalProbability = conditional(table, proposal);
+					ratio = proposalProbability * wordProposal(table, current) /
+						(currentProbability * wordProposal(table, proposal));
+					if (ratio >= 1.0 || random.nextUniform() < ratio) {
+						current = proposal;
+						currentProbability = proposalProbability;
+					}
+				}
+				else {
+					// Document proposal: the topic of a random other token of the document,
+					//  or a draw from alpha
+					if (random.nextUniform() * (docLength - 1 + alphaSum) < docLength - 1) {
+						int other = random.nextInt(docLength - 1);
+						if (other >= position) { other++; }
+						proposal = oneDocTopics[other];
+						if (proposal == ParallelTopicModel.UNASSIGNED_TOPIC) { continue; }
+					}
+					else {
+						proposal = alphaTable.sample(random);
+					}
+					if (proposal == current) { continue; }
+					double proposalProbability = conditional(table, proposal);
+					ratio = proposalProbability * documentProposal(current) /
+						(currentProbability * documentProposal(proposal));
+					if (ratio >= 1.0 || random.nextUniform() < ratio) {
+						current = proposal;
+						currentProbability = proposalProbability;
+					}
+				}
+			}
+
+			int newTopic = current;
+
+			//			Put that new topic into the counts
+			oneDocTopics[position] = newTopic;
+			tokenTopics[token] = newTopic;
+			localTopicCounts[newTopic]++;
+			tokensPerTopic[newTopic]++;
+			incrementCount(type, newTopic);
+		}
+
+		if (shouldSaveState) {
+			//			Update the document-topic count histogram,
+			//			for dirichlet estimation
+			alphaStatistics.addLength(docLength);
+		}
+
+		//		Clean up our mess, only touching the topics of this document
+		for (int position = 0; position < docLength; position++) {
+			int topic = oneDocTopics[position];
+			if (topic == ParallelTopicModel.UNASSIGNED_TOPIC || localTopicCounts[topic] == 0) { continue; }
+			if (shouldSaveState) {
+				alphaStatistics.addCount(topic, localTopicCounts[topic]);
+			}
+			localTopicCounts[topic] = 0;
+		}
+	}
+
+	/** The full conditional of a topic, up to a constant, with the current token removed from the counts. */
+	private double conditional (int[] table, int topic) {
+		return (localTopicCounts[topic] + alpha[topic]) *
+			(count(table, topic) + beta) /
+			(tokensPerTopic[topic] + betaSum);
+	}
+
+	/** The word proposal of a topic, up to a constant: n_{w|t} (this token left out) + beta. */
+	private double wordProposal (int[] table, int topic) {
+		return count(table, topic) + beta;
+	}
+
+	/**
+	 * Draw from the word proposal: the topic of a token of the word in the other workers' documents,
+	 *  of another token of the word in this worker's documents (UNASSIGNED_TOPIC if it has none yet),
+	 *  or a uniform topic, with the weights of their counts and numTopics * beta.
+	 */
+	private int sampleWordProposal (AliasTable otherTable, int[] tokens, int token, double wordMass) {
+		double sample = random.nextUniform() * wordMass;
+		if (sample < otherTable.mass) {
+			return otherTable.sample(random);
+		}
+		sample -= otherTable.mass;
+		if (sample < tokens.length - 1) {
+			int other;
+			do {
+				other = tokens[ random.nextInt(tokens.length) ];
+			} while (other == token);
+			return tokenTopics[other];
+		}
+		return random.nextInt(numTopics);
+	}
+
+	/** The document proposal of a topic, up to a constant: n_{t|d} (this token left out) + alpha_t. */
+	private double documentProposal (int topic) {
+		return localTopicCounts[topic] + alpha[topic];
+	}
+
+	private int count (int[] table, int topic) {
+		int entry = table[findSlot(table, topic)];
+		return entry == -1 ? 0 : entry >> topicBits;
+	}
+
+	private int findSlot (int[] table, int topic) {
+		int mask = table.length - 1;
+		int hash = topic * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (table[slot] != -1 && (table[slot] & topicMask) != topic) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/** Add one token of the topic to the count table of the type, growing it if needed. Returns the table. */
+	private int[] incrementCount (int type, int topic) {
+		int[] table = countTables[type];
+		int slot = findSlot(table, topic);
+		if (table[slot] != -1) {
+			table[slot] += 1 << topicBits;
+			return table;
+		}
+		if ((countTableSizes[type] + 1) * 2 > table.length) {
+			rehash(type, table.length * 2);
+			table = countTables[type];
+			slot = findSlot(table, topic);
+		}
+		table[slot] = (1 << topicBits) + topic;
+		countTableSizes[type]++;
+		return table;
+	}
+
+	private void rehash (int type, int capacity) {
+		int[] oldTable = countTables[type];
+		int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		for (int slot = 0; slot < oldTable.length; slot++) {
+			if (oldTable[slot] == -1) { continue; }
+			table[findSlot(table, oldTable[slot] & topicMask)] = oldTable[slot];
+		}
+		countTables[type] = table;
+	}
+
+	/**
+	 * Load the counts of a type into its hash table, and build the alias table of the counts
+	 *  of the other workers' documents: the counts less those of this worker's tokens, which
+	 *  have not changed since the start of the sweep.
+	 */
+	protected void prepareType (int type) {
+		int[] currentTypeTopicCounts = typeTopicCounts[type];
+		int nonZeroTopics = 0;
+		while (nonZeroTopics < currentTypeTopicCounts.length &&
+			   currentTypeTopicCounts[nonZeroTopics] > 0) {
+			nonZeroTopics++;
+		}
+
+		// Room for twice the topics, so probes stay short
+		int capacity = Math.max(4, Integer.highestOneBit(nonZeroTopics * 2 + 1) * 2);
+		int[] table = countTables[type];
+		if (table == null || table.length < capacity || table.length > 4 * capacity) {
+			table = new int[capacity];
+			countTables[type] = table;
+		}
+		Arrays.fill(table, -1);
+		for (int index = 0; index < nonZeroTopics; index++) {
+			table[findSlot(table, currentTypeTopicCounts[index] & topicMask)] = currentTypeTopicCounts[index];
+		}
+		countTableSizes[type] = nonZeroTopics;
+
+		int[] tokens = typeTokens[type];
+		for (int token : tokens) {
+			if (tokenTopics[token] != ParallelTopicModel.UNASSIGNED_TOPIC) { typeWork[tokenTopics[token]]++; }
+		}
+		AliasTable otherTable = otherTables[type];
+		int size = 0;
+		for (int index = 0; index < nonZeroTopics; index++) {
+			int topic = currentTypeTopicCounts[index] & topicMask;
+			int otherCount = (currentTypeTopicCounts[index] >> topicBits) - typeWork[topic];
+			if (otherCount <= 0) { continue; }
+			if (otherTable == null || otherTable == emptyTable || otherTable.outcomes.length < nonZeroTopics) {
+				otherTable = new AliasTable(nonZeroTopics);
+			}
+			otherTable.outcomes[size] = topic;
+			otherTable.probability[size++] = otherCount;
+		}
+		for (int token : tokens) {
+			if (tokenTopics[token] != ParallelTopicModel.UNASSIGNED_TOPIC) { typeWork[tokenTopics[token]] = 0; }
+		}
+		if (otherTable == null) {
+			otherTable = emptyTable;
+		}
+		otherTable.build(size, aliasWork);
+		otherTables[type] = otherTable;
+
+		preparedInSweep[type] = sweep;
+	}
+
+	/**
+	 *  Walker's alias table over a discrete distribution, built with Vose's method.
+	 *  Set the weights in <code>probability</code> and the outcomes, then call build.
+	 */
+	static class AliasTable {
+		int[] outcomes;
+		int[] alias;
+		double[] probability;
+		int size = 0;
+		double mass = 0.0; // sum of the weights
+
+		AliasTable(int capacity) {
+			outcomes = new int[capacity];
+			alias = new int[capacity];
+			probability = new double[capacity];
+		}
+
+		/** Build from the weights of the first <code>size</code> entries. The work array is at least as long. */
+		void build(int size, int[] work) {
+			this.size = size;
+			mass = 0.0;
+			for (int i = 0; i < size; i++) {
+				mass += probability[i];
+				alias[i] = i;
+			}
+			if (mass <= 0.0) {
+				Arrays.fill(probability, 0, size, 1.0);
+				return;
+			}
+
+			// Small entries are stacked from the front of the work array, large ones from the back
+			int numSmall = 0;
+			int firstLarge = size;
+			for (int i = 0; i < size; i++) {
+				probability[i] = probability[i] * size / mass;
+				if (probability[i] < 1.0) {
+					work[numSmall++] = i;
+				}
+				else {
+					work[--firstLarge] = i;
+				}
+			}
+
+			while (numSmall > 0 && firstLarge < size) {
+				int small = work[--numSmall];
+				int large = work[firstLarge];
+				alias[small] = large;
+				probability[large] -= 1.0 - probability[small];
+				if (probability[large] < 1.0) {
+					firstLarge++;
+					work[numSmall++] = large;
+				}
+			}
+
+			// What is left is 1 up to rounding errors
+			for (int i = 0; i < numSmall; i++) {
+				probability[work[i]] = 1.0;
+			}
+			for (int i = firstLarge; i < size; i++) {
+				probability[work[i]] = 1.0;
+			}
+		}
+
+		int sample(Randoms random) {
+			double u = random.nextUniform() * size;
+			int i = (int) u;
+			if (i >= size) { i = size - 1; }
+			return u - i < probability[i] ? outcomes[i] : outcomes[alias[i]];
+		}
+	}
+
+}
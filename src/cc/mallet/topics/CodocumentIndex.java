@@ -0,0 +1,143 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.List;
+
+import cc.mallet.types.*;
+
+/**
+ *	The positions of every word type in a corpus, for scoring many topic models
+ *	 trained on the same instances with {@link TopicModelDiagnostics}.
+ *	<p>
+ *	The index is built once. The documents in which top words of a topic co-occur
+ *	 are then found by walking the positions of those words only, rather than
+ *	 every token of the corpus. The index is read-only after construction and may
+ *	 be shared by diagnostics running on several threads.
+ */
+
+public class CodocumentIndex {
+
+	Alphabet alphabet;
+
+	int numTokens;
+	int[] docLengths; // indexed by <document index>
+	int[] wordTypeCounts; // indexed by <feature index>
+
+	// The occurrences of a type in document order, indexed by <feature index, occurrence>
+	int[][] typeDocuments;
+	int[][] typePositions;
+
+	public CodocumentIndex (InstanceList instances) {
+		alphabet = instances.getDataAlphabet();
+		FeatureSequence[] sequences = new FeatureSequence[instances.size()];
+		for (int doc = 0; doc < instances.size(); doc++) {
+			sequences[doc] = (FeatureSequence) instances.get(doc).getData();
+		}
+		index(sequences);
+	}
+
+	/** An index of the instances the model was trained on. */
+	public CodocumentIndex (ParallelTopicModel model) {
+		alphabet = model.getAlphabet();
+		List<TopicAssignment> data = model.getData();
+		FeatureSequence[] sequences = new FeatureSequence[data.size()];
+		for (int doc = 0; doc < data.size(); doc++) {
+			sequences[doc] = (FeatureSequence) data.get(doc).instance.getData();
+		}
+		index(sequences);
+	}
+
+	private void index (FeatureSequence[] sequences) {
+		int numTypes = alphabet.size();
+
+		docLengths = new int[sequences.length];
+		wordTypeCounts = new int[numTypes];
+		numTokens = 0;
+
+		for (int doc = 0; doc < sequences.length; doc++) {
+			FeatureSequence tokens = sequences[doc];
+			docLengths[doc] = tokens.getLength();
+			numTokens += tokens.getLength();
+			for (int position = 0; position < tokens.getLength(); position++) {
+				wordTypeCounts[ tokens.getIndexAtPosition(position) ]++;
+			}
+		}
+
+		typeDocuments = new int[numTypes][];
+		typePositions = new int[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			typeDocuments[type] = new int[ wordTypeCounts[type] ];
+			typePositions[type] = new int[ wordTypeCounts[type] ];
+		}
+
+		int[] filled = new int[numTypes];
+		for (int doc = 0; doc < sequences.length; doc++) {
+			FeatureSequence tokens = sequences[doc];
+			for (int position = 0; position < tokens.getLength(); position++) {
+				int type = tokens.getIndexAtPosition(position);
+				typeDocuments[type][ filled[type] ] = doc;
+				typePositions[type][ filled[type] ] = position;
+				filled[type]++;
+			}
+		}
+	}
+
+	public Alphabet getAlphabet () { return alphabet; }
+	public int size () { return docLengths.length; }
+	public int getNumTokens () { return numTokens; }
+	public int[] getWordTypeCounts () { return wordTypeCounts; }
+
+	/** Throws an IllegalArgumentException unless the model was trained on the instances of this index. */
+	public void checkModel (ParallelTopicModel model) {
+		if (model.getAlphabet().size() != alphabet.size()) {
+			throw new IllegalArgumentException ("The model has a different alphabet than the index.");
+		}
+		List<TopicAssignment> data = model.getData();
+		if (data.size() != docLengths.length) {
+			throw new IllegalArgumentException ("The model has " + data.size() + " documents, the index " + docLengths.length + ".");
+		}
+		for (int doc = 0; doc < docLengths.length; doc++) {
+			if (data.get(doc).topicSequence.getLength() != docLengths[doc]) {
+				throw new IllegalArgumentException ("Document " + doc + " has " + data.get(doc).topicSequence.getLength() +
+													" tokens in the model, " + docLengths[doc] + " in the index.");
+			}
+		}
+	}
+
+	/**
+	 *	The documents in which a type occurs with a topic in the model, in ascending order.
+	 *	@param buffer Space for the documents, at least as long as the number of occurrences of the type
+	 *	@return The number of documents written to the buffer
+	 */
+	public int getTopicDocuments (List<TopicAssignment> data, int type, int topic, int[] buffer) {
+		int[] documents = typeDocuments[type];
+		int[] positions = typePositions[type];
+		int numDocuments = 0;
+		for (int i = 0; i < documents.length; i++) {
+			int doc = documents[i];
+			if (numDocuments > 0 && buffer[numDocuments - 1] == doc) { continue; }
+			if (data.get(doc).topicSequence.getIndexAtPosition(positions[i]) == topic) {
+				buffer[numDocuments++] = doc;
+			}
+		}
+		return numDocuments;
+	}
+
+	/** The number of documents in both ascending lists. */
+	static int countShared (int[] documents1, int length1, int[] documents2, int length2) {
+		int shared = 0;
+		int i = 0, j = 0;
+		while (i < length1 && j < length2) {
+			if (documents1[i] < documents2[j]) { i++; }
+			else if (documents1[i] > documents2[j]) { j++; }
+			else { shared++; i++; j++; }
+		}
+		return shared;
+	}
+}
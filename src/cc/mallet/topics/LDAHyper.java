@@ -98,8 +98,7 @@ public class LDAHyper implements Serializable {
 	protected int[] tokensPerTopic; // indexed by <topic index>
 
 	// for dirichlet estimation
-	protected int[] docLengthCounts; // histogram of document sizes
-	protected int[][] topicDocCounts; // histogram of document/topic counts, indexed by <topic index, sequence position index>
+	protected CountHistograms alphaStatistics; // document sizes and document/topic counts
 
 	public int iterationsSoFar = 0;
 	public int numIterations = 1000;
@@ -315,8 +314,7 @@ public class LDAHyper implements Serializable {
 		System.err.println("max tokens: " + maxTokens);
 		System.err.println("total tokens: " + totalTokens);
 
-		docLengthCounts = new int[maxTokens + 1];
-		topicDocCounts = new int[numTopics][maxTokens + 1];
+		alphaStatistics = new CountHistograms(numTopics);
 	}
 	
 	public void estimate () throws IOException {
@@ -358,7 +356,7 @@ public class LDAHyper implements Serializable {
 			if (iterationsSoFar > burninPeriod && optimizeInterval != 0 &&
 				iterationsSoFar % optimizeInterval == 0) {
 
-				alphaSum = Dirichlet.learnParameters(alpha, topicDocCounts, docLengthCounts);
+				alphaSum = Dirichlet.learnParameters(alpha, alphaStatistics);
 
 				smoothingOnlyMass = 0.0;
 				for (int topic = 0; topic < numTopics; topic++) {
@@ -407,9 +405,7 @@ public class LDAHyper implements Serializable {
 	}
 	
 	private void clearHistograms() {
-		Arrays.fill(docLengthCounts, 0);
-		for (int topic = 0; topic < topicDocCounts.length; topic++)
-			Arrays.fill(topicDocCounts[topic], 0);
+		alphaStatistics.clear();
 	}
 
 	/** If topicSequence assignments are already set and accounted for in sufficient statistics, 
@@ -489,9 +485,9 @@ public class LDAHyper implements Serializable {
 
 		if (saveStateForAlphaEstimation) {
 			// Update the document-topic count histogram,	for dirichlet estimation
-			docLengthCounts[ docLen ]++;
+			alphaStatistics.addLength(docLen);
 			for (int topic=0; topic < numTopics; topic++) {
-				topicDocCounts[topic][ oneDocTopicCounts[topic] ]++;
+				alphaStatistics.addCount(topic, oneDocTopicCounts[topic]);
 			}
 		}
 	}
@@ -704,9 +700,9 @@ public class LDAHyper implements Serializable {
 		if (shouldSaveState) {
 			//			Update the document-topic count histogram,
 			//			for dirichlet estimation
-			docLengthCounts[ docLength ]++;
+			alphaStatistics.addLength(docLength);
 			for (int topic: localTopicCounts.keys()) {
-				topicDocCounts[topic][ localTopicCounts.get(topic) ]++;
+				alphaStatistics.addCount(topic, localTopicCounts.get(topic));
 			}
 		}
 	}
@@ -947,9 +943,9 @@ public class LDAHyper implements Serializable {
         if (shouldSaveState) {
             //			Update the document-topic count histogram,
             //			for dirichlet estimation
-            docLengthCounts[ docLength ]++;
+            alphaStatistics.addLength(docLength);
             for (int topic: localTopicCounts.keys()) {
-                topicDocCounts[topic][ localTopicCounts.get(topic) ]++;
+                alphaStatistics.addCount(topic, localTopicCounts.get(topic));
             }
         }
     }
@@ -1771,8 +1767,9 @@ public class LDAHyper implements Serializable {
 		out.writeObject(formatter);
 		out.writeBoolean(printLogLikelihood);
 
-		out.writeObject(docLengthCounts);
-		out.writeObject(topicDocCounts);
+		int histogramSize = alphaStatistics.getMaxLength() + 1;
+		out.writeObject(alphaStatistics.getLengthHistogram(histogramSize));
+		out.writeObject(alphaStatistics.getHistograms(histogramSize));
 
 		for (int fi = 0; fi < numTypes; fi++)
 			out.writeObject (typeTopicCounts[fi]);
@@ -1814,8 +1811,9 @@ public class LDAHyper implements Serializable {
 		formatter = (NumberFormat) in.readObject();
 		printLogLikelihood = in.readBoolean();
 
-		docLengthCounts = (int[]) in.readObject();
-		topicDocCounts = (int[][]) in.readObject();
+		int[] docLengthCounts = (int[]) in.readObject();
+		int[][] topicDocCounts = (int[][]) in.readObject();
+		alphaStatistics = CountHistograms.fromDense(topicDocCounts, docLengthCounts);
 
 		int numDocs = data.size();
 		this.numTypes = alphabet.size();
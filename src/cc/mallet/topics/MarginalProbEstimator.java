@@ -9,6 +9,13 @@ package cc.mallet.topics;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.zip.*;
 
@@ -99,43 +106,109 @@ public class MarginalProbEstimator implements Serializable {
 
 	public double evaluateLeftToRight (InstanceList testing, int numParticles, boolean usingResampling,
 									   PrintStream docProbabilityStream) {
-		random = new Randoms();
+		return evaluateLeftToRight(testing, numParticles, usingResampling, docProbabilityStream, 1);
+	}
 
-		double logNumParticles = Math.log(numParticles);
-		double totalLogLikelihood = 0;
-		for (Instance instance : testing) {
-			
-			FeatureSequence tokenSequence = (FeatureSequence) instance.getData();
+	/**
+	 *  Left-to-right evaluation with the documents shared among <code>numThreads</code> threads.
+	 *   Each thread has its own random stream and cached coefficients. The document probabilities
+	 *   are written in the order of the instance list.
+	 */
+	public double evaluateLeftToRight (final InstanceList testing, final int numParticles, final boolean usingResampling,
+									   PrintStream docProbabilityStream, int numThreads) {
+		random = new Randoms();
 
-			double docLogLikelihood = 0;
+		final double[] docLogLikelihoods = new double[testing.size()];
 
-			double[][] particleProbabilities = new double[ numParticles ][];
-			for (int particle = 0; particle < numParticles; particle++) {
-				particleProbabilities[particle] =
-					leftToRight(tokenSequence, usingResampling);
+		if (numThreads <= 1) {
+			for (int doc = 0; doc < testing.size(); doc++) {
+				docLogLikelihoods[doc] =
+					docLogLikelihood((FeatureSequence) testing.get(doc).getData(), numParticles, usingResampling,
+									 cachedCoefficients, random);
+			}
+		}
+		else {
+			// Documents are handed out one at a time, since their lengths vary a lot
+			final AtomicInteger nextDoc = new AtomicInteger(0);
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+			for (int thread = 0; thread < numThreads; thread++) {
+				final double[] threadCoefficients = cachedCoefficients.clone();
+				final Randoms threadRandom = new Randoms(random.nextInt());
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						int doc;
+						while ((doc = nextDoc.getAndIncrement()) < testing.size()) {
+							docLogLikelihoods[doc] =
+								docLogLikelihood((FeatureSequence) testing.get(doc).getData(), numParticles, usingResampling,
+												 threadCoefficients, threadRandom);
+						}
+						return null;
+					}
+				});
 			}
 
-			for (int position = 0; position < particleProbabilities[0].length; position++) {
-				double sum = 0;
-				for (int particle = 0; particle < numParticles; particle++) {
-					sum += particleProbabilities[particle][position];
-				}
-
-				if (sum > 0.0) { 
-					docLogLikelihood += Math.log(sum) - logNumParticles;
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			try {
+				for (Future<Object> future : executor.invokeAll(tasks)) {
+					future.get();
 				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Left-to-right evaluation was interrupted.", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Left-to-right evaluation failed.", e.getCause());
+			} finally {
+				executor.shutdownNow();
 			}
+		}
 
+		double totalLogLikelihood = 0;
+		for (int doc = 0; doc < docLogLikelihoods.length; doc++) {
 			if (docProbabilityStream != null) {
-				docProbabilityStream.println(docLogLikelihood);
+				docProbabilityStream.println(docLogLikelihoods[doc]);
 			}
-			totalLogLikelihood += docLogLikelihood;
+			totalLogLikelihood += docLogLikelihoods[doc];
 		}
 
 		return totalLogLikelihood;
 	}
+
+	protected double docLogLikelihood (FeatureSequence tokenSequence, int numParticles, boolean usingResampling,
+									   double[] cachedCoefficients, Randoms random) {
+
+		double logNumParticles = Math.log(numParticles);
+		double docLogLikelihood = 0;
+
+		double[][] particleProbabilities = new double[ numParticles ][];
+		for (int particle = 0; particle < numParticles; particle++) {
+			particleProbabilities[particle] =
+				leftToRight(tokenSequence, usingResampling, cachedCoefficients, random);
+		}
+
+		for (int position = 0; position < particleProbabilities[0].length; position++) {
+			double sum = 0;
+			for (int particle = 0; particle < numParticles; particle++) {
+				sum += particleProbabilities[particle][position];
+			}
+
+			if (sum > 0.0) { 
+				docLogLikelihood += Math.log(sum) - logNumParticles;
+			}
+		}
+
+		return docLogLikelihood;
+	}
 	
 	protected double[] leftToRight (FeatureSequence tokenSequence, boolean usingResampling) {
+		return leftToRight(tokenSequence, usingResampling, cachedCoefficients, random);
+	}
+
+	/**
+	 *  One left-to-right particle. The cached coefficients are changed while the document
+	 *   is sampled and restored at the end, so each thread needs its own copy.
+	 */
+	protected double[] leftToRight (FeatureSequence tokenSequence, boolean usingResampling,
+									double[] cachedCoefficients, Randoms random) {
 
 		int[] oneDocTopics = new int[tokenSequence.getLength()];
 		double[] wordProbabilities = new double[tokenSequence.getLength()];
@@ -0,0 +1,542 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.*;
+import java.text.NumberFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+import cc.mallet.types.*;
+import cc.mallet.util.MalletLogger;
+import cc.mallet.util.Randoms;
+import edu.kaist.irlab.textcontrol.TermWeight;
+
+/**
+ * Online variational Bayes for LDA (Hoffman, Blei and Bach, 2010).
+ *  The topic-word statistics are updated from each mini-batch of documents
+ *  with a decaying learning rate rho = (tau0 + batches)^-kappa, so a trained
+ *  model can absorb new documents without being retrained on the whole corpus.
+ * <p>
+ * The model keeps a variational Dirichlet parameter lambda for every topic and type.
+ *  For each batch, the topic proportions of every document are fit with the
+ *  topic-word distributions held fixed (the E step, split over threads),
+ *  and lambda moves toward the estimate it would have if the corpus were
+ *  <code>corpusSize</code> copies of the batch (the M step).
+ * <p>
+ * Types added to the alphabet by later batches start from the prior.
+ *  If a {@link TermWeight} is set, every token counts with the weight of its type,
+ *  as in the IDF weighted topic models; types without a weight count once.
+ */
+public class OnlineLDA implements Serializable {
+
+	public static Logger logger = MalletLogger.getLogger(OnlineLDA.class.getName());
+
+	protected int numTopics;
+	protected Alphabet alphabet;
+	protected int numTypes;
+
+	protected double alpha; // Dirichlet(alpha,alpha,...) is the distribution over topics
+	protected double beta;  // Prior on per-topic multinomial distribution over words
+
+	protected double[][] lambda; // indexed by <topic index, type index>, with room for new types
+	protected double[] lambdaSum; // indexed by <topic index>
+
+	protected double tau0 = 1024.0; // downweights the early batches
+	protected double kappa = 0.7; // forgetting rate, in (0.5, 1]
+	protected int corpusSize = 0; // 0 for the number of documents seen so far
+	protected int batchesSoFar = 0;
+	protected long documentsSoFar = 0;
+
+	protected int maxInferenceIterations = 100;
+	protected double meanChangeThreshold = 0.001;
+
+	protected TermWeight termWeight = null;
+	protected double[] typeWeights = null; // indexed by <type index>, null if every token counts once
+
+	protected int numThreads = 1;
+	protected Randoms random;
+	protected NumberFormat formatter;
+
+	public OnlineLDA (int numberOfTopics) {
+		this (numberOfTopics, numberOfTopics, 0.01);
+	}
+
+	public OnlineLDA (int numberOfTopics, double alphaSum, double beta) {
+		this.numTopics = numberOfTopics;
+		this.alpha = alphaSum / numTopics;
+		this.beta = beta;
+		this.random = new Randoms();
+		lambdaSum = new double[numTopics];
+
+		formatter = NumberFormat.getInstance();
+		formatter.setMaximumFractionDigits(5);
+
+		logger.info("Online LDA: " + numTopics + " topics");
+	}
+
+	public Alphabet getAlphabet() { return alphabet; }
+	public int getNumTopics() { return numTopics; }
+	public int getBatchesSoFar() { return batchesSoFar; }
+	public long getDocumentsSoFar() { return documentsSoFar; }
+
+	/**
+	 *  The learning rate of batch t is (tau0 + t)^-kappa. kappa in (0.5, 1] guarantees convergence;
+	 *   a larger tau0 gives the first batches less weight.
+	 */
+	public void setLearningRate (double tau0, double kappa) {
+		this.tau0 = tau0;
+		this.kappa = kappa;
+	}
+
+	/** The number of documents the batches stand for. 0, the default, uses the number of documents seen so far. */
+	public void setCorpusSize (int corpusSize) {
+		this.corpusSize = corpusSize;
+	}
+
+	public void setInferenceParameters (int maxIterations, double meanChangeThreshold) {
+		this.maxInferenceIterations = maxIterations;
+		this.meanChangeThreshold = meanChangeThreshold;
+	}
+
+	public void setNumThreads (int threads) {
+		this.numThreads = threads;
+	}
+
+	public void setRandomSeed (int seed) {
+		random = new Randoms(seed);
+	}
+
+	/** Count every token with the weight of its type, looked up by entry in the alphabet of the term weights. */
+	public void setTermWeight (TermWeight termWeight) {
+		this.termWeight = termWeight;
+		typeWeights = null;
+		if (alphabet != null) { growTypes(); }
+	}
+
+	/**
+	 *  Make passes over the instances in batches of <code>batchSize</code>, in order.
+	 *  If no corpus size is set, the size of the training list is used.
+	 */
+	public void estimate (InstanceList training, int batchSize, int numPasses) {
+		if (corpusSize == 0) { corpusSize = training.size(); }
+		for (int pass = 0; pass < numPasses; pass++) {
+			for (int start = 0; start < training.size(); start += batchSize) {
+				update(training.subList(start, Math.min(start + batchSize, training.size())));
+			}
+		}
+	}
+
+	/**
+	 *  Update the topic-word statistics from one batch of documents. The data of each instance
+	 *   is a FeatureSequence or a FeatureVector over the same alphabet as the earlier batches.
+	 */
+	public void update (List<Instance> batch) {
+		if (batch.isEmpty()) { return; }
+		initializeForTypes(batch.get(0).getDataAlphabet());
+
+		long batchStart = System.currentTimeMillis();
+
+		// The distinct types of the batch, and for each document the column of each of its types
+		int[] typeColumns = new int[numTypes];
+		Arrays.fill(typeColumns, -1);
+		int[] batchTypes = new int[64];
+		int numColumns = 0;
+
+		final int[][] docColumns = new int[batch.size()][];
+		final double[][] docCounts = new double[batch.size()][];
+		for (int doc = 0; doc < batch.size(); doc++) {
+			int[] types = countTypes(batch.get(doc).getData(), docCounts, doc);
+			for (int i = 0; i < types.length; i++) {
+				int type = types[i];
+				if (typeColumns[type] == -1) {
+					if (numColumns == batchTypes.length) { batchTypes = Arrays.copyOf(batchTypes, 2 * numColumns); }
+					typeColumns[type] = numColumns;
+					batchTypes[numColumns] = type;
+					numColumns++;
+				}
+				types[i] = typeColumns[type];
+			}
+			docColumns[doc] = types;
+		}
+
+		final double[][] expElogbeta = new double[numTopics][numColumns];
+		for (int topic = 0; topic < numTopics; topic++) {
+			double digammaSum = Dirichlet.digamma(lambdaSum[topic]);
+			for (int column = 0; column < numColumns; column++) {
+				expElogbeta[topic][column] =
+					Math.exp(Dirichlet.digamma(lambda[topic][batchTypes[column]]) - digammaSum);
+			}
+		}
+
+		// E step, one block of documents per thread
+		int threads = Math.max(1, Math.min(numThreads, batch.size()));
+		final double[][][] threadStats = new double[threads][][];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(threads);
+		for (int thread = 0; thread < threads; thread++) {
+			final int part = thread;
+			final int firstDoc = (int) ((long) batch.size() * thread / threads);
+			final int lastDoc = (int) ((long) batch.size() * (thread + 1) / threads);
+			final int columns = numColumns;
+			final Randoms threadRandom = new Randoms(random.nextInt());
+			tasks.add(new Callable<Object>() {
+					public Object call() {
+						double[][] sufficientStats = new double[numTopics][columns];
+						double[] gamma = new double[numTopics];
+						for (int doc = firstDoc; doc < lastDoc; doc++) {
+							inferDocument(docColumns[doc], docCounts[doc], expElogbeta, threadRandom,
+										  gamma, sufficientStats);
+						}
+						threadStats[part] = sufficientStats;
+						return null;
+					}
+				});
+		}
+		runTasks(tasks);
+
+		// M step. Types not in the batch only decay toward the prior.
+		documentsSoFar += batch.size();
+		double rho = Math.pow(tau0 + batchesSoFar, -kappa);
+		double scale = (double) (corpusSize > 0 ? corpusSize : documentsSoFar) / batch.size();
+
+		for (int topic = 0; topic < numTopics; topic++) {
+			double[] topicLambda = lambda[topic];
+			double sum = 0.0;
+			for (int type = 0; type < numTypes; type++) {
+				topicLambda[type] = (1 - rho) * topicLambda[type] + rho * beta;
+			}
+			for (int column = 0; column < numColumns; column++) {
+				double stat = 0.0;
+				for (int thread = 0; thread < threads; thread++) {
+					stat += threadStats[thread][topic][column];
+				}
+				topicLambda[batchTypes[column]] += rho * scale * stat * expElogbeta[topic][column];
+			}
+			for (int type = 0; type < numTypes; type++) {
+				sum += topicLambda[type];
+			}
+			lambdaSum[topic] = sum;
+		}
+		batchesSoFar++;
+
+		logger.fine("<" + batchesSoFar + "> " + batch.size() + " documents, " + numColumns + " types, rho " +
+					formatter.format(rho) + ", " + (System.currentTimeMillis() - batchStart) + "ms");
+	}
+
+	/**
+	 *  The distinct types of a document in ascending order, with their counts (times the type weights)
+	 *   stored in <code>counts[doc]</code>.
+	 */
+	private int[] countTypes (Object data, double[][] counts, int doc) {
+		int[] types;
+		double[] values;
+		if (data instanceof FeatureSequence) {
+			FeatureSequence tokens = (FeatureSequence) data;
+			int[] sorted = Arrays.copyOf(tokens.getFeatures(), tokens.getLength());
+			Arrays.sort(sorted);
+			int distinct = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				if (i == 0 || sorted[i] != sorted[i - 1]) { distinct++; }
+			}
+			types = new int[distinct];
+			values = new double[distinct];
+			int index = -1;
+			for (int i = 0; i < sorted.length; i++) {
+				if (i == 0 || sorted[i] != sorted[i - 1]) {
+					index++;
+					types[index] = sorted[i];
+				}
+				values[index]++;
+			}
+		}
+		else {
+			FeatureVector vector = (FeatureVector) data;
+			types = new int[vector.numLocations()];
+			values = new double[vector.numLocations()];
+			for (int location = 0; location < types.length; location++) {
+				types[location] = vector.indexAtLocation(location);
+				values[location] = vector.valueAtLocation(location);
+			}
+		}
+		if (typeWeights != null) {
+			for (int i = 0; i < types.length; i++) {
+				values[i] *= typeWeights[types[i]];
+			}
+		}
+		counts[doc] = values;
+		return types;
+	}
+
+	/**
+	 *  Fit the variational topic proportions <code>gamma</code> of one document with the topic-word
+	 *   distributions fixed, and add its expected topic counts to the sufficient statistics (if not null).
+	 *   The counts are missing the factor expElogbeta of their type, which the M step applies.
+	 */
+	private void inferDocument (int[] columns, double[] counts, double[][] expElogbeta, Randoms r,
+								double[] gamma, double[][] sufficientStats) {
+		double[] expElogtheta = new double[numTopics];
+		double[] lastGamma = new double[numTopics];
+		double[] phiNorm = new double[columns.length];
+
+		for (int topic = 0; topic < numTopics; topic++) {
+			gamma[topic] = r.nextGamma(100.0, 0.01);
+		}
+		expectedLogTheta(gamma, expElogtheta);
+		normalizers(columns, expElogbeta, expElogtheta, phiNorm);
+
+		for (int iteration = 0; iteration < maxInferenceIterations; iteration++) {
+			System.arraycopy(gamma, 0, lastGamma, 0, numTopics);
+
+			double meanChange = 0.0;
+			for (int topic = 0; topic < numTopics; topic++) {
+				double[] topicExpElogbeta = expElogbeta[topic];
+				double sum = 0.0;
+				for (int i = 0; i < columns.length; i++) {
+					sum += counts[i] / phiNorm[i] * topicExpElogbeta[columns[i]];
+				}
+				gamma[topic] = alpha + expElogtheta[topic] * sum;
+				meanChange += Math.abs(gamma[topic] - lastGamma[topic]);
+			}
+
+			expectedLogTheta(gamma, expElogtheta);
+			normalizers(columns, expElogbeta, expElogtheta, phiNorm);
+
+			if (meanChange / numTopics < meanChangeThreshold) { break; }
+		}
+
+		if (sufficientStats == null) { return; }
+		for (int topic = 0; topic < numTopics; topic++) {
+			double[] topicStats = sufficientStats[topic];
+			for (int i = 0; i < columns.length; i++) {
+				topicStats[columns[i]] += expElogtheta[topic] * counts[i] / phiNorm[i];
+			}
+		}
+	}
+
+	private void expectedLogTheta (double[] gamma, double[] expElogtheta) {
+		double gammaSum = 0.0;
+		for (int topic = 0; topic < numTopics; topic++) {
+			gammaSum += gamma[topic];
+		}
+		double digammaSum = Dirichlet.digamma(gammaSum);
+		for (int topic = 0; topic < numTopics; topic++) {
+			expElogtheta[topic] = Math.exp(Dirichlet.digamma(gamma[topic]) - digammaSum);
+		}
+	}
+
+	private void normalizers (int[] columns, double[][] expElogbeta, double[] expElogtheta, double[] phiNorm) {
+		Arrays.fill(phiNorm, 1e-100);
+		for (int topic = 0; topic < numTopics; topic++) {
+			double[] topicExpElogbeta = expElogbeta[topic];
+			for (int i = 0; i < columns.length; i++) {
+				phiNorm[i] += expElogtheta[topic] * topicExpElogbeta[columns[i]];
+			}
+		}
+	}
+
+	/**
+	 *  The expected topic proportions of a new document under the current model.
+	 *   Types that are not in the model are ignored.
+	 */
+	public double[] getTopicProbabilities (Instance instance) {
+		double[][] counts = new double[1][];
+		int[] types = countTypes(instance.getData(), counts, 0);
+
+		// Keep the types the model has seen, each in its own column
+		int known = 0;
+		for (int type : types) {
+			if (type < numTypes) { known++; }
+		}
+		int[] columns = new int[known];
+		double[] knownCounts = new double[known];
+		double[][] expElogbeta = new double[numTopics][known];
+		int column = 0;
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] >= numTypes) { continue; }
+			columns[column] = column;
+			knownCounts[column] = counts[0][i];
+			for (int topic = 0; topic < numTopics; topic++) {
+				expElogbeta[topic][column] =
+					Math.exp(Dirichlet.digamma(lambda[topic][types[i]]) - Dirichlet.digamma(lambdaSum[topic]));
+			}
+			column++;
+		}
+
+		double[] gamma = new double[numTopics];
+		inferDocument(columns, knownCounts, expElogbeta, random, gamma, null);
+
+		double sum = 0.0;
+		for (int topic = 0; topic < numTopics; topic++) {
+			sum += gamma[topic];
+		}
+		for (int topic = 0; topic < numTopics; topic++) {
+			gamma[topic] /= sum;
+		}
+		return gamma;
+	}
+
+	/** The expected probability of each type in a topic, lambda normalized. */
+	public double[] getTopicWordProbabilities (int topic) {
+		double[] probabilities = new double[numTypes];
+		for (int type = 0; type < numTypes; type++) {
+			probabilities[type] = lambda[topic][type] / lambdaSum[topic];
+		}
+		return probabilities;
+	}
+
+	/**
+	 *  Return an array of sorted sets (one set per topic). Each set
+	 *   contains IDSorter objects with integer keys into the alphabet,
+	 *   weighted by the expected word counts of the topic.
+	 */
+	public ArrayList<TreeSet<IDSorter>> getSortedWords () {
+		ArrayList<TreeSet<IDSorter>> topicSortedWords = new ArrayList<TreeSet<IDSorter>>(numTopics);
+		for (int topic = 0; topic < numTopics; topic++) {
+			TreeSet<IDSorter> sortedWords = new TreeSet<IDSorter>();
+			for (int type = 0; type < numTypes; type++) {
+				sortedWords.add(new IDSorter(type, lambda[topic][type] - beta));
+			}
+			topicSortedWords.add(sortedWords);
+		}
+		return topicSortedWords;
+	}
+
+	public void printTopWords (File file, int numWords, boolean useNewLines) throws IOException {
+		PrintStream out = new PrintStream (file);
+		printTopWords(out, numWords, useNewLines);
+		out.close();
+	}
+
+	public void printTopWords (PrintStream out, int numWords, boolean usingNewLines) {
+		ArrayList<TreeSet<IDSorter>> topicSortedWords = getSortedWords();
+
+		for (int topic = 0; topic < numTopics; topic++) {
+			Iterator<IDSorter> iterator = topicSortedWords.get(topic).iterator();
+			int word = 0;
+
+			if (usingNewLines) {
+				out.println (topic + "\t" + formatter.format(alpha));
+				while (iterator.hasNext() && word < numWords) {
+					IDSorter info = iterator.next();
+					out.println(alphabet.lookupObject(info.getID()) + "\t" + formatter.format(info.getWeight()));
+					word++;
+				}
+			}
+			else {
+				out.print (topic + "\t" + formatter.format(alpha) + "\t");
+				while (iterator.hasNext() && word < numWords) {
+					IDSorter info = iterator.next();
+					out.print(alphabet.lookupObject(info.getID()) + " ");
+					word++;
+				}
+				out.println();
+			}
+		}
+	}
+
+	// Can be safely called multiple times.  This method will complain if it can't handle the situation
+	private void initializeForTypes (Alphabet alphabet) {
+		if (this.alphabet == null) {
+			this.alphabet = alphabet;
+			lambda = new double[numTopics][0];
+		} else if (alphabet != this.alphabet) {
+			throw new IllegalArgumentException ("Cannot change Alphabet.");
+		}
+		if (alphabet.size() != numTypes) { growTypes(); }
+	}
+
+	/**
+	 *  Add the types the alphabet gained since the last batch. Before the first batch
+	 *   lambda starts near 1 for every type, as in Hoffman et al.; later types start from the prior.
+	 */
+	private void growTypes () {
+		int newNumTypes = alphabet.size();
+		boolean first = batchesSoFar == 0;
+		for (int topic = 0; topic < numTopics; topic++) {
+			double[] topicLambda = lambda[topic];
+			if (topicLambda.length < newNumTypes) {
+				topicLambda = Arrays.copyOf(topicLambda, Math.max(newNumTypes, 2 * topicLambda.length));
+				lambda[topic] = topicLambda;
+			}
+			for (int type = numTypes; type < newNumTypes; type++) {
+				topicLambda[type] = first ? random.nextGamma(100.0, 0.01) : beta;
+				lambdaSum[topic] += topicLambda[type];
+			}
+		}
+
+		if (termWeight != null) {
+			double[] weights = typeWeights == null ? new double[newNumTypes] : Arrays.copyOf(typeWeights, newNumTypes);
+			for (int type = typeWeights == null ? 0 : numTypes; type < newNumTypes; type++) {
+				int index = termWeight.typeAlphabet.lookupIndex(alphabet.lookupObject(type), false);
+				weights[type] = index >= 0 && index < termWeight.typeWeight.length ? termWeight.typeWeight[index] : 1.0;
+			}
+			typeWeights = weights;
+		}
+		numTypes = newNumTypes;
+	}
+
+	private void runTasks (List<Callable<Object>> tasks) {
+		if (tasks.size() == 1) {
+			try {
+				tasks.get(0).call();
+			} catch (Exception e) {
+				throw new IllegalStateException("Online LDA update failed.", e);
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		try {
+			for (Future<Object> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Online LDA update was interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Online LDA update failed.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+
+	public void write (File serializedModelFile) {
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream(serializedModelFile));
+			oos.writeObject(this);
+			oos.close();
+		} catch (IOException e) {
+			System.err.println("Problem serializing OnlineLDA to file " +
+							   serializedModelFile + ": " + e);
+		}
+	}
+
+	public static OnlineLDA read (File f) throws Exception {
+		ObjectInputStream ois = new ObjectInputStream (new FileInputStream(f));
+		OnlineLDA topicModel = (OnlineLDA) ois.readObject();
+		ois.close();
+		return topicModel;
+	}
+
+	public static void main (String[] args) throws Exception {
+
+		InstanceList training = InstanceList.load (new File(args[0]));
+
+		int numTopics = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+		int numPasses = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+		OnlineLDA lda = new OnlineLDA (numTopics, 50.0, 0.01);
+		lda.estimate(training, batchSize, numPasses);
+		lda.printTopWords(System.out, 10, false);
+	}
+}
@@ -74,8 +74,11 @@ public class ParallelTopicModel implements Serializable {
     public int[] tokensPerTopic; // indexed by <topic index>
 
 	// for dirichlet estimation
-	public int[] docLengthCounts; // histogram of document sizes
-	public int[][] topicDocCounts; // histogram of document/topic counts, indexed by <topic index, sequence position index>
+	public CountHistograms alphaStatistics; // document sizes and document/topic counts
+	/** @deprecated The dense histograms of the last alpha optimization, copied from {@link #alphaStatistics}. */
+	@Deprecated public int[] docLengthCounts; // histogram of document sizes
+	/** @deprecated See {@link #docLengthCounts}. */
+	@Deprecated public int[][] topicDocCounts; // histogram of document/topic counts, indexed by <topic index, sequence position index>
 
 	public int numIterations = 1000;
 	public int burninPeriod = 200; 
@@ -103,6 +106,10 @@ public class ParallelTopicModel implements Serializable {
 	
 	int numThreads = 1;
 
+	// Sample with alias tables and Metropolis-Hastings steps instead of the SparseLDA buckets
+	boolean useAliasSampler = false;
+	int numMHSteps = AliasWorkerRunnable.DEFAULT_MH_STEPS;
+
     // Instance list for empirical likelihood calculation
     protected InstanceList testing = null;
 	
@@ -198,6 +205,20 @@ public class ParallelTopicModel implements Serializable {
 		this.numThreads = threads;
 	}
 
+	/** 
+	 *  Sample each token with a few Metropolis-Hastings steps from constant-time proposals
+	 *   (see AliasWorkerRunnable). The time per token does not grow with the
+	 *   number of topics, so this is faster than the default sampler for large numbers of topics.
+	 */
+	public void setUseAliasSampler(boolean b) {
+		useAliasSampler = b;
+	}
+
+	/** The number of Metropolis-Hastings steps per token of the alias sampler. */
+	public void setNumMHSteps(int steps) {
+		numMHSteps = steps;
+	}
+
 	/** Define how often and where to save a text representation of the current state.
 	 *  Files are GZipped.
 	 *
@@ -424,47 +445,70 @@ public class ParallelTopicModel implements Serializable {
 	
 
 	public void sumTypeTopicCounts (WorkerRunnable[] runnables) {
+		sumTopicTotals(runnables);
+		sumTypeTopicCounts(runnables, 0, numTypes);
 
-		// Clear the topic totals
-		Arrays.fill(tokensPerTopic, 0);
-		
-		// Clear the type/topic counts, only 
-		//  looking at the entries before the first 0 entry.
+		/* // Debuggging code to ensure counts are being 
+		   // reconstructed correctly.
 
 		for (int type = 0; type < numTypes; type++) {
 			
 			int[] targetCounts = typeTopicCounts[type];
 			
-			int position = 0;
-			while (position < targetCounts.length && 
-				   targetCounts[position] > 0) {
-				targetCounts[position] = 0;
-				position++;
+			int index = 0;
+			int count = 0;
+			while (index < targetCounts.length &&
+				   targetCounts[index] > 0) {
+				count += targetCounts[index] >> topicBits;
+				index++;
 			}
-
+			
+			if (count != typeTotals[type]) {
+				System.err.println("Expected " + typeTotals[type] + ", found " + count);
+			}
+			
 		}
+		*/
+	}
 
-		for (int thread = 0; thread < numThreads; thread++) {
-
-			// Handle the total-tokens-per-topic array
-
+	/** Sum the workers' topic totals into the global totals. */
+	protected void sumTopicTotals (WorkerRunnable[] runnables) {
+		Arrays.fill(tokensPerTopic, 0);
+		for (int thread = 0; thread < runnables.length; thread++) {
 			int[] sourceTotals = runnables[thread].getTokensPerTopic();
 			for (int topic = 0; topic < numTopics; topic++) {
 				tokensPerTopic[topic] += sourceTotals[topic];
 			}
+		}
+	}
+
+	/**
+	 *  Merge the workers' counts into the global type/topic counts for the types
+	 *   from <code>firstType</code> up to (not including) <code>lastType</code>.
+	 *   Each type is merged on its own, so disjoint ranges can be merged by different threads.
+	 */
+	protected void sumTypeTopicCounts (WorkerRunnable[] runnables, int firstType, int lastType) {
+
+		for (int type = firstType; type < lastType; type++) {
+
+			// Clear the type/topic counts, only 
+			//  looking at the entries before the first 0 entry.
+
+			int[] targetCounts = typeTopicCounts[type];
 			
-			// Now handle the individual type topic counts
-			
-			int[][] sourceTypeTopicCounts = 
-				runnables[thread].getTypeTopicCounts();
-			
-			for (int type = 0; type < numTypes; type++) {
+			int position = 0;
+			while (position < targetCounts.length && 
+				   targetCounts[position] > 0) {
+				targetCounts[position] = 0;
+				position++;
+			}
+
+			for (int thread = 0; thread < runnables.length; thread++) {
 
 				// Here the source is the individual thread counts,
 				//  and the target is the global counts.
 
-				int[] sourceCounts = sourceTypeTopicCounts[type];
-				int[] targetCounts = typeTopicCounts[type];
+				int[] sourceCounts = runnables[thread].getTypeTopicCounts()[type];
 
 				int sourceIndex = 0;
 				while (sourceIndex < sourceCounts.length &&
@@ -502,31 +546,72 @@ public class ParallelTopicModel implements Serializable {
 					
 					sourceIndex++;
 				}
-				
 			}
 		}
+	}
 
-		/* // Debuggging code to ensure counts are being 
-		   // reconstructed correctly.
+	/** Copy the global type/topic counts of a range of types back to every worker. */
+	protected void copyTypeTopicCounts (WorkerRunnable[] runnables, int firstType, int lastType) {
 
-		for (int type = 0; type < numTypes; type++) {
-			
-			int[] targetCounts = typeTopicCounts[type];
-			
-			int index = 0;
-			int count = 0;
-			while (index < targetCounts.length &&
-				   targetCounts[index] > 0) {
-				count += targetCounts[index] >> topicBits;
-				index++;
+		for (int thread = 0; thread < runnables.length; thread++) {
+			int[][] runnableCounts = runnables[thread].getTypeTopicCounts();
+			for (int type = firstType; type < lastType; type++) {
+				int[] targetCounts = runnableCounts[type];
+				int[] sourceCounts = typeTopicCounts[type];
+				
+				int index = 0;
+				while (index < sourceCounts.length) {
+					
+					if (sourceCounts[index] != 0) {
+						targetCounts[index] = sourceCounts[index];
+					}
+					else if (targetCounts[index] != 0) {
+						targetCounts[index] = 0;
+					}
+					else {
+						break;
+					}
+					
+					index++;
+				}
 			}
-			
-			if (count != typeTotals[type]) {
-				System.err.println("Expected " + typeTotals[type] + ", found " + count);
+		}
+	}
+
+	/**
+	 *  One merge task per thread, each with a range of types holding about the same
+	 *   number of count entries. A task sums the workers' counts for its types and copies
+	 *   the result back to the workers.
+	 */
+	protected List<Callable<Object>> makeMergeTasks (final WorkerRunnable[] runnables) {
+		long totalEntries = 0;
+		for (int type = 0; type < numTypes; type++) {
+			totalEntries += typeTopicCounts[type].length;
+		}
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+		int firstType = 0;
+		long entries = 0;
+		for (int thread = 0; thread < numThreads; thread++) {
+			long targetEntries = totalEntries * (thread + 1) / numThreads;
+			int lastType = firstType;
+			while (lastType < numTypes && (entries < targetEntries || thread == numThreads - 1)) {
+				entries += typeTopicCounts[lastType].length;
+				lastType++;
 			}
-			
+
+			final int from = firstType;
+			final int to = lastType;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					sumTypeTopicCounts(runnables, from, to);
+					copyTypeTopicCounts(runnables, from, to);
+					return null;
+				}
+			});
+			firstType = lastType;
 		}
-		*/
+		return tasks;
 	}
 	
 
@@ -552,63 +637,42 @@ public class ParallelTopicModel implements Serializable {
 		logger.info("max tokens: " + maxTokens);
 		logger.info("total tokens: " + totalTokens);
 
+		alphaStatistics = new CountHistograms(numTopics);
 		docLengthCounts = new int[maxTokens + 1];
 		topicDocCounts = new int[numTopics][maxTokens + 1];
 	}
+
+	// Keep the deprecated dense histograms as they were after an optimization
+	private void copyDenseHistograms() {
+		int size = Math.max(docLengthCounts == null ? 0 : docLengthCounts.length, alphaStatistics.getMaxLength() + 1);
+		docLengthCounts = alphaStatistics.getLengthHistogram(size);
+		topicDocCounts = alphaStatistics.getHistograms(size);
+	}
 	
 	public void optimizeAlpha(WorkerRunnable[] runnables) {
+		optimizeAlpha(runnables, null);
+	}
+
+	/** Estimate alpha from the workers' histograms. The topics are split over the executor, if it is not null. */
+	public void optimizeAlpha(WorkerRunnable[] runnables, ExecutorService executor) {
 
 		// First clear the sufficient statistic histograms
 
-		Arrays.fill(docLengthCounts, 0);
-		for (int topic = 0; topic < topicDocCounts.length; topic++) {
-			Arrays.fill(topicDocCounts[topic], 0);
-		}
+		alphaStatistics.clear();
 
 		for (int thread = 0; thread < numThreads; thread++) {
-			int[] sourceLengthCounts = runnables[thread].getDocLengthCounts();
-			int[][] sourceTopicCounts = runnables[thread].getTopicDocCounts();
-
-			for (int count=0; count < sourceLengthCounts.length; count++) {
-				if (sourceLengthCounts[count] > 0) {
-					docLengthCounts[count] += sourceLengthCounts[count];
-					sourceLengthCounts[count] = 0;
-				}
-			}
-
-			for (int topic=0; topic < numTopics; topic++) {
-
-				if (! usingSymmetricAlpha) { //SymmetricAlpha true is better for MyExp
-					for (int count=0; count < sourceTopicCounts[topic].length; count++) {
-						if (sourceTopicCounts[topic][count] > 0) {
-							topicDocCounts[topic][count] += sourceTopicCounts[topic][count];
-							sourceTopicCounts[topic][count] = 0;
-						}
-					}
-				}
-				else {
-					// For the symmetric version, we only need one 
-					//  count array, which I'm putting in the same 
-					//  data structure, but for topic 0. All other
-					//  topic histograms will be empty.
-					// I'm duplicating this for loop, which 
-					//  isn't the best thing, but it means only checking
-					//  whether we are symmetric or not numTopics times, 
-					//  instead of numTopics * longest document length.
-					for (int count=0; count < sourceTopicCounts[topic].length; count++) {
-						if (sourceTopicCounts[topic][count] > 0) {
-							topicDocCounts[0][count] += sourceTopicCounts[topic][count];
-							//			 ^ the only change
-							sourceTopicCounts[topic][count] = 0;
-						}
-					}
-				}
-			}
+			CountHistograms sourceStatistics = runnables[thread].getAlphaStatistics();
+			alphaStatistics.addAll(sourceStatistics);
+			sourceStatistics.clear();
 		}
+		copyDenseHistograms();
 
 		if (usingSymmetricAlpha) {
-			alphaSum = Dirichlet.learnSymmetricConcentration(topicDocCounts[0],
-															 docLengthCounts,
+			// For the symmetric version, we only need one 
+			//  count array, summed over all topics.
+			int size = alphaStatistics.getMaxLength() + 1;
+			alphaSum = Dirichlet.learnSymmetricConcentration(alphaStatistics.getSummedHistogram(size),
+															 alphaStatistics.getLengthHistogram(size),
 															 numTopics,
 															 alphaSum);
 			for (int topic = 0; topic < numTopics; topic++) {
@@ -616,7 +680,7 @@ public class ParallelTopicModel implements Serializable {
 			}
 		}
 		else {
-			alphaSum = Dirichlet.learnParameters(alpha, topicDocCounts, docLengthCounts, 1.001, 1.0, 1);
+			alphaSum = Dirichlet.learnParameters(alpha, alphaStatistics, 1.001, 1.0, 1, executor, numThreads);
 		}
 	}
 
@@ -624,30 +688,12 @@ public class ParallelTopicModel implements Serializable {
 		
 		// First clear the sufficient statistic histograms
 
-		Arrays.fill(docLengthCounts, 0);
-		for (int topic = 0; topic < topicDocCounts.length; topic++) {
-			Arrays.fill(topicDocCounts[topic], 0);
-		}
+		alphaStatistics.clear();
 
 		for (int thread = 0; thread < numThreads; thread++) {
-			int[] sourceLengthCounts = runnables[thread].getDocLengthCounts();
-			int[][] sourceTopicCounts = runnables[thread].getTopicDocCounts();
-
-			for (int count=0; count < sourceLengthCounts.length; count++) {
-				if (sourceLengthCounts[count] > 0) {
-					sourceLengthCounts[count] = 0;
-				}
-			}
-
-			for (int topic=0; topic < numTopics; topic++) {
-
-				for (int count=0; count < sourceTopicCounts[topic].length; count++) {
-					if (sourceTopicCounts[topic][count] > 0) {
-						sourceTopicCounts[topic][count] = 0;
-					}
-				}
-			}
+			runnables[thread].getAlphaStatistics().clear();
 		}
+		copyDenseHistograms();
 
 		for (int topic = 0; topic < numTopics; topic++) {
 			alpha[topic] = 1.0;
@@ -741,13 +787,11 @@ public class ParallelTopicModel implements Serializable {
 					random = new Randoms(randomSeed);
 				}
 
-				runnables[thread] = new WorkerRunnable(numTopics,
-													   alpha, alphaSum, beta,
-													   random, data,
-													   runnableCounts, runnableTotals,
-													   offset, docsPerThread);
+				runnables[thread] = newWorkerRunnable(random,
+													  runnableCounts, runnableTotals,
+													  offset, docsPerThread);
 				
-				runnables[thread].initializeAlphaStatistics(docLengthCounts.length);
+				runnables[thread].initializeAlphaStatistics();
 				
 				offset += docsPerThread;
 			
@@ -766,13 +810,11 @@ public class ParallelTopicModel implements Serializable {
 				random = new Randoms(randomSeed);
 			}
 
-			runnables[0] = new WorkerRunnable(numTopics,
-											  alpha, alphaSum, beta,
-											  random, data,
-											  typeTopicCounts, tokensPerTopic,
-											  offset, docsPerThread);
+			runnables[0] = newWorkerRunnable(random,
+											 typeTopicCounts, tokensPerTopic,
+											 offset, docsPerThread);
 
-			runnables[0].initializeAlphaStatistics(docLengthCounts.length);
+			runnables[0].initializeAlphaStatistics();
 
 			// If there is only one thread, we 
 			//  can avoid communications overhead.
@@ -782,6 +824,10 @@ public class ParallelTopicModel implements Serializable {
 		}
 
 		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Callable<Object>> mergeTasks = null;
+		if (numThreads > 1) {
+			mergeTasks = makeMergeTasks(runnables);
+		}
 	
 		for (int iteration = 1; iteration <= numIterations; iteration++) {
 
@@ -801,8 +847,10 @@ public class ParallelTopicModel implements Serializable {
 
 			if (numThreads > 1) {
 			
-				// Submit runnables to thread pool
-				
+				// Submit runnables to thread pool. Waiting on all the futures
+				//  is the barrier at the end of the sweep.
+
+				List<Callable<Object>> samplers = new ArrayList<Callable<Object>>(numThreads);
 				for (int thread = 0; thread < numThreads; thread++) {
 					if (iteration > burninPeriod && optimizeInterval != 0 &&
 						iteration % saveSampleInterval == 0) {
@@ -810,72 +858,22 @@ public class ParallelTopicModel implements Serializable {
 					}
 					
 					logger.fine("submitting thread " + thread);
-					executor.submit(runnables[thread]);
-					//runnables[thread].run();
-				}
-				
-				// I'm getting some problems that look like 
-				//  a thread hasn't started yet when it is first
-				//  polled, so it appears to be finished. 
-				// This only occurs in very short corpora.
-				try {
-					Thread.sleep(20);
-				} catch (InterruptedException e) {
-					
-				}
-				
-				boolean finished = false;
-				while (! finished) {
-					
-					try {
-						Thread.sleep(10);
-					} catch (InterruptedException e) {
-						
-					}
-					
-					finished = true;
-					
-					// Are all the threads done?
-					for (int thread = 0; thread < numThreads; thread++) {
-						//logger.info("thread " + thread + " done? " + runnables[thread].isFinished);
-						finished = finished && runnables[thread].isFinished;
-					}
-					
+					samplers.add(Executors.callable(runnables[thread]));
 				}
+				invokeAllAndWait(executor, samplers);
 				
 				//System.out.print("[" + (System.currentTimeMillis() - iterationStart) + "] ");
 				
-				sumTypeTopicCounts(runnables);
-				
-				//System.out.print("[" + (System.currentTimeMillis() - iterationStart) + "] ");
-				
+				// Sum the counts and copy them back to the workers,
+				//  with the types split between the threads.
+
+				sumTopicTotals(runnables);
 				for (int thread = 0; thread < numThreads; thread++) {
-					int[] runnableTotals = runnables[thread].getTokensPerTopic();
-					System.arraycopy(tokensPerTopic, 0, runnableTotals, 0, numTopics);
-					
-					int[][] runnableCounts = runnables[thread].getTypeTopicCounts();
-					for (int type = 0; type < numTypes; type++) {
-						int[] targetCounts = runnableCounts[type];
-						int[] sourceCounts = typeTopicCounts[type];
-						
-						int index = 0;
-						while (index < sourceCounts.length) {
-							
-							if (sourceCounts[index] != 0) {
-								targetCounts[index] = sourceCounts[index];
-							}
-							else if (targetCounts[index] != 0) {
-								targetCounts[index] = 0;
-							}
-							else {
-								break;
-							}
-							
-							index++;
-						}
-						//System.arraycopy(typeTopicCounts[type], 0, counts, 0, counts.length);
-					}
+					System.arraycopy(tokensPerTopic, 0, runnables[thread].getTokensPerTopic(), 0, numTopics);
 				}
+				invokeAllAndWait(executor, mergeTasks);
+				
+				//System.out.print("[" + (System.currentTimeMillis() - iterationStart) + "] ");
 			}
 			else {
 				if (iteration > burninPeriod && optimizeInterval != 0 &&
@@ -896,7 +894,7 @@ public class ParallelTopicModel implements Serializable {
 			if (iteration > burninPeriod && optimizeInterval != 0 &&
 				iteration % optimizeInterval == 0) {
 
-				optimizeAlpha(runnables);
+				optimizeAlpha(runnables, executor);
 				optimizeBeta(runnables);
 				
 				logger.fine("[O " + (System.currentTimeMillis() - iterationStart) + "] ");
@@ -929,6 +927,41 @@ public class ParallelTopicModel implements Serializable {
 		logger.info(timeReport.toString());
 	}
 	
+	/** Create the sampler of one thread, for the documents from <code>startDoc</code>. */
+	protected WorkerRunnable newWorkerRunnable (Randoms random,
+												int[][] runnableCounts, int[] runnableTotals,
+												int startDoc, int numDocs) {
+		if (useAliasSampler) {
+			AliasWorkerRunnable runnable =
+				new AliasWorkerRunnable(numTopics,
+										alpha, alphaSum, beta,
+										random, data,
+										runnableCounts, runnableTotals,
+										startDoc, numDocs);
+			runnable.setNumMHSteps(numMHSteps);
+			return runnable;
+		}
+		return new WorkerRunnable(numTopics,
+								  alpha, alphaSum, beta,
+								  random, data,
+								  runnableCounts, runnableTotals,
+								  startDoc, numDocs);
+	}
+
+	/** Run the tasks on the pool and wait until all of them are done. */
+	private static void invokeAllAndWait (ExecutorService executor, List<Callable<Object>> tasks) throws IOException {
+		try {
+			for (Future<Object> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Topic sampling was interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Topic sampling failed.", e.getCause());
+		}
+	}
+	
 	public void printTopWords (File file, int numWords, boolean useNewLines) throws IOException {
 		PrintStream out = new PrintStream (file);
 		printTopWords(out, numWords, useNewLines);
@@ -1729,8 +1762,10 @@ public class ParallelTopicModel implements Serializable {
 		out.writeObject(typeTopicCounts);
 		out.writeObject(tokensPerTopic);
 
-		out.writeObject(docLengthCounts);
-		out.writeObject(topicDocCounts);
+		// The histograms are written dense, as before
+		int histogramSize = alphaStatistics.getMaxLength() + 1;
+		out.writeObject(alphaStatistics.getLengthHistogram(histogramSize));
+		out.writeObject(alphaStatistics.getHistograms(histogramSize));
 
 		out.writeInt(numIterations);
 		out.writeInt(burninPeriod);
@@ -1777,6 +1812,7 @@ public class ParallelTopicModel implements Serializable {
 		
 		docLengthCounts = (int[]) in.readObject();
 		topicDocCounts = (int[][]) in.readObject();
+		alphaStatistics = CountHistograms.fromDense(topicDocCounts, docLengthCounts);
 	
 		numIterations = in.readInt();
 		burninPeriod = in.readInt();
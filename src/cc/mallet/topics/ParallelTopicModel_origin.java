@@ -69,8 +69,7 @@ public class ParallelTopicModel_origin implements Serializable {
 	public int[] tokensPerTopic; // indexed by <topic index>
 
 	// for dirichlet estimation
-	public int[] docLengthCounts; // histogram of document sizes
-	public int[][] topicDocCounts; // histogram of document/topic counts, indexed by <topic index, sequence position index>
+	public CountHistograms alphaStatistics; // document sizes and document/topic counts
 
 	public int numIterations = 1000;
 	public int burninPeriod = 200; 
@@ -539,63 +538,32 @@ public class ParallelTopicModel_origin implements Serializable {
 		logger.info("max tokens: " + maxTokens);
 		logger.info("total tokens: " + totalTokens);
 
-		docLengthCounts = new int[maxTokens + 1];
-		topicDocCounts = new int[numTopics][maxTokens + 1];
+		alphaStatistics = new CountHistograms(numTopics);
 	}
 	
 	public void optimizeAlpha(WorkerRunnable[] runnables) {
+		optimizeAlpha(runnables, null);
+	}
+
+	/** Estimate alpha from the workers' histograms. The topics are split over the executor, if it is not null. */
+	public void optimizeAlpha(WorkerRunnable[] runnables, ExecutorService executor) {
 
 		// First clear the sufficient statistic histograms
 
-		Arrays.fill(docLengthCounts, 0);
-		for (int topic = 0; topic < topicDocCounts.length; topic++) {
-			Arrays.fill(topicDocCounts[topic], 0);
-		}
+		alphaStatistics.clear();
 
 		for (int thread = 0; thread < numThreads; thread++) {
-			int[] sourceLengthCounts = runnables[thread].getDocLengthCounts();
-			int[][] sourceTopicCounts = runnables[thread].getTopicDocCounts();
-
-			for (int count=0; count < sourceLengthCounts.length; count++) {
-				if (sourceLengthCounts[count] > 0) {
-					docLengthCounts[count] += sourceLengthCounts[count];
-					sourceLengthCounts[count] = 0;
-				}
-			}
-
-			for (int topic=0; topic < numTopics; topic++) {
-
-				if (! usingSymmetricAlpha) {
-					for (int count=0; count < sourceTopicCounts[topic].length; count++) {
-						if (sourceTopicCounts[topic][count] > 0) {
-							topicDocCounts[topic][count] += sourceTopicCounts[topic][count];
-							sourceTopicCounts[topic][count] = 0;
-						}
-					}
-				}
-				else {
-					// For the symmetric version, we only need one 
-					//  count array, which I'm putting in the same 
-					//  data structure, but for topic 0. All other
-					//  topic histograms will be empty.
-					// I'm duplicating this for loop, which 
-					//  isn't the best thing, but it means only checking
-					//  whether we are symmetric or not numTopics times, 
-					//  instead of numTopics * longest document length.
-					for (int count=0; count < sourceTopicCounts[topic].length; count++) {
-						if (sourceTopicCounts[topic][count] > 0) {
-							topicDocCounts[0][count] += sourceTopicCounts[topic][count];
-							//			 ^ the only change
-							sourceTopicCounts[topic][count] = 0;
-						}
-					}
-				}
-			}
+			CountHistograms sourceStatistics = runnables[thread].getAlphaStatistics();
+			alphaStatistics.addAll(sourceStatistics);
+			sourceStatistics.clear();
 		}
 
 		if (usingSymmetricAlpha) {
-			alphaSum = Dirichlet.learnSymmetricConcentration(topicDocCounts[0],
-															 docLengthCounts,
+			// For the symmetric version, we only need one 
+			//  count array, summed over all topics.
+			int size = alphaStatistics.getMaxLength() + 1;
+			alphaSum = Dirichlet.learnSymmetricConcentration(alphaStatistics.getSummedHistogram(size),
+															 alphaStatistics.getLengthHistogram(size),
 															 numTopics,
 															 alphaSum);
 			for (int topic = 0; topic < numTopics; topic++) {
@@ -603,7 +571,7 @@ public class ParallelTopicModel_origin implements Serializable {
 			}
 		}
 		else {
-			alphaSum = Dirichlet.learnParameters(alpha, topicDocCounts, docLengthCounts, 1.001, 1.0, 1);
+			alphaSum = Dirichlet.learnParameters(alpha, alphaStatistics, 1.001, 1.0, 1, executor, numThreads);
 		}
 	}
 
@@ -611,29 +579,10 @@ public class ParallelTopicModel_origin implements Serializable {
 		
 		// First clear the sufficient statistic histograms
 
-		Arrays.fill(docLengthCounts, 0);
-		for (int topic = 0; topic < topicDocCounts.length; topic++) {
-			Arrays.fill(topicDocCounts[topic], 0);
-		}
+		alphaStatistics.clear();
 
 		for (int thread = 0; thread < numThreads; thread++) {
-			int[] sourceLengthCounts = runnables[thread].getDocLengthCounts();
-			int[][] sourceTopicCounts = runnables[thread].getTopicDocCounts();
-
-			for (int count=0; count < sourceLengthCounts.length; count++) {
-				if (sourceLengthCounts[count] > 0) {
-					sourceLengthCounts[count] = 0;
-				}
-			}
-
-			for (int topic=0; topic < numTopics; topic++) {
-
-				for (int count=0; count < sourceTopicCounts[topic].length; count++) {
-					if (sourceTopicCounts[topic][count] > 0) {
-						sourceTopicCounts[topic][count] = 0;
-					}
-				}
-			}
+			runnables[thread].getAlphaStatistics().clear();
 		}
 
 		for (int topic = 0; topic < numTopics; topic++) {
@@ -734,7 +683,7 @@ public class ParallelTopicModel_origin implements Serializable {
 													   runnableCounts, runnableTotals,
 													   offset, docsPerThread);
 				
-				runnables[thread].initializeAlphaStatistics(docLengthCounts.length);
+				runnables[thread].initializeAlphaStatistics();
 				
 				offset += docsPerThread;
 			
@@ -759,7 +708,7 @@ public class ParallelTopicModel_origin implements Serializable {
 											  typeTopicCounts, tokensPerTopic,
 											  offset, docsPerThread);
 
-			runnables[0].initializeAlphaStatistics(docLengthCounts.length);
+			runnables[0].initializeAlphaStatistics();
 
 			// If there is only one thread, we 
 			//  can avoid communications overhead.
@@ -1571,8 +1520,10 @@ public class ParallelTopicModel_origin implements Serializable {
 		out.writeObject(typeTopicCounts);
 		out.writeObject(tokensPerTopic);
 
-		out.writeObject(docLengthCounts);
-		out.writeObject(topicDocCounts);
+		// The histograms are written dense, as before
+		int histogramSize = alphaStatistics.getMaxLength() + 1;
+		out.writeObject(alphaStatistics.getLengthHistogram(histogramSize));
+		out.writeObject(alphaStatistics.getHistograms(histogramSize));
 
 		out.writeInt(numIterations);
 		out.writeInt(burninPeriod);
@@ -1617,8 +1568,9 @@ public class ParallelTopicModel_origin implements Serializable {
 		typeTopicCounts = (int[][]) in.readObject();
 		tokensPerTopic = (int[]) in.readObject();
 		
-		docLengthCounts = (int[]) in.readObject();
-		topicDocCounts = (int[][]) in.readObject();
+		int[] docLengthCounts = (int[]) in.readObject();
+		int[][] topicDocCounts = (int[][]) in.readObject();
+		alphaStatistics = CountHistograms.fromDense(topicDocCounts, docLengthCounts);
 	
 		numIterations = in.readInt();
 		burninPeriod = in.readInt();
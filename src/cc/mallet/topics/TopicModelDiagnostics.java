@@ -2,6 +2,7 @@ package cc.mallet.topics;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.text.*;
 
 import cc.mallet.types.*;
@@ -42,6 +43,91 @@ public class TopicModelDiagnostics {
 	int numTokens = 0;
 
 	public TopicModelDiagnostics (ParallelTopicModel model, int numTopWords) {
+		initialize(model, numTopWords);
+		collectDocumentStatistics();
+		addDiagnostics();
+	}
+
+	/**
+	 *	Score a model against an index of the instances it was trained on. The
+	 *	 document statistics are gathered over ranges of documents and the
+	 *	 co-document counts over groups of topics, on the executor. The scores
+	 *	 are the same as those of {@link #TopicModelDiagnostics(ParallelTopicModel, int)}.
+	 *
+	 *	@param executor Runs the ranges, or null to run them on this thread
+	 */
+	public TopicModelDiagnostics (ParallelTopicModel model, int numTopWords,
+								  CodocumentIndex index, ExecutorService executor, int numTasks) {
+		index.checkModel(model);
+		initialize(model, numTopWords);
+		collectDocumentStatistics(index, executor, executor == null ? 1 : numTasks);
+		addDiagnostics();
+	}
+
+	/**
+	 *	Score several models trained on the instances of the index. With more than one
+	 *	 model, each model is scored on its own thread; a single model is split into ranges.
+	 */
+	public static List<TopicModelDiagnostics> score (List<ParallelTopicModel> models, final int numTopWords,
+													 final CodocumentIndex index, int numThreads) {
+		List<TopicModelDiagnostics> results = new ArrayList<TopicModelDiagnostics>(models.size());
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			if (models.size() == 1) {
+				results.add(new TopicModelDiagnostics(models.get(0), numTopWords, index, executor, numThreads));
+				return results;
+			}
+
+			List<Callable<TopicModelDiagnostics>> tasks = new ArrayList<Callable<TopicModelDiagnostics>>(models.size());
+			for (final ParallelTopicModel model: models) {
+				tasks.add(new Callable<TopicModelDiagnostics>() {
+						public TopicModelDiagnostics call() {
+							return new TopicModelDiagnostics(model, numTopWords, index, null, 1);
+						}
+					});
+			}
+			for (Future<TopicModelDiagnostics> future: invokeAllAndWait(executor, tasks)) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Topic diagnostics were interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Topic diagnostics failed.", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/** Run the tasks, on this thread if there is no executor, and rethrow the first failure. */
+	private static <T> List<Future<T>> invokeAllAndWait (ExecutorService executor, List<? extends Callable<T>> tasks) {
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		try {
+			if (executor == null) {
+				for (Callable<T> task: tasks) {
+					FutureTask<T> future = new FutureTask<T>(task);
+					future.run();
+					futures.add(future);
+				}
+			}
+			else {
+				futures.addAll(executor.invokeAll(tasks));
+			}
+			for (Future<T> future: futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Topic diagnostics were interrupted.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+			throw new IllegalStateException("Topic diagnostics failed.", e.getCause());
+		}
+		return futures;
+	}
+
+	private void initialize (ParallelTopicModel model, int numTopWords) {
 		numTopics = model.getNumTopics();
 		this.numTopWords = numTopWords;
 
@@ -76,9 +162,9 @@ public class TopicModelDiagnostics {
 			}
 
 		}
+	}
 
-		collectDocumentStatistics();
-		
+	private void addDiagnostics () {
 		diagnostics.add(getTokensPerTopic(model.tokensPerTopic));
 		diagnostics.add(getDocumentEntropy(model.tokensPerTopic));
 		diagnostics.add(getWordLengthScores());
@@ -207,6 +293,149 @@ public class TopicModelDiagnostics {
 		}
 	}
 
+	/**
+	 *	Gather the same statistics as {@link #collectDocumentStatistics()}, with the corpus
+	 *	 counts and the co-document counts taken from the index.
+	 */
+	public void collectDocumentStatistics (final CodocumentIndex index, ExecutorService executor, int numTasks) {
+
+		topicCodocumentMatrices = new int[numTopics][numTopWords][numTopWords];
+		wordTypeCounts = index.getWordTypeCounts();
+		numTokens = index.getNumTokens();
+
+		final List<TopicAssignment> data = model.getData();
+		int numDocs = data.size();
+		numTasks = Math.max(1, Math.min(numTasks, Math.max(numDocs, numTopics)));
+
+		List<Callable<DocumentStatistics>> documentTasks = new ArrayList<Callable<DocumentStatistics>>(numTasks);
+		int docsPerTask = numDocs / numTasks;
+		int startDoc = 0;
+		for (int task = 0; task < numTasks; task++) {
+			final int start = startDoc;
+			final int end = task == numTasks - 1 ? numDocs : startDoc + docsPerTask;
+			documentTasks.add(new Callable<DocumentStatistics>() {
+					public DocumentStatistics call() {
+						DocumentStatistics statistics = new DocumentStatistics();
+						for (int doc = start; doc < end; doc++) {
+							statistics.add((FeatureSequence) data.get(doc).topicSequence);
+						}
+						return statistics;
+					}
+				});
+			startDoc = end;
+		}
+
+		List<Callable<Object>> codocumentTasks = new ArrayList<Callable<Object>>(numTasks);
+		for (int task = 0; task < numTasks; task++) {
+			final int firstTopic = task;
+			final int topicStep = numTasks;
+			codocumentTasks.add(new Callable<Object>() {
+					public Object call() {
+						for (int topic = firstTopic; topic < numTopics; topic += topicStep) {
+							collectCodocumentCounts(index, data, topic);
+						}
+						return null;
+					}
+				});
+		}
+
+		List<Future<DocumentStatistics>> documentFutures = invokeAllAndWait(executor, documentTasks);
+		invokeAllAndWait(executor, codocumentTasks);
+
+		// Add the ranges in order, so the sums do not depend on scheduling
+		try {
+			for (Future<DocumentStatistics> future: documentFutures) {
+				DocumentStatistics statistics = future.get();
+				for (int topic = 0; topic < numTopics; topic++) {
+					numRank1Documents[topic] += statistics.numRank1Documents[topic];
+					numNonZeroDocuments[topic] += statistics.numNonZeroDocuments[topic];
+					sumCountTimesLogCount[topic] += statistics.sumCountTimesLogCount[topic];
+					for (int i = 0; i < DEFAULT_DOC_PROPORTIONS.length; i++) {
+						numDocumentsAtProportions[topic][i] += statistics.numDocumentsAtProportions[topic][i];
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Topic diagnostics were interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Topic diagnostics failed.", e.getCause());
+		}
+	}
+
+	/** Count the documents in which pairs of top words of a topic occur with that topic. */
+	private void collectCodocumentCounts (CodocumentIndex index, List<TopicAssignment> data, int topic) {
+		int[][] matrix = topicCodocumentMatrices[topic];
+		int[][] wordDocuments = new int[numTopWords][];
+		int[] numWordDocuments = new int[numTopWords];
+
+		for (int i = 0; i < numTopWords; i++) {
+			if (topicTopWords[topic][i] == null) {
+				wordDocuments[i] = new int[0];
+				continue;
+			}
+			int type = alphabet.lookupIndex(topicTopWords[topic][i], false);
+			wordDocuments[i] = new int[ wordTypeCounts[type] ];
+			numWordDocuments[i] = index.getTopicDocuments(data, type, topic, wordDocuments[i]);
+
+			// Diagonals are total number of documents with word W in topic T
+			matrix[i][i] = numWordDocuments[i];
+			for (int j = 0; j < i; j++) {
+				int shared = CodocumentIndex.countShared(wordDocuments[i], numWordDocuments[i],
+														 wordDocuments[j], numWordDocuments[j]);
+				matrix[i][j] = shared;
+				matrix[j][i] = shared;
+			}
+		}
+	}
+
+	/** The per-document statistics of a range of documents. */
+	private class DocumentStatistics {
+		int[] numRank1Documents = new int[numTopics];
+		int[] numNonZeroDocuments = new int[numTopics];
+		int[][] numDocumentsAtProportions = new int[numTopics][ DEFAULT_DOC_PROPORTIONS.length ];
+		double[] sumCountTimesLogCount = new double[numTopics];
+
+		int[] topicCounts = new int[numTopics];
+
+		void add (FeatureSequence topics) {
+			int docLength = topics.size();
+			if (docLength == 0) { return; }
+
+			for (int position = 0; position < docLength; position++) {
+				topicCounts[ topics.getIndexAtPosition(position) ]++;
+			}
+
+			int maxTopic = -1;
+			int maxCount = -1;
+
+			for (int topic = 0; topic < numTopics; topic++) {
+				if (topicCounts[topic] > 0) {
+					numNonZeroDocuments[topic]++;
+
+					if (topicCounts[topic] > maxCount) {
+						maxTopic = topic;
+						maxCount = topicCounts[topic];
+					}
+
+					sumCountTimesLogCount[topic] += topicCounts[topic] * Math.log(topicCounts[topic]);
+
+					double proportion = (model.alpha[topic] + topicCounts[topic]) / (model.alphaSum + docLength);
+					for (int i = 0; i < DEFAULT_DOC_PROPORTIONS.length; i++) {
+						if (proportion < DEFAULT_DOC_PROPORTIONS[i]) { break; }
+						numDocumentsAtProportions[topic][i]++;
+					}
+
+					topicCounts[topic] = 0;
+				}
+			}
+
+			if (maxTopic > -1) {
+				numRank1Documents[maxTopic]++;
+			}
+		}
+	}
+
 	public int[][] getCodocumentMatrix(int topic) {
 		return topicCodocumentMatrices[topic];
 	}
@@ -53,8 +53,7 @@ public class WorkerRunnable implements Runnable {
 	protected int[] tokensPerTopic; // indexed by <topic index>
 
 	// for dirichlet estimation
-	protected int[] docLengthCounts; // histogram of document sizes
-	protected int[][] topicDocCounts; // histogram of document/topic counts, indexed by <topic index, sequence position index>
+	protected CountHistograms alphaStatistics; // document sizes and document/topic counts
 
 	boolean shouldSaveState = false;
 	boolean shouldBuildLocalCounts = true;
@@ -117,12 +116,23 @@ public class WorkerRunnable implements Runnable {
 	public int[] getTokensPerTopic() { return tokensPerTopic; }
 	public int[][] getTypeTopicCounts() { return typeTopicCounts; }
 
-	public int[] getDocLengthCounts() { return docLengthCounts; }
-	public int[][] getTopicDocCounts() { return topicDocCounts; }
+	public CountHistograms getAlphaStatistics() { return alphaStatistics; }
 
+	/** @deprecated A dense copy of the document length histogram of {@link #getAlphaStatistics()}. */
+	@Deprecated
+	public int[] getDocLengthCounts() { return alphaStatistics.getLengthHistogram(alphaStatistics.getMaxLength() + 1); }
+	/** @deprecated A dense copy of the document/topic histograms of {@link #getAlphaStatistics()}. */
+	@Deprecated
+	public int[][] getTopicDocCounts() { return alphaStatistics.getHistograms(alphaStatistics.getMaxLength() + 1); }
+
+	public void initializeAlphaStatistics() {
+		alphaStatistics = new CountHistograms(numTopics);
+	}
+
+	/** @deprecated The histograms grow as needed; use {@link #initializeAlphaStatistics()}. */
+	@Deprecated
 	public void initializeAlphaStatistics(int size) {
-		docLengthCounts = new int[size];
-		topicDocCounts = new int[numTopics][size];
+		initializeAlphaStatistics();
 	}
 	
 	public void collectAlphaStatistics() {
@@ -283,8 +293,11 @@ public class WorkerRunnable implements Runnable {
 			shouldSaveState = false;
 			isFinished = true;
 
-		} catch (Exception e) {
-			e.printStackTrace();
+		} catch (RuntimeException e) {
+			// Let the next sweep start again, and let the caller's Future report the failure
+			isFinished = true;
+			throw new RuntimeException ("Sampling documents " + startDoc + " to " +
+										(startDoc + numDocs - 1) + " failed.", e);
 		}
 	}
 	
@@ -647,12 +660,12 @@ public class WorkerRunnable implements Runnable {
 		if (shouldSaveState) {
 			// Update the document-topic count histogram,
 			//  for dirichlet estimation
-			docLengthCounts[ docLength ]++;
+			alphaStatistics.addLength(docLength);
 
 			for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
 				int topic = localTopicIndex[denseIndex];
 				
-				topicDocCounts[topic][ localTopicCounts[topic] ]++;
+				alphaStatistics.addCount(topic, localTopicCounts[topic]);
 			}
 		}
 
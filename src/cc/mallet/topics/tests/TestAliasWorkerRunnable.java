@@ -0,0 +1,193 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics.tests;
+
+import junit.framework.*;
+
+import cc.mallet.pipe.*;
+import cc.mallet.topics.AliasWorkerRunnable;
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.topics.WorkerRunnable;
+import cc.mallet.types.*;
+import cc.mallet.util.Maths;
+import cc.mallet.util.Randoms;
+
+/**
+ * Checks that the alias sampler and the SparseLDA sampler have the same stationary
+ * distribution: the exact posterior of a corpus small enough to enumerate.
+ * <p>
+ * The statistic compared is the probability that two tokens have the same topic,
+ * which does not change when the topics are relabeled.
+ */
+public class TestAliasWorkerRunnable extends TestCase
+{
+	static final String[] DOCUMENTS = { "a a b", "b c", "c c a" };
+	static final int NUM_TOPICS = 2;
+	static final double ALPHA_SUM = 1.0;
+	static final double BETA = 0.1;
+
+	static final int BURN_IN = 200;
+	static final int NUM_SWEEPS = 40000;
+	static final double TOLERANCE = 0.02;
+
+	public TestAliasWorkerRunnable (String name)
+	{
+		super (name);
+	}
+
+	private static ParallelTopicModel newModel ()
+	{
+		InstanceList instances = new InstanceList (new SerialPipes (new Pipe[] {
+			new CharSequence2TokenSequence (),
+			new TokenSequence2FeatureSequence (),
+		}));
+		for (int doc = 0; doc < DOCUMENTS.length; doc++)
+			instances.addThruPipe (new Instance (DOCUMENTS[doc], null, "doc" + doc, null));
+
+		ParallelTopicModel model = new ParallelTopicModel (NUM_TOPICS, ALPHA_SUM, BETA);
+		model.setRandomSeed (3);
+		model.addInstances (instances);
+		return model;
+	}
+
+	private static int[][] documentTypes (ParallelTopicModel model)
+	{
+		int[][] types = new int[model.data.size()][];
+		for (int doc = 0; doc < types.length; doc++)
+			types[doc] = ((FeatureSequence) model.data.get(doc).instance.getData()).getFeatures();
+		return types;
+	}
+
+	/** The posterior probability that each pair of tokens has the same topic, by enumerating all assignments. */
+	private static double[][] exactSameTopic (int[][] documentTypes, int numTypes)
+	{
+		int numTokens = 0;
+		for (int[] types : documentTypes) numTokens += types.length;
+
+		double[][] sameTopic = new double[numTokens][numTokens];
+		int[] topics = new int[numTokens];
+		double[] logWeights = new double[(int) Math.pow (NUM_TOPICS, numTokens)];
+		double maxLogWeight = Double.NEGATIVE_INFINITY;
+		for (int state = 0; state < logWeights.length; state++) {
+			decode (state, topics);
+			logWeights[state] = logJoint (documentTypes, numTypes, topics);
+			maxLogWeight = Math.max (maxLogWeight, logWeights[state]);
+		}
+		double total = 0;
+		for (int state = 0; state < logWeights.length; state++) {
+			double weight = Math.exp (logWeights[state] - maxLogWeight);
+			total += weight;
+			decode (state, topics);
+			for (int i = 0; i < numTokens; i++)
+				for (int j = i + 1; j < numTokens; j++)
+					if (topics[i] == topics[j]) sameTopic[i][j] += weight;
+		}
+		for (int i = 0; i < numTokens; i++)
+			for (int j = i + 1; j < numTokens; j++)
+				sameTopic[i][j] /= total;
+		return sameTopic;
+	}
+
+	private static void decode (int state, int[] topics)
+	{
+		for (int i = 0; i < topics.length; i++) {
+			topics[i] = state % NUM_TOPICS;
+			state /= NUM_TOPICS;
+		}
+	}
+
+	/** log P(w, z) of collapsed LDA, up to a constant. */
+	private static double logJoint (int[][] documentTypes, int numTypes, int[] topics)
+	{
+		double alpha = ALPHA_SUM / NUM_TOPICS;
+		int[][] typeTopic = new int[numTypes][NUM_TOPICS];
+		int[] topicTotals = new int[NUM_TOPICS];
+		double logJoint = 0;
+		int token = 0;
+		for (int[] types : documentTypes) {
+			int[] docTopic = new int[NUM_TOPICS];
+			for (int type : types) {
+				docTopic[topics[token]]++;
+				typeTopic[type][topics[token]]++;
+				topicTotals[topics[token]]++;
+				token++;
+			}
+			for (int topic = 0; topic < NUM_TOPICS; topic++)
+				logJoint += Maths.logGamma (docTopic[topic] + alpha);
+		}
+		for (int topic = 0; topic < NUM_TOPICS; topic++) {
+			for (int type = 0; type < numTypes; type++)
+				logJoint += Maths.logGamma (typeTopic[type][topic] + BETA);
+			logJoint -= Maths.logGamma (topicTotals[topic] + numTypes * BETA);
+		}
+		return logJoint;
+	}
+
+	/** The frequency that each pair of tokens has the same topic over the sweeps of a sampler. */
+	private static double[][] sampledSameTopic (ParallelTopicModel model, WorkerRunnable sampler, int numTokens)
+	{
+		double[][] sameTopic = new double[numTokens][numTokens];
+		int[] topics = new int[numTokens];
+		for (int sweep = 0; sweep < BURN_IN + NUM_SWEEPS; sweep++) {
+			sampler.run ();
+			if (sweep < BURN_IN) continue;
+			int token = 0;
+			for (int doc = 0; doc < model.data.size(); doc++) {
+				LabelSequence topicSequence = model.data.get(doc).topicSequence;
+				for (int position = 0; position < topicSequence.getLength(); position++)
+					topics[token++] = topicSequence.getIndexAtPosition (position);
+			}
+			for (int i = 0; i < numTokens; i++)
+				for (int j = i + 1; j < numTokens; j++)
+					if (topics[i] == topics[j]) sameTopic[i][j]++;
+		}
+		for (int i = 0; i < numTokens; i++)
+			for (int j = i + 1; j < numTokens; j++)
+				sameTopic[i][j] /= NUM_SWEEPS;
+		return sameTopic;
+	}
+
+	private static void assertSameTopicClose (String sampler, double[][] expected, double[][] actual)
+	{
+		for (int i = 0; i < expected.length; i++)
+			for (int j = i + 1; j < expected.length; j++)
+				assertEquals (sampler + " tokens " + i + " and " + j, expected[i][j], actual[i][j], TOLERANCE);
+	}
+
+	public void testSameStationaryDistribution ()
+	{
+		ParallelTopicModel model = newModel ();
+		int[][] types = documentTypes (model);
+		int numTokens = 0;
+		for (int[] t : types) numTokens += t.length;
+		double[][] exact = exactSameTopic (types, model.numTypes);
+
+		WorkerRunnable sparse = new WorkerRunnable (NUM_TOPICS, model.alpha, model.alphaSum, model.beta,
+		                                            new Randoms (5), model.data, model.typeTopicCounts,
+		                                            model.tokensPerTopic, 0, model.data.size());
+		sparse.makeOnlyThread ();
+		assertSameTopicClose ("sparse", exact, sampledSameTopic (model, sparse, numTokens));
+
+		model = newModel ();
+		AliasWorkerRunnable alias = new AliasWorkerRunnable (NUM_TOPICS, model.alpha, model.alphaSum, model.beta,
+		                                                     new Randoms (5), model.data, model.typeTopicCounts,
+		                                                     model.tokensPerTopic, 0, model.data.size());
+		alias.makeOnlyThread ();
+		assertSameTopicClose ("alias", exact, sampledSameTopic (model, alias, numTokens));
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestAliasWorkerRunnable.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
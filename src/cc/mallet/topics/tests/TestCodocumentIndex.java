@@ -0,0 +1,126 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.*;
+
+import cc.mallet.pipe.*;
+import cc.mallet.topics.CodocumentIndex;
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.topics.TopicModelDiagnostics;
+import cc.mallet.types.*;
+
+/**
+ * Checks that the diagnostics scored against a {@link CodocumentIndex}, on one thread or
+ * several, are the diagnostics of the serial computation over the model's documents.
+ */
+public class TestCodocumentIndex extends TestCase
+{
+	static final String[][] WORDS = {
+		{ "ball", "team", "goal", "match", "coach", "league", "season" },
+		{ "vote", "bill", "senate", "party", "law", "election", "court" },
+		{ "star", "planet", "orbit", "telescope", "galaxy", "comet", "light" },
+		{ "bread", "butter", "oven", "flour", "salt", "sugar", "recipe" },
+	};
+
+	public TestCodocumentIndex (String name)
+	{
+		super (name);
+	}
+
+	private static InstanceList makeInstances ()
+	{
+		InstanceList instances = new InstanceList (new SerialPipes (new Pipe[] {
+			new CharSequence2TokenSequence (),
+			new TokenSequence2FeatureSequence (),
+		}));
+		for (int doc = 0; doc < 80; doc++) {
+			int group = doc % WORDS.length;
+			StringBuilder text = new StringBuilder ();
+			for (int position = 0; position < 10 + doc % 23; position++) {
+				// Mostly words of the document's group, some of the next group, and a repeated word
+				String[] words = WORDS[position % 4 == 3 ? (group + 1) % WORDS.length : group];
+				text.append (words[(doc * 5 + position * position) % words.length]).append (' ');
+			}
+			instances.addThruPipe (new Instance (text.toString (), null, "doc" + doc, null));
+		}
+		return instances;
+	}
+
+	private static ParallelTopicModel train (InstanceList instances, int numTopics)
+	{
+		ParallelTopicModel model = new ParallelTopicModel (numTopics, 1.0, 0.01);
+		model.setRandomSeed (numTopics);
+		model.setTopicDisplay (0, 5);
+		model.setNumIterations (100);
+		model.setOptimizeInterval (20);
+		model.setBurninPeriod (20);
+		model.setNumThreads (1);
+		model.addInstances (instances);
+		try {
+			model.estimate ();
+		} catch (java.io.IOException e) {
+			throw new IllegalStateException (e);
+		}
+		return model;
+	}
+
+	public void testIndexedDiagnosticsMatchSerial ()
+	{
+		InstanceList instances = makeInstances ();
+		List<ParallelTopicModel> models = new ArrayList<ParallelTopicModel> ();
+		models.add (train (instances, 3));
+		models.add (train (instances, 4));
+		models.add (train (instances, 6));
+
+		CodocumentIndex index = new CodocumentIndex (instances);
+		CodocumentIndex modelIndex = new CodocumentIndex (models.get (0));
+		assertEquals (instances.size (), index.size ());
+		assertEquals (index.getNumTokens (), modelIndex.getNumTokens ());
+
+		ExecutorService executor = Executors.newFixedThreadPool (3);
+		try {
+			List<String> expected = new ArrayList<String> ();
+			for (ParallelTopicModel model : models) {
+				TopicModelDiagnostics serial = new TopicModelDiagnostics (model, 5);
+				expected.add (serial.toXML ());
+
+				String message = model.getNumTopics () + " topics";
+				assertEquals (message, serial.toXML (), new TopicModelDiagnostics (model, 5, index, null, 1).toXML ());
+				assertEquals (message, serial.toString (), new TopicModelDiagnostics (model, 5, index, null, 1).toString ());
+				assertEquals (message, serial.toXML (), new TopicModelDiagnostics (model, 5, modelIndex, null, 1).toXML ());
+				for (int numTasks = 2; numTasks <= 7; numTasks += 5)
+					assertEquals (message + ", " + numTasks + " tasks", serial.toXML (),
+					              new TopicModelDiagnostics (model, 5, index, executor, numTasks).toXML ());
+			}
+
+			// Several models at once, each on its own thread, in the order of the models
+			List<TopicModelDiagnostics> scored = TopicModelDiagnostics.score (models, 5, index, 2);
+			assertEquals (models.size (), scored.size ());
+			for (int i = 0; i < models.size (); i++)
+				assertEquals (expected.get (i), scored.get (i).toXML ());
+		} finally {
+			executor.shutdown ();
+		}
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestCodocumentIndex.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
@@ -0,0 +1,173 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.*;
+
+import cc.mallet.topics.OnlineLDA;
+import cc.mallet.types.*;
+import cc.mallet.util.Randoms;
+import edu.kaist.irlab.textcontrol.TermWeight;
+
+/**
+ * Trains {@link OnlineLDA} on documents drawn from planted topics with disjoint vocabularies,
+ * and checks that the learned topics put their mass on the planted ones.
+ */
+public class TestOnlineLDA extends TestCase
+{
+	static final int NUM_TOPICS = 3;
+	static final int WORDS_PER_TOPIC = 8;
+	static final int NUM_DOCS = 300;
+	static final int BATCH_SIZE = 50;
+
+	public TestOnlineLDA (String name)
+	{
+		super (name);
+	}
+
+	private static Alphabet newAlphabet ()
+	{
+		Alphabet alphabet = new Alphabet ();
+		for (int topic = 0; topic < NUM_TOPICS; topic++)
+			for (int word = 0; word < WORDS_PER_TOPIC; word++)
+				alphabet.lookupIndex ("t" + topic + "w" + word);
+		return alphabet;
+	}
+
+	/** Each document draws most of its tokens from one planted topic and the rest from the other two. */
+	private static List<Instance> plantedDocuments (Alphabet alphabet)
+	{
+		Randoms random = new Randoms (1);
+		List<Instance> documents = new ArrayList<Instance> ();
+		for (int doc = 0; doc < NUM_DOCS; doc++) {
+			int main = doc % NUM_TOPICS;
+			int[] tokens = new int[20 + random.nextInt (20)];
+			for (int position = 0; position < tokens.length; position++) {
+				int topic = random.nextUniform () < 0.9 ? main : (main + 1 + random.nextInt (NUM_TOPICS - 1)) % NUM_TOPICS;
+				tokens[position] = topic * WORDS_PER_TOPIC + random.nextInt (WORDS_PER_TOPIC);
+			}
+			documents.add (new Instance (new FeatureSequence (alphabet, tokens), null, "doc" + doc, null));
+		}
+		return documents;
+	}
+
+	private static void train (OnlineLDA lda, List<Instance> documents)
+	{
+		for (int start = 0; start < documents.size (); start += BATCH_SIZE)
+			lda.update (documents.subList (start, Math.min (start + BATCH_SIZE, documents.size ())));
+	}
+
+	public void testPlantedTopics ()
+	{
+		Alphabet alphabet = newAlphabet ();
+		OnlineLDA lda = new OnlineLDA (NUM_TOPICS, 1.0, 0.01);
+		lda.setRandomSeed (1);
+		lda.setLearningRate (1.0, 0.7);
+		lda.setCorpusSize (NUM_DOCS);
+
+		// Two passes of six mini-batches
+		List<Instance> documents = plantedDocuments (alphabet);
+		train (lda, documents);
+		train (lda, documents);
+		assertEquals (2 * NUM_DOCS / BATCH_SIZE, lda.getBatchesSoFar ());
+		assertEquals (2 * NUM_DOCS, lda.getDocumentsSoFar ());
+
+		// Each learned topic puts most of its mass on the words of a different planted topic,
+		//  and ranks all of them above the other words
+		boolean[] matched = new boolean[NUM_TOPICS];
+		for (int topic = 0; topic < NUM_TOPICS; topic++) {
+			double[] probabilities = lda.getTopicWordProbabilities (topic);
+			assertEquals (alphabet.size (), probabilities.length);
+			double total = 0.0;
+			double[] planted = new double[NUM_TOPICS];
+			for (int type = 0; type < probabilities.length; type++) {
+				planted[type / WORDS_PER_TOPIC] += probabilities[type];
+				total += probabilities[type];
+			}
+			assertEquals (1.0, total, 1e-9);
+			int best = 0;
+			for (int other = 1; other < NUM_TOPICS; other++)
+				if (planted[other] > planted[best]) best = other;
+			assertTrue ("topic " + topic + " has " + planted[best] + " on its planted words", planted[best] > 0.85);
+			for (int type = 0; type < probabilities.length; type++)
+				if (type / WORDS_PER_TOPIC != best)
+					for (int word = 0; word < WORDS_PER_TOPIC; word++)
+						assertTrue (probabilities[best * WORDS_PER_TOPIC + word] > probabilities[type]);
+			assertFalse ("two topics on planted topic " + best, matched[best]);
+			matched[best] = true;
+		}
+	}
+
+	/** Counts of the same documents as FeatureVectors, with the counts of some words multiplied. */
+	private static List<Instance> scaledDocuments (List<Instance> documents, double[] factors)
+	{
+		List<Instance> scaled = new ArrayList<Instance> ();
+		for (Instance document : documents) {
+			FeatureVector counts = new FeatureVector ((FeatureSequence) document.getData ());
+			int[] indices = new int[counts.numLocations ()];
+			double[] values = new double[counts.numLocations ()];
+			for (int location = 0; location < indices.length; location++) {
+				indices[location] = counts.indexAtLocation (location);
+				values[location] = counts.valueAtLocation (location) * factors[indices[location]];
+			}
+			scaled.add (new Instance (new FeatureVector (counts.getAlphabet (), indices, values), null, document.getName (), null));
+		}
+		return scaled;
+	}
+
+	public void testTermWeightScalesCounts ()
+	{
+		Alphabet alphabet = newAlphabet ();
+		List<Instance> documents = plantedDocuments (alphabet);
+
+		// Weights for some words only, by entry in their own alphabet; the other words count once
+		Alphabet weightAlphabet = new Alphabet ();
+		double[] weights = { 3.0, 0.5, 0.0 };
+		String[] weighted = { "t0w1", "t1w2", "t2w3" };
+		double[] ones = new double[alphabet.size ()];
+		Arrays.fill (ones, 1.0);
+		double[] factors = ones.clone ();
+		for (int i = 0; i < weighted.length; i++) {
+			weightAlphabet.lookupIndex (weighted[i]);
+			factors[alphabet.lookupIndex (weighted[i])] = weights[i];
+		}
+
+		OnlineLDA withWeights = new OnlineLDA (NUM_TOPICS, 1.0, 0.01);
+		withWeights.setRandomSeed (1);
+		withWeights.setCorpusSize (NUM_DOCS);
+		withWeights.setTermWeight (new TermWeight (weights, weightAlphabet));
+		train (withWeights, scaledDocuments (documents, ones));
+
+		OnlineLDA scaled = new OnlineLDA (NUM_TOPICS, 1.0, 0.01);
+		scaled.setRandomSeed (1);
+		scaled.setCorpusSize (NUM_DOCS);
+		train (scaled, scaledDocuments (documents, factors));
+
+		// The weighted counts are the scaled counts, so both models learn the same topics
+		for (int topic = 0; topic < NUM_TOPICS; topic++) {
+			double[] expected = scaled.getTopicWordProbabilities (topic);
+			double[] actual = withWeights.getTopicWordProbabilities (topic);
+			for (int type = 0; type < expected.length; type++)
+				assertEquals (expected[type], actual[type], 1e-12);
+		}
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestOnlineLDA.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
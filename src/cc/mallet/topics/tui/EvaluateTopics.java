@@ -38,6 +38,10 @@ public class EvaluateTopics {
         (EvaluateTopics.class, "use-resampling", "TRUE|FALSE", false, false,
          "Whether to resample topics in left-to-right evaluation. Resampling is more accurate, but leads to quadratic scaling in the lenght of documents.", null);
 
+	static CommandOption.Integer numThreads = new CommandOption.Integer
+        (EvaluateTopics.class, "num-threads", "INTEGER", true, 1,
+         "The number of threads sharing the documents in left-to-right evaluation.", null);
+
 	static CommandOption.Integer numIterations = new CommandOption.Integer
         (EvaluateTopics.class, "num-iterations", "INTEGER", true, 100,
          "The number of iterations of Gibbs sampling.", null);
@@ -91,7 +95,8 @@ public class EvaluateTopics {
 
 			outputStream.println(evaluator.evaluateLeftToRight(instances, numParticles.value, 
 															   usingResampling.value,
-															   docProbabilityStream));
+															   docProbabilityStream,
+															   numThreads.value));
 			
 
 		} catch (Exception e) {
@@ -17,6 +17,7 @@ import cc.mallet.topics.*;
 
 import java.util.logging.*;
 import java.io.*;
+import java.util.Collections;
 
 /** Create a simple LDA topic model, with some reporting options.
  */
@@ -262,7 +263,14 @@ public class TopicTrainer {
 
 		if (diagnosticsFile.value != null) {
 			PrintWriter out = new PrintWriter(diagnosticsFile.value);
-			TopicModelDiagnostics diagnostics = new TopicModelDiagnostics(topicModel, topWords.value);
+			TopicModelDiagnostics diagnostics;
+			if (numThreads.value > 1) {
+				diagnostics = TopicModelDiagnostics.score(Collections.singletonList(topicModel), topWords.value,
+														  new CodocumentIndex(topicModel), numThreads.value).get(0);
+			}
+			else {
+				diagnostics = new TopicModelDiagnostics(topicModel, topWords.value);
+			}
 			out.println(diagnostics.toXML());
 			out.close();
 		}
@@ -114,6 +114,14 @@ public class Vectors2Topics {
 		(Vectors2Topics.class, "num-threads", "INTEGER", true, 1,
 		 "The number of threads for parallel training.", null);
 
+	static CommandOption.Boolean useAliasSampler = new CommandOption.Boolean
+		(Vectors2Topics.class, "use-alias-sampler", "true|false", false, false,
+		 "Sample each token with Metropolis-Hastings steps from constant-time proposals. Faster than the default sampler with many topics (thousands).", null);
+
+	static CommandOption.Integer numMHSteps = new CommandOption.Integer
+		(Vectors2Topics.class, "mh-steps", "INTEGER", true, 2,
+		 "The number of Metropolis-Hastings steps per token with --use-alias-sampler.", null);
+
 	static CommandOption.Integer numIterations = new CommandOption.Integer
 		(Vectors2Topics.class, "num-iterations", "INTEGER", true, 1000,
 		 "The number of iterations of Gibbs sampling.", null);
@@ -418,6 +426,8 @@ public class Vectors2Topics {
 				topicModel.setSaveSerializedModel(outputModelInterval.value, outputModelFilename.value);
 			}
 
+			topicModel.setUseAliasSampler(useAliasSampler.value);
+			topicModel.setNumMHSteps(numMHSteps.value);
 			topicModel.setNumThreads(numThreads.value);
 
 			topicModel.estimate();
@@ -46,6 +46,7 @@ public class Alphabet implements Serializable
 	ArrayList entries;
 	boolean growthStopped = false;
 	Class entryClass = null;
+	transient volatile FrozenStringIndex frozenIndex = null; // String entries, compiled once growth is stopped
 	VMID instanceId = new VMID();  //used in readResolve to identify persitent instances
 
 	public Alphabet (int capacity, Class entryClass)
@@ -108,18 +109,52 @@ public class Alphabet implements Serializable
 			if (entry.getClass() != entryClass)
 				throw new IllegalArgumentException ("Non-matching entry class, "+entry.getClass()+", was "+entryClass);
 
-		int retIndex = -1;
-		if (map.containsKey( entry )) {
-			retIndex = map.get( entry );
+		if (growthStopped && entry instanceof String) {
+			FrozenStringIndex index = frozenIndex();
+			if (index != null)
+				return index.get ((String) entry);
 		}
-		else if (!growthStopped && addIfNotPresent) {
-			retIndex = entries.size();
-			map.put (entry, retIndex);
-			entries.add (entry);
+
+		// The map also answers 0 for a missing entry, so only then is a second probe needed
+		int retIndex = map.get( entry );
+		if (retIndex == 0 && !map.containsKey( entry )) {
+			retIndex = -1;
+			if (!growthStopped && addIfNotPresent) {
+				retIndex = entries.size();
+				map.put (entry, retIndex);
+				entries.add (entry);
+			}
 		}
 		return retIndex;
 	}
 
+	/**
+	 * Return the index of the String entry with the characters <tt>chars[start, end)</tt>,
+	 * or -1 if there is none.  The alphabet does not grow.  Once growth is stopped,
+	 * the entries are compiled into a table that is looked up without making a String.
+	 */
+	public int lookupIndex (CharSequence chars, int start, int end)
+	{
+		FrozenStringIndex index = frozenIndex();
+		if (index != null)
+			return index.get (chars, start, end);
+		if (entryClass != null && entryClass != String.class)
+			throw new IllegalArgumentException ("Non-matching entry class, "+String.class+", was "+entryClass);
+		return lookupIndex (chars.subSequence(start, end).toString(), false);
+	}
+
+	/** The compiled table of the String entries, or null if growth is not stopped. */
+	FrozenStringIndex frozenIndex ()
+	{
+		FrozenStringIndex index = frozenIndex;
+		if (index == null && growthStopped && entryClass == String.class) {
+			// Threads that race here build the same table
+			index = new FrozenStringIndex (entries);
+			frozenIndex = index;
+		}
+		return index;
+	}
+
 	public int lookupIndex (Object entry)
 	{
 		return lookupIndex (entry, true);
@@ -197,6 +232,7 @@ public class Alphabet implements Serializable
 	public void startGrowth ()
 	{
 		growthStopped = false;
+		frozenIndex = null;
 	}
 
 	public boolean growthStopped ()
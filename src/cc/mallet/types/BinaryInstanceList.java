@@ -0,0 +1,393 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.util.MalletLogger;
+
+/**
+ *	An instance list of feature sequences stored in columns, and read through a memory-mapped file
+ *	 instead of by deserializing every instance.
+ *	<p>
+ *	The list is written to two files. The alphabet file, named after the list file with
+ *	 <code>.alphabets</code> appended, holds the serialized pipe and alphabets. The list file holds:
+ *	<pre>
+ *	header         : int magic, int version, int numDocs, long numTokens, int maxLength, int nameKind, int sourceKind
+ *	offsets        : long[numDocs + 1]  first token of each instance
+ *	labels         : int[numDocs]       target index of each instance, -1 if it has none (padded to 8 bytes)
+ *	name offsets   : long[numDocs + 1]  first byte of each name
+ *	source offsets : long[numDocs + 1]  first byte of each source, if the sources are stored
+ *	tokens         : int[numTokens]     feature index of each token
+ *	names, sources : UTF-8 bytes
+ *	</pre>
+ *	Names and sources are restored as Strings, URIs or Files, whichever they all were when written.
+ *	 Sources of any other kind, and instance weights, are not stored.
+ *	<p>
+ *	{@link #getTokens(int)} returns a view of the mapped tokens of an instance without copying them,
+ *	 and may be called from several threads at once, so a topic model can sample from the mapped columns
+ *	 (see edu.kaist.irlab.topics.MappedTokenStore). {@link InstanceList#load(File)} reads this format
+ *	 as well as serialized lists, copying every instance to the heap.
+ */
+
+public class BinaryInstanceList {
+
+	private static Logger logger = MalletLogger.getLogger(BinaryInstanceList.class.getName());
+
+	public static final int MAGIC = 0x4D4C4331; // "MLC1"
+	public static final int CURRENT_VERSION = 0;
+	public static final String ALPHABETS_SUFFIX = ".alphabets";
+
+	static final int SEGMENT_BITS = 28; // tokens per mapped segment, besides the overlap
+	static final long SEGMENT_INTS = 1L << SEGMENT_BITS;
+
+	static final int KIND_NONE = 0;
+	static final int KIND_STRING = 1;
+	static final int KIND_URI = 2;
+	static final int KIND_FILE = 3;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int HEADER_BYTES = 32;
+
+	File file;
+	Pipe pipe;
+	Alphabet dataAlphabet;
+	Alphabet targetAlphabet;
+	int numDocs;
+	long numTokens;
+	int maxLength;
+	int nameKind;
+	int sourceKind;
+
+	LongBuffer offsets;
+	IntBuffer labels;
+	LongBuffer nameOffsets;
+	LongBuffer sourceOffsets;
+	long namesPosition;
+	long sourcesPosition;
+	FileChannel channel;
+
+	// Each segment also maps the maxLength tokens after it, so that every instance lies in the segment it starts in
+	IntBuffer[] tokenSegments;
+
+	private BinaryInstanceList (File file) throws IOException, ClassNotFoundException {
+		this.file = file;
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(alphabetsFile(file))));
+		try {
+			pipe = (Pipe) in.readObject();
+			dataAlphabet = (Alphabet) in.readObject();
+			targetAlphabet = (Alphabet) in.readObject();
+		} finally {
+			in.close();
+		}
+
+		channel = new RandomAccessFile(file, "r").getChannel();
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+		if (header.getInt() != MAGIC) {
+			channel.close();
+			throw new IOException(file + " is not a binary instance list.");
+		}
+		int version = header.getInt();
+		if (version > CURRENT_VERSION) {
+			channel.close();
+			throw new IOException(file + " is of version " + version + " of the binary instance list format, newer than " + CURRENT_VERSION + ".");
+		}
+		numDocs = header.getInt();
+		numTokens = header.getLong();
+		maxLength = header.getInt();
+		nameKind = header.getInt();
+		sourceKind = header.getInt();
+
+		long position = HEADER_BYTES;
+		offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * (numDocs + 1)).asLongBuffer();
+		position += 8L * (numDocs + 1);
+		labels = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * numDocs).asIntBuffer();
+		position += padded(4L * numDocs);
+		nameOffsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * (numDocs + 1)).asLongBuffer();
+		position += 8L * (numDocs + 1);
+		if (sourceKind != KIND_NONE) {
+			sourceOffsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * (numDocs + 1)).asLongBuffer();
+			position += 8L * (numDocs + 1);
+		}
+
+		int numSegments = (int) ((numTokens + SEGMENT_INTS - 1) >>> SEGMENT_BITS);
+		tokenSegments = new IntBuffer[numSegments];
+		for (int segment = 0; segment < numSegments; segment++) {
+			long first = (long) segment << SEGMENT_BITS;
+			long size = Math.min(SEGMENT_INTS + maxLength, numTokens - first);
+			tokenSegments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * first, 4L * size).asIntBuffer();
+		}
+		namesPosition = position + 4L * numTokens;
+		sourcesPosition = namesPosition + nameOffsets.get(numDocs);
+	}
+
+	private static long padded (long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	public static File alphabetsFile (File file) {
+		return new File(file.getPath() + ALPHABETS_SUFFIX);
+	}
+
+	/** Whether the file starts like a list written by {@link #save(InstanceList, File)}. */
+	public static boolean isBinary (File file) {
+		if (!file.isFile() || file.length() < HEADER_BYTES) { return false; }
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public static BinaryInstanceList open (File file) throws IOException {
+		try {
+			return new BinaryInstanceList(file);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Cannot read the pipe and alphabets of " + file, e);
+		}
+	}
+
+	/** Read the whole list into an InstanceList, copying the tokens of each instance once. */
+	public static InstanceList load (File file) throws IOException {
+		BinaryInstanceList list = open(file);
+		try {
+			return list.toInstanceList();
+		} finally {
+			list.close();
+		}
+	}
+
+	/** Write the instances, whose data must all be FeatureSequences, to the file and its alphabet file. */
+	public static void save (InstanceList instances, File file) throws IOException {
+		int numDocs = instances.size();
+		int nameKind = KIND_NONE;
+		int sourceKind = KIND_NONE;
+		long numTokens = 0;
+		int maxLength = 0;
+		for (int doc = 0; doc < numDocs; doc++) {
+			Instance instance = instances.get(doc);
+			if (!(instance.getData() instanceof FeatureSequence)) {
+				throw new IllegalArgumentException("Only instances of feature sequences can be saved in the binary format, not " +
+												   instance.getData().getClass().getName());
+			}
+			int length = ((FeatureSequence) instance.getData()).getLength();
+			numTokens += length;
+			maxLength = Math.max(maxLength, length);
+			nameKind = doc == 0 ? kindOf(instance.getName()) : (kindOf(instance.getName()) == nameKind ? nameKind : KIND_STRING);
+			sourceKind = doc == 0 ? kindOf(instance.getSource()) : (kindOf(instance.getSource()) == sourceKind ? sourceKind : -1);
+		}
+		if (nameKind == KIND_NONE) { nameKind = KIND_STRING; }
+		if (sourceKind == -1) {
+			logger.warning("The sources of the instances are of different kinds and are not saved.");
+			sourceKind = KIND_NONE;
+		}
+
+		ObjectOutputStream alphabets = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(alphabetsFile(file))));
+		try {
+			// In one stream, so that the pipe and the list share the alphabets when read
+			alphabets.writeObject(instances.getPipe());
+			alphabets.writeObject(instances.getDataAlphabet());
+			alphabets.writeObject(instances.getTargetAlphabet());
+		} finally {
+			alphabets.close();
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(CURRENT_VERSION);
+			out.writeInt(numDocs);
+			out.writeLong(numTokens);
+			out.writeInt(maxLength);
+			out.writeInt(nameKind);
+			out.writeInt(sourceKind);
+
+			long offset = 0;
+			out.writeLong(offset);
+			for (int doc = 0; doc < numDocs; doc++) {
+				offset += ((FeatureSequence) instances.get(doc).getData()).getLength();
+				out.writeLong(offset);
+			}
+
+			for (int doc = 0; doc < numDocs; doc++) {
+				Object target = instances.get(doc).getTarget();
+				out.writeInt(target instanceof Label ? ((Label) target).getIndex() : -1);
+			}
+			for (long i = 4L * numDocs; i < padded(4L * numDocs); i++) {
+				out.writeByte(0);
+			}
+
+			writeStringOffsets(out, instances, true);
+			if (sourceKind != KIND_NONE) {
+				writeStringOffsets(out, instances, false);
+			}
+
+			ByteBuffer bytes = ByteBuffer.allocate(4 * Math.max(maxLength, 1));
+			for (int doc = 0; doc < numDocs; doc++) {
+				FeatureSequence tokens = (FeatureSequence) instances.get(doc).getData();
+				bytes.clear();
+				bytes.asIntBuffer().put(tokens.getFeatures(), 0, tokens.getLength());
+				out.write(bytes.array(), 0, 4 * tokens.getLength());
+			}
+
+			for (int doc = 0; doc < numDocs; doc++) {
+				out.write(encode(instances.get(doc).getName()));
+			}
+			if (sourceKind != KIND_NONE) {
+				for (int doc = 0; doc < numDocs; doc++) {
+					out.write(encode(instances.get(doc).getSource()));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeStringOffsets (DataOutputStream out, InstanceList instances, boolean names) throws IOException {
+		long offset = 0;
+		out.writeLong(offset);
+		for (int doc = 0; doc < instances.size(); doc++) {
+			Instance instance = instances.get(doc);
+			offset += encode(names ? instance.getName() : instance.getSource()).length;
+			out.writeLong(offset);
+		}
+	}
+
+	private static int kindOf (Object value) {
+		if (value instanceof URI) { return KIND_URI; }
+		if (value instanceof File) { return KIND_FILE; }
+		if (value instanceof CharSequence) { return KIND_STRING; }
+		return value == null ? KIND_NONE : -1;
+	}
+
+	private static byte[] encode (Object value) {
+		if (value == null) { return new byte[0]; }
+		String string = value instanceof File ? ((File) value).getPath() : value.toString();
+		return string.getBytes(UTF8);
+	}
+
+	public int size () { return numDocs; }
+	public long getNumTokens () { return numTokens; }
+	public int getMaxLength () { return maxLength; }
+	public Pipe getPipe () { return pipe; }
+	public Alphabet getDataAlphabet () { return dataAlphabet; }
+	public Alphabet getTargetAlphabet () { return targetAlphabet; }
+
+	public int getLength (int doc) {
+		return (int) (offsets.get(doc + 1) - offsets.get(doc));
+	}
+
+	/** The position of the first token of an instance among the tokens of all instances.
+	 *	 The position after the last instance is the number of tokens. */
+	public long getOffset (int doc) {
+		return offsets.get(doc);
+	}
+
+	/** A read-only view of the mapped feature indices of an instance. The tokens are not copied. */
+	public IntBuffer getTokens (int doc) {
+		int length = getLength(doc);
+		// An empty instance may start at the end of the tokens, past the last mapped segment
+		if (length == 0)
+			return IntBuffer.allocate(0).asReadOnlyBuffer();
+		long start = offsets.get(doc);
+		IntBuffer view = tokenSegments[(int) (start >>> SEGMENT_BITS)].duplicate();
+		int position = (int) (start & (SEGMENT_INTS - 1));
+		view.limit(position + length);
+		view.position(position);
+		return view.slice();
+	}
+
+	/** The tokens of an instance, copied into a new FeatureSequence. */
+	public FeatureSequence getFeatureSequence (int doc) {
+		IntBuffer tokens = getTokens(doc);
+		FeatureSequence sequence = new FeatureSequence(dataAlphabet, 0);
+		sequence.features = new int[tokens.remaining()];
+		tokens.get(sequence.features);
+		sequence.length = sequence.features.length;
+		return sequence;
+	}
+
+	/** The target index of an instance, -1 if it has none. */
+	public int getLabelIndex (int doc) {
+		return labels.get(doc);
+	}
+
+	/** The target of an instance, null if it has none. */
+	public Label getLabel (int doc) {
+		int index = labels.get(doc);
+		return index < 0 ? null : ((LabelAlphabet) targetAlphabet).lookupLabel(index);
+	}
+
+	public Object getName (int doc) {
+		return decode(nameKind, namesPosition, nameOffsets, doc);
+	}
+
+	public Object getSource (int doc) {
+		return sourceKind == KIND_NONE ? null : decode(sourceKind, sourcesPosition, sourceOffsets, doc);
+	}
+
+	private Object decode (int kind, long position, LongBuffer stringOffsets, int doc) {
+		long start = stringOffsets.get(doc);
+		ByteBuffer buffer = ByteBuffer.allocate((int) (stringOffsets.get(doc + 1) - start));
+		try {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + start + buffer.position()) < 0) { break; }
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read instance " + doc + " of " + file, e);
+		}
+		String string = new String(buffer.array(), 0, buffer.position(), UTF8);
+		if (kind == KIND_URI) { return URI.create(string); }
+		if (kind == KIND_FILE) { return new File(string); }
+		return string;
+	}
+
+	public Instance get (int doc) {
+		return new Instance(getFeatureSequence(doc), getLabel(doc), getName(doc), getSource(doc));
+	}
+
+	/** The instances in order, each read when it is reached. */
+	public Iterator<Instance> iterator () {
+		return new Iterator<Instance>() {
+			int doc = 0;
+			public boolean hasNext () { return doc < numDocs; }
+			public Instance next () {
+				if (doc >= numDocs) { throw new NoSuchElementException(); }
+				return get(doc++);
+			}
+			public void remove () { throw new UnsupportedOperationException(); }
+		};
+	}
+
+	public InstanceList toInstanceList () {
+		InstanceList instances = new InstanceList(pipe, numDocs);
+		for (int doc = 0; doc < numDocs; doc++) {
+			instances.add(get(doc));
+		}
+		return instances;
+	}
+
+	public void close () throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,180 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *  An Alphabet that many threads may grow and look up at once, for example the
+ * alphabet of a {@link cc.mallet.pipe.TokenSequence2FeatureSequence} whose instances
+ * are piped on several threads.
+ * <p>
+ * Lookups of present entries take no lock.  Adding an entry takes a lock, so the
+ * indices stay consecutive, but which of two new entries gets the lower index
+ * depends on the order in which the threads arrive.  Once growth is stopped, String
+ * entries are looked up in the same compiled table as in {@link Alphabet}.
+ * <p>
+ * The methods that return all entries see a snapshot of them.
+ * Serialize the alphabet only when no thread is adding entries.
+ */
+public class ConcurrentAlphabet extends Alphabet
+{
+	transient ConcurrentHashMap<Object,Integer> entryIndices;
+	transient volatile Object[] entryArray;
+	transient volatile int numEntries;
+
+	public ConcurrentAlphabet (int capacity, Class<?> entryClass)
+	{
+		// The map of the superclass is not used
+		super (1, entryClass);
+		entries.ensureCapacity (capacity);
+		entryIndices = new ConcurrentHashMap<Object,Integer> (capacity);
+		entryArray = new Object[Math.max (capacity, 8)];
+		numEntries = 0;
+	}
+
+	public ConcurrentAlphabet (Class<?> entryClass)
+	{
+		this (8, entryClass);
+	}
+
+	public ConcurrentAlphabet (int capacity)
+	{
+		this (capacity, null);
+	}
+
+	public ConcurrentAlphabet ()
+	{
+		this (8, null);
+	}
+
+	public synchronized Object clone ()
+	{
+		ConcurrentAlphabet ret = new ConcurrentAlphabet (numEntries, entryClass);
+		for (int i = 0; i < numEntries; i++)
+			ret.lookupIndex (entryArray[i]);
+		ret.growthStopped = growthStopped;
+		return ret;
+	}
+
+	public int lookupIndex (Object entry, boolean addIfNotPresent)
+	{
+		if (entry == null)
+			throw new IllegalArgumentException ("Can't lookup \"null\" in an Alphabet.");
+		if (entryClass == null) {
+			synchronized (this) {
+				if (entryClass == null)
+					entryClass = entry.getClass();
+			}
+		}
+		if (entry.getClass() != entryClass)
+			throw new IllegalArgumentException ("Non-matching entry class, "+entry.getClass()+", was "+entryClass);
+
+		if (growthStopped && entry instanceof String) {
+			FrozenStringIndex index = frozenIndex();
+			if (index != null)
+				return index.get ((String) entry);
+		}
+
+		Integer index = entryIndices.get (entry);
+		if (index != null)
+			return index;
+		if (growthStopped || !addIfNotPresent)
+			return -1;
+		return add (entry);
+	}
+
+	@SuppressWarnings("unchecked") // entries is the raw list of the superclass
+	private synchronized int add (Object entry)
+	{
+		Integer index = entryIndices.get (entry);
+		if (index != null)
+			return index;
+		int newIndex = numEntries;
+		Object[] array = entryArray;
+		if (newIndex == array.length)
+			array = Arrays.copyOf (array, 2 * array.length);
+		array[newIndex] = entry;
+		entryArray = array;
+		numEntries = newIndex + 1;
+		entries.add (entry);
+		// Published last, so a thread that finds the index also sees the entry
+		entryIndices.put (entry, newIndex);
+		return newIndex;
+	}
+
+	public Object lookupObject (int index)
+	{
+		if (index < 0 || index >= numEntries)
+			throw new IndexOutOfBoundsException ("Index: "+index+", Size: "+numEntries);
+		return entryArray[index];
+	}
+
+	public Object[] lookupObjects (int[] indices)
+	{
+		return lookupObjects (indices, new Object[indices.length]);
+	}
+
+	public Object[] lookupObjects (int[] indices, Object[] buf)
+	{
+		for (int i = 0; i < indices.length; i++)
+			buf[i] = lookupObject (indices[i]);
+		return buf;
+	}
+
+	public synchronized Object[] toArray ()
+	{
+		return super.toArray ();
+	}
+
+	public synchronized Object[] toArray (Object[] in)
+	{
+		return super.toArray (in);
+	}
+
+	public Iterator<Object> iterator ()
+	{
+		// The size is read first, so the array read after it holds at least that many entries
+		int size = numEntries;
+		return Arrays.asList (Arrays.copyOf (entryArray, size)).iterator ();
+	}
+
+	public boolean contains (Object entry)
+	{
+		return entryIndices.containsKey (entry);
+	}
+
+	public int size ()
+	{
+		return numEntries;
+	}
+
+	public synchronized String toString ()
+	{
+		return super.toString ();
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject ();
+		map = new gnu.trove.TObjectIntHashMap<Object> (1);
+		entryIndices = new ConcurrentHashMap<Object,Integer> (entries.size());
+		entryArray = new Object[Math.max (entries.size(), 8)];
+		for (int i = 0; i < entries.size(); i++) {
+			entryArray[i] = entries.get(i);
+			entryIndices.put (entries.get(i), i);
+		}
+		numEntries = entries.size();
+	}
+
+	private static final long serialVersionUID = 1;
+}
@@ -0,0 +1,174 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types;
+
+import gnu.trove.TIntIntHashMap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ *	Sparse count histograms for Dirichlet estimation with
+ *	 {@link Dirichlet#learnParameters(double[], CountHistograms, double, double, int, java.util.concurrent.ExecutorService, int)}.
+ *	For each dimension (a topic), the number of observations (documents) with each
+ *	 non-zero count, and the number of observations of each length.
+ *	<p>
+ *	Unlike the dense <code>int[numDimensions][maxLength + 1]</code> histograms, the memory
+ *	 and the time to clear them grow with the number of distinct counts, not with the
+ *	 length of the longest observation.
+ */
+
+public class CountHistograms implements Serializable {
+
+	protected TIntIntHashMap[] dimensionCounts; // indexed by <dimension>, count -> number of observations
+	protected TIntIntHashMap lengthCounts; // length -> number of observations
+
+	public CountHistograms (int numDimensions) {
+		dimensionCounts = new TIntIntHashMap[numDimensions];
+		for (int dimension = 0; dimension < numDimensions; dimension++) {
+			dimensionCounts[dimension] = new TIntIntHashMap();
+		}
+		lengthCounts = new TIntIntHashMap();
+	}
+
+	/** Histograms with the same observations as the dense histograms, as passed to {@link Dirichlet#learnParameters(double[], int[][], int[])}. */
+	public static CountHistograms fromDense (int[][] histograms, int[] lengthHistogram) {
+		CountHistograms sparse = new CountHistograms(histograms.length);
+		for (int dimension = 0; dimension < histograms.length; dimension++) {
+			for (int count = 1; count < histograms[dimension].length; count++) {
+				if (histograms[dimension][count] > 0) {
+					sparse.dimensionCounts[dimension].put(count, histograms[dimension][count]);
+				}
+			}
+		}
+		for (int length = 1; length < lengthHistogram.length; length++) {
+			if (lengthHistogram[length] > 0) {
+				sparse.lengthCounts.put(length, lengthHistogram[length]);
+			}
+		}
+		return sparse;
+	}
+
+	public int getNumDimensions () { return dimensionCounts.length; }
+
+	/** Record an observation with <code>count</code> in a dimension. Zero counts are not recorded. */
+	public void addCount (int dimension, int count) {
+		if (count > 0) {
+			dimensionCounts[dimension].adjustOrPutValue(count, 1, 1);
+		}
+	}
+
+	/** Record the length of an observation. */
+	public void addLength (int length) {
+		if (length > 0) {
+			lengthCounts.adjustOrPutValue(length, 1, 1);
+		}
+	}
+
+	/** Add the observations of other histograms with the same number of dimensions. */
+	public void addAll (CountHistograms other) {
+		for (int dimension = 0; dimension < dimensionCounts.length; dimension++) {
+			addAll(dimensionCounts[dimension], other.dimensionCounts[dimension]);
+		}
+		addAll(lengthCounts, other.lengthCounts);
+	}
+
+	private static void addAll (TIntIntHashMap target, TIntIntHashMap source) {
+		int[] keys = source.keys();
+		for (int i = 0; i < keys.length; i++) {
+			int value = source.get(keys[i]);
+			target.adjustOrPutValue(keys[i], value, value);
+		}
+	}
+
+	public void clear () {
+		for (TIntIntHashMap counts : dimensionCounts) {
+			counts.clear();
+		}
+		lengthCounts.clear();
+	}
+
+	public boolean isEmpty () {
+		return lengthCounts.isEmpty();
+	}
+
+	/** The longest recorded length, 0 if there is none. */
+	public int getMaxLength () {
+		int max = 0;
+		for (int length : lengthCounts.keys()) {
+			if (length > max) { max = length; }
+		}
+		return max;
+	}
+
+	/** The number of observations with a count in a dimension. */
+	public int getCount (int dimension, int count) {
+		return dimensionCounts[dimension].get(count);
+	}
+
+	/** The number of observations of a length. */
+	public int getLengthCount (int length) {
+		return lengthCounts.get(length);
+	}
+
+	/** The recorded counts of a dimension in ascending order, and their numbers of observations in <code>frequencies[0]</code>. */
+	public int[] getSortedCounts (int dimension, int[][] frequencies) {
+		return sorted(dimensionCounts[dimension], frequencies);
+	}
+
+	/** The recorded lengths in ascending order, and their numbers of observations in <code>frequencies[0]</code>. */
+	public int[] getSortedLengths (int[][] frequencies) {
+		return sorted(lengthCounts, frequencies);
+	}
+
+	private static int[] sorted (TIntIntHashMap counts, int[][] frequencies) {
+		int[] keys = counts.keys();
+		Arrays.sort(keys);
+		frequencies[0] = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			frequencies[0][i] = counts.get(keys[i]);
+		}
+		return keys;
+	}
+
+	/** The dense histogram of lengths, indexed by length up to <code>size - 1</code>. */
+	public int[] getLengthHistogram (int size) {
+		int[] histogram = new int[size];
+		int[] keys = lengthCounts.keys();
+		for (int i = 0; i < keys.length; i++) {
+			histogram[keys[i]] = lengthCounts.get(keys[i]);
+		}
+		return histogram;
+	}
+
+	/** The dense histograms, indexed by <dimension, count> with counts up to <code>size - 1</code>. */
+	public int[][] getHistograms (int size) {
+		int[][] histograms = new int[dimensionCounts.length][size];
+		for (int dimension = 0; dimension < dimensionCounts.length; dimension++) {
+			int[] keys = dimensionCounts[dimension].keys();
+			for (int i = 0; i < keys.length; i++) {
+				histograms[dimension][keys[i]] = dimensionCounts[dimension].get(keys[i]);
+			}
+		}
+		return histograms;
+	}
+
+	/** The dense histogram of counts summed over all dimensions, as used for a symmetric Dirichlet. */
+	public int[] getSummedHistogram (int size) {
+		int[] histogram = new int[size];
+		for (TIntIntHashMap counts : dimensionCounts) {
+			int[] keys = counts.keys();
+			for (int i = 0; i < keys.length; i++) {
+				histogram[keys[i]] += counts.get(keys[i]);
+			}
+		}
+		return histogram;
+	}
+
+	private static final long serialVersionUID = 1;
+}
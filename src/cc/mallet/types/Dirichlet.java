@@ -19,6 +19,11 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import cc.mallet.types.Multinomial;
 import cc.mallet.util.Maths;
@@ -43,16 +48,16 @@ public class Dirichlet {
 	public static final double PI_SQUARED_OVER_SIX = Math.PI * Math.PI / 6;
 	public static final double HALF_LOG_TWO_PI = Math.log(2 * Math.PI) / 2;
 
-	public static final double DIGAMMA_COEF_1 = 1/12;
-	public static final double DIGAMMA_COEF_2 = 1/120;
-	public static final double DIGAMMA_COEF_3 = 1/252;
-	public static final double DIGAMMA_COEF_4 = 1/240;
-	public static final double DIGAMMA_COEF_5 = 1/132;
-	public static final double DIGAMMA_COEF_6 = 691/32760;
-	public static final double DIGAMMA_COEF_7 = 1/12;
-	public static final double DIGAMMA_COEF_8 = 3617/8160;
-	public static final double DIGAMMA_COEF_9 = 43867/14364;
-	public static final double DIGAMMA_COEF_10 = 174611/6600;
+	public static final double DIGAMMA_COEF_1 = 1.0/12;
+	public static final double DIGAMMA_COEF_2 = 1.0/120;
+	public static final double DIGAMMA_COEF_3 = 1.0/252;
+	public static final double DIGAMMA_COEF_4 = 1.0/240;
+	public static final double DIGAMMA_COEF_5 = 1.0/132;
+	public static final double DIGAMMA_COEF_6 = 691.0/32760;
+	public static final double DIGAMMA_COEF_7 = 1.0/12;
+	public static final double DIGAMMA_COEF_8 = 3617.0/8160;
+	public static final double DIGAMMA_COEF_9 = 43867.0/14364;
+	public static final double DIGAMMA_COEF_10 = 174611.0/6600;
 
 	public static final double DIGAMMA_LARGE = 9.5;
 	public static final double DIGAMMA_SMALL = .000001;
@@ -657,7 +662,137 @@ Bernoulli numbers. */
 		return parametersSum;
 	}
 
+	/**
+	 * Learn Dirichlet parameters from sparse histograms, with the defaults of
+	 *  {@link #learnParameters(double[], int[][], int[])}, on this thread.
+	 */
+	public static double learnParameters(double[] parameters, CountHistograms histograms) {
+		return learnParameters(parameters, histograms, 1.00001, 1.0, 200, null, 1);
+	}
+
+	/**
+	 * Learn Dirichlet parameters using sparse frequency histograms. This is the fixed point
+	 *  iteration of {@link #learnParameters(double[], int[][], int[], double, double, int)}, but each
+	 *  iteration only visits the recorded counts, and jumps over long gaps between them with a digamma
+	 *  difference. The parameters are independent within an iteration, so they are split into
+	 *  <code>numTasks</code> ranges that run on the executor.
+	 *
+	 * @param parameters A reference to the current values of the parameters, which will be updated in place
+	 * @param histograms For each parameter, the number of observations with each count, and the lengths of the observations
+	 * @param shape Gamma prior E(X) = shape * scale, var(X) = shape * scale<sup>2</sup>
+	 * @param scale
+	 * @param numIterations 200 to 1000 generally insures convergence, but 1-5 is often enough to step in the right direction
+	 * @param executor Runs the parameter ranges, or null to run them on this thread
+	 * @param numTasks The number of parameter ranges
+	 * @returns The sum of the learned parameters.
+	 */
+	public static double learnParameters(final double[] parameters,
+										 CountHistograms histograms,
+										 final double shape, double scale,
+										 int numIterations,
+										 ExecutorService executor, int numTasks) {
+
+		double parametersSum = 0;
+		for (int k = 0; k < parameters.length; k++) {
+			parametersSum += parameters[k];
+		}
+
+		int[][] frequencies = new int[1][];
+		final int[][] counts = new int[parameters.length][];
+		final int[][] countFrequencies = new int[parameters.length][];
+		for (int k = 0; k < parameters.length; k++) {
+			counts[k] = histograms.getSortedCounts(k, frequencies);
+			countFrequencies[k] = frequencies[0];
+		}
+		int[] lengths = histograms.getSortedLengths(frequencies);
+		int[] lengthFrequencies = frequencies[0];
+
+		numTasks = executor == null ? 1 : Math.max(1, Math.min(numTasks, parameters.length));
+		final double[] partialSums = new double[numTasks];
+		final double[] denominator = new double[1];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numTasks);
+		for (int task = 0; task < numTasks; task++) {
+			final int part = task;
+			final int first = (int) ((long) parameters.length * task / numTasks);
+			final int last = (int) ((long) parameters.length * (task + 1) / numTasks);
+			tasks.add(new Callable<Object>() {
+					public Object call() {
+						double sum = 0;
+						for (int k = first; k < last; k++) {
+							double oldParametersK = parameters[k];
+							parameters[k] = (oldParametersK *
+											 digammaDifferenceSum(oldParametersK, counts[k], countFrequencies[k]) +
+											 shape) / denominator[0];
+							sum += parameters[k];
+						}
+						partialSums[part] = sum;
+						return null;
+					}
+				});
+		}
+
+		for (int iteration=0; iteration<numIterations; iteration++) {
+
+			// Bayesian estimation Part I
+			denominator[0] = digammaDifferenceSum(parametersSum, lengths, lengthFrequencies) - 1/scale;
 
+			// Calculate the individual parameters
+			if (executor == null) {
+				try {
+					tasks.get(0).call();
+				} catch (Exception e) {
+					throw new IllegalStateException("Dirichlet estimation failed", e);
+				}
+			}
+			else {
+				try {
+					for (Future<Object> future : executor.invokeAll(tasks)) {
+						future.get();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Dirichlet estimation was interrupted", e);
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Dirichlet estimation failed", e.getCause());
+				}
+			}
+
+			// Summed in task order, so the result does not depend on the threads
+			parametersSum = 0;
+			for (int task = 0; task < numTasks; task++) {
+				parametersSum += partialSums[task];
+			}
+		}
+
+		return parametersSum;
+	}
+
+	/** Gaps between recorded counts longer than this use a digamma difference instead of a sum of 1 / (x + i). */
+	private static final int DIGAMMA_GAP = 64;
+
+	/**
+	 *  The sum over the sorted counts n of frequency(n) * (digamma(x + n) - digamma(x)),
+	 *   the sum for each count continuing from the one before it.
+	 */
+	private static double digammaDifferenceSum(double x, int[] sortedCounts, int[] frequencies) {
+		double result = 0;
+		double currentDigamma = 0;
+		int previous = 0;
+		for (int i = 0; i < sortedCounts.length; i++) {
+			int count = sortedCounts[i];
+			if (count - previous > DIGAMMA_GAP) {
+				currentDigamma += digamma(x + count) - digamma(x + previous);
+			}
+			else {
+				for (int j = previous; j < count; j++) {
+					currentDigamma += 1 / (x + j);
+				}
+			}
+			previous = count;
+			result += frequencies[i] * currentDigamma;
+		}
+		return result;
+	}
 
 	/** Use the fixed point iteration described by Tom Minka. */
 	public long learnParametersWithHistogram(Object[] observations) {
@@ -0,0 +1,82 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *	An immutable open-addressed table from the String entries of an alphabet to their indices,
+ *	 looked up by the characters of any CharSequence so that no String has to be made.
+ *	The hash of a key is that of {@link String#hashCode()}, so the entries' cached hashes are reused.
+ */
+
+final class FrozenStringIndex {
+
+	final String[] keys; // indexed by <slot>
+	final int[] hashes;
+	final int[] indices; // -1 for an empty slot
+	final int mask;
+
+	FrozenStringIndex (List<?> entries) {
+		int capacity = 2;
+		while (capacity < 2 * entries.size()) { capacity <<= 1; }
+		keys = new String[capacity];
+		hashes = new int[capacity];
+		indices = new int[capacity];
+		Arrays.fill(indices, -1);
+		mask = capacity - 1;
+
+		for (int index = 0; index < entries.size(); index++) {
+			String key = (String) entries.get(index);
+			int hash = key.hashCode();
+			int slot = spread(hash) & mask;
+			while (indices[slot] >= 0) { slot = (slot + 1) & mask; }
+			keys[slot] = key;
+			hashes[slot] = hash;
+			indices[slot] = index;
+		}
+	}
+
+	private static int spread (int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/** The index of the key, or -1 if it is not in the table. */
+	int get (String key) {
+		int hash = key.hashCode();
+		for (int slot = spread(hash) & mask; indices[slot] >= 0; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && keys[slot].equals(key)) {
+				return indices[slot];
+			}
+		}
+		return -1;
+	}
+
+	/** The index of the key with the characters <code>chars[start, end)</code>, or -1 if it is not in the table. */
+	int get (CharSequence chars, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + chars.charAt(i);
+		}
+		for (int slot = spread(hash) & mask; indices[slot] >= 0; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && matches(keys[slot], chars, start, end)) {
+				return indices[slot];
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches (String key, CharSequence chars, int start, int end) {
+		if (key.length() != end - start) { return false; }
+		for (int i = 0; i < key.length(); i++) {
+			if (key.charAt(i) != chars.charAt(start + i)) { return false; }
+		}
+		return true;
+	}
+}
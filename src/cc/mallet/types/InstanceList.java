@@ -27,6 +27,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 import cc.mallet.pipe.FeatureSequence2FeatureVector;
@@ -273,6 +275,31 @@ public class InstanceList extends ArrayList<Instance> implements Serializable, I
 		}
 	}
 	
+	/**
+	 * Adds the instances of the iterator to this list after passing them through
+	 * the list's pipe, running the pipes that are safe to run concurrently
+	 * (see {@link Pipe#isConcurrent()}) on <code>numThreads</code> threads.
+	 * The pipes that add to alphabets still run one instance at a time, and the
+	 * instances are added in the order of the iterator, so the list and its
+	 * alphabets are the same as those of {@link #addThruPipe(Iterator)}, unless
+	 * a pipe adds to a {@link ConcurrentAlphabet}.
+	 */
+	public void addThruPipe (Iterator<Instance> ii, int numThreads)
+	{
+		if (numThreads <= 1 || !(pipe instanceof SerialPipes)) {
+			addThruPipe (ii);
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			Iterator<Instance> pipedInstanceIterator = ((SerialPipes) pipe).newIteratorFrom(ii, executor, numThreads);
+			while (pipedInstanceIterator.hasNext())
+				add (pipedInstanceIterator.next());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	// gsc: method to add one instance at a time 
 	/** Adds the input instance to this list, after passing it through the
 	 * InstanceList's pipe.
@@ -780,10 +807,13 @@ public InstanceList[] splitInOrder (double[] proportions) {
 	}
 
 	/** Constructs a new <code>InstanceList</code>, deserialized from <code>file</code>.  If the
-			string value of <code>file</code> is "-", then deserialize from {@link System.in}. */
+			string value of <code>file</code> is "-", then deserialize from {@link System.in}.
+			Files written by {@link #saveBinary(File)} are read through {@link BinaryInstanceList}. */
 	public static InstanceList load (File file)
 	{
 		try {
+			if (BinaryInstanceList.isBinary (file))
+				return BinaryInstanceList.load (file);
 			ObjectInputStream ois;
 			if (file.toString().equals("-"))
 				ois = new ObjectInputStream (System.in);
@@ -799,6 +829,32 @@ public InstanceList[] splitInOrder (double[] proportions) {
 		}
 	}
 
+	/** Reads only the pipe of a list saved by {@link #save(File)} or {@link #saveBinary(File)}.
+			The pipe of a serialized list comes after its instances, which are read and dropped
+			one at a time, so the list is never held in memory. */
+	public static Pipe loadPipe (File file)
+	{
+		try {
+			if (BinaryInstanceList.isBinary (file)) {
+				BinaryInstanceList list = BinaryInstanceList.open (file);
+				list.close();
+				return list.getPipe();
+			}
+			ObjectInputStream ois = new ObjectInputStream (new BufferedInputStream(new FileInputStream (file))) {
+				{ enableResolveObject (true); }
+				protected Object resolveObject (Object object) {
+					return object instanceof Instance ? null : object;
+				}
+			};
+			InstanceList ilist = (InstanceList) ois.readObject();
+			ois.close();
+			return ilist.getPipe();
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new IllegalArgumentException ("Couldn't read the pipe of the InstanceList in file "+file);
+		}
+	}
+
 	/** Saves this <code>InstanceList</code> to <code>file</code>.
 			If the string value of <code>file</code> is "-", then
 			serialize to {@link System.out}. */
@@ -818,6 +874,19 @@ public InstanceList[] splitInOrder (double[] proportions) {
 		}
 	}
 
+	/** Saves this <code>InstanceList</code> of feature sequences to <code>file</code> in the
+			format of {@link BinaryInstanceList}, with the pipe and alphabets in a second file
+			beside it.  The list is read back with {@link #load(File)}. */
+	public void saveBinary (File file)
+	{
+		try {
+			BinaryInstanceList.save (this, file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new IllegalArgumentException ("Couldn't save InstanceList to file "+file);
+		}
+	}
+
 	// Serialization of InstanceList
 
 	private static final long serialVersionUID = 1;
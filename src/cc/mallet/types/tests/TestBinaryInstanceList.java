@@ -0,0 +1,205 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+
+import junit.framework.*;
+
+import cc.mallet.pipe.*;
+import cc.mallet.types.*;
+
+/**
+ * Writes instance lists in the binary format and checks that they read back the same,
+ * through the mapped list and through {@link InstanceList#load(File)}.
+ */
+public class TestBinaryInstanceList extends TestCase
+{
+	static final String[] WORDS = { "apple", "pear", "plum", "fig", "lime", "kiwi", "date" };
+
+	File file;
+
+	public TestBinaryInstanceList (String name)
+	{
+		super (name);
+	}
+
+	protected void setUp () throws IOException
+	{
+		file = File.createTempFile ("binaryInstances", ".mallet");
+	}
+
+	protected void tearDown ()
+	{
+		BinaryInstanceList.alphabetsFile (file).delete ();
+		file.delete ();
+	}
+
+	private static InstanceList makeInstances (int numDocs)
+	{
+		InstanceList instances = new InstanceList (new SerialPipes (new Pipe[] {
+			new Target2Label (),
+			new CharSequence2TokenSequence (),
+			new TokenSequence2FeatureSequence (),
+		}));
+		for (int doc = 0; doc < numDocs; doc++) {
+			StringBuilder text = new StringBuilder ();
+			// Some documents are empty
+			for (int position = 0; position < (doc * 7) % 11; position++)
+				text.append (WORDS[(doc + position * position) % WORDS.length]).append (' ');
+			instances.addThruPipe (new Instance (text.toString (), "label" + doc % 3,
+			                                     URI.create ("file:/corpus/d%C3%A9j%C3%A0/" + doc),
+			                                     new File ("/corpus/déjà/" + doc)));
+		}
+		return instances;
+	}
+
+	private static void assertSameInstance (Instance expected, Instance actual)
+	{
+		FeatureSequence expectedTokens = (FeatureSequence) expected.getData ();
+		FeatureSequence actualTokens = (FeatureSequence) actual.getData ();
+		assertEquals (expectedTokens.getLength (), actualTokens.getLength ());
+		assertEquals (expectedTokens.getLength (), actualTokens.getFeatures ().length);
+		for (int position = 0; position < expectedTokens.getLength (); position++)
+			assertEquals (expectedTokens.getIndexAtPosition (position), actualTokens.getIndexAtPosition (position));
+		assertEquals (expected.getTarget (), actual.getTarget ());
+		assertEquals (expected.getName (), actual.getName ());
+		assertEquals (expected.getSource (), actual.getSource ());
+	}
+
+	public void testRoundTrip () throws IOException
+	{
+		InstanceList instances = makeInstances (40);
+		instances.saveBinary (file);
+		assertTrue (BinaryInstanceList.isBinary (file));
+
+		BinaryInstanceList list = BinaryInstanceList.open (file);
+		try {
+			assertEquals (instances.size (), list.size ());
+			assertEquals (instances.getDataAlphabet ().size (), list.getDataAlphabet ().size ());
+			// The pipe and the list share the alphabets they were written with
+			assertSame (list.getPipe ().getDataAlphabet (), list.getDataAlphabet ());
+			assertSame (list.getPipe ().getTargetAlphabet (), list.getTargetAlphabet ());
+
+			long numTokens = 0;
+			Iterator<Instance> iterator = list.iterator ();
+			for (int doc = 0; doc < instances.size (); doc++) {
+				Instance expected = instances.get (doc);
+				int length = ((FeatureSequence) expected.getData ()).getLength ();
+				assertEquals (numTokens, list.getOffset (doc));
+				assertEquals (length, list.getLength (doc));
+				assertEquals (((Label) expected.getTarget ()).getIndex (), list.getLabelIndex (doc));
+
+				IntBuffer tokens = list.getTokens (doc);
+				assertEquals (length, tokens.remaining ());
+				for (int position = 0; position < length; position++)
+					assertEquals (((FeatureSequence) expected.getData ()).getIndexAtPosition (position), tokens.get (position));
+
+				assertSameInstance (expected, list.get (doc));
+				assertSameInstance (expected, iterator.next ());
+				numTokens += length;
+			}
+			assertFalse (iterator.hasNext ());
+			assertEquals (numTokens, list.getNumTokens ());
+			assertEquals (numTokens, list.getOffset (list.size ()));
+		} finally {
+			list.close ();
+		}
+
+		InstanceList loaded = InstanceList.load (file);
+		assertEquals (instances.size (), loaded.size ());
+		for (int doc = 0; doc < instances.size (); doc++)
+			assertSameInstance (instances.get (doc), loaded.get (doc));
+		assertSame (loaded.getPipe ().getDataAlphabet (), loaded.getDataAlphabet ());
+		assertEquals (instances.getDataAlphabet ().size (), InstanceList.loadPipe (file).getDataAlphabet ().size ());
+	}
+
+	public void testEmptyInstances () throws IOException
+	{
+		// No tokens at all, so nothing is mapped for the tokens
+		InstanceList instances = makeInstances (0);
+		for (int doc = 0; doc < 3; doc++)
+			instances.addThruPipe (new Instance ("", "label" + doc, "empty" + doc, null));
+		instances.saveBinary (file);
+
+		BinaryInstanceList list = BinaryInstanceList.open (file);
+		try {
+			assertEquals (0, list.getNumTokens ());
+			for (int doc = 0; doc < instances.size (); doc++) {
+				assertEquals (0, list.getLength (doc));
+				assertEquals (0, list.getTokens (doc).remaining ());
+				assertEquals (0, list.getFeatureSequence (doc).getLength ());
+				assertSameInstance (instances.get (doc), list.get (doc));
+			}
+			InstanceList copy = list.toInstanceList ();
+			assertEquals (instances.size (), copy.size ());
+		} finally {
+			list.close ();
+		}
+		InstanceList loaded = InstanceList.load (file);
+		for (int doc = 0; doc < instances.size (); doc++)
+			assertSameInstance (instances.get (doc), loaded.get (doc));
+
+		// Empty instances after the last token start at the number of tokens
+		instances = makeInstances (2);
+		for (int doc = 0; doc < 2; doc++)
+			instances.addThruPipe (new Instance ("", "label" + doc, URI.create ("file:/corpus/empty" + doc),
+			                                     new File ("/corpus/empty" + doc)));
+		instances.saveBinary (file);
+		list = BinaryInstanceList.open (file);
+		try {
+			assertEquals (list.getNumTokens (), list.getOffset (instances.size () - 1));
+			for (int doc = 0; doc < instances.size (); doc++)
+				assertSameInstance (instances.get (doc), list.get (doc));
+		} finally {
+			list.close ();
+		}
+	}
+
+	public void testNewerVersion () throws IOException
+	{
+		makeInstances (5).saveBinary (file);
+		RandomAccessFile out = new RandomAccessFile (file, "rw");
+		try {
+			// The version follows the magic number
+			out.seek (4);
+			out.writeInt (BinaryInstanceList.CURRENT_VERSION + 1);
+		} finally {
+			out.close ();
+		}
+		assertTrue (BinaryInstanceList.isBinary (file));
+		try {
+			BinaryInstanceList.open (file).close ();
+			fail ("a list of a newer version");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testSerializedIsNotBinary () throws IOException
+	{
+		makeInstances (5).save (file);
+		assertFalse (BinaryInstanceList.isBinary (file));
+		assertEquals (5, InstanceList.load (file).size ());
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestBinaryInstanceList.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
@@ -0,0 +1,159 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types.tests;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.*;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.ConcurrentAlphabet;
+
+public class TestConcurrentAlphabet extends TestCase
+{
+	static final int NUM_WORDS = 5000;
+	static final int NUM_THREADS = 4;
+
+	public TestConcurrentAlphabet (String name)
+	{
+		super (name);
+	}
+
+	public void testNotFound ()
+	{
+		Alphabet dict = new ConcurrentAlphabet ();
+		dict.lookupIndex ("TEST1");
+		dict.lookupIndex ("TEST2");
+		dict.lookupIndex ("TEST3");
+		assertEquals (-1, dict.lookupIndex ("TEST4", false));
+		assertEquals (3, dict.size());
+		assertEquals (3, dict.lookupIndex ("TEST4", true));
+		assertEquals (1, dict.lookupIndex ("TEST2", false));
+		assertEquals ("TEST2", dict.lookupObject (1));
+		assertTrue (dict.contains ("TEST4"));
+		assertFalse (dict.contains ("TEST5"));
+
+		try {
+			dict.lookupIndex (Integer.valueOf (5));
+			fail ("an Integer entry in an alphabet of Strings");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testStopGrowth ()
+	{
+		Alphabet dict = new ConcurrentAlphabet ();
+		dict.lookupIndex ("apple");
+		dict.lookupIndex ("pear");
+		dict.stopGrowth ();
+		assertEquals (-1, dict.lookupIndex ("plum"));
+		assertEquals (2, dict.size());
+		assertEquals (1, dict.lookupIndex ("pear"));
+		assertEquals (1, dict.lookupIndex (CharBuffer.wrap ("a pear tree"), 2, 6));
+
+		dict.startGrowth ();
+		assertEquals (2, dict.lookupIndex ("plum"));
+		assertEquals (2, dict.lookupIndex (CharBuffer.wrap ("plum"), 0, 4));
+	}
+
+	/** Threads that add overlapping words at once get the same consecutive indices for the same words. */
+	public void testConcurrentGrowth () throws Exception
+	{
+		final ConcurrentAlphabet dict = new ConcurrentAlphabet ();
+		ExecutorService executor = Executors.newFixedThreadPool (NUM_THREADS);
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>> ();
+		try {
+			for (int thread = 0; thread < NUM_THREADS; thread++) {
+				final int offset = thread * NUM_WORDS / (2 * NUM_THREADS);
+				futures.add (executor.submit (new Callable<int[]> () {
+					public int[] call () {
+						// Each thread looks up every word, starting at a different one
+						int[] indices = new int[NUM_WORDS];
+						for (int i = 0; i < NUM_WORDS; i++) {
+							int word = (offset + i) % NUM_WORDS;
+							indices[word] = dict.lookupIndex ("word" + word);
+							assertEquals ("word" + word, dict.lookupObject (indices[word]));
+						}
+						return indices;
+					}
+				}));
+			}
+			int[] expected = futures.get(0).get();
+			for (Future<int[]> future : futures) {
+				int[] indices = future.get();
+				for (int word = 0; word < NUM_WORDS; word++)
+					assertEquals ("word" + word, expected[word], indices[word]);
+			}
+		} finally {
+			executor.shutdown ();
+		}
+
+		assertEquals (NUM_WORDS, dict.size());
+		Set<Integer> indices = new HashSet<Integer> ();
+		for (int word = 0; word < NUM_WORDS; word++) {
+			int index = dict.lookupIndex ("word" + word, false);
+			assertTrue (index >= 0 && index < NUM_WORDS);
+			assertTrue (indices.add (index));
+			assertEquals ("word" + word, dict.lookupObject (index));
+		}
+
+		// The entries in the order of their indices
+		Object[] entries = dict.toArray ();
+		assertEquals (NUM_WORDS, entries.length);
+		Iterator<?> iterator = dict.iterator ();
+		for (int index = 0; index < NUM_WORDS; index++) {
+			assertEquals (dict.lookupObject (index), entries[index]);
+			assertEquals (entries[index], iterator.next ());
+		}
+		assertFalse (iterator.hasNext ());
+	}
+
+	public void testClone ()
+	{
+		ConcurrentAlphabet dict = new ConcurrentAlphabet ();
+		for (int word = 0; word < 100; word++)
+			dict.lookupIndex ("word" + word);
+		dict.stopGrowth ();
+
+		Alphabet clone = (Alphabet) dict.clone ();
+		assertTrue (clone instanceof ConcurrentAlphabet);
+		assertTrue (clone.growthStopped ());
+		assertEquals (dict.size (), clone.size ());
+		for (int index = 0; index < dict.size (); index++)
+			assertEquals (dict.lookupObject (index), clone.lookupObject (index));
+	}
+
+	public void testReadResolve () throws Exception
+	{
+		ConcurrentAlphabet dict = new ConcurrentAlphabet ();
+		dict.lookupIndex ("TEST1");
+		dict.lookupIndex ("TEST2");
+		Alphabet dict2 = (Alphabet) TestSerializable.cloneViaSerialization (dict);
+		assertTrue (dict == dict2);
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestConcurrentAlphabet.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
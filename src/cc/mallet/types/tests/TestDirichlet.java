@@ -0,0 +1,105 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types.tests;
+
+import cc.mallet.types.CountHistograms;
+import cc.mallet.types.Dirichlet;
+import cc.mallet.util.Randoms;
+import junit.framework.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestDirichlet extends TestCase
+{
+	public TestDirichlet (String name)
+	{
+		super (name);
+	}
+
+	public void testDigamma ()
+	{
+		// Reference values of the digamma function
+		assertEquals (-10.423754940411076, Dirichlet.digamma (0.1), 1e-10);
+		assertEquals (-1.9635100260214235, Dirichlet.digamma (0.5), 1e-10);
+		assertEquals (-0.5772156649015329, Dirichlet.digamma (1.0), 1e-10);
+		assertEquals (0.7031566406452432, Dirichlet.digamma (2.5), 1e-10);
+		assertEquals (2.251752589066721, Dirichlet.digamma (10.0), 1e-10);
+		assertEquals (4.600161852738087, Dirichlet.digamma (100.0), 1e-10);
+
+		// psi(z + 1) = psi(z) + 1/z, across the switch to the asymptotic series
+		for (double z = 0.05; z < 30; z += 0.37)
+			assertEquals ("z = " + z, Dirichlet.digamma (z) + 1 / z, Dirichlet.digamma (z + 1), 1e-10);
+	}
+
+	/** Dense histograms of documents whose topic counts are spread over a wide range, with long gaps. */
+	private static CountHistograms randomHistograms (int numTopics, int numDocs, Randoms random)
+	{
+		CountHistograms histograms = new CountHistograms (numTopics);
+		for (int doc = 0; doc < numDocs; doc++) {
+			int length = 0;
+			for (int topic = 0; topic < numTopics; topic++) {
+				int count = random.nextInt (4) == 0 ? random.nextInt (500) : random.nextInt (5);
+				histograms.addCount (topic, count);
+				length += count;
+			}
+			histograms.addLength (length);
+		}
+		return histograms;
+	}
+
+	public void testSparseLearnParametersMatchesDense ()
+	{
+		int numTopics = 7;
+		CountHistograms histograms = randomHistograms (numTopics, 300, new Randoms (1));
+		int size = histograms.getMaxLength() + 1;
+		int[][] dense = histograms.getHistograms (size);
+		int[] denseLengths = histograms.getLengthHistogram (size);
+
+		double[] expected = new double[numTopics];
+		double[] sparse = new double[numTopics];
+		double[] parallel = new double[numTopics];
+		for (int topic = 0; topic < numTopics; topic++)
+			expected[topic] = sparse[topic] = parallel[topic] = 0.1 * (topic + 1);
+
+		double expectedSum = Dirichlet.learnParameters (expected, dense, denseLengths, 1.001, 1.0, 50);
+		double sparseSum = Dirichlet.learnParameters (sparse, histograms, 1.001, 1.0, 50, null, 1);
+		ExecutorService executor = Executors.newFixedThreadPool (3);
+		double parallelSum;
+		try {
+			parallelSum = Dirichlet.learnParameters (parallel, histograms, 1.001, 1.0, 50, executor, 3);
+		} finally {
+			executor.shutdown ();
+		}
+
+		// The parallel sum adds the same terms in ranges, so only the last bits may differ
+		assertEquals (expectedSum, sparseSum, 1e-9 * expectedSum);
+		assertEquals (sparseSum, parallelSum, 1e-12 * sparseSum);
+		for (int topic = 0; topic < numTopics; topic++) {
+			assertEquals (expected[topic], sparse[topic], 1e-9 * expected[topic]);
+			assertEquals (sparse[topic], parallel[topic], 1e-12 * sparse[topic]);
+		}
+
+		// The dense histograms convert back to the same sparse ones
+		CountHistograms converted = CountHistograms.fromDense (dense, denseLengths);
+		double[] fromDense = new double[numTopics];
+		for (int topic = 0; topic < numTopics; topic++)
+			fromDense[topic] = 0.1 * (topic + 1);
+		assertEquals (sparseSum, Dirichlet.learnParameters (fromDense, converted, 1.001, 1.0, 50, null, 1), 0.0);
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestDirichlet.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
@@ -0,0 +1,118 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.types.tests;
+
+import java.nio.CharBuffer;
+
+import junit.framework.*;
+
+import cc.mallet.types.Alphabet;
+
+/**
+ * Checks the lookups of a String alphabet whose growth is stopped, which go
+ * through its compiled table, against the lookups while it still grows.
+ */
+public class TestFrozenStringIndex extends TestCase
+{
+	// "Aa" and "BB" have the same String hash, as have "AaAa", "AaBB", "BBAa" and "BBBB"
+	static final String[] COLLIDING = { "Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB" };
+
+	public TestFrozenStringIndex (String name)
+	{
+		super (name);
+	}
+
+	private static Alphabet newAlphabet (int numWords)
+	{
+		Alphabet dict = new Alphabet ();
+		for (String word : COLLIDING)
+			dict.lookupIndex (word);
+		for (int word = 0; word < numWords; word++)
+			dict.lookupIndex ("word" + word);
+		dict.lookupIndex ("");
+		dict.lookupIndex ("café");
+		return dict;
+	}
+
+	public void testFrozenMatchesGrowing ()
+	{
+		Alphabet dict = newAlphabet (3000);
+		int size = dict.size ();
+		int[] growing = new int[size];
+		for (int index = 0; index < size; index++)
+			growing[index] = dict.lookupIndex (dict.lookupObject (index), false);
+
+		dict.stopGrowth ();
+		for (int index = 0; index < size; index++) {
+			String word = (String) dict.lookupObject (index);
+			assertEquals (word, growing[index], dict.lookupIndex (word));
+			assertEquals (word, index, dict.lookupIndex (word, false));
+
+			// The same characters in the middle of other text, as a String and as a buffer
+			String text = "<" + word + ">";
+			assertEquals (word, index, dict.lookupIndex (text, 1, text.length () - 1));
+			assertEquals (word, index, dict.lookupIndex (CharBuffer.wrap (text), 1, text.length () - 1));
+		}
+		assertEquals (size, dict.size ());
+	}
+
+	public void testMissing ()
+	{
+		Alphabet dict = newAlphabet (100);
+		dict.stopGrowth ();
+		int size = dict.size ();
+		String[] missing = { "word100", "word", "ord1", "Ab", "AaA", "BBB", "AaAaAa", "cafe", "WORD1" };
+		for (String word : missing) {
+			assertEquals (word, -1, dict.lookupIndex (word));
+			assertEquals (word, -1, dict.lookupIndex (CharBuffer.wrap (word), 0, word.length ()));
+		}
+		// A part of an entry, or an entry with more around it, is not the entry
+		assertEquals (-1, dict.lookupIndex ("word10", 0, 4));
+		assertEquals (-1, dict.lookupIndex ("word10", 1, 6));
+		assertEquals (-1, dict.lookupIndex ("xword1", 0, 6));
+		assertEquals (size, dict.size ());
+	}
+
+	public void testStartGrowthDropsTable ()
+	{
+		Alphabet dict = newAlphabet (10);
+		dict.stopGrowth ();
+		assertEquals (-1, dict.lookupIndex ("new"));
+
+		dict.startGrowth ();
+		int index = dict.lookupIndex ("new");
+		assertEquals (dict.size () - 1, index);
+		dict.stopGrowth ();
+		assertEquals (index, dict.lookupIndex ("new"));
+		assertEquals (index, dict.lookupIndex ("a new word", 2, 5));
+	}
+
+	public void testNonStringEntries ()
+	{
+		Alphabet dict = new Alphabet ();
+		dict.lookupIndex (Integer.valueOf (1));
+		dict.stopGrowth ();
+		assertEquals (0, dict.lookupIndex (Integer.valueOf (1)));
+		try {
+			dict.lookupIndex ("1", 0, 1);
+			fail ("a character lookup in an alphabet of Integers");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestFrozenStringIndex.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+}
@@ -90,6 +90,11 @@ public class CharSequenceLexer implements Lexer, Serializable
 		return regex.pattern();
 	}
 
+	public Pattern getRegex()
+	{
+		return regex;
+	}
+
 	public void setPattern(String reg)// added by Fuchun
 	{
 		if(!regex.equals( getPattern() )){
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.classify;
+
+import cc.mallet.classify.Classification;
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.SerialPipes;
+import cc.mallet.types.*;
+import cc.mallet.util.MalletLogger;
+import edu.kaist.irlab.textcontrol.FeatureRowBuilder;
+import edu.kaist.irlab.textcontrol.TermWeight;
+import edu.kaist.irlab.topics.WeightedTopicInferencer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Classifies raw text in-process with the models of one feature set of an experiment: the pipe of the bag of words
+ * vectors, the topic inferencer, the term weight and the SVM classifier, all loaded once.
+ * <p/>
+ * A document gets the same row as VariedFeatureSetWriter writes for it, built by the same {@link FeatureRowBuilder}:
+ * the topic features first (inferred, pumped by the number of training documents), then the bag of words at the
+ * offset of the number of topics (term frequencies, or term weighted above the hurdle). The row is scored with the
+ * SVM weights. The topics are inferred from the tokens of the last FeatureSequence stage of the pipe, as the topic
+ * model saw them.
+ * <p/>
+ * Documents are gathered into micro-batches: {@link #submit} queues a document and a dispatcher thread takes up
+ * to <code>maxBatchSize</code> waiting documents (or what arrived within <code>maxDelayMillis</code>), runs them
+ * through the pipe, which is not thread safe, and infers their topics on the worker threads.
+ *
+ * @author Seonggyu Lee
+ */
+public class OnlineClassifier {
+
+    private static Logger logger = MalletLogger.getLogger(OnlineClassifier.class.getName());
+
+    final Pipe pipe;
+    final WeightedTopicInferencer inferencer; // null for bag of words only
+    final boolean useBow;
+    final MaxEnt classifier;
+    final FeatureRowBuilder rows;
+    final int numTopics;
+
+    final int[] inferencerTypes; // data alphabet index -> inferencer alphabet index, -1 if unknown
+    final int[] classifierFeatures; // row column -> classifier feature index, -1 if the classifier has no weight
+
+    int numIterations = 100;
+    int thinning = 10;
+    int burnIn = 10;
+
+    final int maxBatchSize;
+    final long maxDelayMillis;
+    final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+    ExecutorService workers;
+    Thread dispatcher;
+    volatile boolean running = false;
+
+    /**
+     * @param pipe            the pipe of the training instance list; its data alphabet does not grow any more.
+     *                        With an inferencer, a SerialPipes with a FeatureSequence stage.
+     * @param inferencer      topic inferencer of the feature set, null for bag of words only
+     * @param useBow          add the bag of words features
+     * @param termWeight      term weight of the bag of words, null for plain term frequencies
+     * @param classifier      the SVM trained on the feature set
+     * @param numTrainingDocs number of training documents, used for the term weight hurdle and the topic feature pumping
+     * @param numClasses      number of labels, used for the term weight hurdle
+     */
+    public OnlineClassifier(Pipe pipe, WeightedTopicInferencer inferencer, boolean useBow, TermWeight termWeight,
+                            MaxEnt classifier, int numTrainingDocs, int numClasses, int maxBatchSize, long maxDelayMillis) {
+        this.pipe = pipe;
+        this.inferencer = inferencer;
+        this.useBow = useBow;
+        this.classifier = classifier;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayMillis = maxDelayMillis;
+        this.numTopics = inferencer != null ? inferencer.getNumTopics() : 0;
+        if (inferencer != null && !(pipe instanceof SerialPipes)) {
+            throw new IllegalArgumentException("Topic features need the tokens of a FeatureSequence stage of a SerialPipes, found "
+                    + pipe.getClass().getName());
+        }
+
+        // Words not seen in training are dropped, and the lookups below stay valid.
+        // The row builder has all the term weights once the alphabet is stopped, so the workers can share it.
+        Alphabet dataAlphabet = pipe.getDataAlphabet();
+        dataAlphabet.stopGrowth();
+        int numWords = dataAlphabet.size();
+        rows = new FeatureRowBuilder(dataAlphabet, useBow ? termWeight : null, numTrainingDocs, numClasses);
+
+        if (inferencer != null) {
+            inferencerTypes = new int[numWords];
+            for (int i = 0; i < numWords; i++) {
+                inferencerTypes[i] = inferencer.getAlphabet().lookupIndex(dataAlphabet.lookupObject(i), false);
+            }
+        } else {
+            inferencerTypes = null;
+        }
+
+        // The classifier features are the column numbers of the SVMlight rows (starting at 1),
+        // or the words when a bag of words only matrix kept them.
+        Alphabet classifierAlphabet = classifier.getAlphabet();
+        boolean namedColumns = false;
+        for (int i = 0; i < classifierAlphabet.size() && !namedColumns; i++) {
+            namedColumns = !isColumnNumber(classifierAlphabet.lookupObject(i));
+        }
+        int numColumns = numTopics + (useBow ? numWords : 0);
+        classifierFeatures = new int[numColumns];
+        for (int column = 0; column < numColumns; column++) {
+            Object name = namedColumns && column >= numTopics ? dataAlphabet.lookupObject(column - numTopics)
+                    : Integer.toString(column + 1);
+            int feature = classifierAlphabet.lookupIndex(name, false);
+            classifierFeatures[column] = feature < classifier.getDefaultFeatureIndex() ? feature : -1;
+        }
+    }
+
+    private static boolean isColumnNumber(Object name) {
+        String s = name.toString();
+        if (s.length() == 0) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /** Gibbs sampling parameters of the topic inference. */
+    public void setSamplingParameters(int numIterations, int thinning, int burnIn) {
+        this.numIterations = numIterations;
+        this.thinning = thinning;
+        this.burnIn = burnIn;
+    }
+
+    public MaxEnt getClassifier() { return classifier; }
+
+    public int getNumTopics() { return numTopics; }
+
+    /** Start the dispatcher and <code>numThreads</code> worker threads. */
+    public synchronized void start(int numThreads) {
+        if (running) return;
+        running = true;
+        workers = Executors.newFixedThreadPool(Math.max(1, numThreads), new ThreadFactory() {
+            int count = 0;
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "online-classifier-" + (count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dispatcher = new Thread(new Runnable() {
+            public void run() {
+                dispatch();
+            }
+        }, "online-classifier-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /** Stop taking documents. Documents already queued are classified before the dispatcher ends. */
+    public synchronized void shutdown() throws InterruptedException {
+        if (!running) return;
+        running = false;
+        dispatcher.interrupt();
+        dispatcher.join();
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue one document. The future is done when its micro-batch has been classified.
+     * Queuing holds the same lock as {@link #shutdown}, so a document is either queued before the dispatcher
+     * drains the queue or refused.
+     */
+    public synchronized Future<Result> submit(String name, String text) {
+        if (!running) throw new IllegalStateException("The classifier is not started.");
+        Request request = new Request(name, text);
+        queue.add(request);
+        return request.task;
+    }
+
+    /** Classify a batch of documents and wait for all of them. */
+    public List<Result> classify(List<String> names, List<String> texts) throws IOException {
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            futures.add(submit(names != null ? names.get(i) : Integer.toString(i), texts.get(i)));
+        }
+        List<Result> results = new ArrayList<Result>(texts.size());
+        try {
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Classification was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Classification failed.", e.getCause());
+        }
+        return results;
+    }
+
+    /** Classify one document on the calling thread, without the queue. */
+    public Result classify(String name, String text) {
+        return classify(name, pipe(name, text));
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<Request>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Request first = running ? queue.take() : queue.poll();
+                if (first == null) break;
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + maxDelayMillis;
+                while (batch.size() < maxBatchSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    Request next = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // shutdown: classify what is queued, then stop
+                if (batch.isEmpty()) continue;
+            }
+
+            // The batch goes through the pipe here, the topic inference runs on the workers
+            for (Request request : batch) {
+                try {
+                    request.piped = pipe(request.name, request.text);
+                } catch (RuntimeException e) {
+                    request.error = e;
+                }
+                workers.execute(request.task);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Run the text through the pipe, keeping the last feature sequence for the topic inference.
+     * The pipe keeps state (lexer, alphabets), so one document goes through it at a time.
+     * The counts of the bag of words are not turned back into tokens: their order and the pipes after the
+     * FeatureSequence stage would give the topic model a different document than in training.
+     */
+    Piped pipe(String name, String text) {
+        Instance carrier = new Instance(text, null, name, null);
+        FeatureSequence tokens = null;
+        synchronized (pipe) {
+            if (pipe instanceof SerialPipes) {
+                for (Pipe p : ((SerialPipes) pipe).pipes()) {
+                    carrier = p.pipe(carrier);
+                    if (carrier.getData() instanceof FeatureSequence) tokens = (FeatureSequence) carrier.getData();
+                }
+            } else {
+                carrier = pipe.pipe(carrier);
+            }
+        }
+        FeatureVector fv = (FeatureVector) carrier.getData();
+        if (inferencer == null) return new Piped(fv, null);
+
+        if (tokens == null) {
+            throw new IllegalArgumentException("The pipe has no FeatureSequence stage for the topic inference of " + name);
+        }
+
+        // The topic model has its own alphabet
+        int[] features = new int[tokens.size()];
+        int length = 0;
+        for (int position = 0; position < tokens.size(); position++) {
+            int type = inferencerType(tokens.getIndexAtPosition(position));
+            if (type >= 0) features[length++] = type;
+        }
+        return new Piped(fv, new Instance(new FeatureSequence(inferencer.getAlphabet(), features, length), null, name, null));
+    }
+
+    private int inferencerType(int index) {
+        return index < inferencerTypes.length ? inferencerTypes[index] : -1;
+    }
+
+    /** Build the row of a piped document and score it. Safe to call from several threads. */
+    Result classify(String name, Piped piped) {
+        FeatureVector fv = piped.features;
+        Row row = new Row(numTopics + (useBow ? fv.numLocations() : 0));
+        try {
+            if (inferencer != null) {
+                double[] topics = inferencer.getSampledDistribution(piped.tokens, numIterations, thinning, burnIn);
+                for (int topic = 0; topic < numTopics; topic++) {
+                    rows.addTopic(row, topic, topics[topic]);
+                }
+            }
+            if (useBow) {
+                rows.addBow(row, numTopics, fv);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a Row does no I/O
+        }
+        int[] columns = row.columns;
+        double[] values = row.values;
+        int size = row.size;
+
+        int[] indices = new int[size];
+        double[] weights = new double[size];
+        int numFeatures = 0;
+        for (int i = 0; i < size; i++) {
+            int feature = columns[i] < classifierFeatures.length ? classifierFeatures[columns[i]] : -1;
+            if (feature < 0) continue;
+            indices[numFeatures] = feature;
+            weights[numFeatures++] = values[i];
+        }
+        FeatureVector classifierRow = new FeatureVector(classifier.getAlphabet(), trim(indices, numFeatures), trim(weights, numFeatures));
+        Classification classification = classifier.classify(new Instance(classifierRow, null, name, null));
+
+        return new Result(name, trim(columns, size), trim(values, size), classification);
+    }
+
+    private static int[] trim(int[] array, int size) {
+        if (array.length == size) return array;
+        int[] trimmed = new int[size];
+        System.arraycopy(array, 0, trimmed, 0, size);
+        return trimmed;
+    }
+
+    private static double[] trim(double[] array, int size) {
+        if (array.length == size) return array;
+        double[] trimmed = new double[size];
+        System.arraycopy(array, 0, trimmed, 0, size);
+        return trimmed;
+    }
+
+    /** The entries of a row, as the row builder adds them. */
+    static class Row implements FeatureRowBuilder.Sink {
+        final int[] columns;
+        final double[] values;
+        int size = 0;
+
+        Row(int capacity) {
+            columns = new int[capacity];
+            values = new double[capacity];
+        }
+
+        public void add(int column, double value) {
+            columns[size] = column;
+            values[size++] = value;
+        }
+    }
+
+    /** A document after the pipe: its bag of words and its tokens in the inferencer alphabet (null without topics). */
+    static class Piped {
+        final FeatureVector features;
+        final Instance tokens;
+
+        Piped(FeatureVector features, Instance tokens) {
+            this.features = features;
+            this.tokens = tokens;
+        }
+    }
+
+    /** The row of a document (0-based columns, as in a SparseFeatureMatrix) and its classification. */
+    public static class Result {
+        public final String name;
+        public final int[] columns;
+        public final double[] values;
+        public final Classification classification;
+
+        Result(String name, int[] columns, double[] values, Classification classification) {
+            this.name = name;
+            this.columns = columns;
+            this.values = values;
+            this.classification = classification;
+        }
+
+        public Label getLabel() {
+            return classification.getLabeling().getBestLabel();
+        }
+
+        public double getScore() {
+            return classification.getLabeling().getBestValue();
+        }
+
+        /** The row in SVMlight style, label number first: "3 1:0.25 2:0.5 ... #name" */
+        public String toSvmLight() {
+            StringBuilder line = new StringBuilder();
+            line.append(getLabel().getIndex() + 1);
+            for (int i = 0; i < columns.length; i++) {
+                line.append(' ').append(columns[i] + 1).append(':').append(values[i]);
+            }
+            if (name != null) line.append(" #").append(name);
+            return line.toString();
+        }
+    }
+
+    private class Request implements Callable<Result> {
+        final String name;
+        final String text;
+        final FutureTask<Result> task = new FutureTask<Result>(this);
+        Piped piped;
+        RuntimeException error;
+
+        Request(String name, String text) {
+            this.name = name;
+            this.text = text;
+        }
+
+        public Result call() {
+            if (error != null) throw error;
+            return classify(name, piped);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.classify;
+
+import cc.mallet.classify.ClassifierTrainer;
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.pipe.Noop;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Labeling;
+import cc.mallet.util.MalletLogger;
+import cc.mallet.util.Randoms;
+import edu.kaist.irlab.textcontrol.SparseFeatureMatrix;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * A pure Java linear multiclass SVM (Crammer and Singer) trainer, used in place of the svm_multiclass executables.
+ * <p/>
+ * The dual problem is solved by sequential dual coordinate descent, one instance at a time
+ * (Keerthi et al., "A Sequential Dual Method for Large Scale Multi-Class Linear SVMs", KDD 2008).
+ * Like svm_multiclass, the objective is 1/2 |W|^2 + C/n sum_i xi_i over the n labeled instances, so the same C value (e.g. 1000) can be used.
+ * A bias is learned through a constant feature.
+ * <p/>
+ * Training data is an InstanceList of FeatureVectors or a binary {@link SparseFeatureMatrix}, which is read in place.
+ * <p/>
+ * The result is a {@link MaxEnt} whose parameters are the SVM weights, so the best label of a
+ * {@link cc.mallet.classify.Classification} is the SVM decision. The label probabilities are the softmax of the SVM scores.
+ *
+ * @author Seonggyu Lee
+ */
+public class SvmMulticlassTrainer extends ClassifierTrainer<MaxEnt> {
+
+    private static Logger logger = MalletLogger.getLogger(SvmMulticlassTrainer.class.getName());
+
+    public static final double DEFAULT_C = 1000.0;
+    public static final double DEFAULT_EPSILON = 0.1;
+    public static final int DEFAULT_MAX_ITERATIONS = 1000;
+
+    double c = DEFAULT_C;
+    double epsilon = DEFAULT_EPSILON;
+    int maxIterations = DEFAULT_MAX_ITERATIONS;
+    Randoms random = new Randoms(1);
+
+    MaxEnt classifier;
+    int iterations;
+
+    public SvmMulticlassTrainer() {
+    }
+
+    public SvmMulticlassTrainer(double c) {
+        this.c = c;
+    }
+
+    public SvmMulticlassTrainer setC(double c) {
+        this.c = c;
+        return this;
+    }
+
+    /** Stop when no dual variable violates the optimality conditions by more than epsilon. */
+    public SvmMulticlassTrainer setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+        return this;
+    }
+
+    public SvmMulticlassTrainer setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    public SvmMulticlassTrainer setRandomSeed(int seed) {
+        this.random = new Randoms(seed);
+        return this;
+    }
+
+    public MaxEnt getClassifier() {
+        return classifier;
+    }
+
+    /** Number of passes over the training data in the last call to train. */
+    public int getIteration() {
+        return iterations;
+    }
+
+    public MaxEnt train(InstanceList trainingSet) {
+        int numInstances = trainingSet.size();
+        FeatureVector[] vectors = new FeatureVector[numInstances];
+        int[] labels = new int[numInstances];
+        double[] weights = new double[numInstances];
+
+        int numUsed = 0;
+        for (int i = 0; i < numInstances; i++) {
+            Instance instance = trainingSet.get(i);
+            Labeling labeling = instance.getLabeling();
+            if (labeling == null) { continue; }
+
+            vectors[numUsed] = (FeatureVector) instance.getData();
+            labels[numUsed] = labeling.getBestIndex();
+            weights[numUsed] = trainingSet.getInstanceWeight(i);
+            numUsed++;
+        }
+
+        Rows rows = new FeatureVectorRows(Arrays.copyOf(vectors, numUsed));
+        double[] parameters = solve(rows, Arrays.copyOf(labels, numUsed), Arrays.copyOf(weights, numUsed),
+                trainingSet.getDataAlphabet().size() + 1, trainingSet.getTargetAlphabet().size());
+        return makeClassifier(trainingSet.getPipe(), parameters);
+    }
+
+    /**
+     * Train on the rows of a binary feature matrix, read in place from the mapped file. Rows without a label are skipped.
+     * The pipe of the classifier has the columns of the matrix as data alphabet and its label names as target alphabet.
+     */
+    public MaxEnt train(SparseFeatureMatrix matrix) {
+        int[] labels = new int[matrix.numRows()];
+        int[] rowIndices = new int[matrix.numRows()];
+        int numUsed = 0;
+        for (int row = 0; row < matrix.numRows(); row++) {
+            if (matrix.label(row) < 0) { continue; }
+            rowIndices[numUsed] = row;
+            labels[numUsed] = matrix.label(row);
+            numUsed++;
+        }
+        double[] weights = new double[numUsed];
+        Arrays.fill(weights, 1.0);
+
+        Pipe pipe = new Noop(matrix.getDataAlphabet(), matrix.getLabelAlphabet());
+        double[] parameters = solve(new MatrixRows(matrix, Arrays.copyOf(rowIndices, numUsed)), Arrays.copyOf(labels, numUsed), weights,
+                matrix.numColumns() + 1, matrix.getLabelNames().length);
+        return makeClassifier(pipe, parameters);
+    }
+
+    private MaxEnt makeClassifier(Pipe pipe, double[] parameters) {
+        classifier = new MaxEnt(pipe, parameters);
+        classifier.setDefaultFeatureIndex(pipe.getDataAlphabet().size());
+        finishedTraining = true;
+        return classifier;
+    }
+
+    /**
+     * The dual coordinate descent. Returns the parameters indexed by <labelIndex,featureIndex> as in MaxEnt;
+     * the last feature (numFeatures - 1) is the bias.
+     */
+    private double[] solve(Rows rows, int[] labels, double[] instanceWeights, int numFeatures, int numLabels) {
+        int defaultFeatureIndex = numFeatures - 1;
+        int numUsed = labels.length;
+
+        double[] parameters = new double[numLabels * numFeatures];
+        double[][] alpha = new double[numUsed][numLabels];
+
+        double[] squaredNorms = new double[numUsed];
+        double[] upperBounds = new double[numUsed]; // C_i, the bound of the dual variable of the correct label
+        for (int i = 0; i < numUsed; i++) {
+            squaredNorms[i] = 1.0 + rows.squaredNorm(i); // 1 for the bias feature
+            upperBounds[i] = c * instanceWeights[i] / numUsed; // n counts the labeled rows only
+        }
+
+        int[] order = new int[numUsed];
+        for (int i = 0; i < numUsed; i++) order[i] = i;
+
+        double[] gradient = new double[numLabels];
+        double[] b = new double[numLabels];
+        double[] d = new double[numLabels];
+        double[] newAlpha = new double[numLabels];
+
+        iterations = 0;
+        while (iterations < maxIterations) {
+            iterations++;
+
+            // Visit the instances in a random order
+            for (int i = numUsed - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int temp = order[i];
+                order[i] = order[j];
+                order[j] = temp;
+            }
+
+            double maxViolation = 0.0;
+            for (int k = 0; k < numUsed; k++) {
+                int i = order[k];
+                int label = labels[i];
+                double[] alphaI = alpha[i];
+
+                // gradient of the dual with respect to alpha_i^m
+                double minG = Double.POSITIVE_INFINITY;
+                double maxG = Double.NEGATIVE_INFINITY;
+                for (int m = 0; m < numLabels; m++) {
+                    int offset = m * numFeatures;
+                    double score = parameters[offset + defaultFeatureIndex] + rows.dotProduct(i, parameters, offset);
+                    gradient[m] = score + (m == label ? 0.0 : 1.0);
+
+                    double bound = (m == label) ? upperBounds[i] : 0.0;
+                    if (alphaI[m] < bound && gradient[m] < minG) minG = gradient[m];
+                    if (gradient[m] > maxG) maxG = gradient[m];
+                }
+
+                if (maxG - minG > maxViolation) maxViolation = maxG - minG;
+                if (maxG - minG <= 1e-12) { continue; }
+
+                double a = squaredNorms[i];
+                for (int m = 0; m < numLabels; m++) {
+                    b[m] = gradient[m] - a * alphaI[m];
+                }
+                solveSubProblem(a, label, upperBounds[i], b, d, newAlpha);
+
+                for (int m = 0; m < numLabels; m++) {
+                    double change = newAlpha[m] - alphaI[m];
+                    if (Math.abs(change) < 1e-12) { continue; }
+                    alphaI[m] = newAlpha[m];
+
+                    int offset = m * numFeatures;
+                    parameters[offset + defaultFeatureIndex] += change;
+                    rows.addTo(i, change, parameters, offset);
+                }
+            }
+
+            if (iterations % 10 == 0) {
+                logger.fine("SVM iteration " + iterations + " max violation " + maxViolation);
+            }
+            if (maxViolation < epsilon) { break; }
+        }
+        if (iterations == maxIterations) {
+            logger.info("SVM stopped at the maximum number of iterations " + maxIterations);
+        }
+        return parameters;
+    }
+
+    /** The training vectors, either FeatureVectors or rows of a mapped matrix. */
+    private static abstract class Rows {
+        abstract double squaredNorm(int i);
+        abstract double dotProduct(int i, double[] parameters, int offset);
+        abstract void addTo(int i, double scale, double[] parameters, int offset);
+    }
+
+    private static class FeatureVectorRows extends Rows {
+        final FeatureVector[] vectors;
+
+        FeatureVectorRows(FeatureVector[] vectors) { this.vectors = vectors; }
+
+        double squaredNorm(int i) {
+            FeatureVector fv = vectors[i];
+            double norm = 0.0;
+            for (int location = 0; location < fv.numLocations(); location++) {
+                double value = fv.valueAtLocation(location);
+                norm += value * value;
+            }
+            return norm;
+        }
+
+        double dotProduct(int i, double[] parameters, int offset) {
+            FeatureVector fv = vectors[i];
+            double score = 0.0;
+            for (int location = 0; location < fv.numLocations(); location++) {
+                score += parameters[offset + fv.indexAtLocation(location)] * fv.valueAtLocation(location);
+            }
+            return score;
+        }
+
+        void addTo(int i, double scale, double[] parameters, int offset) {
+            FeatureVector fv = vectors[i];
+            for (int location = 0; location < fv.numLocations(); location++) {
+                parameters[offset + fv.indexAtLocation(location)] += scale * fv.valueAtLocation(location);
+            }
+        }
+    }
+
+    private static class MatrixRows extends Rows {
+        final SparseFeatureMatrix matrix;
+        final int[] rows;
+
+        MatrixRows(SparseFeatureMatrix matrix, int[] rows) {
+            this.matrix = matrix;
+            this.rows = rows;
+        }
+
+        double squaredNorm(int i) {
+            double norm = 0.0;
+            long end = matrix.rowEnd(rows[i]);
+            for (long entry = matrix.rowStart(rows[i]); entry < end; entry++) {
+                double value = matrix.value(entry);
+                norm += value * value;
+            }
+            return norm;
+        }
+
+        double dotProduct(int i, double[] parameters, int offset) {
+            return matrix.dotProduct(rows[i], parameters, offset, matrix.numColumns());
+        }
+
+        void addTo(int i, double scale, double[] parameters, int offset) {
+            matrix.addTo(rows[i], scale, parameters, offset);
+        }
+    }
+
+    /**
+     * Solve the dual problem of one instance in closed form:
+     * minimize 1/2 a |alpha|^2 + b.alpha subject to sum_m alpha_m = 0, alpha_m <= 0 (m != label), alpha_label <= bound.
+     */
+    private static void solveSubProblem(double a, int label, double bound, double[] b, double[] d, double[] newAlpha) {
+        int numLabels = b.length;
+        System.arraycopy(b, 0, d, 0, numLabels);
+        d[label] += a * bound;
+
+        // sort descending
+        Arrays.sort(d);
+        for (int low = 0, high = numLabels - 1; low < high; low++, high--) {
+            double temp = d[low];
+            d[low] = d[high];
+            d[high] = temp;
+        }
+
+        double beta = d[0] - a * bound;
+        int r;
+        for (r = 1; r < numLabels && beta < r * d[r]; r++) {
+            beta += d[r];
+        }
+        beta /= r;
+
+        for (int m = 0; m < numLabels; m++) {
+            if (m == label) {
+                newAlpha[m] = Math.min(bound, (beta - b[m]) / a);
+            } else {
+                newAlpha[m] = Math.min(0.0, (beta - b[m]) / a);
+            }
+        }
+    }
+
+    public String toString() {
+        return "SvmMulticlassTrainer,c=" + c + ",epsilon=" + epsilon + ",maxIterations=" + maxIterations;
+    }
+}
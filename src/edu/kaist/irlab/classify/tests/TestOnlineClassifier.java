@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.classify.tests;
+
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.pipe.*;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import edu.kaist.irlab.classify.OnlineClassifier;
+import edu.kaist.irlab.classify.SvmMulticlassTrainer;
+import edu.kaist.irlab.textcontrol.TermWeight;
+import edu.kaist.irlab.textcontrol.VariedFeatureSetWriter;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that {@link OnlineClassifier} gives a document the row that {@link VariedFeatureSetWriter} writes for it,
+ * and that a batch classified through the queue comes back in the order it was submitted.
+ *
+ * @author Seonggyu Lee
+ */
+public class TestOnlineClassifier extends TestCase {
+
+    private static final String[][] DOCUMENTS = {
+            {"sports", "the team won the game in the last minute"},
+            {"sports", "a late goal gave the home team the game"},
+            {"politics", "the senate passed the budget bill"},
+            {"politics", "voters rejected the bill in the last election"},
+            {"science", "the telescope found a new planet"},
+            {"science", "a new planet was found by the team"},
+    };
+
+    private File directory;
+
+    public TestOnlineClassifier(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("onlineClassifier", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    protected void tearDown() {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    private InstanceList makeInstances() {
+        SerialPipes pipes = new SerialPipes(new Pipe[] {
+                new Target2Label(),
+                new CharSequence2TokenSequence(),
+                new TokenSequence2FeatureSequence(),
+                new FeatureSequence2FeatureVector(),
+        });
+        InstanceList instances = new InstanceList(pipes);
+        for (int i = 0; i < DOCUMENTS.length; i++) {
+            instances.addThruPipe(new Instance(DOCUMENTS[i][1], DOCUMENTS[i][0], "doc" + i, null));
+        }
+        return instances;
+    }
+
+    private static List<String> readRows(File file) throws IOException {
+        List<String> rows = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.startsWith("#")) rows.add(line);
+        }
+        in.close();
+        return rows;
+    }
+
+    /** The features and name of an SVMlight row, without its label. */
+    private static String features(String row) {
+        return row.substring(row.indexOf(' '));
+    }
+
+    private static MaxEnt train(List<String> rows) {
+        InstanceList training = new InstanceList(new SvmLight2FeatureVectorAndLabel());
+        for (String row : rows) training.addThruPipe(new Instance(row, null, null, null));
+        return new SvmMulticlassTrainer().train(training);
+    }
+
+    private void assertSameRows(InstanceList instances, TermWeight termWeight, File termWeightFile) throws Exception {
+        int numClasses = instances.getTargetAlphabet().size();
+        VariedFeatureSetWriter writer = new VariedFeatureSetWriter(instances.getDataAlphabet(), instances.getTargetAlphabet(),
+                false, true, instances.size(), numClasses);
+        String setDirectory = directory.getPath() + File.separator + (termWeight != null ? "weighted-" : "bow-");
+        assertTrue(writer.addFeatureSet(setDirectory, true, termWeightFile, null));
+        for (Instance instance : instances) writer.write(true, instance);
+        writer.close();
+        List<String> rows = readRows(new File(setDirectory + "train_Svmlight.txt"));
+        assertEquals(DOCUMENTS.length, rows.size());
+
+        OnlineClassifier classifier = new OnlineClassifier(instances.getPipe(), null, true, termWeight,
+                train(rows), instances.size(), numClasses, 4, 1);
+        for (int i = 0; i < DOCUMENTS.length; i++) {
+            OnlineClassifier.Result result = classifier.classify("doc" + i, DOCUMENTS[i][1]);
+            assertEquals(features(rows.get(i)), features(result.toSvmLight()));
+            // The SVM is trained on the rows, whose labels are the label numbers
+            assertEquals(Integer.toString(instances.getTargetAlphabet().lookupIndex(DOCUMENTS[i][0]) + 1),
+                    result.getLabel().toString());
+        }
+
+        // Many copies of the documents, through the queue in micro-batches on several threads
+        List<String> names = new ArrayList<String>();
+        List<String> texts = new ArrayList<String>();
+        for (int i = 0; i < 20 * DOCUMENTS.length; i++) {
+            names.add("doc" + i % DOCUMENTS.length);
+            texts.add(DOCUMENTS[i % DOCUMENTS.length][1]);
+        }
+        classifier.start(3);
+        List<OnlineClassifier.Result> results = classifier.classify(names, texts);
+        classifier.shutdown();
+        assertEquals(texts.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(names.get(i), results.get(i).name);
+            assertEquals(features(rows.get(i % DOCUMENTS.length)), features(results.get(i).toSvmLight()));
+        }
+    }
+
+    public void testBagOfWords() throws Exception {
+        assertSameRows(makeInstances(), null, null);
+    }
+
+    public void testTermWeight() throws Exception {
+        // Weights for some of the words, below and above the hurdle; the others keep their counts
+        Alphabet weightAlphabet = new Alphabet();
+        weightAlphabet.lookupIndex("the");
+        weightAlphabet.lookupIndex("team");
+        weightAlphabet.lookupIndex("bill");
+        weightAlphabet.lookupIndex("planet");
+        TermWeight termWeight = new TermWeight(new double[] {0.05, 0.9, 0.5, 0.0}, weightAlphabet);
+        File weightFile = new File(directory, "weights.ser");
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(weightFile));
+        oos.writeObject(termWeight);
+        oos.close();
+
+        assertSameRows(makeInstances(), termWeight, weightFile);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestOnlineClassifier.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.classify.tests;
+
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.pipe.SvmLight2FeatureVectorAndLabel;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import edu.kaist.irlab.classify.SvmMulticlassTrainer;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Trains {@link SvmMulticlassTrainer} on linearly separable SVMlight lines and checks
+ * that it predicts the label of every training and held-out line.
+ *
+ * @author Seonggyu Lee
+ */
+public class TestSvmMulticlassTrainer extends TestCase {
+
+    private static final int NUM_LABELS = 3;
+
+    public TestSvmMulticlassTrainer(String name) {
+        super(name);
+    }
+
+    /** Each label has its own five features, and all lines share a feature of the same value. */
+    private static String line(int label, int doc) {
+        StringBuilder line = new StringBuilder().append(label + 1);
+        for (int feature = 1; feature <= 5; feature++) {
+            if ((doc + feature) % 3 == 0) { continue; }
+            line.append(' ').append(label * 10 + feature).append(':').append(0.5 + (doc * feature) % 4 * 0.25);
+        }
+        line.append(" 100:1.0");
+        return line.toString();
+    }
+
+    private static InstanceList readLines(SvmLight2FeatureVectorAndLabel pipe, int firstDoc, int numDocs) {
+        InstanceList instances = new InstanceList(pipe);
+        for (int doc = firstDoc; doc < firstDoc + numDocs; doc++) {
+            instances.addThruPipe(new Instance(line(doc % NUM_LABELS, doc), null, "doc" + doc, null));
+        }
+        return instances;
+    }
+
+    private static void assertAllCorrect(MaxEnt classifier, InstanceList instances) {
+        for (Instance instance : instances) {
+            assertEquals(instance.getName().toString(), instance.getLabeling().getBestLabel(),
+                    classifier.classify(instance).getLabeling().getBestLabel());
+        }
+    }
+
+    public void testSeparable() {
+        SvmLight2FeatureVectorAndLabel pipe = new SvmLight2FeatureVectorAndLabel();
+        InstanceList training = readLines(pipe, 0, 30);
+        SvmMulticlassTrainer trainer = new SvmMulticlassTrainer().setRandomSeed(1);
+        MaxEnt classifier = trainer.train(training);
+        assertTrue(trainer.getIteration() < SvmMulticlassTrainer.DEFAULT_MAX_ITERATIONS);
+        assertEquals(NUM_LABELS, classifier.getLabelAlphabet().size());
+        assertAllCorrect(classifier, training);
+
+        pipe.getDataAlphabet().stopGrowth();
+        pipe.getTargetAlphabet().stopGrowth();
+        assertAllCorrect(classifier, readLines(pipe, 30, 12));
+    }
+
+    public void testUnknownLabel() {
+        SvmLight2FeatureVectorAndLabel pipe = new SvmLight2FeatureVectorAndLabel();
+        MaxEnt classifier = new SvmMulticlassTrainer().train(readLines(pipe, 0, 30));
+        pipe.getDataAlphabet().stopGrowth();
+        pipe.getTargetAlphabet().stopGrowth();
+
+        // A label and a feature only seen in testing add nothing to the alphabets, and the line is still classified
+        Instance unknown = pipe.instanceFrom(new Instance("9 2:1.0 999:1.0", null, "unknown", null));
+        assertNull(unknown.getTarget());
+        assertEquals(NUM_LABELS, classifier.getLabelAlphabet().size());
+        assertEquals("1", classifier.classify(unknown).getLabeling().getBestLabel().toString());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestSvmMulticlassTrainer.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -8,20 +8,34 @@
 
 /*
  * This class use a svm multiclass windows exe file for svm classifier.
+ * With --svm-backend java (the default outside Windows) the same experiment runs in-process with SvmMulticlassTrainer.
  *
  */
 
 package edu.kaist.irlab.classify.tui;
 
 
+import cc.mallet.classify.Classification;
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.SvmLight2FeatureVectorAndLabel;
+import cc.mallet.pipe.iterator.SelectiveFileLineIterator;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.LabelAlphabet;
 import cc.mallet.util.CommandOption;
 import cc.mallet.util.MalletLogger;
+import edu.kaist.irlab.classify.SvmMulticlassTrainer;
 import edu.kaist.irlab.sglee.util.MyFileWriter;
+import edu.kaist.irlab.textcontrol.SparseFeatureMatrix;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Iterator;
 import java.util.logging.Logger;
 
 
@@ -49,10 +63,31 @@ public class ExecuteSvmMulticlass {
             (ExecuteSvmMulticlass.class, "test", "DIR...", true, "test_Svmlight.txt",
                     "Training file name", null);
 
+    static CommandOption.String trainMatrixName =	new CommandOption.String
+            (ExecuteSvmMulticlass.class, "train-matrix", "FILE", true, "train" + SparseFeatureMatrix.FILE_SUFFIX,
+                    "Binary training matrix file name. Used instead of --train when it and --test-matrix exist.", null);
+
+    static CommandOption.String testMatrixName =	new CommandOption.String
+            (ExecuteSvmMulticlass.class, "test-matrix", "FILE", true, "test" + SparseFeatureMatrix.FILE_SUFFIX,
+                    "Binary test matrix file name.", null);
+
     static CommandOption.String svmMultiExeFile =	new CommandOption.String
             (ExecuteSvmMulticlass.class, "svm-multiclass", "DIR...", true, "exprogram/svm_multiclass_windows",
                     "SVM_Multiclass file location which this program should execute.", null);
 
+    static CommandOption.String svmBackend =	new CommandOption.String
+            (ExecuteSvmMulticlass.class, "svm-backend", "auto|exe|java", true, "auto",
+                    "exe runs the svm_multiclass executables, java trains in-process with SvmMulticlassTrainer. " +
+                    "auto uses exe on Windows and java elsewhere.", null);
+
+    static CommandOption.String resultFileName =	new CommandOption.String
+            (ExecuteSvmMulticlass.class, "result-file", "FILE", true, null,
+                    "Where to write the result lines. Default: svm_classify_all_result.csv next to the first input directory.", null);
+
+    static CommandOption.Double svmC =	new CommandOption.Double
+            (ExecuteSvmMulticlass.class, "svm-c", "DECIMAL", true, SvmMulticlassTrainer.DEFAULT_C,
+                    "Trade-off between training error and margin (svm_multiclass -c).", null);
+
 
 	public static void main (String[] args) throws FileNotFoundException, IOException {
         // Process the command-line options
@@ -102,16 +137,56 @@ public class ExecuteSvmMulticlass {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
         System.out.println("Start time : " + dateFormat.format(calendar.getTime()));
 
+        String classifyLines;
+        if (useInProcessBackend()) {
+            classifyLines = "";
+            for (int i = 0; i < featureDirectories.size(); i++) {
+                classifyLines = classifyLines + learnAndClassifyInProcess(featureDirectories.get(i), outputDirectories.get(i));
+            }
+        } else {
+            classifyLines = learnAndClassifyByExe(featureDirectories, outputDirectories);
+        }
+
+        String resultFile = resultFileName.value != null ? resultFileName.value : featureSetDirs.value[0] + "/../svm_classify_all_result.csv";
+        MyFileWriter.MyFileWriter(new File(resultFile), classifyLines, "All Result in one file.");
+
+        System.out.println("\n\nStart time : " + dateFormat.format(calendar.getTime()));
+        System.out.println("All Jobs finished at " + dateFormat.format(Calendar.getInstance().getTime()));
+
+    } //main
+
+    static boolean useInProcessBackend() {
+        if (svmBackend.value.equals("java")) return true;
+        if (svmBackend.value.equals("exe")) return false;
+        return !System.getProperty("os.name").toLowerCase().startsWith("windows");
+    }
+
+    /**
+     * Learn and classify with the svm_multiclass executables. Returns one result line per feature set.
+     */
+    static String learnAndClassifyByExe(ArrayList<File> featureDirectories, ArrayList<File> outputDirectories) {
         //Start External Program in svmMultiExeFile Learn
         Runtime rt = Runtime.getRuntime();
         String exeLearnFile = "svm_multiclass_learn";
         System.out.println("exeFile: " + exeLearnFile);
 
 
+        // Feature sets whose SVMlight text could not be written are not learned or classified
+        boolean[] skipped = new boolean[featureDirectories.size()];
+
         for (int i = 0; i < featureDirectories.size(); i++) {
             System.out.println("\n\nLearning : " + featureDirectories.get(i).toString());
+            try {
+                // The executables only read text
+                writeSvmLightFromMatrix(featureDirectories.get(i), trainfileName.value, trainMatrixName.value);
+                writeSvmLightFromMatrix(featureDirectories.get(i), testfileName.value, testMatrixName.value);
+            } catch (IOException e) {
+                logger.severe("Skipping " + featureDirectories.get(i) + ": cannot write its SVMlight files from the matrices: " + e);
+                skipped[i] = true;
+                continue;
+            }
 
-            String option = " -c 1000";
+            String option = " -c " + svmC.value;
             option = option + " ../../" + featureDirectories.get(i).toString() + "/" + trainfileName.value;
             option = option + " ../../" + outputDirectories.get(i).toString() + "/" + "train_svmmodel.txt";
 
@@ -141,6 +216,7 @@ public class ExecuteSvmMulticlass {
 
 
         for (int i = 0; i < featureDirectories.size(); i++) {
+            if (skipped[i]) continue;
             System.out.println("\n\nClassify : " + featureDirectories.get(i).toString());
 
             String option = " ../../" + featureDirectories.get(i).toString() + "/" + testfileName.value;
@@ -169,10 +245,153 @@ public class ExecuteSvmMulticlass {
             }
         }
 
-        MyFileWriter.MyFileWriter(new File(featureSetDirs.value[0] + "/../svm_classify_all_result.csv"), classifyLines, "All Result in one file.");
+        return classifyLines;
+    }
+
+    /**
+     * Learn and classify one feature set in-process. The learn/classify logs, the model and the predictions
+     * are written like the svm_multiclass executables do, and the result line has the same columns:
+     * feature set, zero/one-error (%), correct, incorrect, total.
+     */
+    static String learnAndClassifyInProcess(File featureDirectory, File outputDirectory) throws IOException {
+        System.out.println("\n\nLearning : " + featureDirectory.toString());
+        // Training runs on this thread, so its CPU time is that of the learning
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+        long start = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+
+        // Binary matrices are read in place, SVMlight text is parsed into an InstanceList
+        File trainMatrix = new File(featureDirectory, trainMatrixName.value);
+        File testMatrix = new File(featureDirectory, testMatrixName.value);
+        boolean binary = trainMatrix.isFile() && testMatrix.isFile();
+
+        SvmMulticlassTrainer trainer = new SvmMulticlassTrainer(svmC.value);
+        Pipe pipe = null;
+        MaxEnt classifier;
+        int numTraining;
+        if (binary) {
+            SparseFeatureMatrix training = SparseFeatureMatrix.load(trainMatrix);
+            classifier = trainer.train(training);
+            numTraining = training.numRows();
+        } else {
+            pipe = new SvmLight2FeatureVectorAndLabel();
+            InstanceList training = readSvmLight(pipe, new File(featureDirectory, trainfileName.value));
+            classifier = trainer.train(training);
+            numTraining = training.size();
+        }
 
-        System.out.println("\n\nStart time : " + dateFormat.format(calendar.getTime()));
-        System.out.println("All Jobs finished at " + dateFormat.format(Calendar.getInstance().getTime()));
+        String learnLog = trainer.toString() + "\n" +
+                "Training instances: " + numTraining + ", features: " + classifier.getAlphabet().size() +
+                ", classes: " + classifier.getLabelAlphabet().size() + "\n" +
+                "Iterations: " + trainer.getIteration() + "\n" +
+                (cpuTime ? "Runtime in cpu-seconds: " + (threads.getCurrentThreadCpuTime() - start) / 1e9
+                        : "Runtime in seconds: " + (System.nanoTime() - start) / 1e9) + "\n";
+        MyFileWriter.MyFileWriter(new File(outputDirectory + "/learn.log"), learnLog, "SVM Multiclass Learn");
+        MyFileWriter.writeObject(classifier, outputDirectory + "/train_svmmodel.ser");
+
+        System.out.println("\n\nClassify : " + featureDirectory.toString());
+
+        PrintWriter predictions = new PrintWriter(new FileWriter(outputDirectory + "/test_classify_result.txt"));
+        int correct = 0;
+        int total;
+        if (binary) {
+            SparseFeatureMatrix testing = SparseFeatureMatrix.load(testMatrix);
+            correct = classifyMatrix(classifier, testing, predictions);
+            total = testing.numRows();
+        } else {
+            // Features only seen in the test set have no weight, and labels only seen there have no target
+            pipe.getDataAlphabet().stopGrowth();
+            pipe.getTargetAlphabet().stopGrowth();
+            // The lines go through the pipe one at a time, as an InstanceList does not take an instance without a target
+            total = 0;
+            Reader fileReader = new InputStreamReader(new FileInputStream(new File(featureDirectory, testfileName.value)), "UTF-8");
+            Iterator<Instance> testing = pipe.newIteratorFrom(new SelectiveFileLineIterator(fileReader, "^\\s*#.+"));
+            while (testing.hasNext()) {
+                Instance instance = testing.next();
+                Classification classification = classifier.classify(instance);
+                predictions.println(classification.getLabeling().getBestLabel());
+                // A label unknown to the classifier is a miss, as in classifyMatrix
+                if (instance.getTarget() != null && classification.bestLabelIsCorrect()) correct++;
+                total++;
+            }
+            fileReader.close();
+        }
+        predictions.close();
+
+        int incorrect = total - correct;
+        double error = total == 0 ? 0.0 : 100.0 * incorrect / total;
+        String lastLine = String.format("Zero/one-error on test set: %.2f%% (%d correct, %d incorrect, %d total)",
+                error, correct, incorrect, total);
+        System.out.println(lastLine);
+        MyFileWriter.MyFileWriter(new File(outputDirectory + "/classify.log"), lastLine + "\n", "SVM Multiclass Classify");
+
+        return featureDirectory.toString() + "," + String.format("%.2f", error) + "," + correct + "," + incorrect + "," + total + "\n";
+    }
+
+    /**
+     * Classify the rows of a binary matrix with the SVM weights, reading the rows in place. Writes the predicted
+     * label names, as the InstanceList path does, and returns the number of correctly classified rows.
+     */
+    static int classifyMatrix(MaxEnt classifier, SparseFeatureMatrix testing, PrintWriter predictions) {
+        double[] parameters = classifier.getParameters();
+        LabelAlphabet labelAlphabet = classifier.getLabelAlphabet();
+        int defaultFeatureIndex = classifier.getDefaultFeatureIndex();
+        int numFeatures = defaultFeatureIndex + 1;
+        int numLabels = labelAlphabet.size();
+
+        // Test labels are matched to the training labels by name
+        String[] testLabelNames = testing.getLabelNames();
+        int[] trainingLabels = new int[testLabelNames.length];
+        for (int label = 0; label < testLabelNames.length; label++) {
+            trainingLabels[label] = labelAlphabet.lookupIndex(testLabelNames[label], false);
+        }
 
-    } //main
+        int correct = 0;
+        for (int row = 0; row < testing.numRows(); row++) {
+            int bestLabel = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int label = 0; label < numLabels; label++) {
+                int offset = label * numFeatures;
+                // Features only seen in the test set have no weight
+                double score = parameters[offset + defaultFeatureIndex] + testing.dotProduct(row, parameters, offset, defaultFeatureIndex);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestLabel = label;
+                }
+            }
+            predictions.println(labelAlphabet.lookupObject(bestLabel));
+
+            int label = testing.label(row);
+            if (label >= 0 && trainingLabels[label] == bestLabel) correct++;
+        }
+        return correct;
+    }
+
+    /** If only the binary matrix of a feature set exists, write its SVMlight text for the executables. */
+    static void writeSvmLightFromMatrix(File featureDirectory, String textName, String matrixName) throws IOException {
+        File textFile = new File(featureDirectory, textName);
+        File matrixFile = new File(featureDirectory, matrixName);
+        if (textFile.exists() || !matrixFile.isFile()) return;
+
+        // Written aside and renamed, so that a failed conversion leaves no partial file to be taken for a complete one
+        File partFile = new File(featureDirectory, textName + ".part");
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(partFile)), false, "UTF-8");
+        try {
+            SparseFeatureMatrix.load(matrixFile).writeSvmLight(out, true);
+        } finally {
+            out.close();
+        }
+        if (out.checkError() || !partFile.renameTo(textFile)) {
+            partFile.delete();
+            throw new IOException("Cannot write " + textFile);
+        }
+    }
+
+    static InstanceList readSvmLight(Pipe pipe, File file) throws IOException {
+        InstanceList instances = new InstanceList(pipe);
+        Reader fileReader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        instances.addThruPipe(new SelectiveFileLineIterator(fileReader, "^\\s*#.+"));
+        fileReader.close();
+        return instances;
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+/*
+ * Classify raw text with the models of one feature set, without the files between
+ * Text2VariedTopicModels, Text2VariedSvmLightFeatures and ExecuteSvmMulticlass.
+ *
+ */
+
+package edu.kaist.irlab.classify.tui;
+
+
+import cc.mallet.classify.MaxEnt;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.CommandOption;
+import cc.mallet.util.MalletLogger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import edu.kaist.irlab.classify.OnlineClassifier;
+import edu.kaist.irlab.textcontrol.TermWeight;
+import edu.kaist.irlab.topics.WeightedTopicInferencer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import static edu.kaist.irlab.topics.WeightedTopicModel.readTermWeightObject;
+
+
+/**
+ * Loads the pipe, the topic inferencer, the term weight and the classifier of a feature set once, and classifies
+ * documents given one per line ("name TAB text", or only the text), from files or over HTTP:
+ * <pre>
+ * curl --data-binary @docs.txt http://localhost:8080/classify
+ * </pre>
+ * Each document gets one line back: name, label, probability of the label, and the row in SVMlight style.
+ */
+
+public class OnlineClassificationServer {
+
+	private static Logger logger = MalletLogger.getLogger(OnlineClassificationServer.class.getName());
+
+	static CommandOption.File usePipeFromVectorsFile = new CommandOption.File
+		(OnlineClassificationServer.class, "use-pipe-from", "FILE", true, new File("train.mallet"),
+		 "The training instance list of the bag of words (train.mallet of Text2VariedSvmLightFeatures --save-instance-lists). " +
+		 "Its pipe turns the text into vectors, and its size and labels give the hurdle and pumping of the features.", null);
+
+	static CommandOption.File inferencerFile = new CommandOption.File
+		(OnlineClassificationServer.class, "inferencer", "FILE", true, null,
+		 "The topic inferencer of the topic features (_Inferencer.ser of Text2VariedTopicModels). " +
+		 "If not given, the feature set has no topic features.", null);
+
+	static CommandOption.Boolean useBow = new CommandOption.Boolean
+		(OnlineClassificationServer.class, "use-bow", "[TRUE|FALSE]", true, true,
+		 "If true, the feature set has the bag of words features after the topic features.", null);
+
+	static CommandOption.File termWeightFile = new CommandOption.File
+		(OnlineClassificationServer.class, "term-weight", "FILE", true, null,
+		 "The serialized TermWeight of the bag of words. If not given, the term frequencies are used.", null);
+
+	static CommandOption.File classifierFile = new CommandOption.File
+		(OnlineClassificationServer.class, "classifier", "FILE", true, new File("svmmodel/train_svmmodel.ser"),
+		 "The classifier of the feature set written by ExecuteSvmMulticlass with the java backend.", null);
+
+	static CommandOption.Integer numTrainingDocsOption = new CommandOption.Integer
+		(OnlineClassificationServer.class, "num-training-docs", "INTEGER", true, 0,
+		 "Number of training documents for the hurdle and pumping, if the instance list was not kept in full.", null);
+
+	static CommandOption.Integer numIterations = new CommandOption.Integer
+		(OnlineClassificationServer.class, "num-iterations", "INTEGER", true, 100,
+		 "The number of Gibbs sampling iterations of the topic inference.", null);
+
+	static CommandOption.Integer thinning = new CommandOption.Integer
+		(OnlineClassificationServer.class, "thinning", "INTEGER", true, 10,
+		 "Keep every <thinning> sample of the topic inference.", null);
+
+	static CommandOption.Integer burnIn = new CommandOption.Integer
+		(OnlineClassificationServer.class, "burn-in", "INTEGER", true, 10,
+		 "The number of iterations before the first sample is kept.", null);
+
+	static CommandOption.Integer numThreads = new CommandOption.Integer
+		(OnlineClassificationServer.class, "num-threads", "INTEGER", true, Runtime.getRuntime().availableProcessors(),
+		 "The number of threads for the topic inference.", null);
+
+	static CommandOption.Integer batchSize = new CommandOption.Integer
+		(OnlineClassificationServer.class, "batch-size", "INTEGER", true, 64,
+		 "The largest number of documents in a micro-batch.", null);
+
+	static CommandOption.Integer batchDelay = new CommandOption.Integer
+		(OnlineClassificationServer.class, "batch-delay", "MILLISECONDS", true, 2,
+		 "How long a micro-batch waits for more documents.", null);
+
+	static CommandOption.SpacedStrings inputFiles = new CommandOption.SpacedStrings
+		(OnlineClassificationServer.class, "input", "FILE...", true, null,
+		 "Classify the documents of these files (one per line) to standard output, then exit.", null);
+
+	static CommandOption.Integer port = new CommandOption.Integer
+		(OnlineClassificationServer.class, "port", "INTEGER", true, 8080,
+		 "Without --input, serve POST /classify on this port of localhost.", null);
+
+
+	public static void main (String[] args) throws Exception {
+		CommandOption.setSummary(OnlineClassificationServer.class,
+				"A tool for classifying raw text with the models of one feature set, kept in memory.\n");
+		CommandOption.process(OnlineClassificationServer.class, args);
+
+		if (args.length == 0) {
+			CommandOption.getList(OnlineClassificationServer.class).printUsage(false);
+			System.exit(-1);
+		}
+
+		final OnlineClassifier classifier = load();
+		classifier.setSamplingParameters(numIterations.value, thinning.value, burnIn.value);
+		classifier.start(numThreads.value);
+
+		if (inputFiles.value != null && inputFiles.value.length > 0) {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+			long start = System.currentTimeMillis();
+			int numDocs = 0;
+			for (String inputFile : inputFiles.value) {
+				Reader reader = new InputStreamReader(new FileInputStream(inputFile), "UTF-8");
+				numDocs += classifyLines(classifier, reader, out);
+				reader.close();
+			}
+			out.flush();
+			long elapsed = System.currentTimeMillis() - start;
+			logger.info(numDocs + " documents classified in " + elapsed + "ms" +
+					(numDocs > 0 ? " (" + ((double) elapsed / numDocs) + "ms per document)" : ""));
+			classifier.shutdown();
+			return;
+		}
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port.value), 0);
+		server.createContext("/classify", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(405, -1);
+					exchange.close();
+					return;
+				}
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(body, "UTF-8"));
+				int status = 200;
+				try {
+					classifyLines(classifier, new InputStreamReader(exchange.getRequestBody(), "UTF-8"), out);
+				} catch (IOException e) {
+					logger.warning("Cannot classify request: " + e);
+					body.reset();
+					out.println(e.getMessage());
+					status = 500;
+				}
+				out.close();
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+				exchange.sendResponseHeaders(status, body.size());
+				OutputStream responseBody = exchange.getResponseBody();
+				body.writeTo(responseBody);
+				responseBody.close();
+			}
+		});
+		// Requests are read on several threads, so their documents share micro-batches
+		server.setExecutor(Executors.newFixedThreadPool(Math.max(2, numThreads.value)));
+		server.start();
+		logger.info("Classifying POST http://localhost:" + port.value + "/classify");
+	}
+
+	static OnlineClassifier load() throws IOException, ClassNotFoundException {
+		InstanceList training = InstanceList.load(usePipeFromVectorsFile.value);
+		int numTrainingDocs = numTrainingDocsOption.value > 0 ? numTrainingDocsOption.value : training.size();
+		int numClasses = training.getTargetAlphabet() != null ? training.getTargetAlphabet().size() : 0;
+		logger.info("Pipe from " + usePipeFromVectorsFile.value + ": " + training.getDataAlphabet().size() +
+				" words, " + numTrainingDocs + " training documents, " + numClasses + " labels");
+
+		WeightedTopicInferencer inferencer = null;
+		if (inferencerFile.value != null) {
+			inferencer = WeightedTopicInferencer.read(inferencerFile.value);
+			logger.info("Topic inferencer from " + inferencerFile.value + ": " + inferencer.getNumTopics() + " topics");
+		}
+		TermWeight termWeight = termWeightFile.value != null ? readTermWeightObject(termWeightFile.value) : null;
+
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(classifierFile.value)));
+		MaxEnt classifier = (MaxEnt) in.readObject();
+		in.close();
+
+		return new OnlineClassifier(training.getPipe(), inferencer, useBow.value, termWeight, classifier,
+				numTrainingDocs, numClasses, batchSize.value, batchDelay.value);
+	}
+
+	/** Classify the documents of a reader, one per line, and write one result line per document. */
+	static int classifyLines(OnlineClassifier classifier, Reader reader, PrintWriter out) throws IOException {
+		BufferedReader lines = new BufferedReader(reader);
+		List<String> names = new ArrayList<String>();
+		List<String> texts = new ArrayList<String>();
+		String line;
+		while ((line = lines.readLine()) != null) {
+			if (line.trim().length() == 0) continue;
+			int tab = line.indexOf('\t');
+			names.add(tab >= 0 ? line.substring(0, tab) : Integer.toString(names.size() + 1));
+			texts.add(tab >= 0 ? line.substring(tab + 1) : line);
+		}
+		for (OnlineClassifier.Result result : classifier.classify(names, texts)) {
+			out.println(result.name + "\t" + result.getLabel() + "\t" + result.getScore() + "\t" + result.toSvmLight());
+		}
+		return texts.size();
+	}
+}
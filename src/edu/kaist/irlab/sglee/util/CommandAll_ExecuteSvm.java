@@ -19,6 +19,7 @@ import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.logging.Logger;
 
 
@@ -50,6 +51,22 @@ public class CommandAll_ExecuteSvm {
             (CommandAll_ExecuteSvm.class, "output-dir", "DIR...", false, null,
                     "Write the results to this location.", null);
 
+    static CommandOption.String svmBackend = new CommandOption.String
+            (CommandAll_ExecuteSvm.class, "svm-backend", "auto|exe|java", true, "auto",
+                    "Passed to ExecuteSvmMulticlass. java trains in-process, exe runs the svm_multiclass executables.", null);
+
+    static CommandOption.Double svmC = new CommandOption.Double
+            (CommandAll_ExecuteSvm.class, "svm-c", "DECIMAL", true, 1000.0,
+                    "Passed to ExecuteSvmMulticlass. Trade-off between training error and margin.", null);
+
+    static CommandOption.Integer numJobs = new CommandOption.Integer
+            (CommandAll_ExecuteSvm.class, "num-jobs", "INTEGER", true, 1,
+                    "Number of feature sets learned and classified at the same time, each in its own JVM. " +
+                    "1 runs them one by one in this JVM.", null);
+
+    static CommandOption.SpacedStrings jobJvmArgs = new CommandOption.SpacedStrings
+            (CommandAll_ExecuteSvm.class, "job-jvm-args", "ARG...", true, new String[0],
+                    "JVM options of each job when --num-jobs is more than 1, e.g. -Xmx2g", null);
 
 
 
@@ -103,6 +120,14 @@ public class CommandAll_ExecuteSvm {
         System.out.println("Printing All SvmLightFeature extraction start at " + dateFormat.format(Calendar.getInstance().getTime()));
 
         ArrayList<String> featureDirsArray = null;
+        ExperimentScheduler scheduler = null;
+        List<List<ExperimentScheduler.Job>> ratioJobs = new ArrayList<List<ExperimentScheduler.Job>>();
+        if (numJobs.value > 1) {
+            scheduler = new ExperimentScheduler(numJobs.value, new File(outputDir.value + "/joblogs_" + outputDirName.value),
+                    new File(outputDir.value + "/Jobs_" + outputDirName.value + "_result.csv"));
+            scheduler.setJvmArgs(jobJvmArgs.value);
+        }
+
         for(String ratioDir:inputExDirectories){
             String ratioFeatureFiles = ratioDir+"/"+outputDirName.value;
             if(!(new File(ratioFeatureFiles).isDirectory())) continue;
@@ -114,9 +139,26 @@ public class CommandAll_ExecuteSvm {
                 }
             }
 
-            int inputArgsNum = 1+featureDirsArray.size();
+            if (scheduler != null) {
+                // One job per feature set. Each job writes its own result line, they are merged below.
+                List<ExperimentScheduler.Job> jobs = new ArrayList<ExperimentScheduler.Job>();
+                for (String featureDir : featureDirsArray) {
+                    File jobResult = new File(featureDir + "/svmmodel/svm_classify_result.csv");
+                    String[] exArgs = new String[]{"--svm-backend", svmBackend.value, "--svm-c", Double.toString(svmC.value),
+                            "--result-file", jobResult.getPath(), "--input-dir", featureDir};
+                    jobs.add(scheduler.add(featureDir, ExecuteSvmMulticlass.class, exArgs, jobResult));
+                }
+                ratioJobs.add(jobs);
+                continue;
+            }
+
+            int inputArgsNum = 5+featureDirsArray.size();
             int inputSeq =0;
             String[] exArgs = new String[inputArgsNum];
+            exArgs[inputSeq++]="--svm-backend";
+            exArgs[inputSeq++]=svmBackend.value;
+            exArgs[inputSeq++]="--svm-c";
+            exArgs[inputSeq++]=Double.toString(svmC.value);
             exArgs[inputSeq]="--input-dir";
             inputSeq++;
             for (int i = 0; i < featureDirsArray.size(); i++) {
@@ -127,6 +169,22 @@ public class CommandAll_ExecuteSvm {
             ExecuteSvmMulticlass.main(exArgs);
         }
 
+        if (scheduler != null) {
+            scheduler.runAll();
+
+            // Same per ratio result file as ExecuteSvmMulticlass writes, in feature set order. Failed jobs are left out.
+            for (List<ExperimentScheduler.Job> jobs : ratioJobs) {
+                if (jobs.isEmpty()) continue;
+                String classifyLines = "";
+                for (ExperimentScheduler.Job job : jobs) {
+                    for (String line : job.resultLines) {
+                        classifyLines = classifyLines + line + "\n";
+                    }
+                }
+                MyFileWriter.MyFileWriter(new File(jobs.get(0).name + "/../svm_classify_all_result.csv"), classifyLines, "All Result in one file.");
+            }
+        }
+
 
         //ReadAll Svm Result and Write to one file.
         String allResult = outputDirName.value+" Result,"+"Ratio,";
@@ -149,7 +207,7 @@ public class CommandAll_ExecuteSvm {
                 while ((line = br.readLine()) != null) {
                     if(line.equals("")) continue;
                     String[] lineArr = line.split(",");
-                    String[] lineFirst = lineArr[0].split("\\\\");
+                    String[] lineFirst = lineArr[0].split("[\\\\/]"); // Windows or Unix separators
 
                     if(firstTime) allResult=allResult+lineFirst[4]+","+lineFirst[3]+",";
                     firstTime = false;
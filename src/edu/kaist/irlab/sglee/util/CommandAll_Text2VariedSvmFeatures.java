@@ -57,6 +57,14 @@ public class CommandAll_Text2VariedSvmFeatures {
             (CommandAll_Text2VariedSvmFeatures.class, "output-dir", "DIR...", false, null,
                     "Write the results to this location.", null);
 
+    static CommandOption.Integer numJobs = new CommandOption.Integer
+            (CommandAll_Text2VariedSvmFeatures.class, "num-jobs", "INTEGER", true, 1,
+                    "Number of ratio directories processed at the same time, each in its own JVM. " +
+                    "1 runs them one by one in this JVM.", null);
+
+    static CommandOption.SpacedStrings jobJvmArgs = new CommandOption.SpacedStrings
+            (CommandAll_Text2VariedSvmFeatures.class, "job-jvm-args", "ARG...", true, new String[0],
+                    "JVM options of each job when --num-jobs is more than 1, e.g. -Xmx4g", null);
 
 
 
@@ -108,6 +116,12 @@ public class CommandAll_Text2VariedSvmFeatures {
 
         System.out.println("Printing All SvmLightFeature extraction start at " + dateFormat.format(Calendar.getInstance().getTime()));
         boolean pass = true;
+        ExperimentScheduler scheduler = null;
+        if (numJobs.value > 1) {
+            scheduler = new ExperimentScheduler(numJobs.value, new File(outputDir.value + "/joblogs_" + outputDirName.value),
+                    new File(outputDir.value + "/Jobs_" + outputDirName.value + "_features.csv"));
+            scheduler.setJvmArgs(jobJvmArgs.value);
+        }
 
         for(String ratioDir:inputExDirectories){
 //            if(ratioDir.substring(ratioDir.length()-4).equals("tr20")) pass=false;
@@ -146,8 +160,16 @@ public class CommandAll_Text2VariedSvmFeatures {
             inputSeq++;
             exArgs[inputSeq]= ratioDir+"/"+outputDirName.value;
 
-            Text2VariedSvmLightFeatures.main(exArgs);
+            if (scheduler != null) {
+                scheduler.add(ratioDir, Text2VariedSvmLightFeatures.class, exArgs, null);
+            } else {
+                Text2VariedSvmLightFeatures.main(exArgs);
+            }
+
+        }
 
+        if (scheduler != null) {
+            scheduler.runAll();
         }
 
 
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.sglee.util;
+
+import cc.mallet.util.MalletLogger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs independent experiment jobs (the main method of a tool with its arguments) on a bounded worker pool.
+ * <p/>
+ * The command line tools keep their options in static fields, so each job runs in its own JVM with the
+ * classpath of this one. The output of a job goes to its own log file. When a job finishes, a line is
+ * appended to the results CSV: job name, status, exit code, seconds, then the lines of the job's result file if it has one.
+ * A failed job is recorded and the other jobs keep running.
+ *
+ * @author Seonggyu Lee
+ */
+public class ExperimentScheduler {
+
+    private static Logger logger = MalletLogger.getLogger(ExperimentScheduler.class.getName());
+
+    public static class Job implements Runnable {
+        public final String name;
+        public final String mainClass;
+        public final String[] args;
+        public final File resultFile; // written by the job, may be null
+
+        public volatile boolean succeeded = false;
+        public volatile int exitCode = -1;
+        public volatile double seconds;
+        public volatile List<String> resultLines = new ArrayList<String>();
+
+        ExperimentScheduler scheduler;
+
+        public Job(String name, Class<?> mainClass, String[] args, File resultFile) {
+            this.name = name;
+            this.mainClass = mainClass.getName();
+            this.args = args;
+            this.resultFile = resultFile;
+        }
+
+        public void run() {
+            long start = System.currentTimeMillis();
+            File logFile = scheduler.getLogFile(this);
+            try {
+                List<String> command = new ArrayList<String>();
+                command.add(scheduler.javaCommand);
+                command.addAll(Arrays.asList(scheduler.jvmArgs));
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(mainClass);
+                command.addAll(Arrays.asList(args));
+
+                ProcessBuilder builder = new ProcessBuilder(command);
+                builder.redirectErrorStream(true);
+                builder.redirectOutput(logFile);
+                Process process = builder.start();
+                exitCode = process.waitFor();
+
+                if (exitCode == 0 && resultFile != null) {
+                    BufferedReader reader = new BufferedReader(new FileReader(resultFile));
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.equals("")) resultLines.add(line);
+                    }
+                    reader.close();
+                }
+                succeeded = (exitCode == 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning("Job " + name + " was interrupted.");
+            } catch (Exception e) {
+                logger.warning("Job " + name + " failed: " + e);
+            }
+            seconds = (System.currentTimeMillis() - start) / 1000.0;
+            scheduler.finished(this);
+        }
+    }
+
+    private final int numWorkers;
+    private final File logDir;
+    private final File resultCsv;
+    private String javaCommand = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    private String[] jvmArgs = new String[0];
+
+    private final List<Job> jobs = new ArrayList<Job>();
+    private int numFinished = 0;
+
+    public ExperimentScheduler(int numWorkers, File logDir, File resultCsv) {
+        this.numWorkers = Math.max(1, numWorkers);
+        this.logDir = logDir;
+        this.resultCsv = resultCsv;
+        MyFileWriter.directoryConfirmAndMake(logDir.getPath());
+    }
+
+    /** Options of the job JVMs, e.g. -Xmx4g. */
+    public void setJvmArgs(String[] jvmArgs) {
+        this.jvmArgs = jvmArgs == null ? new String[0] : jvmArgs;
+    }
+
+    public Job add(String name, Class<?> mainClass, String[] args, File resultFile) {
+        Job job = new Job(name, mainClass, args, resultFile);
+        job.scheduler = this;
+        jobs.add(job);
+        return job;
+    }
+
+    public File getLogFile(Job job) {
+        return new File(logDir, job.name.replaceAll("[^A-Za-z0-9._-]+", "_") + ".log");
+    }
+
+    /**
+     * Run all added jobs and wait for them. Returns the jobs in the order they were added.
+     */
+    public List<Job> runAll() {
+        logger.info("Running " + jobs.size() + " jobs on " + numWorkers + " workers. Logs in " + logDir);
+        ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+        for (Job job : jobs) {
+            executor.execute(job);
+        }
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info(getNumFinished() + "/" + jobs.size() + " jobs finished.");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        int failed = 0;
+        for (Job job : jobs) {
+            if (!job.succeeded) {
+                failed++;
+                logger.warning("Failed job: " + job.name + " (log: " + getLogFile(job) + ")");
+            }
+        }
+        logger.info((jobs.size() - failed) + " jobs succeeded, " + failed + " failed.");
+        return jobs;
+    }
+
+    synchronized int getNumFinished() {
+        return numFinished;
+    }
+
+    // Append the result of a finished job to the results CSV
+    synchronized void finished(Job job) {
+        numFinished++;
+        String status = job.succeeded ? "OK" : "FAILED";
+        StringBuilder text = new StringBuilder();
+        if (job.resultLines.isEmpty()) {
+            text.append(job.name + "," + status + "," + job.exitCode + "," + job.seconds + "\n");
+        } else {
+            for (String line : job.resultLines) {
+                text.append(job.name + "," + status + "," + job.exitCode + "," + job.seconds + "," + line + "\n");
+            }
+        }
+        try {
+            MyFileWriter.MyFileOngoingWriter(resultCsv, text.toString(), "Experiment Jobs Result");
+        } catch (IOException e) {
+            logger.warning("Cannot write job result to " + resultCsv + ": " + e);
+        }
+        System.out.println("[" + numFinished + "/" + jobs.size() + "] " + status + " " + job.name + " (" + job.seconds + "s)");
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.textcontrol;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Builds the feature row of a document for one feature set, for {@link VariedFeatureSetWriter} and for
+ * {@link edu.kaist.irlab.classify.OnlineClassifier}, so a document gets the same row in the files and online.
+ * <p/>
+ * The topic features come first, pumped by the number of training documents. The bag of words follows at the
+ * offset of the number of topic columns: term frequencies, or with a term weight, pow(tf, score) * score for the
+ * words whose score reaches the hurdle numClasses / (numClasses + numTrainingDocs). Words without a term weight
+ * have the score 1.
+ * <p/>
+ * The scores are looked up as the data alphabet grows, so while it grows one thread uses a builder at a time.
+ * Once the alphabet has stopped growing and the builder has seen it, it can be shared between threads.
+ *
+ * @author Seonggyu Lee
+ */
+public class FeatureRowBuilder {
+
+    /** Receives the entries of a row. */
+    public interface Sink {
+        void add(int column, double value) throws IOException;
+    }
+
+    final Alphabet dataAlphabet;
+    final TermWeight termWeight; // null for term frequencies
+    final double hurdle;
+    final double pumping;
+
+    double[] scores = new double[0];
+    int numScores = 0;
+
+    /**
+     * @param dataAlphabet    the alphabet of the bag of words vectors, may still grow
+     * @param termWeight      term weight of the bag of words, null for plain term frequencies
+     * @param numTrainingDocs number of training documents, used for the term weight hurdle and the topic feature pumping
+     * @param numClasses      number of labels, used for the term weight hurdle
+     */
+    public FeatureRowBuilder(Alphabet dataAlphabet, TermWeight termWeight, int numTrainingDocs, int numClasses) {
+        this.dataAlphabet = dataAlphabet;
+        this.termWeight = termWeight;
+        this.hurdle = (double) numClasses / (numClasses + numTrainingDocs);
+        this.pumping = numTrainingDocs > 0 ? (numTrainingDocs + 1000) / numTrainingDocs + 1 : 1; //Pumping 2014.09.11
+        if (termWeight != null) updateScores();
+    }
+
+    public boolean hasTermWeight() { return termWeight != null; }
+
+    public double getHurdle() { return hurdle; }
+
+    public double getPumping() { return pumping; }
+
+    /** The term weight of a word of the data alphabet, 1 without a term weight. */
+    public double getScore(int feature) {
+        if (termWeight == null) return 1.0;
+        if (feature >= numScores) updateScores();
+        return scores[feature];
+    }
+
+    /** Whether a word is kept in the weighted bag of words. */
+    public boolean passesHurdle(int feature) {
+        return termWeight == null || getScore(feature) >= hurdle;
+    }
+
+    private void updateScores() {
+        int size = dataAlphabet.size();
+        if (size > scores.length) scores = Arrays.copyOf(scores, Math.max(size, scores.length * 2));
+        for (int i = numScores; i < size; i++) {
+            int weightedAlphabetIndex = termWeight.typeAlphabet.lookupIndex(dataAlphabet.lookupObject(i), false);
+            scores[i] = weightedAlphabetIndex == -1 ? 1.0 : termWeight.typeWeight[weightedAlphabetIndex];
+        }
+        numScores = size;
+    }
+
+    /** Add a topic feature of the document. */
+    public void addTopic(Sink out, int column, double value) throws IOException {
+        out.add(column, value * pumping);
+    }
+
+    /** Add the bag of words of the document after <code>offset</code> topic columns. */
+    public void addBow(Sink out, int offset, FeatureVector fv) throws IOException {
+        for (int l = 0; l < fv.numLocations(); l++) {
+            int fvi = fv.indexAtLocation(l);
+            if (termWeight == null) {
+                out.add(offset + fvi, fv.valueAtLocation(l));
+            } else {
+                double score = getScore(fvi);
+                if (score >= hurdle) {
+                    // term Contribution 반영은 pow 와 곱 두가지 방식을 모두 사용하여 반영함.
+                    out.add(offset + fvi, Math.pow(fv.valueAtLocation(l), score) * score);
+                }
+            }
+        }
+    }
+}
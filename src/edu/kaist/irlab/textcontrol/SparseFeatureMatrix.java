@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.textcontrol;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.LabelAlphabet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A labeled sparse feature matrix in a binary CSR (compressed sparse row) file, used in place of
+ * SVMlight style text between the feature extraction and the classifier steps.
+ * <p/>
+ * The file is written once by a {@link Writer}, row by row, and read through memory mapped buffers,
+ * so the features are never parsed or copied into objects. Layout (big endian):
+ * <pre>
+ * header     : magic, version, numRows, numColumns (int), numNonZeros, rowPointerOffset, labelOffset, nameOffset (long)
+ * entries    : numNonZeros x (column int, value double), row by row, columns increasing within a row
+ * rowPointers: numRows+1 longs, first entry of each row
+ * labels     : numRows ints, index into the label names (-1 if the row has no label)
+ * names      : label names, feature names (may be empty), row names (instance names), as UTF strings
+ * </pre>
+ * Columns are 0-based; the SVMlight feature number is column + 1 and the label number is label + 1.
+ *
+ * @author Seonggyu Lee
+ */
+public class SparseFeatureMatrix {
+
+    public static final String FILE_SUFFIX = ".csr";
+
+    static final int MAGIC = 0x4B435352; // "KCSR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int ENTRY_BYTES = 12;
+    // Entries never straddle two mapped chunks
+    static final long ENTRIES_PER_CHUNK = Integer.MAX_VALUE / ENTRY_BYTES;
+
+    final int numRows;
+    final int numColumns;
+    final long numNonZeros;
+
+    final ByteBuffer[] entryChunks;
+    final ByteBuffer rowPointers;
+    final ByteBuffer labels;
+
+    final String[] labelNames;
+    final String[] featureNames; // null if the writer did not keep them
+    final String[] rowNames;
+
+    SparseFeatureMatrix(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a sparse feature matrix file.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has an unknown version " + version);
+            }
+            numRows = header.getInt();
+            numColumns = header.getInt();
+            numNonZeros = header.getLong();
+            long rowPointerOffset = header.getLong();
+            long labelOffset = header.getLong();
+            long nameOffset = header.getLong();
+
+            int numChunks = (int) ((numNonZeros + ENTRIES_PER_CHUNK - 1) / ENTRIES_PER_CHUNK);
+            entryChunks = new ByteBuffer[numChunks];
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                long first = chunk * ENTRIES_PER_CHUNK;
+                long size = Math.min(ENTRIES_PER_CHUNK, numNonZeros - first) * ENTRY_BYTES;
+                entryChunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * ENTRY_BYTES, size);
+            }
+            rowPointers = channel.map(FileChannel.MapMode.READ_ONLY, rowPointerOffset, (numRows + 1) * 8L);
+            labels = channel.map(FileChannel.MapMode.READ_ONLY, labelOffset, numRows * 4L);
+
+            MappedByteBuffer nameBuffer = channel.map(FileChannel.MapMode.READ_ONLY, nameOffset, channel.size() - nameOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteBufferInputStream(nameBuffer)));
+            labelNames = readStrings(in);
+            String[] features = readStrings(in);
+            featureNames = features.length == 0 ? null : features;
+            rowNames = readStrings(in);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Map a matrix file written by {@link Writer}. */
+    public static SparseFeatureMatrix load(File file) throws IOException {
+        return new SparseFeatureMatrix(file);
+    }
+
+    /** True if the file name has the matrix suffix, i.e. it should be read with {@link #load} rather than as SVMlight text. */
+    public static boolean isMatrixFile(String fileName) {
+        return fileName != null && fileName.endsWith(FILE_SUFFIX);
+    }
+
+    public int numRows() { return numRows; }
+
+    public int numColumns() { return numColumns; }
+
+    public long numNonZeros() { return numNonZeros; }
+
+    /** Entry number of the first non-zero of a row. */
+    public long rowStart(int row) { return rowPointers.getLong(row * 8); }
+
+    /** Entry number one past the last non-zero of a row. */
+    public long rowEnd(int row) { return rowPointers.getLong((row + 1) * 8); }
+
+    public int numLocations(int row) { return (int) (rowEnd(row) - rowStart(row)); }
+
+    public int column(long entry) {
+        return entryChunks[(int) (entry / ENTRIES_PER_CHUNK)].getInt((int) (entry % ENTRIES_PER_CHUNK) * ENTRY_BYTES);
+    }
+
+    public double value(long entry) {
+        return entryChunks[(int) (entry / ENTRIES_PER_CHUNK)].getDouble((int) (entry % ENTRIES_PER_CHUNK) * ENTRY_BYTES + 4);
+    }
+
+    public int label(int row) { return labels.getInt(row * 4); }
+
+    public String rowName(int row) { return rowNames[row]; }
+
+    public String[] getLabelNames() { return labelNames; }
+
+    /** The feature names, or null if the matrix was written without them. */
+    public String[] getFeatureNames() { return featureNames; }
+
+    /**
+     * Sum of weights[offset + column] * value over the non-zeros of a row. Columns not less than maxColumn are skipped.
+     */
+    public double dotProduct(int row, double[] weights, int offset, int maxColumn) {
+        double result = 0.0;
+        long end = rowEnd(row);
+        for (long entry = rowStart(row); entry < end; entry++) {
+            int column = column(entry);
+            if (column < maxColumn) result += weights[offset + column] * value(entry);
+        }
+        return result;
+    }
+
+    /** weights[offset + column] += scale * value over the non-zeros of a row. */
+    public void addTo(int row, double scale, double[] weights, int offset) {
+        long end = rowEnd(row);
+        for (long entry = rowStart(row); entry < end; entry++) {
+            weights[offset + column(entry)] += scale * value(entry);
+        }
+    }
+
+    /** A copy of a row as a FeatureVector of the given alphabet, which must have at least numColumns entries. */
+    public FeatureVector getFeatureVector(int row, Alphabet dataAlphabet) {
+        int size = numLocations(row);
+        int[] indices = new int[size];
+        double[] values = new double[size];
+        long entry = rowStart(row);
+        for (int location = 0; location < size; location++, entry++) {
+            indices[location] = column(entry);
+            values[location] = value(entry);
+        }
+        return new FeatureVector(dataAlphabet, indices, values);
+    }
+
+    /** An alphabet for the columns: the feature names, or the SVMlight feature numbers "1".."numColumns". */
+    public Alphabet getDataAlphabet() {
+        Alphabet alphabet = new Alphabet();
+        for (int column = 0; column < numColumns; column++) {
+            alphabet.lookupIndex(featureNames != null ? featureNames[column] : Integer.toString(column + 1));
+        }
+        return alphabet;
+    }
+
+    public LabelAlphabet getLabelAlphabet() {
+        LabelAlphabet alphabet = new LabelAlphabet();
+        for (String name : labelNames) {
+            alphabet.lookupLabel(name, true);
+        }
+        return alphabet;
+    }
+
+    /** Write the matrix as SVMlight style text, one row per line, with the row name after '#'. */
+    public void writeSvmLight(PrintStream out, boolean printNames) {
+        StringBuilder output = new StringBuilder();
+        for (int row = 0; row < numRows; row++) {
+            output.setLength(0);
+            output.append(label(row) + 1);
+            long end = rowEnd(row);
+            for (long entry = rowStart(row); entry < end; entry++) {
+                output.append(' ').append(column(entry) + 1).append(':').append(value(entry));
+            }
+            if (printNames) output.append(" #").append(rowNames[row]);
+            out.println(output);
+        }
+    }
+
+    /**
+     * Convert an SVMlight style text file ("label feature:value ... #name", lines starting with # are skipped)
+     * to a matrix file. Label numbers become label names, label n has index n - 1 (0, hidden, becomes -1).
+     */
+    public static void convertSvmLight(File textFile, File matrixFile) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(textFile), "UTF-8"));
+        Writer writer = new Writer(matrixFile, 0, (String[]) null, null);
+        int maxLabel = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().startsWith("#") || line.trim().equals("")) continue;
+            String name = null;
+            int hash = line.indexOf('#');
+            if (hash >= 0) {
+                name = line.substring(hash + 1);
+                line = line.substring(0, hash);
+            }
+            String[] terms = line.trim().split("\\s+");
+            int labelNumber = Integer.parseInt(terms[0].startsWith("+") ? terms[0].substring(1) : terms[0]);
+            if (labelNumber > maxLabel) maxLabel = labelNumber;
+            writer.startRow(labelNumber - 1, name);
+            for (int i = 1; i < terms.length; i++) {
+                int colon = terms[i].indexOf(':');
+                writer.addEntry(Integer.parseInt(terms[i].substring(0, colon)) - 1, Double.parseDouble(terms[i].substring(colon + 1)));
+            }
+        }
+        in.close();
+
+        String[] labelNames = new String[maxLabel];
+        for (int label = 0; label < maxLabel; label++) labelNames[label] = Integer.toString(label + 1);
+        writer.setLabelNames(labelNames);
+        writer.close();
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) { this.buffer = buffer; }
+
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+
+    /**
+     * Writes a matrix file row by row. The non-zeros are streamed to the file, only the row pointers,
+     * labels and row names are kept in memory until {@link #close}.
+     */
+    public static class Writer {
+        final File file;
+        final DataOutputStream out;
+        String[] labelNames;
+        String[] featureNames;
+        int numColumns;
+
+        long numNonZeros = 0;
+        long[] rowPointers = new long[1024];
+        int[] rowLabels = new int[1024];
+        List<String> rowNames = new ArrayList<String>();
+        int numRows = 0;
+
+        /**
+         * @param numColumns   number of columns; grows if a larger column is added
+         * @param labelNames   names of the label indices, e.g. from the target alphabet
+         * @param featureNames names of the columns, or null
+         */
+        public Writer(File file, int numColumns, String[] labelNames, String[] featureNames) throws IOException {
+            this.file = file;
+            this.numColumns = numColumns;
+            this.labelNames = labelNames == null ? new String[0] : labelNames;
+            this.featureNames = featureNames;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            out.write(new byte[HEADER_BYTES]); // written at close
+        }
+
+        public Writer(File file, int numColumns, Alphabet labelAlphabet, Alphabet dataAlphabet) throws IOException {
+            this(file, numColumns, alphabetNames(labelAlphabet), alphabetNames(dataAlphabet));
+        }
+
+        static String[] alphabetNames(Alphabet alphabet) {
+            if (alphabet == null) return null;
+            String[] names = new String[alphabet.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = alphabet.lookupObject(i).toString();
+            }
+            return names;
+        }
+
+        /** Add a row. The columns must be increasing; columns are shifted by columnOffset. */
+        public void addRow(int label, int[] columns, double[] values, int size, int columnOffset, String name) throws IOException {
+            startRow(label, name);
+            addToRow(columns, values, size, columnOffset);
+        }
+
+        public void addRow(int label, FeatureVector fv, String name) throws IOException {
+            startRow(label, name);
+            for (int location = 0; location < fv.numLocations(); location++) {
+                addEntry(fv.indexAtLocation(location), fv.valueAtLocation(location));
+            }
+        }
+
+        /** Start a new row. Its entries are added with {@link #addToRow} or {@link #addEntry}. */
+        public void startRow(int label, String name) {
+            if (numRows + 1 >= rowPointers.length) {
+                rowPointers = Arrays.copyOf(rowPointers, rowPointers.length * 2);
+                rowLabels = Arrays.copyOf(rowLabels, rowLabels.length * 2);
+            }
+            rowPointers[numRows] = numNonZeros;
+            rowLabels[numRows] = label;
+            rowNames.add(name == null ? "" : name);
+            numRows++;
+        }
+
+        public void addToRow(int[] columns, double[] values, int size, int columnOffset) throws IOException {
+            for (int location = 0; location < size; location++) {
+                addEntry(columns[location] + columnOffset, values[location]);
+            }
+        }
+
+        public void addEntry(int column, double value) throws IOException {
+            out.writeInt(column);
+            out.writeDouble(value);
+            numNonZeros++;
+            if (column >= numColumns) numColumns = column + 1;
+        }
+
+        public int numRows() { return numRows; }
+
+        /** Set the label names, e.g. when the label alphabet has grown while the rows were written. */
+        public void setLabelNames(String[] labelNames) {
+            this.labelNames = labelNames == null ? new String[0] : labelNames;
+        }
+
+        /** Set the column names; the matrix has at least as many columns. */
+        public void setFeatureNames(String[] featureNames) {
+            this.featureNames = featureNames;
+            if (featureNames != null && featureNames.length > numColumns) numColumns = featureNames.length;
+        }
+
+        public void close() throws IOException {
+            rowPointers[numRows] = numNonZeros;
+
+            long rowPointerOffset = HEADER_BYTES + numNonZeros * ENTRY_BYTES;
+            for (int row = 0; row <= numRows; row++) out.writeLong(rowPointers[row]);
+            long labelOffset = rowPointerOffset + (numRows + 1) * 8L;
+            for (int row = 0; row < numRows; row++) out.writeInt(rowLabels[row]);
+            long nameOffset = labelOffset + numRows * 4L;
+
+            writeStrings(out, labelNames);
+            writeStrings(out, featureNames == null || featureNames.length < numColumns ? new String[0] : Arrays.copyOf(featureNames, numColumns));
+            writeStrings(out, rowNames.toArray(new String[numRows]));
+            out.close();
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(numRows);
+                raf.writeInt(numColumns);
+                raf.writeLong(numNonZeros);
+                raf.writeLong(rowPointerOffset);
+                raf.writeLong(labelOffset);
+                raf.writeLong(nameOffset);
+            } finally {
+                raf.close();
+            }
+        }
+
+        private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+            out.writeInt(strings.length);
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+        }
+    }
+}
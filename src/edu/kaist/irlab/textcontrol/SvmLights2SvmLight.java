@@ -42,6 +42,9 @@ import java.util.logging.Logger;
  * equivalent.  
  * 
  * Note that the input and output args can take multiple files.
+ *
+ * If the input files are binary {@link SparseFeatureMatrix} files (.csr), they are joined
+ * through memory mapped buffers and the output is written as a matrix file too.
  * 
  *  @author Gregory Druck
  *  @author Seonggyu Lee
@@ -118,6 +121,11 @@ public class SvmLights2SvmLight {
                     "files containing the instances, one per line.");
         }
 		
+        if (SparseFeatureMatrix.isMatrixFile(inputFiles.value[0])) {
+            joinSparseFeatureMatrices();
+            return;
+        }
+
 		Pipe instancePipe;
         Pipe instancePipe2; // 항상 갱신되는 용도
 
@@ -283,9 +291,7 @@ public class SvmLights2SvmLight {
 
                     standardInstance.setData(new FeaturesTuple(indicesXs,valuesXs,capacities));
 
-                    String sName = standardInstance.getName().toString();
-                    int lastSlashPos = sName.lastIndexOf('/'); //subfolder name 까지 같아야 함
-                    String abstractName = sName.substring(sName.lastIndexOf('/',lastSlashPos-1)+1);
+                    String abstractName = getAbstractName(standardInstance.getName().toString());
                     standardInstanceMap.put(abstractName,standardInstance);
                 }
             }else{  // 나머지 list 의 size 가 첫번째와 같은지 비교하고 같으면,, 문제없이. 계속 standardMap 에 data 추가.
@@ -297,9 +303,7 @@ public class SvmLights2SvmLight {
                         while(instanceIter.hasNext()) {
                             Instance instance = instanceIter.next();
 
-                            String iName = instance.getName().toString();
-                            int lastSlashPos = iName.lastIndexOf('/'); //subfolder name 까지 같아야 함
-                            String absiName = iName.substring(iName.lastIndexOf('/',lastSlashPos-1)+1);
+                            String absiName = getAbstractName(instance.getName().toString());
 
                             Instance standardInstance = standardInstanceMap.get(absiName);
                             if(standardInstance==null) continue;
@@ -318,7 +322,7 @@ public class SvmLights2SvmLight {
                                     for (int ivl = 0; ivl < iValues.length; ivl++) {
 //                                        iValues[ivl] = iValues[ivl] * 1000.0 / (trainingDocNum.value()); //Pumping 트레이닝 데이터가 충분하지 않을때 더 크게 펌핑하여 topic feature 가 중요하게 다뤄지도록 함.
 //                                        iValues[ivl] = iValues[ivl] * 3; //Pumping 정수
-                                        iValues[ivl] = iValues[ivl] *((trainingDocNum.value()+1000)/trainingDocNum.value()+1); //Pumping 2014.09.11
+                                        iValues[ivl] = iValues[ivl] * getPumpingFactor(); //Pumping 2014.09.11
                                     }
                                     sData.addValuesXs(iValues);
                                 }else{
@@ -397,11 +401,96 @@ public class SvmLights2SvmLight {
             out.close();
         }
     }
-}
 
+    /** Instances of the joined lists are matched by the last directory and file name. */
+    static String getAbstractName(String name) {
+        int lastSlashPos = name.lastIndexOf('/'); //subfolder name 까지 같아야 함
+        return name.substring(name.lastIndexOf('/',lastSlashPos-1)+1);
+    }
 
+    private static int getPumpingFactor() {
+        return (trainingDocNum.value()+1000)/trainingDocNum.value()+1;
+    }
 
+    /**
+     * Same join as printSVMStyleOneList for binary matrices. The rows of the first matrix are written in order,
+     * each followed by the features of the row with the same name in the other matrices, with shifted columns.
+     */
+    private static void joinSparseFeatureMatrices() throws IOException {
+        int numInputs = inputFiles.value.length;
+        SparseFeatureMatrix[] matrices = new SparseFeatureMatrix[numInputs];
+        int[] columnOffsets = new int[numInputs];
+        for (int fileIndex = 0; fileIndex < numInputs; fileIndex++) {
+            matrices[fileIndex] = SparseFeatureMatrix.load(new File(inputFiles.value[fileIndex]));
+            if (fileIndex > 0) columnOffsets[fileIndex] = columnOffsets[fileIndex - 1] + matrices[fileIndex - 1].numColumns();
+        }
+        SparseFeatureMatrix standard = matrices[0];
+
+        List<Map<String,Integer>> rowsByName = new ArrayList<Map<String,Integer>>();
+        for (int fileIndex = 0; fileIndex < numInputs; fileIndex++) {
+            Map<String,Integer> rows = new HashMap<String,Integer>();
+            if (fileIndex > 0) {
+                SparseFeatureMatrix matrix = matrices[fileIndex];
+                for (int row = 0; row < matrix.numRows(); row++) {
+                    rows.put(getAbstractName(matrix.rowName(row)), row);
+                }
+            }
+            rowsByName.add(rows);
+        }
 
+        int firstInput = print2ndOnly.value ? 1 : 0;
+        int lastInput = print2ndOnly.value ? 1 : numInputs - 1;
+        int numFeatures = columnOffsets[lastInput] + matrices[lastInput].numColumns() - columnOffsets[firstInput];
+        double pumping = trainingDocNum.value() > 0 ? getPumpingFactor() : 1.0;
+
+        SparseFeatureMatrix.Writer writer = new SparseFeatureMatrix.Writer(outputFile.value, numFeatures, standard.getLabelNames(), null);
+        for (int row = 0; row < standard.numRows(); row++) {
+            String name = standard.rowName(row);
+            writer.startRow(standard.label(row), name);
+            for (int fileIndex = firstInput; fileIndex <= lastInput; fileIndex++) {
+                SparseFeatureMatrix matrix = matrices[fileIndex];
+                int matrixRow = row;
+                double scale = 1.0;
+                if (fileIndex > 0) {
+                    Integer found = rowsByName.get(fileIndex).get(getAbstractName(name));
+                    if (found == null) continue;
+                    matrixRow = found;
+                    scale = pumping;
+                }
+                int offset = columnOffsets[fileIndex] - columnOffsets[firstInput];
+                long end = matrix.rowEnd(matrixRow);
+                for (long entry = matrix.rowStart(matrixRow); entry < end; entry++) {
+                    writer.addEntry(matrix.column(entry) + offset, matrix.value(entry) * scale);
+                }
+            }
+        }
+        writer.close();
 
-	
+        // Statistics of the joined matrix, same as for the text files
+        String[] labelNames = standard.getLabelNames();
+        StringBuilder output = new StringBuilder();
+        output.append("#This is a statistics file for Merged instance List file extrated same time. : "+outputFile.value.toString()+"\n");
+        output.append("numInstances : "+standard.numRows()+"\n");
+        output.append("numClasses : "+labelNames.length+"\n");
+        output.append("numFeatures : "+(columnOffsets[numInputs-1]+matrices[numInputs-1].numColumns())+"\n");
+        for (int vn = 0; vn < numInputs; vn++) {
+            output.append("\tInput SVM Vector No."+vn+" numFeatures: "+matrices[vn].numColumns()+" from File: "+inputFiles.value[vn]+"\n");
+        }
+        output.append("#label statistics(Labelnum\tLabelname\tLabelInstancesNum)"+"\n");
 
+        int[] labelStats = new int[labelNames.length];
+        for (int row = 0; row < standard.numRows(); row++) {
+            if (standard.label(row) >= 0) labelStats[standard.label(row)]++;
+        }
+        int fullNumInstances = 0;
+        for (int i = 0; i < labelNames.length; i++) {
+            output.append((i+1)+"\t"+labelNames[i]+"\t"+labelStats[i]+"\n");
+            fullNumInstances += labelStats[i];
+        }
+        output.append("*Full Label Instatnce List Number : "+fullNumInstances);
+
+        PrintStream statsOut = statsFile.value.toString().equals("-") ? System.out : new PrintStream(statsFile.value, encoding.value);
+        statsOut.println(output);
+        if (statsOut != System.out) statsOut.close();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.textcontrol;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.Instance;
+import cc.mallet.types.Label;
+import cc.mallet.util.MalletLogger;
+import edu.kaist.irlab.sglee.util.MyFileWriter;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static edu.kaist.irlab.topics.WeightedTopicModel.readTermWeightObject;
+
+/**
+ * Writes all the feature sets of an experiment (bag of words, topic features and their mixes) in one pass over the documents.
+ * <p/>
+ * Each document is given once to {@link #write}, and every feature set appends its row to its own train or test
+ * output, as SVMlight text (train_Svmlight.txt) or a binary {@link SparseFeatureMatrix} (train.csr). Nothing is kept
+ * per document except the label counts, so the memory does not grow with the corpus. The statistics files
+ * (train_stat.txt) are written by {@link #close}.
+ * <p/>
+ * The features of a row, built by {@link FeatureRowBuilder}, are the same as Vectors2SvmStyleBow (bag of words,
+ * optionally term weighted) and SvmLights2SvmLight (topic features of the document with the same name, pumped by the
+ * number of training documents).
+ * In a mix the topic features come first, so the bag of words columns can grow while the documents are read.
+ *
+ * @author Seonggyu Lee
+ */
+public class VariedFeatureSetWriter {
+
+    private static Logger logger = MalletLogger.getLogger(VariedFeatureSetWriter.class.getName());
+
+    final Alphabet dataAlphabet;
+    final Alphabet labelAlphabet;
+    final boolean binary;
+    final boolean printFileNames;
+    final int numTrainingDocs;
+    final int numClasses;
+    final FeatureRowBuilder frequencyRows;
+
+    final List<FeatureSet> featureSets = new ArrayList<FeatureSet>();
+    final Map<File,FeatureRowBuilder> weightedRows = new HashMap<File,FeatureRowBuilder>();
+    final Map<File,TopicFeatures> topicFeatures = new HashMap<File,TopicFeatures>();
+
+    /**
+     * @param dataAlphabet     the alphabet of the bag of words vectors, may still grow
+     * @param labelAlphabet    the alphabet of the labels, may still grow
+     * @param binary           write SparseFeatureMatrix files instead of SVMlight text
+     * @param numTrainingDocs  number of training documents, used for the term weight hurdle and the topic feature pumping
+     * @param numClasses       number of labels, used for the term weight hurdle
+     */
+    public VariedFeatureSetWriter(Alphabet dataAlphabet, Alphabet labelAlphabet, boolean binary, boolean printFileNames,
+                                  int numTrainingDocs, int numClasses) {
+        this.dataAlphabet = dataAlphabet;
+        this.labelAlphabet = labelAlphabet;
+        this.binary = binary;
+        this.printFileNames = printFileNames;
+        this.numTrainingDocs = numTrainingDocs;
+        this.numClasses = numClasses;
+        this.frequencyRows = new FeatureRowBuilder(dataAlphabet, null, numTrainingDocs, numClasses);
+    }
+
+    /**
+     * Add a feature set written to directory/train and directory/test.
+     *
+     * @param useBow          write the bag of words features
+     * @param termWeightFile  serialized TermWeight of the bag of words, null for plain term frequencies
+     * @param topicMatrixFile topic features per document, null for none
+     * @return false if the term weight or topic file does not exist; the feature set is skipped
+     */
+    public boolean addFeatureSet(String directory, boolean useBow, File termWeightFile, File topicMatrixFile) throws IOException {
+        if (termWeightFile != null && !termWeightFile.isFile()) {
+            logger.warning("Skipping " + directory + ": no term weight " + termWeightFile);
+            return false;
+        }
+        if (topicMatrixFile != null && !topicMatrixFile.isFile()) {
+            logger.warning("Skipping " + directory + ": no topic features " + topicMatrixFile);
+            return false;
+        }
+
+        MyFileWriter.directoryConfirmAndMake(directory);
+        FeatureSet featureSet = new FeatureSet();
+        featureSet.directory = directory;
+        featureSet.useBow = useBow;
+        featureSet.rows = frequencyRows;
+        if (termWeightFile != null) {
+            featureSet.rows = weightedRows.get(termWeightFile);
+            if (featureSet.rows == null) {
+                try {
+                    featureSet.rows = new FeatureRowBuilder(dataAlphabet, readTermWeightObject(termWeightFile),
+                            numTrainingDocs, numClasses);
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Cannot read term weight " + termWeightFile, e);
+                }
+                weightedRows.put(termWeightFile, featureSet.rows);
+            }
+        }
+        if (topicMatrixFile != null) {
+            featureSet.topics = topicFeatures.get(topicMatrixFile);
+            if (featureSet.topics == null) {
+                featureSet.topics = new TopicFeatures(SparseFeatureMatrix.load(topicMatrixFile));
+                topicFeatures.put(topicMatrixFile, featureSet.topics);
+            }
+        }
+        featureSet.outputs = new Output[] {newOutput(directory + "train"), newOutput(directory + "test")};
+        featureSets.add(featureSet);
+        return true;
+    }
+
+    public int numFeatureSets() {
+        return featureSets.size();
+    }
+
+    /** Write one document (FeatureVector data, Label target) to all feature sets. */
+    public void write(boolean training, Instance instance) throws IOException {
+        FeatureVector fv = (FeatureVector) instance.getData();
+        int label = instance.getTarget() != null ? ((Label) instance.getTarget()).getIndex() : -1;
+        String name = instance.getName().toString();
+        String abstractName = null;
+
+        for (FeatureSet featureSet : featureSets) {
+            Output out = featureSet.outputs[training ? 0 : 1];
+            out.startRow(label, name);
+
+            int bowOffset = 0;
+            if (featureSet.topics != null) {
+                SparseFeatureMatrix matrix = featureSet.topics.matrix;
+                if (abstractName == null) abstractName = SvmLights2SvmLight.getAbstractName(name);
+                Integer row = featureSet.topics.rowsByName.get(abstractName);
+                if (row != null) {
+                    long end = matrix.rowEnd(row);
+                    for (long entry = matrix.rowStart(row); entry < end; entry++) {
+                        featureSet.rows.addTopic(out, matrix.column(entry), matrix.value(entry));
+                    }
+                }
+                bowOffset = matrix.numColumns();
+            }
+
+            if (featureSet.useBow) {
+                featureSet.rows.addBow(out, bowOffset, fv);
+            }
+            out.endRow();
+        }
+    }
+
+    /** Close all outputs and write their statistics files. */
+    public void close() throws IOException {
+        String[] labelNames = SparseFeatureMatrix.Writer.alphabetNames(labelAlphabet);
+        String[] featureNames = SparseFeatureMatrix.Writer.alphabetNames(dataAlphabet);
+
+        for (FeatureSet featureSet : featureSets) {
+            int numTopics = featureSet.topics != null ? featureSet.topics.matrix.numColumns() : 0;
+            int numFeatures = numTopics + (featureSet.useBow ? dataAlphabet.size() : 0);
+
+            for (int split = 0; split < 2; split++) {
+                Output out = featureSet.outputs[split];
+                out.close(labelNames, featureSet.useBow && numTopics == 0 ? featureNames : null, numFeatures);
+
+                StringBuilder output = new StringBuilder();
+                output.append("#This is a statistics file for instance List file extracted same time. : " + out.file + "\n");
+                output.append("numInstances : " + out.numRows + "\n");
+                output.append("numClasses : " + labelNames.length + "\n");
+                output.append("numFeatures : " + numFeatures + "\n");
+                if (numTopics > 0) output.append("numTopicFeatures : " + numTopics + "\n");
+                if (featureSet.useBow && featureSet.rows.hasTermWeight()) {
+                    int numRealFeatures = 0;
+                    for (int i = 0; i < dataAlphabet.size(); i++) {
+                        if (featureSet.rows.passesHurdle(i)) numRealFeatures++;
+                    }
+                    output.append("numRealFeatures : " + numRealFeatures + "\n");
+                }
+                output.append("#label statistics(Labelnum\tLabelname\tLabelInstancesNum)" + "\n");
+                int fullNumInstances = 0;
+                for (int i = 0; i < labelNames.length; i++) {
+                    int labelInstancesNum = i < out.labelCounts.length ? out.labelCounts[i] : 0;
+                    output.append((i + 1) + "\t" + labelNames[i] + "\t" + labelInstancesNum + "\n");
+                    fullNumInstances += labelInstancesNum;
+                }
+                output.append("*Full Label Instatnce List Number : " + fullNumInstances);
+
+                PrintStream statsOut = new PrintStream(new File(featureSet.directory + (split == 0 ? "train" : "test") + "_stat.txt"), "UTF-8");
+                statsOut.println(output);
+                statsOut.close();
+            }
+        }
+    }
+
+    private Output newOutput(String preName) throws IOException {
+        return binary ? new MatrixOutput(new File(preName + SparseFeatureMatrix.FILE_SUFFIX))
+                : new TextOutput(new File(preName + "_Svmlight.txt"), printFileNames);
+    }
+
+    static class FeatureSet {
+        String directory;
+        boolean useBow;
+        FeatureRowBuilder rows;
+        TopicFeatures topics;
+        Output[] outputs; // train, test
+    }
+
+    /** Topic features per document, found by the last directory and file name of the document. */
+    static class TopicFeatures {
+        final SparseFeatureMatrix matrix;
+        final Map<String,Integer> rowsByName = new HashMap<String,Integer>();
+
+        TopicFeatures(SparseFeatureMatrix matrix) {
+            this.matrix = matrix;
+            for (int row = 0; row < matrix.numRows(); row++) {
+                rowsByName.put(SvmLights2SvmLight.getAbstractName(matrix.rowName(row)), row);
+            }
+        }
+    }
+
+    static abstract class Output implements FeatureRowBuilder.Sink {
+        final File file;
+        int numRows = 0;
+        int[] labelCounts = new int[0];
+
+        Output(File file) { this.file = file; }
+
+        void startRow(int label, String name) throws IOException {
+            numRows++;
+            if (label >= 0) {
+                if (label >= labelCounts.length) labelCounts = Arrays.copyOf(labelCounts, label + 1);
+                labelCounts[label]++;
+            }
+        }
+
+        public abstract void add(int column, double value) throws IOException;
+
+        abstract void endRow() throws IOException;
+
+        abstract void close(String[] labelNames, String[] featureNames, int numColumns) throws IOException;
+    }
+
+    static class TextOutput extends Output {
+        final PrintStream out;
+        final boolean printFileNames;
+        final StringBuilder line = new StringBuilder();
+        String name;
+
+        TextOutput(File file, boolean printFileNames) throws IOException {
+            super(file);
+            this.printFileNames = printFileNames;
+            out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), false, "UTF-8");
+            out.println("#This is svm light style Instance List. First column is a label number(=target class, 0 means hidden.) Sizes are in the _stat.txt file.");
+        }
+
+        void startRow(int label, String name) throws IOException {
+            super.startRow(label, name);
+            this.name = name;
+            line.setLength(0);
+            line.append(label + 1); //number (+1 은 실제 label number는 1부터 시작하므로)
+        }
+
+        public void add(int column, double value) {
+            line.append(' ').append(column + 1).append(':').append(value); //Same +1 for vocabulary
+        }
+
+        void endRow() {
+            if (printFileNames) line.append(" #").append(name);
+            out.println(line);
+        }
+
+        void close(String[] labelNames, String[] featureNames, int numColumns) {
+            out.close();
+        }
+    }
+
+    static class MatrixOutput extends Output {
+        final SparseFeatureMatrix.Writer writer;
+
+        MatrixOutput(File file) throws IOException {
+            super(file);
+            writer = new SparseFeatureMatrix.Writer(file, 0, (String[]) null, null);
+        }
+
+        void startRow(int label, String name) throws IOException {
+            super.startRow(label, name);
+            writer.startRow(label, name);
+        }
+
+        public void add(int column, double value) throws IOException {
+            writer.addEntry(column, value);
+        }
+
+        void endRow() {
+        }
+
+        void close(String[] labelNames, String[] featureNames, int numColumns) throws IOException {
+            writer.setLabelNames(labelNames);
+            writer.setFeatureNames(featureNames);
+            if (writer.numColumns < numColumns) writer.numColumns = numColumns;
+            writer.close();
+        }
+    }
+}
@@ -15,8 +15,11 @@ import cc.mallet.types.IDSorter;
 import cc.mallet.types.InstanceList;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.*;
 
 public class Vectors2IdfWeight {
 
@@ -45,19 +48,101 @@ public class Vectors2IdfWeight {
     }
 
     public static TermWeight getIdfTermWeight(InstanceList instances) {
+        return getIdfTermWeight(instances, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Same weights as {@link #getIdfFromType} for every type, but the document frequencies
+     * are counted in one pass over the corpus, split into one block of documents per thread.
+     */
+    public static TermWeight getIdfTermWeight(InstanceList instances, int numThreads) {
 
         Alphabet typeAlphabet = instances.getAlphabet();
         int numTypes = typeAlphabet.size();
+        int numDocs = instances.size();
+        int[] documentFrequencies = getDocumentFrequencies(instances, numThreads);
+
         double[] typeIdfWeight = new double[numTypes];
-            for (int type=0; type < numTypes; type++){
-            typeIdfWeight[type] = getIdfFromType(type,instances);
+        for (int type=0; type < numTypes; type++){
+            int df = documentFrequencies[type];
+            if(!(df==0)&&!(df==numDocs)){
+                typeIdfWeight[type]=Math.log((double) (numDocs)/df);
+                typeIdfWeight[type]=typeIdfWeight[type]/Math.log(numDocs);
+            }
         }
 
         TermWeight idfTermWeight = new TermWeight(typeIdfWeight,typeAlphabet);
         return idfTermWeight;
     }
 
-    //idf per type
+    /**
+     * Number of documents containing each type. Each thread counts its own block of documents
+     * and the per-thread counts are summed at the end.
+     */
+    public static int[] getDocumentFrequencies(final InstanceList instances, int numThreads) {
+
+        final int numTypes = instances.getAlphabet().size();
+        int numDocs = instances.size();
+        if (numThreads < 1) numThreads = 1;
+        if (numThreads > numDocs) numThreads = Math.max(1, numDocs);
+
+        if (numThreads == 1) {
+            return countDocumentFrequencies(instances, 0, numDocs, numTypes);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<int[]>> futures = new ArrayList<Future<int[]>>(numThreads);
+        int docsPerThread = numDocs / numThreads;
+        int offset = 0;
+        for (int thread = 0; thread < numThreads; thread++) {
+            final int startDoc = offset;
+            final int endDoc = (thread == numThreads - 1) ? numDocs : offset + docsPerThread;
+            futures.add(executor.submit(new Callable<int[]>() {
+                public int[] call() {
+                    return countDocumentFrequencies(instances, startDoc, endDoc, numTypes);
+                }
+            }));
+            offset = endDoc;
+        }
+
+        int[] documentFrequencies = new int[numTypes];
+        try {
+            for (Future<int[]> future : futures) {
+                int[] blockFrequencies = future.get();
+                for (int type = 0; type < numTypes; type++) {
+                    documentFrequencies[type] += blockFrequencies[type];
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Document frequency counting was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Document frequency counting failed.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return documentFrequencies;
+    }
+
+    // document frequencies of the documents [startDoc, endDoc)
+    private static int[] countDocumentFrequencies(InstanceList instances, int startDoc, int endDoc, int numTypes) {
+        int[] documentFrequencies = new int[numTypes];
+        int[] lastSeenDoc = new int[numTypes]; // 1 + index of the last document counted for each type
+        for (int i = startDoc; i < endDoc; i++) {
+            FeatureSequence docFeatures = (FeatureSequence) instances.get(i).getData();
+            int[] features = docFeatures.getFeatures();
+            for (int position = 0; position < docFeatures.getLength(); position++) {
+                int f = features[position];
+                if (lastSeenDoc[f] != i + 1) {
+                    lastSeenDoc[f] = i + 1;
+                    documentFrequencies[f]++;
+                }
+            }
+        }
+        return documentFrequencies;
+    }
+
+    //idf per type. getIdfTermWeight computes this for all types in one pass.
     public static double getIdfFromType(int type,InstanceList instances) {
         double idf = 0.0;
         int df = 0;
@@ -86,11 +171,13 @@ public class Vectors2IdfWeight {
 	public static void main (String[] args) throws IOException, ClassNotFoundException {
         //args 설명 0: 입력하는 전체 corpus 에 대한 mallet vector
         //args 설명 1: output object location and name
+        //args 설명 2: number of threads (optional)
 
         InstanceList allfiles = InstanceList.load (new File(args[0]));
         String outputfileName = args.length > 1 ? args[1] : null;;
+        int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
 
-        TermWeight termWeightObject = getIdfTermWeight(allfiles);
+        TermWeight termWeightObject = getIdfTermWeight(allfiles, numThreads);
 
         ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(outputfileName)));
         out.writeObject(termWeightObject);
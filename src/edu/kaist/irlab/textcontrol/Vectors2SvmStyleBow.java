@@ -101,6 +101,10 @@ public class Vectors2SvmStyleBow
             (Vectors2SvmStyleBow.class, "training-doc-num", "integer", true, 0,
                     "Training Doucment Number; Using for ratio about topic model feature and word feature", null);
 
+    static CommandOption.String outputFormat = new CommandOption.String
+            (Vectors2SvmStyleBow.class, "output-format", "svmlight|binary", true, "svmlight",
+                    "svmlight writes the name plus _Svmlight.txt, binary writes a SparseFeatureMatrix to the name plus .csr", null);
+
 	public static void main (String[] args) throws FileNotFoundException, IOException, ClassNotFoundException {
 
 		// Process the command-line options
@@ -119,7 +123,8 @@ public class Vectors2SvmStyleBow
 		}
 
         // Write classifications to the output file
-        PrintStream outFeature = new PrintStream(new File(outputFilePreName.value+"_Svmlight.txt"), encoding.value);
+        boolean binaryOutput = outputFormat.value.equals("binary");
+        PrintStream outFeature = binaryOutput ? null : new PrintStream(new File(outputFilePreName.value+"_Svmlight.txt"), encoding.value);
         PrintStream outStat = new PrintStream(new File(outputFilePreName.value+"_stat.txt"), encoding.value);
 
 
@@ -206,7 +211,9 @@ public class Vectors2SvmStyleBow
 			System.out.print ("\n");
 		}
 
-        if (weightedinputFile.value!=null) {
+        if (binaryOutput) {
+            writeSparseFeatureMatrix(instances, new File(outputFilePreName.value + SparseFeatureMatrix.FILE_SUFFIX), typeTermWeight, weightAlphabet);
+        }else if (weightedinputFile.value!=null) {
             printWeightedSVMStyleList(instances, outFeature, typeTermWeight, weightAlphabet); // training document 수에 따라 confidence hurdle을 다르게 두어야 하기 에 training 문서수가 중요함
         }else{
             printSVMStyleList(instances, outFeature);
@@ -275,20 +282,7 @@ public class Vectors2SvmStyleBow
 //        double hurdle = hurdleRatio/(Math.pow(trainingDocNum.value(),2)+hurdleRatio); // 허들 계산방법은 다양한데. 일단 이렇게.. 만듬 2014.9.11
 
         int numFeatures = instances.getDataAlphabet().size();
-        Alphabet dataAlphabet = instances.getDataAlphabet();
-        double[] dataAlphabetScores = new double[numFeatures];  //data alphabet 에 index 별로 해당하는 term contribution을 alphabet (=Weighted words)에서 가져옴
-        for (int i = 0; i < numFeatures; i++) {
-            double termContribuionScore = 0.0;
-            String word = (String) dataAlphabet.lookupObject(i);
-            int weightedAlphabetIndex = alphabet.lookupIndex(word,false);
-            if(weightedAlphabetIndex==-1){
-                termContribuionScore = 1.0;
-            }else{
-                termContribuionScore = typeTopicWeight[weightedAlphabetIndex];
-            }
-
-            dataAlphabetScores[i]=termContribuionScore;
-        }
+        double[] dataAlphabetScores = getDataAlphabetScores(instances, typeTopicWeight, alphabet);
 
 
         StringBuilder output = new StringBuilder();
@@ -328,6 +322,61 @@ public class Vectors2SvmStyleBow
     }
 
 
+    /** data alphabet 에 index 별로 해당하는 term contribution을 alphabet (=Weighted words)에서 가져옴 */
+    private static double[] getDataAlphabetScores(InstanceList instances, double[] typeTopicWeight, Alphabet alphabet) {
+        Alphabet dataAlphabet = instances.getDataAlphabet();
+        int numFeatures = dataAlphabet.size();
+        double[] dataAlphabetScores = new double[numFeatures];
+        for (int i = 0; i < numFeatures; i++) {
+            double termContribuionScore = 0.0;
+            String word = (String) dataAlphabet.lookupObject(i);
+            int weightedAlphabetIndex = alphabet.lookupIndex(word,false);
+            if(weightedAlphabetIndex==-1){
+                termContribuionScore = 1.0;
+            }else{
+                termContribuionScore = typeTopicWeight[weightedAlphabetIndex];
+            }
+
+            dataAlphabetScores[i]=termContribuionScore;
+        }
+        return dataAlphabetScores;
+    }
+
+    /**
+     * Write the same features as printSVMStyleList (or printWeightedSVMStyleList if a term weight is given)
+     * to a binary SparseFeatureMatrix.
+     */
+    private static void writeSparseFeatureMatrix(InstanceList instances, File file, double[] typeTopicWeight, Alphabet alphabet) throws IOException {
+        Alphabet dataAlphabet = instances.getDataAlphabet();
+        double[] dataAlphabetScores = null;
+        double hurdle = 0.0;
+        if (typeTopicWeight != null) {
+            dataAlphabetScores = getDataAlphabetScores(instances, typeTopicWeight, alphabet);
+            hurdle = (double) instances.getTargetAlphabet().size()/(instances.getTargetAlphabet().size()+trainingDocNum.value());
+        }
+
+        SparseFeatureMatrix.Writer writer = new SparseFeatureMatrix.Writer(file, dataAlphabet.size(), instances.getTargetAlphabet(), dataAlphabet);
+        for (int i = 0; i < instances.size(); i++) {
+            Instance instance = instances.get(i);
+            if (!(instance.getData() instanceof FeatureVector)) {
+                throw new IllegalArgumentException ("Printing is supported for FeatureVector for SVM Style list, found " + instance.getData().getClass());
+            }
+            FeatureVector fv = (FeatureVector) instance.getData ();
+            Label target = (Label) instance.getTarget();
+
+            writer.startRow(target.getIndex(), instance.getName().toString());
+            for (int l = 0; l < fv.numLocations(); l++) {
+                int fvi = fv.indexAtLocation(l);
+                if (dataAlphabetScores == null) {
+                    writer.addEntry(fvi, fv.valueAtLocation(l));
+                } else if (dataAlphabetScores[fvi]>=hurdle) {
+                    writer.addEntry(fvi, (Math.pow(fv.valueAtLocation(l),dataAlphabetScores[fvi]))*dataAlphabetScores[fvi]);
+                }
+            }
+        }
+        writer.close();
+    }
+
     /** print an instance list according to the format string */
 	private static void printInstanceList(InstanceList instances, String formatString) {
 
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.textcontrol.tests;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureVector;
+import edu.kaist.irlab.textcontrol.SparseFeatureMatrix;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Writes sparse feature matrices with {@link SparseFeatureMatrix.Writer} and from SVMlight text,
+ * and checks that the mapped matrix reads back the same rows, values, labels and names.
+ *
+ * @author Seonggyu Lee
+ */
+public class TestSparseFeatureMatrix extends TestCase {
+
+    private static final String[] LABEL_NAMES = {"sports", "politics", "science"};
+
+    private File directory;
+
+    public TestSparseFeatureMatrix(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("sparseFeatureMatrix", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    protected void tearDown() {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    /** Increasing columns of a row; some rows are empty. */
+    private static int[] columns(int row) {
+        int[] columns = new int[row % 7];
+        for (int location = 0; location < columns.length; location++) {
+            columns[location] = location * 5 + row % 5;
+        }
+        return columns;
+    }
+
+    private static double value(int row, int column) {
+        return (row + 1) * 0.25 - column;
+    }
+
+    private static int label(int row) {
+        return row % 10 == 9 ? -1 : row % LABEL_NAMES.length;
+    }
+
+    private static void assertSameMatrix(SparseFeatureMatrix expected, SparseFeatureMatrix actual) {
+        assertEquals(expected.numRows(), actual.numRows());
+        assertEquals(expected.numColumns(), actual.numColumns());
+        assertEquals(expected.numNonZeros(), actual.numNonZeros());
+        assertTrue(Arrays.equals(expected.getLabelNames(), actual.getLabelNames()));
+        for (int row = 0; row < expected.numRows(); row++) {
+            assertEquals(expected.label(row), actual.label(row));
+            assertEquals(expected.rowName(row), actual.rowName(row));
+            assertEquals(expected.numLocations(row), actual.numLocations(row));
+            for (int location = 0; location < expected.numLocations(row); location++) {
+                assertEquals(expected.column(expected.rowStart(row) + location), actual.column(actual.rowStart(row) + location));
+                assertEquals(expected.value(expected.rowStart(row) + location), actual.value(actual.rowStart(row) + location));
+            }
+        }
+    }
+
+    public void testWriterRoundTrip() throws IOException {
+        // More rows than the writer first keeps room for
+        int numRows = 2500;
+        String[] featureNames = new String[40];
+        for (int column = 0; column < featureNames.length; column++) featureNames[column] = "word" + column;
+
+        File file = new File(directory, "matrix" + SparseFeatureMatrix.FILE_SUFFIX);
+        SparseFeatureMatrix.Writer writer = new SparseFeatureMatrix.Writer(file, 0, LABEL_NAMES, null);
+        long numNonZeros = 0;
+        for (int row = 0; row < numRows; row++) {
+            int[] columns = columns(row);
+            double[] values = new double[columns.length];
+            for (int location = 0; location < columns.length; location++) values[location] = value(row, columns[location]);
+            String name = row % 4 == 3 ? null : "doc" + row;
+            if (row % 2 == 0) {
+                writer.addRow(label(row), columns, values, columns.length, 0, name);
+            } else {
+                // Shifted columns, added in two parts
+                for (int location = 0; location < columns.length; location++) columns[location]--;
+                writer.startRow(label(row), name);
+                writer.addToRow(columns, values, columns.length / 2, 1);
+                for (int location = columns.length / 2; location < columns.length; location++) {
+                    writer.addEntry(columns[location] + 1, values[location]);
+                }
+            }
+            numNonZeros += columns.length;
+        }
+        assertEquals(numRows, writer.numRows());
+        writer.setFeatureNames(featureNames);
+        writer.close();
+
+        assertTrue(SparseFeatureMatrix.isMatrixFile(file.getName()));
+        SparseFeatureMatrix matrix = SparseFeatureMatrix.load(file);
+        assertEquals(numRows, matrix.numRows());
+        assertEquals(featureNames.length, matrix.numColumns());
+        assertEquals(numNonZeros, matrix.numNonZeros());
+        assertTrue(Arrays.equals(LABEL_NAMES, matrix.getLabelNames()));
+        assertTrue(Arrays.equals(featureNames, matrix.getFeatureNames()));
+
+        Alphabet dataAlphabet = matrix.getDataAlphabet();
+        assertTrue(Arrays.equals(featureNames, dataAlphabet.toArray(new String[0])));
+        assertTrue(Arrays.equals(LABEL_NAMES, matrix.getLabelAlphabet().toArray(new String[0])));
+
+        double[] weights = new double[1 + featureNames.length];
+        for (int column = 0; column < featureNames.length; column++) weights[1 + column] = column % 3 - 1;
+        for (int row = 0; row < numRows; row++) {
+            int[] columns = columns(row);
+            assertEquals(label(row), matrix.label(row));
+            assertEquals(row % 4 == 3 ? "" : "doc" + row, matrix.rowName(row));
+            assertEquals(columns.length, matrix.numLocations(row));
+
+            FeatureVector vector = matrix.getFeatureVector(row, dataAlphabet);
+            double dotProduct = 0.0;
+            for (int location = 0; location < columns.length; location++) {
+                long entry = matrix.rowStart(row) + location;
+                assertEquals(columns[location], matrix.column(entry));
+                assertEquals(value(row, columns[location]), matrix.value(entry));
+                assertEquals(columns[location], vector.indexAtLocation(location));
+                assertEquals(value(row, columns[location]), vector.valueAtLocation(location));
+                if (columns[location] < 20) dotProduct += weights[1 + columns[location]] * value(row, columns[location]);
+            }
+            assertEquals(dotProduct, matrix.dotProduct(row, weights, 1, 20), 1e-9);
+        }
+
+        // Without feature names the columns are the SVMlight feature numbers
+        File unnamed = new File(directory, "unnamed" + SparseFeatureMatrix.FILE_SUFFIX);
+        writer = new SparseFeatureMatrix.Writer(unnamed, 3, (String[]) null, null);
+        writer.addRow(-1, new int[] {1}, new double[] {2.0}, 1, 0, "only");
+        writer.close();
+        SparseFeatureMatrix small = SparseFeatureMatrix.load(unnamed);
+        assertNull(small.getFeatureNames());
+        assertEquals(0, small.getLabelNames().length);
+        assertTrue(Arrays.equals(new Object[] {"1", "2", "3"}, small.getDataAlphabet().toArray()));
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write(text);
+        out.close();
+    }
+
+    public void testSvmLight() throws IOException {
+        File textFile = new File(directory, "train_Svmlight.txt");
+        write(textFile, "# a header comment\n"
+                + "1 1:0.5 3:2.0 #doc0\n"
+                + "\n"
+                + "+3 2:1.0 #doc1 déjà vu\n"
+                + "0 4:-1.5\n"
+                + "  # an indented comment\n"
+                + "2 #empty\n");
+        File matrixFile = new File(directory, "train" + SparseFeatureMatrix.FILE_SUFFIX);
+        SparseFeatureMatrix.convertSvmLight(textFile, matrixFile);
+        SparseFeatureMatrix matrix = SparseFeatureMatrix.load(matrixFile);
+
+        assertEquals(4, matrix.numRows());
+        assertEquals(4, matrix.numColumns());
+        assertEquals(4, matrix.numNonZeros());
+        assertTrue(Arrays.equals(new String[] {"1", "2", "3"}, matrix.getLabelNames()));
+        assertNull(matrix.getFeatureNames());
+        int[] labels = {0, 2, -1, 1};
+        String[] names = {"doc0", "doc1 déjà vu", "", "empty"};
+        int[] numLocations = {2, 1, 1, 0};
+        for (int row = 0; row < matrix.numRows(); row++) {
+            assertEquals(labels[row], matrix.label(row));
+            assertEquals(names[row], matrix.rowName(row));
+            assertEquals(numLocations[row], matrix.numLocations(row));
+        }
+        assertEquals(2, matrix.column(1));
+        assertEquals(2.0, matrix.value(1));
+        assertEquals(3, matrix.column(3));
+        assertEquals(-1.5, matrix.value(3));
+
+        // The text written from the matrix converts back to the same matrix
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        matrix.writeSvmLight(out, true);
+        out.close();
+        String text = bytes.toString("UTF-8");
+        assertTrue(text.startsWith("1 1:0.5 3:2.0 #doc0" + System.getProperty("line.separator")));
+
+        File rewritten = new File(directory, "rewritten_Svmlight.txt");
+        write(rewritten, text);
+        File rewrittenMatrix = new File(directory, "rewritten" + SparseFeatureMatrix.FILE_SUFFIX);
+        SparseFeatureMatrix.convertSvmLight(rewritten, rewrittenMatrix);
+        assertSameMatrix(matrix, SparseFeatureMatrix.load(rewrittenMatrix));
+
+        // Without names, no row has a comment
+        bytes.reset();
+        out = new PrintStream(bytes, true, "UTF-8");
+        matrix.writeSvmLight(out, false);
+        out.close();
+        assertEquals(-1, bytes.toString("UTF-8").indexOf('#'));
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestSparseFeatureMatrix.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.textcontrol.tests;
+
+import cc.mallet.pipe.*;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import edu.kaist.irlab.textcontrol.TermWeight;
+import edu.kaist.irlab.textcontrol.VariedFeatureSetWriter;
+import edu.kaist.irlab.textcontrol.Vectors2SvmStyleBow;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the feature sets written in one pass by {@link VariedFeatureSetWriter}
+ * have the same rows as the files written one set at a time by {@link Vectors2SvmStyleBow}.
+ *
+ * @author Seonggyu Lee
+ */
+public class TestVariedFeatureSetWriter extends TestCase {
+
+    private static final String[][] DOCUMENTS = {
+            {"sports", "the team won the game in the last minute"},
+            {"sports", "a late goal gave the home team the game"},
+            {"politics", "the senate passed the budget bill"},
+            {"politics", "voters rejected the bill in the last election"},
+            {"science", "the telescope found a new planet"},
+            {"science", "a new planet was found by the team"},
+    };
+
+    private File directory;
+
+    public TestVariedFeatureSetWriter(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("variedFeatureSets", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    protected void tearDown() {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    private InstanceList makeInstances() {
+        SerialPipes pipes = new SerialPipes(new Pipe[] {
+                new Target2Label(),
+                new CharSequence2TokenSequence(),
+                new TokenSequence2FeatureSequence(),
+                new FeatureSequence2FeatureVector(),
+        });
+        InstanceList instances = new InstanceList(pipes);
+        for (int i = 0; i < DOCUMENTS.length; i++) {
+            instances.addThruPipe(new Instance(DOCUMENTS[i][1], DOCUMENTS[i][0], "doc" + i, null));
+        }
+        return instances;
+    }
+
+    private static List<String> readRows(File file) throws IOException {
+        List<String> rows = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.startsWith("#")) rows.add(line); // the header comments differ
+        }
+        in.close();
+        return rows;
+    }
+
+    public void testSinglePassMatchesPerSetFiles() throws Exception {
+        InstanceList instances = makeInstances();
+        Alphabet dataAlphabet = instances.getDataAlphabet();
+        int numClasses = instances.getTargetAlphabet().size();
+
+        // Weights for some of the words, below and above the hurdle; the others keep their counts
+        Alphabet weightAlphabet = new Alphabet();
+        double[] weights = new double[] {0.05, 0.9, 0.5, 0.0};
+        weightAlphabet.lookupIndex("the");
+        weightAlphabet.lookupIndex("team");
+        weightAlphabet.lookupIndex("bill");
+        weightAlphabet.lookupIndex("planet");
+        File weightFile = new File(directory, "weights.ser");
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(weightFile));
+        oos.writeObject(new TermWeight(weights, weightAlphabet));
+        oos.close();
+
+        File instancesFile = new File(directory, "instances.mallet");
+        instances.save(instancesFile);
+
+        VariedFeatureSetWriter writer = new VariedFeatureSetWriter(dataAlphabet, instances.getTargetAlphabet(),
+                false, true, instances.size(), numClasses);
+        String bowDirectory = directory.getPath() + File.separator + "bow-";
+        String weightedDirectory = directory.getPath() + File.separator + "weighted-";
+        assertTrue(writer.addFeatureSet(bowDirectory, true, null, null));
+        assertTrue(writer.addFeatureSet(weightedDirectory, true, weightFile, null));
+        for (Instance instance : instances) writer.write(true, instance);
+        writer.close();
+
+        // The per-set tool keeps its options between calls, so the plain set goes first
+        String bowPrefix = new File(directory, "bow").getPath();
+        Vectors2SvmStyleBow.main(new String[] {"--input", instancesFile.getPath(), "--output", bowPrefix,
+                "--statsoutput", new File(directory, "bow.stats").getPath(), "--encoding", "UTF-8"});
+        String weightedPrefix = new File(directory, "weighted").getPath();
+        Vectors2SvmStyleBow.main(new String[] {"--input", instancesFile.getPath(), "--output", weightedPrefix,
+                "--weightedinput", weightFile.getPath(), "--training-doc-num", Integer.toString(instances.size()),
+                "--statsoutput", new File(directory, "weighted.stats").getPath(), "--encoding", "UTF-8"});
+
+        List<String> bowRows = readRows(new File(bowDirectory + "train_Svmlight.txt"));
+        assertEquals(instances.size(), bowRows.size());
+        assertEquals(readRows(new File(bowPrefix + "_Svmlight.txt")), bowRows);
+
+        List<String> weightedRows = readRows(new File(weightedDirectory + "train_Svmlight.txt"));
+        assertEquals(readRows(new File(weightedPrefix + "_Svmlight.txt")), weightedRows);
+        assertFalse("the hurdle should drop a word", bowRows.equals(weightedRows));
+
+        assertEquals(0, readRows(new File(bowDirectory + "test_Svmlight.txt")).size());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestVariedFeatureSetWriter.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics;
+
+import cc.mallet.types.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * The tokens and topic assignments of a corpus kept on disk and memory-mapped, so that a topic model can
+ * be trained on more documents than fit on the heap. Only the alphabets are loaded; the documents are read
+ * from the mapped files while sampling and the topic assignments are written back to them.
+ * <p/>
+ * A store is a directory:
+ * <pre>
+ * store.ser   : data alphabet, target alphabet, int numDocs, long numTokens, int maxLength
+ * offsets.bin : long[numDocs + 1]  first token of each document
+ * tokens.bin  : int[numTokens]     feature index of each token
+ * topics.bin  : int[numTokens]     topic of each token
+ * labels.bin  : int[numDocs]       target index of each document, -1 if none
+ * names.bin   : the UTF-8 names of the documents, one after another, with their offsets in names.idx
+ * </pre>
+ * The int files are mapped in segments of 2^28 ints. Each thread reads and writes through its own
+ * {@link Cursor}; threads must write the topics of different documents.
+ * <p/>
+ * A store made by {@link #create(File, BinaryInstanceList)} holds only <code>topics.bin</code>, and reads the
+ * tokens, labels and names from the mapped columns of a binary instance list without copying them.
+ *
+ * @author Seonggyu Lee
+ */
+public class MappedTokenStore {
+
+    static final int SEGMENT_BITS = 28;
+    static final int SEGMENT_INTS = 1 << SEGMENT_BITS;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    final File directory;
+    final Alphabet dataAlphabet;
+    final Alphabet targetAlphabet;
+    final int numDocs;
+    final long numTokens;
+    final int maxLength;
+
+    private final LongBuffer offsets;
+    private final IntBuffer labels;
+    private final IntBuffer[] tokenSegments;
+    private final IntBuffer[] topicSegments;
+    private final MappedByteBuffer[] topicBuffers;
+    private final LongBuffer nameOffsets;
+    private final FileChannel names;
+    private final MappedTokenStore documents; // the store whose documents a topic copy reads, null for a store itself
+    private final BinaryInstanceList list; // the list that holds the documents, null if the files of the store hold them
+
+    private MappedTokenStore(File directory) throws IOException, ClassNotFoundException {
+        this.directory = directory;
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(new File(directory, "store.ser"))));
+        try {
+            dataAlphabet = (Alphabet) in.readObject();
+            targetAlphabet = (Alphabet) in.readObject();
+            numDocs = in.readInt();
+            numTokens = in.readLong();
+            maxLength = in.readInt();
+        } finally {
+            in.close();
+        }
+
+        offsets = map(new File(directory, "offsets.bin"), FileChannel.MapMode.READ_ONLY, 0, 8L * (numDocs + 1)).asLongBuffer();
+        labels = map(new File(directory, "labels.bin"), FileChannel.MapMode.READ_ONLY, 0, 4L * numDocs).asIntBuffer();
+        nameOffsets = map(new File(directory, "names.idx"), FileChannel.MapMode.READ_ONLY, 0, 8L * (numDocs + 1)).asLongBuffer();
+        names = new RandomAccessFile(new File(directory, "names.bin"), "r").getChannel();
+        documents = null;
+        list = null;
+
+        tokenSegments = asIntBuffers(mapSegments(new File(directory, "tokens.bin"), FileChannel.MapMode.READ_ONLY));
+        topicBuffers = mapSegments(new File(directory, "topics.bin"), FileChannel.MapMode.READ_WRITE);
+        topicSegments = asIntBuffers(topicBuffers);
+    }
+
+    // The documents of the list, with the topics in the directory
+    private MappedTokenStore(BinaryInstanceList list, File directory) throws IOException {
+        this.directory = directory;
+        this.dataAlphabet = list.getDataAlphabet();
+        this.targetAlphabet = list.getTargetAlphabet();
+        this.numDocs = list.size();
+        this.numTokens = list.getNumTokens();
+        this.maxLength = list.getMaxLength();
+        this.offsets = null;
+        this.labels = null;
+        this.nameOffsets = null;
+        this.names = null;
+        this.documents = null;
+        this.list = list;
+        this.tokenSegments = null;
+        topicBuffers = mapSegments(new File(directory, "topics.bin"), FileChannel.MapMode.READ_WRITE);
+        topicSegments = asIntBuffers(topicBuffers);
+    }
+
+    // A read-only view of the documents of the store with the topics in another file
+    private MappedTokenStore(MappedTokenStore documents, File topicsFile) throws IOException {
+        this.directory = documents.directory;
+        this.dataAlphabet = documents.dataAlphabet;
+        this.targetAlphabet = documents.targetAlphabet;
+        this.numDocs = documents.numDocs;
+        this.numTokens = documents.numTokens;
+        this.maxLength = documents.maxLength;
+        this.offsets = documents.offsets;
+        this.labels = documents.labels;
+        this.nameOffsets = documents.nameOffsets;
+        this.names = documents.names;
+        this.documents = documents;
+        this.list = documents.list;
+        this.tokenSegments = documents.tokenSegments;
+        topicBuffers = mapSegments(topicsFile, FileChannel.MapMode.READ_ONLY);
+        topicSegments = asIntBuffers(topicBuffers);
+    }
+
+    private MappedByteBuffer[] mapSegments(File file, FileChannel.MapMode mode) throws IOException {
+        int numSegments = (int) ((numTokens + SEGMENT_INTS - 1) >>> SEGMENT_BITS);
+        MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+        for (int segment = 0; segment < numSegments; segment++) {
+            long first = (long) segment << SEGMENT_BITS;
+            segments[segment] = map(file, mode, 4L * first, 4L * Math.min(SEGMENT_INTS, numTokens - first));
+        }
+        return segments;
+    }
+
+    private static IntBuffer[] asIntBuffers(MappedByteBuffer[] buffers) {
+        IntBuffer[] segments = new IntBuffer[buffers.length];
+        for (int segment = 0; segment < buffers.length; segment++) {
+            segments[segment] = buffers[segment].asIntBuffer();
+        }
+        return segments;
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long position, long size) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw").getChannel();
+        try {
+            // The mapping stays valid after the channel is closed
+            return channel.map(mode, position, size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Whether the directory holds a store written by {@link #create}. */
+    public static boolean isStore(File directory) {
+        return new File(directory, "store.ser").isFile();
+    }
+
+    public static MappedTokenStore open(File directory) throws IOException {
+        try {
+            return new MappedTokenStore(directory);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Cannot read the alphabets of " + directory, e);
+        }
+    }
+
+    /**
+     * Write the instances to a new store in the directory and open it, with the alphabets of the first
+     * instance. There must be at least one instance.
+     */
+    public static MappedTokenStore create(File directory, Iterator<Instance> instances) throws IOException {
+        if (!instances.hasNext()) {
+            throw new IllegalArgumentException("No instances to write to " + directory + ", and so no alphabets.");
+        }
+        return create(directory, null, null, instances);
+    }
+
+    /**
+     * Write the instances to a new store in the directory and open it. The instances are read once, in order,
+     * so they can come from a pipe over files ({@link cc.mallet.pipe.Pipe#newIteratorFrom}) or a
+     * {@link PagedInstanceList} without the corpus being held in memory. The data of each instance must be a
+     * FeatureSequence. The topics are all 0 until the model assigns them.
+     *
+     * @param dataAlphabet   the alphabet of the feature sequences, null for that of the first instance
+     * @param targetAlphabet the alphabet of the labels, null for that of the first instance
+     */
+    public static MappedTokenStore create(File directory, Alphabet dataAlphabet, Alphabet targetAlphabet,
+                                          Iterator<Instance> instances) throws IOException {
+        if (dataAlphabet == null && !instances.hasNext()) {
+            throw new IllegalArgumentException("No instances to write to " + directory + ", and so no alphabets.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        DataOutputStream tokens = output(new File(directory, "tokens.bin"));
+        DataOutputStream offsets = output(new File(directory, "offsets.bin"));
+        DataOutputStream labels = output(new File(directory, "labels.bin"));
+        DataOutputStream names = output(new File(directory, "names.bin"));
+        DataOutputStream nameOffsets = output(new File(directory, "names.idx"));
+
+        boolean firstInstance = true;
+        int numDocs = 0;
+        long numTokens = 0;
+        long nameBytes = 0;
+        int maxLength = 0;
+        try {
+            offsets.writeLong(0);
+            nameOffsets.writeLong(0);
+            while (instances.hasNext()) {
+                Instance instance = instances.next();
+                FeatureSequence tokenSequence = (FeatureSequence) instance.getData();
+                if (firstInstance) {
+                    if (dataAlphabet == null) dataAlphabet = instance.getDataAlphabet();
+                    if (targetAlphabet == null) targetAlphabet = instance.getTargetAlphabet();
+                    firstInstance = false;
+                }
+
+                int length = tokenSequence.getLength();
+                for (int position = 0; position < length; position++) {
+                    tokens.writeInt(tokenSequence.getIndexAtPosition(position));
+                }
+                numTokens += length;
+                maxLength = Math.max(maxLength, length);
+                offsets.writeLong(numTokens);
+
+                labels.writeInt(instance.getTarget() instanceof Label ? ((Label) instance.getTarget()).getIndex() : -1);
+
+                byte[] name = String.valueOf(instance.getName()).getBytes(UTF8);
+                names.write(name);
+                nameBytes += name.length;
+                nameOffsets.writeLong(nameBytes);
+
+                numDocs++;
+            }
+        } finally {
+            tokens.close();
+            offsets.close();
+            labels.close();
+            names.close();
+            nameOffsets.close();
+        }
+
+        // Sparse until the topics are written
+        RandomAccessFile topics = new RandomAccessFile(new File(directory, "topics.bin"), "rw");
+        topics.setLength(4L * numTokens);
+        topics.close();
+
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, "store.ser"))));
+        try {
+            out.writeObject(dataAlphabet);
+            out.writeObject(targetAlphabet);
+            out.writeInt(numDocs);
+            out.writeLong(numTokens);
+            out.writeInt(maxLength);
+        } finally {
+            out.close();
+        }
+        return open(directory);
+    }
+
+    /**
+     * Open a store over the documents of the list, with the topics in a new file in the directory. The tokens,
+     * labels and names are read from the mapped columns of the list, not copied. The store closes the list.
+     */
+    public static MappedTokenStore create(File directory, BinaryInstanceList list) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        // Sparse until the topics are written
+        RandomAccessFile topics = new RandomAccessFile(new File(directory, "topics.bin"), "rw");
+        topics.setLength(0);
+        topics.setLength(4L * list.getNumTokens());
+        topics.close();
+        return new MappedTokenStore(list, directory);
+    }
+
+    private static DataOutputStream output(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+    }
+
+    public int size() { return numDocs; }
+    public long getNumTokens() { return numTokens; }
+    public int getMaxLength() { return maxLength; }
+    public Alphabet getDataAlphabet() { return dataAlphabet; }
+    public Alphabet getTargetAlphabet() { return targetAlphabet; }
+    public File getDirectory() { return directory; }
+
+    private long offset(int doc) {
+        return list != null ? list.getOffset(doc) : offsets.get(doc);
+    }
+
+    public int getLength(int doc) {
+        return (int) (offset(doc + 1) - offset(doc));
+    }
+
+    /** The target index of a document, -1 if it has none. */
+    public int getLabel(int doc) {
+        return list != null ? list.getLabelIndex(doc) : labels.get(doc);
+    }
+
+    public String getName(int doc) {
+        if (list != null) return String.valueOf(list.getName(doc));
+        long start = nameOffsets.get(doc);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (nameOffsets.get(doc + 1) - start));
+        try {
+            while (buffer.hasRemaining()) {
+                if (names.read(buffer, start + buffer.position()) < 0) break;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the name of document " + doc, e);
+        }
+        return new String(buffer.array(), 0, buffer.position(), UTF8);
+    }
+
+    /** A reader and writer for one thread. */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Copy the topic assignments to the file and open a store that reads the documents of this store and
+     * the topics of the copy. The copy does not change while sampling goes on in this store, so it can be
+     * read on another thread, and its topics cannot be written. Call it while no cursor writes topics.
+     */
+    public MappedTokenStore copyTopics(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            channel.truncate(0);
+            for (MappedByteBuffer buffer : topicBuffers) {
+                ByteBuffer topics = buffer.duplicate();
+                topics.clear();
+                while (topics.hasRemaining()) channel.write(topics);
+            }
+        } finally {
+            channel.close();
+        }
+        return new MappedTokenStore(this, file);
+    }
+
+    /** Write the topic assignments back to the file. */
+    public void force() {
+        for (MappedByteBuffer buffer : topicBuffers) {
+            buffer.force();
+        }
+    }
+
+    /** Close the store. A copy of the topics leaves the store it was copied from open. */
+    public void close() throws IOException {
+        force();
+        if (documents == null) {
+            if (list != null) list.close();
+            else names.close();
+        }
+    }
+
+    /**
+     * Reads the tokens and reads and writes the topics of documents, with its own positions in the mapped
+     * segments. A cursor must only be used by one thread at a time.
+     */
+    public class Cursor {
+        private final IntBuffer[] tokens;
+        private final IntBuffer[] topics;
+
+        Cursor() {
+            tokens = tokenSegments == null ? null : new IntBuffer[tokenSegments.length];
+            topics = new IntBuffer[topicSegments.length];
+            for (int segment = 0; segment < topics.length; segment++) {
+                if (tokens != null) tokens[segment] = tokenSegments[segment].duplicate();
+                topics[segment] = topicSegments[segment].duplicate();
+            }
+        }
+
+        /** Read the tokens of a document into the buffer, which holds at least {@link #getMaxLength()} ints. Returns the length. */
+        public int readTokens(int doc, int[] buffer) {
+            if (list != null) {
+                IntBuffer view = list.getTokens(doc);
+                int length = view.remaining();
+                view.get(buffer, 0, length);
+                return length;
+            }
+            return transfer(tokens, doc, buffer, false);
+        }
+
+        /** Read the topics of a document into the buffer. Returns the length. */
+        public int readTopics(int doc, int[] buffer) {
+            return transfer(topics, doc, buffer, false);
+        }
+
+        /** Write the topics of a document from the buffer. */
+        public void writeTopics(int doc, int[] buffer) {
+            transfer(topics, doc, buffer, true);
+        }
+
+        private int transfer(IntBuffer[] segments, int doc, int[] buffer, boolean write) {
+            long start = offset(doc);
+            int length = (int) (offset(doc + 1) - start);
+
+            // A document may span two segments
+            int done = 0;
+            while (done < length) {
+                long token = start + done;
+                IntBuffer segment = segments[(int) (token >>> SEGMENT_BITS)];
+                int position = (int) (token & (SEGMENT_INTS - 1));
+                int count = Math.min(length - done, SEGMENT_INTS - position);
+                segment.position(position);
+                if (write) segment.put(buffer, done, count);
+                else segment.get(buffer, done, count);
+                done += count;
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.LabelSequence;
+import cc.mallet.util.Randoms;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A WeightedTopicModel trained out of core: the tokens and the topic assignments stay in a
+ * {@link MappedTokenStore} and are streamed through during each sweep. Only the count tables, the term
+ * weights and the histograms are on the heap, so the corpus may be larger than the heap.
+ * <p/>
+ * Checkpoints and likelihoods computed while sampling goes on read a copy of the topic assignments, written
+ * next to the store and deleted once it is mapped. The topic assignments are in the store after
+ * {@link #estimate(int)}.
+ *
+ * @author Seonggyu Lee
+ */
+public class MappedWeightedTopicModel extends WeightedTopicModel {
+
+    private static final long serialVersionUID = 1;
+
+    protected transient MappedTokenStore store;
+    protected transient MappedTokenStore.Cursor outputCursor; // for the outputs, on the calling thread
+
+    public MappedWeightedTopicModel(int numberOfTopics, double initAlphaSum) {
+        super(numberOfTopics, initAlphaSum);
+    }
+
+    public MappedTokenStore getStore() { return store; }
+
+    /**
+     *  Train on the documents of the store. Every token gets a random topic,
+     *   which is written to the store, and the counts are built from them.
+     */
+    public void addInstances(MappedTokenStore store) {
+        addInstances(store, null);
+    }
+
+    /**
+     *  Train on the instances, which are written to a store in a new temporary directory
+     *   that is deleted when the VM exits. The data of each instance must be a FeatureSequence.
+     */
+    public void addInstances (InstanceList training, List<LabelSequence> topics) {
+        assert (training.size() == topics.size());
+        try {
+            File directory = File.createTempFile("tokens", ".store");
+            if (!directory.delete() || !directory.mkdir()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            directory.deleteOnExit();
+            MappedTokenStore store = MappedTokenStore.create(directory, training.getDataAlphabet(),
+                    training.getTargetAlphabet(), training.iterator());
+            for (File file : directory.listFiles()) file.deleteOnExit();
+            addInstances(store, topics);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write the instances to a token store.", e);
+        }
+    }
+
+    // The topics of each document are given, or drawn at random if topicSequences is null
+    private void addInstances(MappedTokenStore store, List<LabelSequence> topicSequences) {
+        if (this.store != null || !data.isEmpty()) {
+            throw new IllegalStateException("The model already has documents.");
+        }
+        this.store = store;
+        outputCursor = store.cursor();
+        initializeForTypes(store.getDataAlphabet());
+
+        int[] tokens = new int[store.getMaxLength()];
+        int[] topics = new int[store.getMaxLength()];
+
+        int[] typeTotals = new int[numTypes];
+        for (int doc = 0; doc < store.size(); doc++) {
+            int docLength = outputCursor.readTokens(doc, tokens);
+            for (int position = 0; position < docLength; position++) {
+                typeTotals[ tokens[position] ]++;
+                topics[position] = topicSequences != null ?
+                        topicSequences.get(doc).getIndexAtPosition(position) : random.nextInt(numTopics);
+            }
+            outputCursor.writeTopics(doc, topics);
+        }
+
+        typeTopicCounts = new int[numTypes][];
+        for (int type = 0; type < numTypes; type++) {
+            typeTopicCounts[type] = new int[ Math.min(numTopics, typeTotals[type]) ];
+        }
+
+        Arrays.fill(tokensPerTopic, 0);
+        for (int doc = 0; doc < store.size(); doc++) {
+            int docLength = outputCursor.readTokens(doc, tokens);
+            outputCursor.readTopics(doc, topics);
+            for (int position = 0; position < docLength; position++) {
+                addTypeTopicCount(typeTopicCounts[ tokens[position] ], topics[position], 1);
+                tokensPerTopic[ topics[position] ]++;
+            }
+        }
+
+        initializeHistogramsAndCachedValues(store.getMaxLength(), store.getNumTokens());
+    }
+
+    protected WeightedWorkerRunnable newRunnable(Randoms random, int[][] typeTopicCounts,
+                                                 int[] tokensPerTopic, double[] weightSumPerTopic,
+                                                 int startDoc, int numDocs) {
+        return new MappedWeightedWorkerRunnable(numTopics,
+                alpha, alphaSum, beta, betaSum,
+                random, store,
+                typeTopicCounts, tokensPerTopic, weightSumPerTopic,
+                startDoc, numDocs);
+    }
+
+    public void estimate (int iterationsThisRound) throws IOException {
+        super.estimate(iterationsThisRound);
+        store.force();
+    }
+
+    protected int numDocuments() { return store.size(); }
+    protected String documentName(int doc) { return store.getName(doc); }
+    protected int documentLabel(int doc) { return store.getLabel(doc); }
+    protected Alphabet documentTargetAlphabet() { return store.getTargetAlphabet(); }
+
+    protected int[] documentTopics(int doc) {
+        int[] topics = new int[store.getLength(doc)];
+        outputCursor.readTopics(doc, topics);
+        return topics;
+    }
+
+    protected TopicModelLikelihood likelihood() { return TopicModelLikelihood.of(this, store); }
+
+    protected TopicModelLikelihood likelihoodSnapshot() { return TopicModelLikelihood.snapshot(this, copyTopics()); }
+
+    protected TopicModelCheckpoint snapshot (int nextIteration) {
+        return snapshot(nextIteration, null, copyTopics());
+    }
+
+    /** A copy of the topic assignments in the store, see {@link MappedTokenStore#copyTopics(File)}. */
+    protected MappedTokenStore copyTopics() {
+        try {
+            File file = File.createTempFile("topics", ".bin", store.getDirectory());
+            MappedTokenStore copy = store.copyTopics(file);
+            // The mapping outlives the file where the system allows it, elsewhere the file goes at exit
+            if (!file.delete()) file.deleteOnExit();
+            return copy;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot copy the topic assignments of " + store.getDirectory(), e);
+        }
+    }
+
+    /**
+     *  Restore the sampling state from a checkpoint of the documents of the store.
+     *   The topic assignments of the checkpoint are written to the store.
+     */
+    public void restore (TopicModelCheckpoint checkpoint) {
+        checkFits(checkpoint);
+        if (checkpoint.topicStore != store) {
+            // Checked first, so that a checkpoint that does not fit leaves the store as it was
+            for (int doc = 0; doc < store.size(); doc++) {
+                int length = checkpoint.topicStore != null ?
+                        checkpoint.topicStore.getLength(doc) : checkpoint.topicAssignments[doc].length;
+                if (length != store.getLength(doc)) {
+                    throw new IllegalArgumentException ("Checkpoint does not fit this model: document " + doc + " has " +
+                            store.getLength(doc) + " tokens, the checkpoint " + length + ".");
+                }
+            }
+            MappedTokenStore.Cursor cursor = checkpoint.topicStore != null ? checkpoint.topicStore.cursor() : null;
+            int[] topics = new int[store.getMaxLength()];
+            for (int doc = 0; doc < store.size(); doc++) {
+                if (cursor != null) cursor.readTopics(doc, topics);
+                else topics = checkpoint.topicAssignments[doc];
+                outputCursor.writeTopics(doc, topics);
+            }
+        }
+        restoreCounts(checkpoint);
+    }
+
+    /** Read the topic assignments of the checkpoint straight into the store. */
+    public void readCheckpoint (File f) throws IOException {
+        restore(TopicModelCheckpoint.read(f, store, numTopics, numTypes));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics;
+
+import cc.mallet.util.Randoms;
+
+/**
+ * A WeightedWorkerRunnable over documents in a {@link MappedTokenStore}. Each document is read into
+ * buffers, sampled and its topics are written back, so only one document per thread is on the heap.
+ *
+ * @author Seonggyu Lee
+ */
+public class MappedWeightedWorkerRunnable extends WeightedWorkerRunnable {
+
+    protected MappedTokenStore store;
+    protected MappedTokenStore.Cursor cursor;
+    protected int[] tokenBuffer;
+    protected int[] topicBuffer;
+
+    public MappedWeightedWorkerRunnable(int numTopics,
+                                        double[] alpha, double alphaSum,
+                                        double beta, double betaSum, Randoms random,
+                                        MappedTokenStore store,
+                                        int[][] typeTopicCounts,
+                                        int[] tokensPerTopic,
+                                        double[] weightSumPerTopic,
+                                        int startDoc, int numDocs) {
+        super(numTopics, alpha, alphaSum, beta, betaSum, random, null,
+                typeTopicCounts, tokensPerTopic, weightSumPerTopic, startDoc, numDocs);
+
+        this.store = store;
+        cursor = store.cursor();
+        tokenBuffer = new int[store.getMaxLength()];
+        topicBuffer = new int[store.getMaxLength()];
+    }
+
+    protected void sampleDocuments () {
+        for (int doc = startDoc;
+             doc < store.size() && doc < startDoc + numDocs;
+             doc++) {
+
+            int docLength = cursor.readTokens(doc, tokenBuffer);
+            cursor.readTopics(doc, topicBuffer);
+
+            sampleBalancedTopicsForOneDoc(tokenBuffer, topicBuffer, docLength);
+
+            cursor.writeTopics(doc, topicBuffer);
+        }
+    }
+
+    public void buildLocalTypeTopicCounts () {
+
+        clearLocalTypeTopicCounts();
+
+        for (int doc = startDoc;
+             doc < store.size() && doc < startDoc + numDocs;
+             doc++) {
+
+            int docLength = cursor.readTokens(doc, tokenBuffer);
+            cursor.readTopics(doc, topicBuffer);
+
+            addLocalTypeTopicCounts(tokenBuffer, topicBuffer, docLength);
+        }
+    }
+}
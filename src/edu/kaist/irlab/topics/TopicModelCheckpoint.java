@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics;
+
+import cc.mallet.util.MalletLogger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * A snapshot of the sampling state of a topic model: the topic assignment of every token, the packed
+ * type/topic counts, the topic totals, the Dirichlet parameters and the histograms gathered for their next
+ * optimization, taken between two iterations.
+ * <p/>
+ * The file is a binary format written through a channel (big-endian):
+ * <pre>
+ * header  : int MAGIC, int VERSION, int numTopics, int numTypes, int numDocs, long numTokens,
+ *           int iteration (the next iteration to run), double alphaSum, double beta
+ * alpha   : double[numTopics]
+ * totals  : int[numTopics]              tokens per topic
+ * docs    : numDocs times { int length, int[length] topics }
+ * types   : numTypes times { int length, int[length] packed counts (count &lt;&lt; topicBits | topic) }
+ * lengths : int length, int[length]    histogram of document sizes
+ * topics  : numTopics times int[length] histogram of document/topic counts
+ * </pre>
+ * The instances themselves are not stored. A checkpoint is restored into a model that has the same
+ * instances added in the same order. The topic assignments of an out-of-core model are read from a copy of
+ * its {@link MappedTokenStore} when written, and written into its store when read. The state of the random
+ * number generators is not stored either, so a resumed run samples on from the saved state but does not
+ * reproduce an uninterrupted run.
+ *
+ * @author Seonggyu Lee
+ */
+public class TopicModelCheckpoint {
+
+    private static Logger logger = MalletLogger.getLogger(TopicModelCheckpoint.class.getName());
+
+    public static final int MAGIC = 0x574C4443;
+    public static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    final int iteration;
+    final int numTopics;
+    final int numTypes;
+    final double alphaSum;
+    final double beta;
+    final double[] alpha;
+    final int[] tokensPerTopic;
+    final int[][] topicAssignments; // indexed by <document index, position>, null if in topicStore
+    final MappedTokenStore topicStore;
+    final int[][] typeTopicCounts; // indexed by <feature index, nonzero topic index>
+    final int[] docLengthCounts;
+    final int[][] topicDocCounts; // indexed by <topic index, sequence position index>
+
+    TopicModelCheckpoint(int iteration, int numTopics, int numTypes, double alphaSum, double beta, double[] alpha,
+                         int[] tokensPerTopic, int[][] topicAssignments, MappedTokenStore topicStore,
+                         int[][] typeTopicCounts, int[] docLengthCounts, int[][] topicDocCounts) {
+        this.iteration = iteration;
+        this.numTopics = numTopics;
+        this.numTypes = numTypes;
+        this.alphaSum = alphaSum;
+        this.beta = beta;
+        this.alpha = alpha;
+        this.tokensPerTopic = tokensPerTopic;
+        this.topicAssignments = topicAssignments;
+        this.topicStore = topicStore;
+        this.typeTopicCounts = typeTopicCounts;
+        this.docLengthCounts = docLengthCounts;
+        this.topicDocCounts = topicDocCounts;
+    }
+
+    public int getIteration() { return iteration; }
+
+    int numDocs() { return topicAssignments != null ? topicAssignments.length : topicStore.size(); }
+
+    /**
+     * Write to a temporary file next to the target and rename it, so an interrupted write never
+     * replaces the last good checkpoint.
+     */
+    public void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ChannelOutput out = new ChannelOutput(channel);
+            long numTokens = 0;
+            if (topicAssignments != null) {
+                for (int[] topics : topicAssignments) numTokens += topics.length;
+            } else {
+                numTokens = topicStore.getNumTokens();
+            }
+
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(numTopics);
+            out.putInt(numTypes);
+            out.putInt(numDocs());
+            out.putLong(numTokens);
+            out.putInt(iteration);
+            out.putDouble(alphaSum);
+            out.putDouble(beta);
+            for (double a : alpha) out.putDouble(a);
+            out.putInts(tokensPerTopic);
+            if (topicAssignments != null) {
+                for (int[] topics : topicAssignments) {
+                    out.putInt(topics.length);
+                    out.putInts(topics);
+                }
+            } else {
+                MappedTokenStore.Cursor cursor = topicStore.cursor();
+                int[] topics = new int[topicStore.getMaxLength()];
+                for (int doc = 0; doc < topicStore.size(); doc++) {
+                    int length = cursor.readTopics(doc, topics);
+                    out.putInt(length);
+                    out.putInts(topics, length);
+                }
+            }
+            for (int[] counts : typeTopicCounts) {
+                out.putInt(counts.length);
+                out.putInts(counts);
+            }
+            out.putInt(docLengthCounts.length);
+            out.putInts(docLengthCounts);
+            for (int[] counts : topicDocCounts) out.putInts(counts);
+            out.flush();
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static TopicModelCheckpoint read(File file) throws IOException {
+        return read(file, null, 0, 0);
+    }
+
+    /**
+     * Read a checkpoint of a model with the given numbers of topics and types over the documents of the
+     * store, and write its topic assignments into the store instead of onto the heap. A checkpoint that does
+     * not fit is rejected before anything is written.
+     */
+    public static TopicModelCheckpoint read(File file, MappedTokenStore store, int numTopics, int numTypes)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ChannelInput in = new ChannelInput(channel);
+            if (in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a topic model checkpoint.");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+            }
+            int fileTopics = in.getInt();
+            int fileTypes = in.getInt();
+            int numDocs = in.getInt();
+            long numTokens = in.getLong();
+            if (store == null) {
+                numTopics = fileTopics;
+                numTypes = fileTypes;
+            } else if (fileTopics != numTopics || fileTypes != numTypes ||
+                    numDocs != store.size() || numTokens != store.getNumTokens()) {
+                throw new IllegalArgumentException("Checkpoint does not fit this model: " + fileTopics + " topics, " +
+                        fileTypes + " types, " + numDocs + " documents, " + numTokens + " tokens.");
+            }
+            int iteration = in.getInt();
+            double alphaSum = in.getDouble();
+            double beta = in.getDouble();
+            double[] alpha = new double[numTopics];
+            for (int topic = 0; topic < numTopics; topic++) alpha[topic] = in.getDouble();
+            int[] tokensPerTopic = in.getInts(numTopics);
+            int[][] topicAssignments = null;
+            if (store == null) {
+                topicAssignments = new int[numDocs][];
+                for (int doc = 0; doc < numDocs; doc++) {
+                    topicAssignments[doc] = in.getInts(in.getInt());
+                }
+            } else {
+                MappedTokenStore.Cursor cursor = store.cursor();
+                int[] topics = new int[store.getMaxLength()];
+                for (int doc = 0; doc < numDocs; doc++) {
+                    int length = in.getInt();
+                    if (length != store.getLength(doc)) {
+                        throw new IllegalArgumentException("Checkpoint does not fit this model: document " + doc + " has " +
+                                store.getLength(doc) + " tokens, the checkpoint " + length + ".");
+                    }
+                    in.getInts(topics, length);
+                    cursor.writeTopics(doc, topics);
+                }
+            }
+            int[][] typeTopicCounts = new int[numTypes][];
+            for (int type = 0; type < numTypes; type++) {
+                typeTopicCounts[type] = in.getInts(in.getInt());
+            }
+            int[] docLengthCounts = in.getInts(in.getInt());
+            int[][] topicDocCounts = new int[numTopics][];
+            for (int topic = 0; topic < numTopics; topic++) {
+                topicDocCounts[topic] = in.getInts(docLengthCounts.length);
+            }
+            return new TopicModelCheckpoint(iteration, numTopics, numTypes, alphaSum, beta, alpha,
+                    tokensPerTopic, topicAssignments, store, typeTopicCounts, docLengthCounts, topicDocCounts);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes checkpoints on a background thread, so sampling goes on while the file is written.
+     * At most one snapshot waits to be written; a new one waits for the previous write to finish.
+     * A failed write is logged and the last good checkpoint stays in place.
+     */
+    public static class AsyncWriter {
+        private final File file;
+        private final ExecutorService executor;
+        private Future<?> pending;
+
+        public AsyncWriter(File file) {
+            this.file = file;
+            this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "topic-model-checkpoint");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        public void submit(final TopicModelCheckpoint checkpoint) {
+            waitForPending();
+            pending = executor.submit(new Runnable() {
+                public void run() {
+                    long start = System.currentTimeMillis();
+                    try {
+                        checkpoint.write(file);
+                        logger.info("Checkpoint of iteration " + checkpoint.iteration + " written to " + file +
+                                " (" + (System.currentTimeMillis() - start) + "ms)");
+                    } catch (IOException e) {
+                        logger.warning("Cannot write checkpoint " + file + ": " + e);
+                    }
+                }
+            });
+        }
+
+        /** Wait for the last checkpoint to be written and stop the writer thread. */
+        public void close() {
+            waitForPending();
+            executor.shutdown();
+        }
+
+        private void waitForPending() {
+            if (pending == null) return;
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.warning("Cannot write checkpoint " + file + ": " + e.getCause());
+            }
+            pending = null;
+        }
+    }
+
+    // Buffered big-endian output of primitive values and int arrays over a file channel
+    private static class ChannelOutput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        ChannelOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putInts(int[] values) throws IOException {
+            putInts(values, values.length);
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            int offset = 0;
+            while (offset < count) {
+                ensure(4);
+                int length = Math.min(count - offset, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, offset, length);
+                buffer.position(buffer.position() + length * 4);
+                offset += length;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    private static class ChannelInput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        ChannelInput(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return buffer.getLong();
+        }
+
+        double getDouble() throws IOException {
+            ensure(8);
+            return buffer.getDouble();
+        }
+
+        int[] getInts(int length) throws IOException {
+            int[] values = new int[length];
+            getInts(values, length);
+            return values;
+        }
+
+        void getInts(int[] values, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                ensure(4);
+                int count = Math.min(length - offset, buffer.remaining() / 4);
+                buffer.asIntBuffer().get(values, offset, count);
+                buffer.position(buffer.position() + count * 4);
+                offset += count;
+            }
+        }
+
+        // Keep at least the given number of bytes in the buffer
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) return;
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) throw new EOFException("Checkpoint file is truncated.");
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics;
+
+import cc.mallet.types.*;
+import cc.mallet.util.Randoms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The empirical likelihood of held-out documents and the log likelihood of the sampling state of a
+ * WeightedLDAHyper, split into tasks over samples, documents and types.
+ * <p/>
+ * The evaluator either reads the arrays of the model, so it must not run while the model samples,
+ * or a copy of them taken between two iterations (see {@link #snapshot}), which can be evaluated
+ * on other threads while sampling goes on. The topic assignments of a model trained out of core are
+ * read from its {@link MappedTokenStore} instead.
+ *
+ * @author Seonggyu Lee
+ */
+public class TopicModelLikelihood {
+
+    final int numTopics;
+    final int numTypes;
+    final int topicMask;
+    final int topicBits;
+    final double[] alpha;
+    final double alphaSum;
+    final double beta;
+    final double betaSum;
+    final int[][] typeTopicCounts; // indexed by <feature index, nonzero topic index>
+    final int[] tokensPerTopic; // indexed by <topic index>
+    final int[][] topicAssignments; // indexed by <document index, position>, null if read from the store
+    final MappedTokenStore store;
+
+    TopicModelLikelihood(int numTopics, int numTypes, int topicMask, int topicBits,
+                         double[] alpha, double alphaSum, double beta, double betaSum,
+                         int[][] typeTopicCounts, int[] tokensPerTopic, int[][] topicAssignments,
+                         MappedTokenStore store) {
+        this.numTopics = numTopics;
+        this.numTypes = numTypes;
+        this.topicMask = topicMask;
+        this.topicBits = topicBits;
+        this.alpha = alpha;
+        this.alphaSum = alphaSum;
+        this.beta = beta;
+        this.betaSum = betaSum;
+        this.typeTopicCounts = typeTopicCounts;
+        this.tokensPerTopic = tokensPerTopic;
+        this.topicAssignments = topicAssignments;
+        this.store = store;
+    }
+
+    /** An evaluator over the arrays of the model itself. */
+    public static TopicModelLikelihood of(WeightedLDAHyper model) {
+        int[][] topicAssignments = new int[model.data.size()][];
+        for (int doc = 0; doc < topicAssignments.length; doc++) {
+            topicAssignments[doc] = model.data.get(doc).topicSequence.getFeatures();
+        }
+        return new TopicModelLikelihood(model.numTopics, model.numTypes, model.topicMask, model.topicBits,
+                model.alpha, model.alphaSum, model.beta, model.betaSum,
+                model.typeTopicCounts, model.tokensPerTopic, topicAssignments, null);
+    }
+
+    /** An evaluator over the counts of the model and the topic assignments in the store. */
+    public static TopicModelLikelihood of(WeightedLDAHyper model, MappedTokenStore store) {
+        return new TopicModelLikelihood(model.numTopics, model.numTypes, model.topicMask, model.topicBits,
+                model.alpha, model.alphaSum, model.beta, model.betaSum,
+                model.typeTopicCounts, model.tokensPerTopic, null, store);
+    }
+
+    /** An evaluator over a copy of the counts and topic assignments of the model. */
+    public static TopicModelLikelihood snapshot(WeightedLDAHyper model) {
+        int[][] topicAssignments = new int[model.data.size()][];
+        for (int doc = 0; doc < topicAssignments.length; doc++) {
+            topicAssignments[doc] = model.data.get(doc).topicSequence.getFeatures().clone();
+        }
+        return snapshot(model, topicAssignments, null);
+    }
+
+    /**
+     * An evaluator over a copy of the counts of the model and the topic assignments in a copy of its store,
+     * see {@link MappedTokenStore#copyTopics(java.io.File)}.
+     */
+    public static TopicModelLikelihood snapshot(WeightedLDAHyper model, MappedTokenStore topicStore) {
+        return snapshot(model, null, topicStore);
+    }
+
+    private static TopicModelLikelihood snapshot(WeightedLDAHyper model, int[][] topicAssignments,
+                                                 MappedTokenStore topicStore) {
+        int[][] typeTopicCounts = new int[model.numTypes][];
+        for (int type = 0; type < model.numTypes; type++) {
+            typeTopicCounts[type] = model.typeTopicCounts[type].clone();
+        }
+        return new TopicModelLikelihood(model.numTopics, model.numTypes, model.topicMask, model.topicBits,
+                model.alpha.clone(), model.alphaSum, model.beta, model.betaSum,
+                typeTopicCounts, model.tokensPerTopic.clone(), topicAssignments, topicStore);
+    }
+
+    /**
+     * Draw <code>numSamples</code> topic distributions from the prior and average the likelihood of each
+     * testing document over them. The samples are split into <code>numTasks</code> tasks, each with its own
+     * random stream and word distribution. If the executor is null, everything runs on this thread.
+     */
+    public double empiricalLikelihood(int numSamples, InstanceList testing,
+                                      ExecutorService executor, int numTasks) throws InterruptedException {
+        final int[][] testingTypes = new int[testing.size()][];
+        for (int doc = 0; doc < testing.size(); doc++) {
+            testingTypes[doc] = testingTypes(testing.get(doc).getData());
+        }
+        final double[][] likelihoods = new double[testing.size()][numSamples];
+
+        Randoms seeds = new Randoms();
+        numTasks = executor == null ? 1 : Math.max(1, Math.min(numTasks, numSamples));
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numTasks);
+        for (int task = 0; task < numTasks; task++) {
+            final int firstSample = (int) ((long) numSamples * task / numTasks);
+            final int lastSample = (int) ((long) numSamples * (task + 1) / numTasks);
+            final Randoms random = new Randoms(seeds.nextInt());
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    sampleLikelihoods(firstSample, lastSample, random, testingTypes, likelihoods);
+                    return null;
+                }
+            });
+        }
+        run(executor, tasks);
+
+        double averageLogLikelihood = 0.0;
+        double logNumSamples = Math.log(numSamples);
+        for (int doc = 0; doc < likelihoods.length; doc++) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int sample = 0; sample < numSamples; sample++) {
+                if (likelihoods[doc][sample] > max) {
+                    max = likelihoods[doc][sample];
+                }
+            }
+
+            double sum = 0.0;
+            for (int sample = 0; sample < numSamples; sample++) {
+                sum += Math.exp(likelihoods[doc][sample] - max);
+            }
+
+            averageLogLikelihood += Math.log(sum) + max - logNumSamples;
+        }
+
+        return averageLogLikelihood;
+    }
+
+    /** The types counted for a testing document: every position of a sequence, every index of a vector. */
+    private static int[] testingTypes(Object data) {
+        if (data instanceof FeatureSequence) {
+            FeatureSequence fs = (FeatureSequence) data;
+            return Arrays.copyOf(fs.getFeatures(), fs.getLength());
+        }
+        return ((FeatureVector) data).getIndices();
+    }
+
+    private void sampleLikelihoods(int firstSample, int lastSample, Randoms random,
+                                   int[][] testingTypes, double[][] likelihoods) {
+        double[] multinomial = new double[numTypes];
+        double[] topicDistribution = new double[numTopics];
+
+        for (int sample = firstSample; sample < lastSample; sample++) {
+            nextTopicDistribution(random, topicDistribution);
+
+            // The beta part is shared by every type, the count part
+            //  only touches the non-zero entries of the packed arrays.
+            double betaMass = 0.0;
+            for (int topic = 0; topic < numTopics; topic++) {
+                betaMass += topicDistribution[topic] * beta /
+                        (betaSum + tokensPerTopic[topic]);
+            }
+
+            for (int type = 0; type < numTypes; type++) {
+                int[] currentTypeTopicCounts = typeTopicCounts[type];
+                double mass = betaMass;
+
+                int index = 0;
+                while (index < currentTypeTopicCounts.length &&
+                        currentTypeTopicCounts[index] > 0) {
+                    int topic = currentTypeTopicCounts[index] & topicMask;
+                    mass += topicDistribution[topic] *
+                            (currentTypeTopicCounts[index] >> topicBits) /
+                            (betaSum + tokensPerTopic[topic]);
+                    index++;
+                }
+
+                // Convert to log probabilities
+                assert(mass > 0.0);
+                multinomial[type] = Math.log(mass);
+            }
+
+            for (int doc = 0; doc < testingTypes.length; doc++) {
+                double likelihood = 0.0;
+                for (int type : testingTypes[doc]) {
+                    // Testing instances may have types not found in training instances
+                    if (type < numTypes) {
+                        likelihood += multinomial[type];
+                    }
+                }
+                likelihoods[doc][sample] = likelihood;
+            }
+        }
+    }
+
+    /** A draw from Dirichlet(alpha), as Dirichlet.nextDistribution but from the random stream of the task. */
+    private void nextTopicDistribution(Randoms random, double[] distribution) {
+        double sum = 0;
+        for (int topic = 0; topic < numTopics; topic++) {
+            distribution[topic] = random.nextGamma(alpha[topic], 1);
+            if (distribution[topic] <= 0) {
+                distribution[topic] = 0.0001;
+            }
+            sum += distribution[topic];
+        }
+        for (int topic = 0; topic < numTopics; topic++) {
+            distribution[topic] /= sum;
+        }
+    }
+
+    /**
+     * The log likelihood of the topic assignments: a Dirichlet-multinomial for the topics in each document
+     * and one for the words in each topic. The documents and the types are split into <code>numTasks</code>
+     * ranges each. If the executor is null, everything runs on this thread.
+     */
+    public double modelLogLikelihood(ExecutorService executor, int numTasks) throws InterruptedException {
+        numTasks = executor == null ? 1 : Math.max(1, numTasks);
+
+        final double[] topicLogGammas = new double[numTopics];
+        for (int topic = 0; topic < numTopics; topic++) {
+            topicLogGammas[ topic ] = Dirichlet.logGammaStirling( alpha[topic] );
+        }
+
+        final int numDocs = store != null ? store.size() : topicAssignments.length;
+        final double[] docParts = new double[numTasks];
+        final double[] typeParts = new double[numTasks];
+        final int[] nonZeroTypeTopics = new int[numTasks];
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(2 * numTasks);
+        for (int task = 0; task < numTasks; task++) {
+            final int part = task;
+            final int firstDoc = (int) ((long) numDocs * task / numTasks);
+            final int lastDoc = (int) ((long) numDocs * (task + 1) / numTasks);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    docParts[part] = documentLogLikelihood(firstDoc, lastDoc, topicLogGammas);
+                    return null;
+                }
+            });
+            final int firstType = (int) ((long) numTypes * task / numTasks);
+            final int lastType = (int) ((long) numTypes * (task + 1) / numTasks);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    double logLikelihood = 0.0;
+                    int nonZero = 0;
+                    for (int type = firstType; type < lastType; type++) {
+                        int[] currentTypeTopicCounts = typeTopicCounts[type];
+
+                        int index = 0;
+                        while (index < currentTypeTopicCounts.length &&
+                                currentTypeTopicCounts[index] > 0) {
+                            int count = currentTypeTopicCounts[index] >> topicBits;
+
+                            nonZero++;
+                            logLikelihood += Dirichlet.logGammaStirling(beta + count);
+
+                            index++;
+                        }
+                    }
+                    typeParts[part] = logLikelihood;
+                    nonZeroTypeTopics[part] = nonZero;
+                    return null;
+                }
+            });
+        }
+        run(executor, tasks);
+
+        // Summed in task order, so the result does not depend on the order the tasks finished in
+        double logLikelihood = 0.0;
+        int nonZero = 0;
+        for (int task = 0; task < numTasks; task++) {
+            logLikelihood += docParts[task];
+        }
+
+        // add the parameter sum term
+        logLikelihood += numDocs * Dirichlet.logGammaStirling(alphaSum);
+
+        for (int task = 0; task < numTasks; task++) {
+            logLikelihood += typeParts[task];
+            nonZero += nonZeroTypeTopics[task];
+        }
+
+        for (int topic = 0; topic < numTopics; topic++) {
+            logLikelihood -=
+                    Dirichlet.logGammaStirling( (beta * numTopics) +
+                            tokensPerTopic[ topic ] );
+        }
+
+        logLikelihood +=
+                (Dirichlet.logGammaStirling(beta * numTopics)) -
+                        (Dirichlet.logGammaStirling(beta) * nonZero);
+
+        return logLikelihood;
+    }
+
+    private double documentLogLikelihood(int firstDoc, int lastDoc, double[] topicLogGammas) {
+        double logLikelihood = 0.0;
+        int[] topicCounts = new int[numTopics];
+        MappedTokenStore.Cursor cursor = store != null ? store.cursor() : null;
+        int[] docTopics = store != null ? new int[store.getMaxLength()] : null;
+
+        for (int doc = firstDoc; doc < lastDoc; doc++) {
+            int docLength;
+            if (cursor != null) {
+                docLength = cursor.readTopics(doc, docTopics);
+            } else {
+                docTopics = topicAssignments[doc];
+                docLength = docTopics.length;
+            }
+
+            for (int token = 0; token < docLength; token++) {
+                topicCounts[ docTopics[token] ]++;
+            }
+
+            // Only the topics of the document are non-zero, so only they are visited and reset
+            for (int token = 0; token < docLength; token++) {
+                int topic = docTopics[token];
+                if (topicCounts[topic] > 0) {
+                    logLikelihood += (Dirichlet.logGammaStirling(alpha[topic] + topicCounts[topic]) -
+                            topicLogGammas[ topic ]);
+                    topicCounts[topic] = 0;
+                }
+            }
+
+            // subtract the (count + parameter) sum term
+            logLikelihood -= Dirichlet.logGammaStirling(alphaSum + docLength);
+        }
+        return logLikelihood;
+    }
+
+    private static void run(ExecutorService executor, List<Callable<Object>> tasks) throws InterruptedException {
+        if (executor == null) {
+            try {
+                for (Callable<Object> task : tasks) {
+                    task.call();
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("Likelihood evaluation failed.", e);
+            }
+            return;
+        }
+        try {
+            for (Future<Object> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Likelihood evaluation failed.", e.getCause());
+        }
+    }
+}
@@ -10,11 +10,12 @@ package edu.kaist.irlab.topics;
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
-import gnu.trove.TIntIntHashMap;
+import edu.kaist.irlab.textcontrol.SparseFeatureMatrix;
 
 import java.io.*;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.GZIPOutputStream;
 
 
@@ -88,11 +89,15 @@ public class WeightedLDAHyper implements Serializable {
 	// garbage collection overhead.
 	protected int[] oneDocTopicCounts; // indexed by <document index, topic index>
 
-	protected TIntIntHashMap[] typeTopicCounts; // indexed by <feature index, topic index>
+	// The number of times each type appears in each topic, packed as
+	//  (count << topicBits) + topic and sorted by descending count.
+	protected int[][] typeTopicCounts; // indexed by <feature index, nonzero topic index>
+	protected int topicMask;
+	protected int topicBits;
     public double[] typeTopicWeight; // indexed by <feature index>  This is maded for Weighted topic model
     public double[] idfTermWeight; // indexed by <feature index>  This is maded for IDF Weighted Topic model
-    public static int totalTokens;
-    public static double totalWeights;
+    public int totalTokens;
+    public double totalWeights;
 
 
     protected int[] tokensPerTopic; // indexed by <topic index>
@@ -100,8 +105,7 @@ public class WeightedLDAHyper implements Serializable {
 
 
     // for dirichlet estimation
-	protected int[] docLengthCounts; // histogram of document sizes
-	protected int[][] topicDocCounts; // histogram of document/topic counts, indexed by <topic index, sequence position index>
+	protected CountHistograms alphaStatistics; // document sizes and document/topic counts
 
 	public int iterationsSoFar = 0;
 	public int numIterations = 1000;
@@ -119,17 +123,25 @@ public class WeightedLDAHyper implements Serializable {
 	protected int saveStateInterval = 0;
 	protected String stateFilename = null;
 
+	protected int checkpointInterval = 0;
+	protected File checkpointFile = null;
+	protected transient TopicModelCheckpoint.AsyncWriter checkpointWriter = null;
+
+	// The likelihoods are split into this many tasks on the executor, if one is set
+	protected transient ExecutorService likelihoodExecutor = null;
+	protected transient int likelihoodTasks = 1;
+
 	protected Randoms random;
 	protected NumberFormat formatter;
 	protected boolean printLogLikelihood = false;
 
     protected List<FeatureVector> originTarget;
     protected List<Boolean> originTargetYN;
-    public static double lamdaWeight; // 1 이면 완전 weighted. 0 이면 완전 balanced
-    public static double etaWeight; // 1 이면 완전 weighted. 0 이면 완전 balanced
-    public static double secured;
-    public static boolean useBalancedModel = true; // 7th arg
-    public static boolean useBetaWeightedModel = false; // This is used with Weighted model.
+    public double lamdaWeight; // 1 이면 완전 weighted. 0 이면 완전 balanced
+    public double etaWeight; // 1 이면 완전 weighted. 0 이면 완전 balanced
+    public double secured;
+    public boolean useBalancedModel = true; // 7th arg
+    public boolean useBetaWeightedModel = false; // This is used with Weighted model.
 
 
     public WeightedLDAHyper(int numberOfTopics, double alphaSum) {
@@ -163,6 +175,8 @@ public class WeightedLDAHyper implements Serializable {
 
         this.topicAlphabet = topicAlphabet;
 		this.numTopics = topicAlphabet.size();
+		initializeTopicMask();
+
 		this.alphaSum = alphaSum;
 		this.alpha = new double[numTopics];
 		Arrays.fill(alpha, alphaSum / numTopics);
@@ -186,7 +200,25 @@ public class WeightedLDAHyper implements Serializable {
 
     public int getNumTopics() { return numTopics; }
 	public ArrayList<Topication> getData() { return data; }
-	public int getCountFeatureTopic (int featureIndex, int topicIndex) { return typeTopicCounts[featureIndex].get(topicIndex); }
+
+	// The documents as the document/topic outputs and the likelihood see them.
+	// A model that keeps its documents elsewhere than in data overrides these.
+	protected int numDocuments() { return data.size(); }
+	protected int[] documentTopics(int doc) { return data.get(doc).topicSequence.getFeatures(); }
+	protected String documentName(int doc) { return String.valueOf(data.get(doc).instance.getName()); }
+	protected Alphabet documentTargetAlphabet() { return data.isEmpty() ? null : data.get(0).instance.getTargetAlphabet(); }
+
+	/** The target index of a document, -1 if it has none. */
+	protected int documentLabel(int doc) {
+		Object target = data.get(doc).instance.getTarget();
+		return target != null ? ((Label) target).getIndex() : -1;
+	}
+
+	/** An evaluator over the counts and assignments of this model, see {@link #modelLogLikelihood()}. */
+	protected TopicModelLikelihood likelihood() { return TopicModelLikelihood.of(this); }
+	/** An evaluator over a copy of the counts and assignments, which sampling may go on from. */
+	protected TopicModelLikelihood likelihoodSnapshot() { return TopicModelLikelihood.snapshot(this); }
+	public int getCountFeatureTopic (int featureIndex, int topicIndex) { return getTypeTopicCount(typeTopicCounts[featureIndex], topicIndex); }
 	public int getCountTokensPerTopic (int topicIndex) { return tokensPerTopic[topicIndex]; }
     public double getWeightsSumPerTopic (int topicIndex) { return weightSumPerTopic[topicIndex]; }
 
@@ -213,6 +245,10 @@ public class WeightedLDAHyper implements Serializable {
         this.burnOverIteration=burnOverIteration;
     }
 
+    public void setUseBalancedModel(boolean useBalancedModel) {
+        this.useBalancedModel = useBalancedModel;
+    }
+
 //    public void setBurnSemiIteration(int burnSemiIteration) {  //for My Exp
 //        this.burnSemiIteration=burnSemiIteration;
 //    }
@@ -240,41 +276,181 @@ public class WeightedLDAHyper implements Serializable {
 		this.stateFilename = filename;
 	}
 
+	/** Define how often and where to write the binary checkpoint of the sampling state.
+	 *
+	 * @param interval Write a checkpoint every <code>interval</code> iterations, 0 for never.
+	 * @param file The checkpoint file, replaced by each new checkpoint
+	 */
+	public void setCheckpoint(int interval, File file) {
+		this.checkpointInterval = interval;
+		this.checkpointFile = file;
+	}
+
+	/** Copy the sampling state. Call it between iterations, when no worker is sampling. */
+	public TopicModelCheckpoint snapshot () {
+		return snapshot(iterationsSoFar);
+	}
+
+	protected TopicModelCheckpoint snapshot (int nextIteration) {
+		int[][] topicAssignments = new int[data.size()][];
+		for (int doc = 0; doc < data.size(); doc++) {
+			topicAssignments[doc] = data.get(doc).topicSequence.getFeatures().clone();
+		}
+		return snapshot(nextIteration, topicAssignments, null);
+	}
+
+	/** A snapshot with the given copy of the topic assignments, on the heap or in a store. */
+	protected TopicModelCheckpoint snapshot (int nextIteration, int[][] topicAssignments, MappedTokenStore topicStore) {
+		int[][] typeTopicCountsCopy = new int[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			typeTopicCountsCopy[type] = typeTopicCounts[type].clone();
+		}
+		int histogramSize = alphaStatistics.getMaxLength() + 1;
+		return new TopicModelCheckpoint(nextIteration, numTopics, numTypes, alphaSum, beta, alpha.clone(),
+				tokensPerTopic.clone(), topicAssignments, topicStore, typeTopicCountsCopy,
+				alphaStatistics.getLengthHistogram(histogramSize), alphaStatistics.getHistograms(histogramSize));
+	}
+
+	public void writeCheckpoint (File f) throws IOException {
+		snapshot().write(f);
+	}
+
+	/**
+	 *  Restore the sampling state from a checkpoint. The same instances must already be added
+	 *   in the same order. Sampling continues at the iteration after the checkpoint, with the
+	 *   random number generator of this model: its state is not in the checkpoint, so a resumed
+	 *   run is a valid continuation of the chain but does not repeat an uninterrupted run.
+	 */
+	public void restore (TopicModelCheckpoint checkpoint) {
+		checkFits(checkpoint);
+		MappedTokenStore.Cursor cursor = checkpoint.topicStore != null ? checkpoint.topicStore.cursor() : null;
+		for (int doc = 0; doc < data.size(); doc++) {
+			int[] topics = data.get(doc).topicSequence.getFeatures();
+			int length = cursor != null ? checkpoint.topicStore.getLength(doc) : checkpoint.topicAssignments[doc].length;
+			if (length != topics.length) {
+				throw new IllegalArgumentException ("Checkpoint does not fit this model: document " + doc + " has " +
+						topics.length + " tokens, the checkpoint " + length + ".");
+			}
+			if (cursor != null) cursor.readTopics(doc, topics);
+			else System.arraycopy(checkpoint.topicAssignments[doc], 0, topics, 0, topics.length);
+		}
+		restoreCounts(checkpoint);
+	}
+
+	protected void checkFits (TopicModelCheckpoint checkpoint) {
+		if (checkpoint.numTopics != numTopics || checkpoint.numTypes != numTypes ||
+				checkpoint.numDocs() != numDocuments()) {
+			throw new IllegalArgumentException ("Checkpoint does not fit this model: " + checkpoint.numTopics + " topics, " +
+					checkpoint.numTypes + " types, " + checkpoint.numDocs() + " documents.");
+		}
+	}
+
+	/** Restore everything but the topic assignments, which are already in place. */
+	protected void restoreCounts (TopicModelCheckpoint checkpoint) {
+		typeTopicCounts = checkpoint.typeTopicCounts;
+		System.arraycopy(checkpoint.tokensPerTopic, 0, tokensPerTopic, 0, numTopics);
+		System.arraycopy(checkpoint.alpha, 0, alpha, 0, numTopics);
+		alphaSum = checkpoint.alphaSum;
+		beta = checkpoint.beta;
+		betaSum = beta * numTypes;
+		iterationsSoFar = checkpoint.iteration;
+
+		smoothingOnlyMass = 0.0;
+		for (int topic = 0; topic < numTopics; topic++) {
+			smoothingOnlyMass += alpha[topic] * beta / (tokensPerTopic[topic] + betaSum);
+			cachedCoefficients[topic] =  alpha[topic] / (tokensPerTopic[topic] + betaSum);
+		}
+		alphaStatistics = CountHistograms.fromDense(checkpoint.topicDocCounts, checkpoint.docLengthCounts);
+	}
+
+	public void readCheckpoint (File f) throws IOException {
+		restore(TopicModelCheckpoint.read(f));
+	}
+
+	/**
+	 *  Called after the iteration <code>iterationsSoFar</code> is sampled. Hands a snapshot to the
+	 *   background writer when a checkpoint is due and iterations are left to run.
+	 */
+	protected void checkpointIfDue (int maxIteration) {
+		if (!isCheckpointDue(maxIteration)) return;
+		if (checkpointWriter == null) checkpointWriter = new TopicModelCheckpoint.AsyncWriter(checkpointFile);
+		checkpointWriter.submit(snapshot(iterationsSoFar + 1));
+	}
+
+	protected boolean isCheckpointDue (int maxIteration) {
+		return checkpointInterval != 0 && checkpointFile != null &&
+				(iterationsSoFar + 1) % checkpointInterval == 0 && iterationsSoFar < maxIteration;
+	}
+
+	/** Wait for the last checkpoint to be written. */
+	protected void finishCheckpoints () {
+		if (checkpointWriter == null) return;
+		checkpointWriter.close();
+		checkpointWriter = null;
+	}
+
 	protected int instanceLength (Instance instance) {
 		return ((FeatureSequence)instance.getData()).size();
 	}
 
+	/** The topic is stored in the low bits of each packed type/topic count. */
+	private void initializeTopicMask () {
+		if (Integer.bitCount(numTopics) == 1) {
+			// exact power of 2
+			topicMask = numTopics - 1;
+			topicBits = Integer.bitCount(topicMask);
+		}
+		else {
+			// otherwise add an extra bit
+			topicMask = Integer.highestOneBit(numTopics) * 2 - 1;
+			topicBits = Integer.bitCount(topicMask);
+		}
+	}
+
 	// Can be safely called multiple times.  This method will complain if it can't handle the situation
-	private void initializeForTypes (Alphabet alphabet) {
+	protected void initializeForTypes (Alphabet alphabet) {
 		if (this.alphabet == null) {
 			this.alphabet = alphabet;
 			this.numTypes = alphabet.size();
-			this.typeTopicCounts = new TIntIntHashMap[numTypes];
-			for (int fi = 0; fi < numTypes; fi++)
-				typeTopicCounts[fi] = new TIntIntHashMap();
 			this.betaSum = beta * numTypes;
 		} else if (alphabet != this.alphabet) {
 			throw new IllegalArgumentException ("Cannot change Alphabet.");
 		} else if (alphabet.size() != this.numTypes) {
 			this.numTypes = alphabet.size();
-			TIntIntHashMap[] newTypeTopicCounts = new TIntIntHashMap[numTypes];
-			for (int i = 0; i < typeTopicCounts.length; i++)
-				newTypeTopicCounts[i] = typeTopicCounts[i];
-			for (int i = typeTopicCounts.length; i < numTypes; i++)
-				newTypeTopicCounts[i] = new TIntIntHashMap();
-			// TODO AKM July 18:  Why wasn't the next line there previously?
-			// this.typeTopicCounts = newTypeTopicCounts;
 			this.betaSum = beta * numTypes;
 		}	// else, nothing changed, nothing to be done
 	}
 
-	private void initializeTypeTopicCounts () {
-		TIntIntHashMap[] newTypeTopicCounts = new TIntIntHashMap[numTypes];
-		for (int i = 0; i < typeTopicCounts.length; i++)
-			newTypeTopicCounts[i] = typeTopicCounts[i];
-		for (int i = typeTopicCounts.length; i < numTypes; i++)
-			newTypeTopicCounts[i] = new TIntIntHashMap();
-		this.typeTopicCounts = newTypeTopicCounts;
+	/**
+	 *  Rebuild the packed type/topic counts and the topic totals from the current assignments.
+	 *  Each type gets an array of length min(numTopics, number of tokens of that type).
+	 */
+	protected void buildInitialTypeTopicCounts () {
+
+		int[] typeTotals = new int[numTypes];
+		for (Topication t : data) {
+			FeatureSequence tokenSequence = (FeatureSequence) t.instance.getData();
+			for (int pi = 0; pi < tokenSequence.getLength(); pi++) {
+				typeTotals[ tokenSequence.getIndexAtPosition(pi) ]++;
+			}
+		}
+
+		typeTopicCounts = new int[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			typeTopicCounts[type] = new int[ Math.min(numTopics, typeTotals[type]) ];
+		}
+
+		Arrays.fill(tokensPerTopic, 0);
+
+		for (Topication t : data) {
+			FeatureSequence tokenSequence = (FeatureSequence) t.instance.getData();
+			LabelSequence topicSequence = t.topicSequence;
+			for (int pi = 0; pi < topicSequence.getLength(); pi++) {
+				int topic = topicSequence.getIndexAtPosition(pi);
+				addTypeTopicCount(typeTopicCounts[tokenSequence.getIndexAtPosition(pi)], topic, 1);
+				tokensPerTopic[topic]++;
+			}
+		}
 	}
 
 	public void addInstances (InstanceList training) {
@@ -302,15 +478,9 @@ public class WeightedLDAHyper implements Serializable {
 		for (int i = 0; i < training.size(); i++) {
 			Topication t = new Topication (training.get(i), this, topics.get(i));
 			data.add (t);
-			// Include sufficient statistics for this one doc
-			FeatureSequence tokenSequence = (FeatureSequence) t.instance.getData();
-			LabelSequence topicSequence = t.topicSequence;
-			for (int pi = 0; pi < topicSequence.getLength(); pi++) {
-				int topic = topicSequence.getIndexAtPosition(pi);
-				typeTopicCounts[tokenSequence.getIndexAtPosition(pi)].adjustOrPutValue(topic, 1, 1);
-				tokensPerTopic[topic]++;
-			}
 		}
+		// Include sufficient statistics for all docs
+		buildInitialTypeTopicCounts();
 		initializeHistogramsAndCachedValues();
 	}
 
@@ -322,8 +492,7 @@ public class WeightedLDAHyper implements Serializable {
 	protected void initializeHistogramsAndCachedValues() {
 
 		int maxTokens = 0;
-		int totalTokens = 0;
-        double totalWeights = 0.0;
+		long totalTokens = 0;
 		int seqLen;
 
 		for (int doc = 0; doc < data.size(); doc++) {
@@ -333,6 +502,11 @@ public class WeightedLDAHyper implements Serializable {
 				maxTokens = seqLen;
 			totalTokens += seqLen;
 		}
+		initializeHistogramsAndCachedValues(maxTokens, totalTokens);
+	}
+
+	/** The same, for documents of at most <code>maxTokens</code> tokens already counted elsewhere. */
+	protected void initializeHistogramsAndCachedValues(int maxTokens, long totalTokens) {
 		// Initialize the smoothing-only sampling bucket
 		smoothingOnlyMass = 0;
 		for (int topic = 0; topic < numTopics; topic++)
@@ -346,8 +520,7 @@ public class WeightedLDAHyper implements Serializable {
 		System.err.println("max tokens: " + maxTokens);
 		System.err.println("total tokens: " + totalTokens);
 
-		docLengthCounts = new int[maxTokens + 1];
-		topicDocCounts = new int[numTopics][maxTokens + 1];
+		alphaStatistics = new CountHistograms(numTopics);
 	}
 
 	public void estimate () throws IOException {
@@ -389,7 +562,7 @@ public class WeightedLDAHyper implements Serializable {
 			if (iterationsSoFar > burninPeriod && optimizeInterval != 0 &&
 				iterationsSoFar % optimizeInterval == 0) {
 
-				alphaSum = Dirichlet.learnParameters(alpha, topicDocCounts, docLengthCounts);
+				alphaSum = Dirichlet.learnParameters(alpha, alphaStatistics);
 
 				smoothingOnlyMass = 0.0;
 				for (int topic = 0; topic < numTopics; topic++) {
@@ -413,6 +586,7 @@ public class WeightedLDAHyper implements Serializable {
 									   iterationsSoFar >= burninPeriod && iterationsSoFar % saveSampleInterval == 0,
 									   true);
 			}
+			checkpointIfDue(maxIteration);
 
 			long elapsedMillis = System.currentTimeMillis() - iterationStart;
 			if (elapsedMillis < 1000) {
@@ -430,6 +604,8 @@ public class WeightedLDAHyper implements Serializable {
 			System.out.flush();
 		}
 
+		finishCheckpoints();
+
 		long seconds = Math.round((System.currentTimeMillis() - startTime)/1000.0);
 		long minutes = seconds / 60;	seconds %= 60;
 		long hours = minutes / 60;	minutes %= 60;
@@ -442,95 +618,14 @@ public class WeightedLDAHyper implements Serializable {
 	}
 
 	protected void clearHistograms() {
-		Arrays.fill(docLengthCounts, 0);
-		for (int topic = 0; topic < topicDocCounts.length; topic++)
-			Arrays.fill(topicDocCounts[topic], 0);
+		alphaStatistics.clear();
 	}
 
-	/** If topicSequence assignments are already set and accounted for in sufficient statistics,
-	 *   then readjustTopicsAndStats should be true.  The topics will be re-sampled and sufficient statistics changes.
-	 *  If operating on a new or a test document, and featureSequence & topicSequence are not already accounted for in the sufficient statistics,
-	 *   then readjustTopicsAndStats should be false.  The current topic assignments will be ignored, and the sufficient statistics
-	 *   will not be changed.
+	/**
+	 *  Gibbs sampling step of plain LDA with the SparseLDA buckets, over the packed
+	 *   type/topic counts. Same as Mallet's WorkerRunnable.sampleTopicsForOneDoc.
 	 *  If you want to estimate the Dirichlet alpha based on the per-document topic multinomials sampled this round,
-	 *   then saveStateForAlphaEstimation should be true. */
-	private void oldSampleTopicsForOneDoc (FeatureSequence featureSequence,
-			FeatureSequence topicSequence,
-			boolean saveStateForAlphaEstimation, boolean readjustTopicsAndStats)
-	{
-		long startTime = System.currentTimeMillis();
-
-		int[] oneDocTopics = topicSequence.getFeatures();
-
-		TIntIntHashMap currentTypeTopicCounts;
-		int type, oldTopic, newTopic;
-		double[] topicDistribution;
-		double topicDistributionSum;
-		int docLen = featureSequence.getLength();
-		int adjustedValue;
-		int[] topicIndices, topicCounts;
-
-		double weight;
-
-		// populate topic counts
-		Arrays.fill(oneDocTopicCounts, 0);
-
-		if (readjustTopicsAndStats) {
-			for (int token = 0; token < docLen; token++) {
-				oneDocTopicCounts[ oneDocTopics[token] ]++;
-			}
-		}
-
-		// Iterate over the tokens (words) in the document
-		for (int token = 0; token < docLen; token++) {
-			type = featureSequence.getIndexAtPosition(token);
-			oldTopic = oneDocTopics[token];
-			currentTypeTopicCounts = typeTopicCounts[type];
-			assert (currentTypeTopicCounts.size() != 0);
-
-			if (readjustTopicsAndStats) {
-				// Remove this token from all counts
-				oneDocTopicCounts[oldTopic]--;
-				adjustedValue = currentTypeTopicCounts.adjustOrPutValue(oldTopic, -1, -1);
-				if (adjustedValue == 0) currentTypeTopicCounts.remove(oldTopic);
-				else if (adjustedValue == -1) throw new IllegalStateException ("Token count in topic went negative.");
-				tokensPerTopic[oldTopic]--;
-			}
-
-			// Build a distribution over topics for this token
-			topicIndices = currentTypeTopicCounts.keys();
-			topicCounts = currentTypeTopicCounts.getValues();
-			topicDistribution = new double[topicIndices.length];
-			// TODO Yipes, memory allocation in the inner loop!  But note that .keys and .getValues is doing this too.
-			topicDistributionSum = 0;
-			for (int i = 0; i < topicCounts.length; i++) {
-				int topic = topicIndices[i];
-				weight = ((topicCounts[i] + beta) /	(tokensPerTopic[topic] + betaSum))	* ((oneDocTopicCounts[topic] + alpha[topic]));
-				topicDistributionSum += weight;
-				topicDistribution[topic] = weight;
-			}
-
-			// Sample a topic assignment from this distribution
-			newTopic = topicIndices[random.nextDiscrete (topicDistribution, topicDistributionSum)];
-
-			if (readjustTopicsAndStats) {
-				// Put that new topic into the counts
-				oneDocTopics[token] = newTopic;
-				oneDocTopicCounts[newTopic]++;
-				typeTopicCounts[type].adjustOrPutValue(newTopic, 1, 1);
-				tokensPerTopic[newTopic]++;
-			}
-		}
-
-		if (saveStateForAlphaEstimation) {
-			// Update the document-topic count histogram,	for dirichlet estimation
-			docLengthCounts[ docLen ]++;
-			for (int topic=0; topic < numTopics; topic++) {
-				topicDocCounts[topic][ oneDocTopicCounts[topic] ]++;
-			}
-		}
-	}
-
+	 *   then shouldSaveState should be true. */
 	protected void sampleTopicsForOneDoc (FeatureSequence tokenSequence,
 										  FeatureSequence topicSequence,
 										  boolean shouldSaveState,
@@ -538,21 +633,36 @@ public class WeightedLDAHyper implements Serializable {
 
 		int[] oneDocTopics = topicSequence.getFeatures();
 
-		TIntIntHashMap currentTypeTopicCounts;
+		int[] currentTypeTopicCounts;
 		int type, oldTopic, newTopic;
-		double topicWeightsSum;
 		int docLength = tokenSequence.getLength();
 
+		int[] localTopicCounts = new int[numTopics];
+		int[] localTopicIndex = new int[numTopics];
+
 		//		populate topic counts
-		TIntIntHashMap localTopicCounts = new TIntIntHashMap();
 		for (int position = 0; position < docLength; position++) {
-			localTopicCounts.adjustOrPutValue(oneDocTopics[position], 1, 1);
+			localTopicCounts[oneDocTopics[position]]++;
 		}
 
+		// Build an array that densely lists the topics that
+		//  have non-zero counts.
+		int denseIndex = 0;
+		for (int topic = 0; topic < numTopics; topic++) {
+			if (localTopicCounts[topic] != 0) {
+				localTopicIndex[denseIndex] = topic;
+				denseIndex++;
+			}
+		}
+
+		// Record the total number of non-zero topics
+		int nonZeroTopics = denseIndex;
+
 		//		Initialize the topic count/beta sampling bucket
 		double topicBetaMass = 0.0;
-		for (int topic: localTopicCounts.keys()) {
-			int n = localTopicCounts.get(topic);
+		for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
+			int topic = localTopicIndex[denseIndex];
+			int n = localTopicCounts[topic];
 
 			//			initialize the normalization constant for the (B * n_{t|d}) term
 			topicBetaMass += beta * n /	(tokensPerTopic[topic] + betaSum);
@@ -564,8 +674,6 @@ public class WeightedLDAHyper implements Serializable {
 		double topicTermMass = 0.0;
 
 		double[] topicTermScores = new double[numTopics];
-		int[] topicTermIndices;
-		int[] topicTermValues;
 		int i;
 		double score;
 
@@ -575,64 +683,94 @@ public class WeightedLDAHyper implements Serializable {
 			oldTopic = oneDocTopics[position];
 
 			currentTypeTopicCounts = typeTopicCounts[type];
-			assert(currentTypeTopicCounts.get(oldTopic) >= 0);
 
 			//	Remove this token from all counts.
-			//   Note that we actually want to remove the key if it goes
-			//    to zero, not set it to 0.
-			if (currentTypeTopicCounts.get(oldTopic) == 1) {
-				currentTypeTopicCounts.remove(oldTopic);
-			}
-			else {
-				currentTypeTopicCounts.adjustValue(oldTopic, -1);
-			}
-
 			smoothingOnlyMass -= alpha[oldTopic] * beta /
 				(tokensPerTopic[oldTopic] + betaSum);
-			topicBetaMass -= beta * localTopicCounts.get(oldTopic) /
+			topicBetaMass -= beta * localTopicCounts[oldTopic] /
 				(tokensPerTopic[oldTopic] + betaSum);
 
-			if (localTopicCounts.get(oldTopic) == 1) {
-				localTopicCounts.remove(oldTopic);
-			}
-			else {
-				localTopicCounts.adjustValue(oldTopic, -1);
+			localTopicCounts[oldTopic]--;
+
+			// Maintain the dense index, if we are deleting
+			//  the old topic
+			if (localTopicCounts[oldTopic] == 0) {
+				denseIndex = 0;
+				while (localTopicIndex[denseIndex] != oldTopic) {
+					denseIndex++;
+				}
+				while (denseIndex < nonZeroTopics) {
+					if (denseIndex < localTopicIndex.length - 1) {
+						localTopicIndex[denseIndex] =
+							localTopicIndex[denseIndex + 1];
+					}
+					denseIndex++;
+				}
+				nonZeroTopics --;
 			}
 
 			tokensPerTopic[oldTopic]--;
 
 			smoothingOnlyMass += alpha[oldTopic] * beta /
 				(tokensPerTopic[oldTopic] + betaSum);
-			topicBetaMass += beta * localTopicCounts.get(oldTopic) /
+			topicBetaMass += beta * localTopicCounts[oldTopic] /
 				(tokensPerTopic[oldTopic] + betaSum);
 
-            cachedCoefficients[oldTopic] =
-				(alpha[oldTopic] + localTopicCounts.get(oldTopic)) /
+			cachedCoefficients[oldTopic] =
+				(alpha[oldTopic] + localTopicCounts[oldTopic]) /
 				(tokensPerTopic[oldTopic] + betaSum);
 
+			// Now go over the type/topic counts, decrementing
+			//  where appropriate, and calculating the score
+			//  for each topic at the same time.
+
+			int index = 0;
+			int currentTopic, currentValue;
+			boolean alreadyDecremented = false;
+
 			topicTermMass = 0.0;
 
-			topicTermIndices = currentTypeTopicCounts.keys();
-			topicTermValues = currentTypeTopicCounts.getValues();
+			while (index < currentTypeTopicCounts.length &&
+				   currentTypeTopicCounts[index] > 0) {
+				currentTopic = currentTypeTopicCounts[index] & topicMask;
+				currentValue = currentTypeTopicCounts[index] >> topicBits;
 
-			for (i=0; i < topicTermIndices.length; i++) {
-				int topic = topicTermIndices[i];
-				score =
-					cachedCoefficients[topic] * topicTermValues[i];
-				//				((alpha[topic] + localTopicCounts.get(topic)) *
-				//				topicTermValues[i]) /
-				//				(tokensPerTopic[topic] + betaSum);
+				if (! alreadyDecremented &&
+					currentTopic == oldTopic) {
 
-				//				Note: I tried only doing this next bit if
-				//				score > 0, but it didn't make any difference,
-				//				at least in the first few iterations.
+					// Decrementing may require us to reorder the topics,
+					//  so after we're done here, look at this cell again.
+					currentValue --;
+					if (currentValue == 0) {
+						currentTypeTopicCounts[index] = 0;
+					}
+					else {
+						currentTypeTopicCounts[index] =
+							(currentValue << topicBits) + oldTopic;
+					}
 
-				topicTermMass += score;
-				topicTermScores[i] = score;
-				//				topicTermIndices[i] = topic;
+					// Shift the reduced value to the right, if necessary.
+					int subIndex = index;
+					while (subIndex < currentTypeTopicCounts.length - 1 &&
+						   currentTypeTopicCounts[subIndex] < currentTypeTopicCounts[subIndex + 1]) {
+						int temp = currentTypeTopicCounts[subIndex];
+						currentTypeTopicCounts[subIndex] = currentTypeTopicCounts[subIndex + 1];
+						currentTypeTopicCounts[subIndex + 1] = temp;
+
+						subIndex++;
+					}
+
+					alreadyDecremented = true;
+				}
+				else {
+					score =
+						cachedCoefficients[currentTopic] * currentValue;
+					topicTermMass += score;
+					topicTermScores[index] = score;
+
+					index++;
+				}
 			}
-			//			indicate that this is the last topic
-			//			topicTermIndices[i] = -1;
 
 			double sample = random.nextUniform() * (smoothingOnlyMass + topicBetaMass + topicTermMass);
 			double origSample = sample;
@@ -648,7 +786,21 @@ public class WeightedLDAHyper implements Serializable {
 					i++;
 					sample -= topicTermScores[i];
 				}
-				newTopic = topicTermIndices[i];
+
+				newTopic = currentTypeTopicCounts[i] & topicMask;
+				currentValue = currentTypeTopicCounts[i] >> topicBits;
+
+				currentTypeTopicCounts[i] = ((currentValue + 1) << topicBits) + newTopic;
+
+				// Bubble the new value up, if necessary
+				while (i > 0 &&
+					   currentTypeTopicCounts[i] > currentTypeTopicCounts[i - 1]) {
+					int temp = currentTypeTopicCounts[i];
+					currentTypeTopicCounts[i] = currentTypeTopicCounts[i - 1];
+					currentTypeTopicCounts[i - 1] = temp;
+
+					i--;
+				}
 
 			}
 			else {
@@ -659,16 +811,14 @@ public class WeightedLDAHyper implements Serializable {
 
 					sample /= beta;
 
-					topicTermIndices = localTopicCounts.keys();
-					topicTermValues = localTopicCounts.getValues();
-
-					for (i=0; i < topicTermIndices.length; i++) {
-						newTopic = topicTermIndices[i];
+					for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
+						int topic = localTopicIndex[denseIndex];
 
-						sample -= topicTermValues[i] /
-							(tokensPerTopic[newTopic] + betaSum);
+						sample -= localTopicCounts[topic] /
+							(tokensPerTopic[topic] + betaSum);
 
 						if (sample <= 0.0) {
+							newTopic = topic;
 							break;
 						}
 					}
@@ -693,45 +843,60 @@ public class WeightedLDAHyper implements Serializable {
 
 				}
 
+				if (newTopic != -1) {
+					addTypeTopicCount(currentTypeTopicCounts, newTopic, 1);
+				}
 			}
 
 			if (newTopic == -1) {
 				System.err.println("LDAHyper sampling error: "+ origSample + " " + sample + " " + smoothingOnlyMass + " " +
 						topicBetaMass + " " + topicTermMass);
 				newTopic = numTopics-1; // TODO is this appropriate
+				addTypeTopicCount(currentTypeTopicCounts, newTopic, 1);
 				//throw new IllegalStateException ("LDAHyper: New topic not sampled.");
 			}
-			//assert(newTopic != -1);
 
 			//			Put that new topic into the counts
 			oneDocTopics[position] = newTopic;
-			currentTypeTopicCounts.adjustOrPutValue(newTopic, 1, 1);
 
 			smoothingOnlyMass -= alpha[newTopic] * beta /
 				(tokensPerTopic[newTopic] + betaSum);
-			topicBetaMass -= beta * localTopicCounts.get(newTopic) /
+			topicBetaMass -= beta * localTopicCounts[newTopic] /
 				(tokensPerTopic[newTopic] + betaSum);
 
-			localTopicCounts.adjustOrPutValue(newTopic, 1, 1);
+			localTopicCounts[newTopic]++;
+
+			// If this is a new topic for this document,
+			//  add the topic to the dense index.
+			if (localTopicCounts[newTopic] == 1) {
+				denseIndex = nonZeroTopics;
+				while (denseIndex > 0 &&
+					   localTopicIndex[denseIndex - 1] > newTopic) {
+					localTopicIndex[denseIndex] =
+						localTopicIndex[denseIndex - 1];
+					denseIndex--;
+				}
+				localTopicIndex[denseIndex] = newTopic;
+				nonZeroTopics++;
+			}
+
 			tokensPerTopic[newTopic]++;
 
 			//			update the coefficients for the non-zero topics
 			cachedCoefficients[newTopic] =
-				(alpha[newTopic] + localTopicCounts.get(newTopic)) /
+				(alpha[newTopic] + localTopicCounts[newTopic]) /
 				(tokensPerTopic[newTopic] + betaSum);
 
 			smoothingOnlyMass += alpha[newTopic] * beta /
 				(tokensPerTopic[newTopic] + betaSum);
-			topicBetaMass += beta * localTopicCounts.get(newTopic) /
+			topicBetaMass += beta * localTopicCounts[newTopic] /
 				(tokensPerTopic[newTopic] + betaSum);
-
-			assert(currentTypeTopicCounts.get(newTopic) >= 0);
-
 		}
 
 		//		Clean up our mess: reset the coefficients to values with only
 		//		smoothing. The next doc will update its own non-zero topics...
-		for (int topic: localTopicCounts.keys()) {
+		for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
+			int topic = localTopicIndex[denseIndex];
 			cachedCoefficients[topic] =
 				alpha[topic] / (tokensPerTopic[topic] + betaSum);
 		}
@@ -739,390 +904,140 @@ public class WeightedLDAHyper implements Serializable {
 		if (shouldSaveState) {
 			//			Update the document-topic count histogram,
 			//			for dirichlet estimation
-			docLengthCounts[ docLength ]++;
-			for (int topic: localTopicCounts.keys()) {
-				topicDocCounts[topic][ localTopicCounts.get(topic) ]++;
+			alphaStatistics.addLength(docLength);
+			for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
+				int topic = localTopicIndex[denseIndex];
+				alphaStatistics.addCount(topic, localTopicCounts[topic]);
 			}
 		}
 	}
 
-    // Gibbs Sampling Step for (Balance) Weighted Topic Model
-    protected void sampleBalancedTopicsForOneDoc (FeatureSequence tokenSequence,
-                                          FeatureSequence topicSequence,
-                                          boolean shouldSaveState,
-                                          boolean readjustTopicsAndStats /* currently ignored */,
-                                          double[] balancePerTopic,
-                                          boolean useVarianceTopicModel) {
-
-        int[] oneDocTopics = topicSequence.getFeatures();
-
-        TIntIntHashMap currentTypeTopicCounts;
-        int type, oldTopic, newTopic;
-        double topicWeightsSum;
-        int docLength = tokenSequence.getLength();
-
-        // for My Kurtosis Exp
-        double[] oneDocKurtosis = new double[docLength]; // Kurtosis Weight per each token
-        double[] localTopicWeights = new double[numTopics]; // Kurtosis Weight for each topic (local)
-        double localTopicWeightsSum = 0.0; // for balanceNormalize
-        double oneDocKurtSum = 0;
-        for (int position = 0; position < docLength; position++) {
-            type = tokenSequence.getIndexAtPosition(position);
-//            if(SemiBalancedTopicModelForMyExp.useBalancedModel) oneDocKurtosis[position] = typeTopicWeight[type]+(1-lamdaWeight)*balancePerTopic[oneDocTopics[position]]; // *를 더하기로 바꿔봄 use balance
-            oneDocKurtosis[position] = typeTopicWeight[type];
-            oneDocKurtSum+=oneDocKurtosis[position];
-        }
-        for (int i = 0; i < docLength; i++) { //normalize for doclength oneDocKurtosis 의 sum 이 docLen 가 되도록 함
-            oneDocKurtosis[i]= oneDocKurtosis[i]*docLength/oneDocKurtSum;
-        }
-
-        //		populate topic counts
-        TIntIntHashMap localTopicCounts = new TIntIntHashMap();
-        for (int position = 0; position < docLength; position++) {
-            localTopicCounts.adjustOrPutValue(oneDocTopics[position], 1, 1);
-            localTopicWeights[oneDocTopics[position]]+=oneDocKurtosis[position]; // updated for My Exp
-        }
-
-        //Initialize the topic count/beta sampling bucket
-        double topicBetaMass = 0.0;
-        for (int topic: localTopicCounts.keys()) {
-            int n = localTopicCounts.get(topic);
-//            localTopicWeights[topic] = localTopicWeights[topic]*balancePerTopic[topic]; // for variance weighted topic model
-            //initialize the normalization constant for the (B * n_{t|d}) term
-//            if(useBetaWeightedModel) topicBetaMass += beta * nw*nb /	(weightSumPerTopic[topic] + betaSum);
-            topicBetaMass += beta * n / (tokensPerTopic[topic] + betaSum);
-
-            //update the coefficients for the non-zero topics
-            if(useVarianceTopicModel)  cachedCoefficients[topic] =	(alpha[topic] + localTopicWeights[topic]*balancePerTopic[topic]) / (weightSumPerTopic[topic] + betaSum);  //For Balanced Topic Model
-            else  cachedCoefficients[topic] =	(alpha[topic] + n) / (tokensPerTopic[topic] + betaSum);
-        }
-
-        double topicTermMass = 0.0;
-
-        double[] topicTermScores = new double[numTopics];
-        int[] topicTermIndices;
-        int[] topicTermValues;
-        int i;
-        double score;
-
-        //	Iterate over the positions (words) in the document
-        for (int position = 0; position < docLength; position++) {
-            type = tokenSequence.getIndexAtPosition(position);
-            oldTopic = oneDocTopics[position];
-
-            currentTypeTopicCounts = typeTopicCounts[type];
-            assert(currentTypeTopicCounts.get(oldTopic) >= 0);
-
-            //	Remove this token from all counts.
-            //   Note that we actually want to remove the key if it goes
-            //    to zero, not set it to 0.
-            if (currentTypeTopicCounts.get(oldTopic) == 1) {
-                currentTypeTopicCounts.remove(oldTopic);
-            }
-            else {
-                currentTypeTopicCounts.adjustValue(oldTopic, -1);
-            }
-
-
-            if(false) {
-                smoothingOnlyMass -= alpha[oldTopic] * beta /
-                        (weightSumPerTopic[oldTopic] + betaSum);
-                topicBetaMass -= beta * localTopicWeights[oldTopic]*balancePerTopic[oldTopic] /
-                        (tokensPerTopic[oldTopic] + betaSum);
-            }else{
-                smoothingOnlyMass -= alpha[oldTopic] * beta /
-                        (tokensPerTopic[oldTopic] + betaSum);
-                topicBetaMass -= beta * localTopicCounts.get(oldTopic) /
-                        (tokensPerTopic[oldTopic] + betaSum);
-            }
-
-            if(useVarianceTopicModel)localTopicWeights[oldTopic]-=oneDocKurtosis[position];  // for my exp
-            if (localTopicCounts.get(oldTopic) == 1) {
-                localTopicCounts.remove(oldTopic);
-            }
-            else {
-                localTopicCounts.adjustValue(oldTopic, -1);
-            }
-
-            tokensPerTopic[oldTopic]--;
-            if(useBetaWeightedModel||useVarianceTopicModel) weightSumPerTopic[oldTopic]-=oneDocKurtosis[position];
-
-
-            if(false) {
-                smoothingOnlyMass += alpha[oldTopic] * beta /
-                        (weightSumPerTopic[oldTopic] + betaSum);
-                topicBetaMass += beta * localTopicWeights[oldTopic]*balancePerTopic[oldTopic] /
-                        (weightSumPerTopic[oldTopic] + betaSum);
-            } else {
-                smoothingOnlyMass += alpha[oldTopic] * beta /
-                        (tokensPerTopic[oldTopic] + betaSum);
-                topicBetaMass += beta * localTopicCounts.get(oldTopic) /
-                        (tokensPerTopic[oldTopic] + betaSum);
-            }
-
-            //Use Exp
-            if(useVarianceTopicModel) {
-                cachedCoefficients[oldTopic] =
-                        (alpha[oldTopic] + localTopicWeights[oldTopic]*balancePerTopic[oldTopic]) /
-                                (weightSumPerTopic[oldTopic] + betaSum);
-            } else {
-                cachedCoefficients[oldTopic] =
-                        (alpha[oldTopic] + localTopicCounts.get(oldTopic)) /
-                                (tokensPerTopic[oldTopic] + betaSum);
-            }
-
-            topicTermMass = 0.0;
-
-            topicTermIndices = currentTypeTopicCounts.keys();
-            topicTermValues = currentTypeTopicCounts.getValues();
-
-            for (i=0; i < topicTermIndices.length; i++) {
-                int topic = topicTermIndices[i];
-                if(false) {
-                    score =
-                            cachedCoefficients[topic] * localTopicWeights[topic]*balancePerTopic[topic];
-                }else{
-                    score =
-                            cachedCoefficients[topic] * topicTermValues[i];
-                }
-
-                //				((alpha[topic] + localTopicCounts.get(topic)) *
-                //				topicTermValues[i]) /
-                //				(tokensPerTopic[topic] + betaSum);
-
-                //				Note: I tried only doing this next bit if
-                //				score > 0, but it didn't make any difference,
-                //				at least in the first few iterations.
-
-                topicTermMass += score;
-                topicTermScores[i] = score;
-                //				topicTermIndices[i] = topic;
-            }
-            //			indicate that this is the last topic
-            //			topicTermIndices[i] = -1;
-
-            double sample = random.nextUniform() * (smoothingOnlyMass + topicBetaMass + topicTermMass);
-            double origSample = sample;
-
-//			Make sure it actually gets set
-            newTopic = -1;
-
-            if (sample < topicTermMass) {
-                //topicTermCount++;
-
-                i = -1;
-                while (sample > 0) {
-                    i++;
-                    sample -= topicTermScores[i];
-                }
-                newTopic = topicTermIndices[i];
-
-            }
-            else {
-                sample -= topicTermMass;
-
-                if (sample < topicBetaMass) {
-                    //betaTopicCount++;
-
-                    sample /= beta;
-
-                    topicTermIndices = localTopicCounts.keys();
-                    topicTermValues = localTopicCounts.getValues();
-
-                    for (i=0; i < topicTermIndices.length; i++) {
-                        newTopic = topicTermIndices[i];
-
-                        if(false) {
-                            sample -= localTopicWeights[newTopic]*balancePerTopic[newTopic]/
-                                    (weightSumPerTopic[newTopic] + betaSum);
-                        } else {
-                            sample -= topicTermValues[i] /
-                                    (tokensPerTopic[newTopic] + betaSum);
-                        }
-
-                        if (sample <= 0.0) {
-                            break;
-                        }
-                    }
-
-                }
-                else {
-                    //smoothingOnlyCount++;
-
-                    sample -= topicBetaMass;
-
-                    sample /= beta;
-
-                    for (int topic = 0; topic < numTopics; topic++) {
-                        sample -= alpha[topic] /
-                                (weightSumPerTopic[topic] + betaSum);
-                        if(false) {
-                            sample -= alpha[topic]/
-                                    (weightSumPerTopic[topic] + betaSum);
-                        } else {
-                            sample -= alpha[topic] /
-                                    (tokensPerTopic[topic] + betaSum);
-                        }
-
-                        if (sample <= 0.0) {
-                            newTopic = topic;
-                            break;
-                        }
-                    }
-
-                }
-
-            }
-
-            if (newTopic == -1) {
-                System.err.println("LDAHyper sampling error: "+ origSample + " " + sample + " " + smoothingOnlyMass + " " +
-                        topicBetaMass + " " + topicTermMass);
-                newTopic = numTopics-1; // TODO is this appropriate
-                //throw new IllegalStateException ("LDAHyper: New topic not sampled.");
-            }
-            //assert(newTopic != -1);
-
-            //			Put that new topic into the counts
-            oneDocTopics[position] = newTopic;
-            currentTypeTopicCounts.adjustOrPutValue(newTopic, 1, 1);
-
-            if(false){
-                smoothingOnlyMass -= alpha[newTopic] * beta /
-                        (weightSumPerTopic[newTopic] + betaSum);
-                topicBetaMass -= beta * localTopicWeights[newTopic] *balancePerTopic[newTopic]/
-                        (weightSumPerTopic[newTopic] + betaSum);
-            }else{
-                smoothingOnlyMass -= alpha[newTopic] * beta /
-                        (tokensPerTopic[newTopic] + betaSum);
-                topicBetaMass -= beta * localTopicCounts.get(newTopic) /
-                        (tokensPerTopic[newTopic] + betaSum);
-            }
-
-
-            if(useVarianceTopicModel) localTopicWeights[newTopic]+=oneDocKurtosis[position];
-            localTopicCounts.adjustOrPutValue(newTopic, 1, 1);
-            tokensPerTopic[newTopic]++;
-            if(useVarianceTopicModel||useBetaWeightedModel) weightSumPerTopic[oldTopic]+=oneDocKurtosis[position];
-
-
-            //			update the coefficients for the non-zero topics
-            if(useVarianceTopicModel) {
-                cachedCoefficients[newTopic] =
-                        (alpha[newTopic] + localTopicWeights[newTopic]*balancePerTopic[newTopic]) /
-                                (weightSumPerTopic[newTopic] + betaSum);
-            }else{
-                cachedCoefficients[newTopic] =
-                        (alpha[newTopic] + localTopicCounts.get(newTopic)) /
-                                (tokensPerTopic[newTopic] + betaSum);
-            }
-
-
-            if(false){
-                smoothingOnlyMass += alpha[newTopic] * beta /
-                        (weightSumPerTopic[newTopic] + betaSum);
-                topicBetaMass += beta * localTopicWeights[newTopic]*balancePerTopic[newTopic] /
-                        (weightSumPerTopic[newTopic] + betaSum);
-            }else{
-                smoothingOnlyMass += alpha[newTopic] * beta /
-                        (tokensPerTopic[newTopic] + betaSum);
-                topicBetaMass += beta * localTopicCounts.get(newTopic) /
-                        (tokensPerTopic[newTopic] + betaSum);
-            }
-
-            assert(currentTypeTopicCounts.get(newTopic) >= 0);
-
-        }
+	/**
+	 *  Add <code>count</code> tokens of <code>topic</code> to a packed count/topic array.
+	 *  The format for these arrays is the topic in the rightmost bits
+	 *  and the count in the remaining (left) bits. Since the count is in the high bits,
+	 *  sorting (desc) by the numeric value of the int keeps higher counts before lower counts.
+	 */
+	protected void addTypeTopicCount (int[] currentTypeTopicCounts, int topic, int count) {
+		int index = 0;
+		while (currentTypeTopicCounts[index] > 0 &&
+			   (currentTypeTopicCounts[index] & topicMask) != topic) {
+			index++;
+			if (index == currentTypeTopicCounts.length) {
+				throw new IllegalStateException ("Type/topic count array overflow on topic " + topic);
+			}
+		}
+		int currentValue = currentTypeTopicCounts[index] >> topicBits;
+		currentTypeTopicCounts[index] = ((currentValue + count) << topicBits) + topic;
+
+		// Now ensure that the array is still sorted by
+		//  bubbling this value up.
+		while (index > 0 &&
+			   currentTypeTopicCounts[index] > currentTypeTopicCounts[index - 1]) {
+			int temp = currentTypeTopicCounts[index];
+			currentTypeTopicCounts[index] = currentTypeTopicCounts[index - 1];
+			currentTypeTopicCounts[index - 1] = temp;
+			index--;
+		}
+	}
 
-        //		Clean up our mess: reset the coefficients to values with only
-        //		smoothing. The next doc will update its own non-zero topics...
-        for (int topic: localTopicCounts.keys()) {
-            if(useVarianceTopicModel) {
-                cachedCoefficients[topic] =
-                        alpha[topic] / (weightSumPerTopic[topic] + betaSum);
-            }else{
-                cachedCoefficients[topic] =
-                        alpha[topic] / (tokensPerTopic[topic] + betaSum);
-            }
+	/** The packed count/topic array of the counts of a type saved as a map from topic to count. */
+	private int[] packTypeTopicCounts (gnu.trove.TIntIntHashMap topicCounts) {
+		int total = 0;
+		for (int count : topicCounts.getValues()) {
+			total += count;
+		}
+		// Sized as in addInstances, so that sampling can give the type a new topic
+		int[] currentTypeTopicCounts = new int[ Math.min(numTopics, total) ];
+		for (int topic : topicCounts.keys()) {
+			if (topicCounts.get(topic) > 0) {
+				addTypeTopicCount(currentTypeTopicCounts, topic, topicCounts.get(topic));
+			}
+		}
+		return currentTypeTopicCounts;
+	}
 
-        }
+	/** Return the count of <code>topic</code> in a packed count/topic array. */
+	protected int getTypeTopicCount (int[] currentTypeTopicCounts, int topic) {
+		int index = 0;
+		while (index < currentTypeTopicCounts.length &&
+			   currentTypeTopicCounts[index] > 0) {
+			if ((currentTypeTopicCounts[index] & topicMask) == topic) {
+				return currentTypeTopicCounts[index] >> topicBits;
+			}
+			index++;
+		}
+		return 0;
+	}
 
-        if (shouldSaveState) {
-            //			Update the document-topic count histogram,
-            //			for dirichlet estimation
-            docLengthCounts[ docLength ]++;
-            for (int topic: localTopicCounts.keys()) {
-                topicDocCounts[topic][ localTopicCounts.get(topic) ]++;
-            }
-        }
-    }
+	/** Return the number of non-zero topics in a packed count/topic array. */
+	protected int getNonZeroTopics (int[] currentTypeTopicCounts) {
+		int index = 0;
+		while (index < currentTypeTopicCounts.length &&
+			   currentTypeTopicCounts[index] > 0) {
+			index++;
+		}
+		return index;
+	}
 
-    private double getKurtosFromMap(TIntIntHashMap currentTypeTopicCounts, int numTopics) {
-        double kurtx = 0.0;
+    /**
+     *  Normalized max-gap of the regularized topic distribution of a type:
+     *   sum_t (max - p_t) / (K - 1), where p_t is proportional to n_{w|t} / n_t.
+     *  Since sum_t p_t = 1 this is (K * max - 1) / (K - 1), so only the non-zero
+     *   entries of the packed array are visited.
+     */
+    private double getKurtosFromMap(int[] currentTypeTopicCounts, int numTopics) {
         double sum = 0.0;
-
-        double[] ctdCounts = new double[numTopics];
-        Arrays.fill(ctdCounts, 0.0);
         double max = 0.0;
 
-        int index = 0;
-        int[] topicTermIndices = currentTypeTopicCounts.keys();
-        int[] topicTermValues = currentTypeTopicCounts.getValues();
-        for (int i = 0; i < topicTermIndices.length; i++) {
-//            sum+= topicTermValues[i];
-            ctdCounts[topicTermIndices[i]]+=topicTermValues[i];
-        }
-
         //new regulized Method 14.09.13
-        for (int i = 0; i < ctdCounts.length; i++) {
-            ctdCounts[i] = ctdCounts[i]/tokensPerTopic[i];
-            sum+=ctdCounts[i];
-        }
-
-        for (int i = 0; i < ctdCounts.length; i++) {
-            ctdCounts[i] = ctdCounts[i]/sum;
-            if(max < ctdCounts[i]) max = ctdCounts[i];
-        }
-
-        for (int i = 0; i < ctdCounts.length; i++) {
-            kurtx+= max - ctdCounts[i];
+        int index = 0;
+        while (index < currentTypeTopicCounts.length &&
+                currentTypeTopicCounts[index] > 0) {
+            int topic = currentTypeTopicCounts[index] & topicMask;
+            double ctd = (double) (currentTypeTopicCounts[index] >> topicBits) / tokensPerTopic[topic];
+            sum += ctd;
+            if (max < ctd) max = ctd;
+            index++;
         }
+        if (sum == 0.0) return 0.0; // type has no tokens
 
-        double kurtxMax = (double) ctdCounts.length-1;
+        double kurtxMax = (double) numTopics-1;
 
-        return kurtx/kurtxMax;
+        return (numTopics*max/sum - 1.0)/kurtxMax;
 
     }
 
-    protected double getVarianceFromMap(TIntIntHashMap currentTypeTopicCounts, int numTopics) {
+    /**
+     *  Normalized variance of the regularized topic distribution of a type:
+     *   sum_t (p_t - 1/K)^2 / (1 - 1/K), where p_t is proportional to n_{w|t} / n_t.
+     *  Topics without tokens of this type each contribute (1/K)^2, so only the
+     *   non-zero entries of the packed array are visited.
+     */
+    protected double getVarianceFromMap(int[] currentTypeTopicCounts, int numTopics) {
         double variance = 0.0;
         double sum = 0.0;
-
-        double[] ctdCounts = new double[numTopics];
-        Arrays.fill(ctdCounts, 0.0);
-
-        int[] topicTermIndices = currentTypeTopicCounts.keys();
-        int[] topicTermValues = currentTypeTopicCounts.getValues();
-        for (int i = 0; i < topicTermIndices.length; i++) {
-//            sum+= topicTermValues[i];
-            ctdCounts[topicTermIndices[i]]+=topicTermValues[i];
-        }
+        double uniform = (double) 1/numTopics;
 
         //Regularized Method
-        for (int i = 0; i < ctdCounts.length; i++) {
-            ctdCounts[i] = ctdCounts[i]/tokensPerTopic[i];
-            sum+=ctdCounts[i];
-        }
-
-        for (int i = 0; i < ctdCounts.length; i++) {
-            ctdCounts[i] = ctdCounts[i]/sum;
+        int index = 0;
+        while (index < currentTypeTopicCounts.length &&
+                currentTypeTopicCounts[index] > 0) {
+            int topic = currentTypeTopicCounts[index] & topicMask;
+            sum += (double) (currentTypeTopicCounts[index] >> topicBits) / tokensPerTopic[topic];
+            index++;
         }
+        if (sum == 0.0) return 0.0; // type has no tokens
 
-        for (int i = 0; i < ctdCounts.length; i++) {
-            double x =  ctdCounts[i]-(double) 1/ctdCounts.length;
+        int nonZeroTopics = index;
+        for (index = 0; index < nonZeroTopics; index++) {
+            int topic = currentTypeTopicCounts[index] & topicMask;
+            double x = (double) (currentTypeTopicCounts[index] >> topicBits) / tokensPerTopic[topic] / sum - uniform;
             variance+= x*x; // math.pow is so slow.
         }
+        variance+= (numTopics - nonZeroTopics) * uniform * uniform;
 
-        double varianceMax = 1-(double) 1/ctdCounts.length;
+        double varianceMax = 1-uniform;
         variance=variance/varianceMax;
         double lamdaLogit = 0; // 0으로 두면 효과 0 - 로 하면 좀 더 대부분 1에 가깝게 스케일링. +로하면 0에 가깝게 스케일링 -0.99 to 0.99
 //        variance=(lamdaLogit*variance-variance)/(2*lamdaLogit*variance-lamdaLogit-1);
@@ -1155,11 +1070,48 @@ public class WeightedLDAHyper implements Serializable {
     public IDSorter[] getSortedTopicWords(int topic) {
 		IDSorter[] sortedTypes = new IDSorter[ numTypes ];
 		for (int type = 0; type < numTypes; type++)
-			sortedTypes[type] = new IDSorter(type, typeTopicCounts[type].get(topic));
+			sortedTypes[type] = new IDSorter(type, getTypeTopicCount(typeTopicCounts[type], topic));
 		Arrays.sort(sortedTypes);
 		return sortedTypes;
 	}
 
+	/**
+	 *  Return an array of sorted sets (one set per topic). Each set
+	 *   contains IDSorter objects with integer keys into the alphabet.
+	 *   If <code>typeWeights</code> is not null, each count is multiplied by the weight of its type.
+	 *  The packed type/topic counts are visited once for all topics.
+	 */
+	public ArrayList<TreeSet<IDSorter>> getSortedWords (double[] typeWeights) {
+
+		ArrayList<TreeSet<IDSorter>> topicSortedWords = new ArrayList<TreeSet<IDSorter>>(numTopics);
+
+		// Initialize the tree sets
+		for (int topic = 0; topic < numTopics; topic++) {
+			topicSortedWords.add(new TreeSet<IDSorter>());
+		}
+
+		// Collect counts
+		for (int type = 0; type < numTypes; type++) {
+
+			int[] topicCounts = typeTopicCounts[type];
+
+			int index = 0;
+			while (index < topicCounts.length &&
+				   topicCounts[index] > 0) {
+
+				int topic = topicCounts[index] & topicMask;
+				int count = topicCounts[index] >> topicBits;
+
+				topicSortedWords.get(topic).add(new IDSorter(type,
+						typeWeights == null ? count : count * typeWeights[type]));
+
+				index++;
+			}
+		}
+
+		return topicSortedWords;
+	}
+
 	public void printTopWords (File file, int numWords, boolean useNewLines) throws IOException {
 		PrintStream out = new PrintStream (file);
 		printTopWords(out, numWords, useNewLines);
@@ -1176,22 +1128,17 @@ public class WeightedLDAHyper implements Serializable {
 	public void printTopWords (PrintStream out, int numWords, boolean usingNewLines) throws IOException {
 
         // For My Exp Weighted Topic model - Measure
-        typeTopicWeight = new double[numTypes];
-        Arrays.fill(typeTopicWeight, 0.0);
+        // A local array, so that printing during estimation leaves the model's term weights alone
+        double[] varianceWeights = new double[numTypes];
         for (int type=0; type < numTypes; type++) {
-            TIntIntHashMap currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
-            typeTopicWeight[type] = getVarianceFromMap(currentTypeTopicCounts, numTopics);
+            int[] currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
+            varianceWeights[type] = getVarianceFromMap(currentTypeTopicCounts, numTopics);
         }
-
+        ArrayList<TreeSet<IDSorter>> topicSortedWords = getSortedWords(varianceWeights);
 
         for (int topic = 0; topic < numTopics; topic++) {
 
-			TreeSet<IDSorter> sortedWords = new TreeSet<IDSorter>();
-			for (int type = 0; type < numTypes; type++) {
-				if (typeTopicCounts[type].containsKey(topic)) {
-                    sortedWords.add(new IDSorter(type, (double) typeTopicCounts[type].get(topic)*typeTopicWeight[type]));
-				}
-			}
+			TreeSet<IDSorter> sortedWords = topicSortedWords.get(topic);
 
 			if (usingNewLines) {
 				out.println ("Topic " + topic);
@@ -1234,22 +1181,17 @@ public class WeightedLDAHyper implements Serializable {
         stopReader.close();
 
         // For My Exp Weighted Topic model - Measure
-        typeTopicWeight = new double[numTypes];
-        Arrays.fill(typeTopicWeight, 0.0);
+        // A local array, so that printing during estimation leaves the model's term weights alone
+        double[] varianceWeights = new double[numTypes];
         for (int type=0; type < numTypes; type++) {
-            TIntIntHashMap currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
-            typeTopicWeight[type] = getVarianceFromMap(currentTypeTopicCounts, numTopics);
+            int[] currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
+            varianceWeights[type] = getVarianceFromMap(currentTypeTopicCounts, numTopics);
         }
-
+        ArrayList<TreeSet<IDSorter>> topicSortedWords = getSortedWords(varianceWeights);
 
         for (int topic = 0; topic < numTopics; topic++) {
 
-            TreeSet<IDSorter> sortedWords = new TreeSet<IDSorter>();
-            for (int type = 0; type < numTypes; type++) {
-                if (typeTopicCounts[type].containsKey(topic)) {
-                    sortedWords.add(new IDSorter(type, (double) typeTopicCounts[type].get(topic)*typeTopicWeight[type]));
-                }
-            }
+            TreeSet<IDSorter> sortedWords = topicSortedWords.get(topic);
 
             if (usingNewLines) {
                 out.println ("Topic " + topic);
@@ -1286,17 +1228,14 @@ public class WeightedLDAHyper implements Serializable {
 		out.println("<?xml version='1.0' ?>");
 		out.println("<topicModel>");
 
+		ArrayList<TreeSet<IDSorter>> topicSortedWords = getSortedWords(null);
+
 		for (int topic = 0; topic < numTopics; topic++) {
 
 			out.println("  <topic id='" + topic + "' alpha='" + alpha[topic] +
 						"' totalTokens='" + tokensPerTopic[topic] + "'>");
 
-			TreeSet<IDSorter> sortedWords = new TreeSet<IDSorter>();
-			for (int type = 0; type < numTypes; type++) {
-				if (typeTopicCounts[type].containsKey(topic)) {
-					sortedWords.add(new IDSorter(type, typeTopicCounts[type].get(topic)));
-				}
-			}
+			TreeSet<IDSorter> sortedWords = topicSortedWords.get(topic);
 
 
 			int word = 1;
@@ -1523,24 +1462,14 @@ public class WeightedLDAHyper implements Serializable {
         }
         StringBuilder builder;
 
-        for (int doc = 0; doc < data.size(); doc++) {
-            LabelSequence topicSequence = (LabelSequence) data.get(doc).topicSequence;
-            int[] tokens = ((FeatureSequence) data.get(doc).instance.getData()).getFeatures();
-
-            int[] currentDocTopics = topicSequence.getFeatures();
+        for (int doc = 0; doc < numDocuments(); doc++) {
+            int[] currentDocTopics = documentTopics(doc);
 
             builder = new StringBuilder();
 
 //			builder.append(doc);
 //			builder.append("\t");
-            Label target = null;
-            if (data.get(doc).instance.getTarget() != null) {
-                target = (Label) data.get(doc).instance.getTarget(); //TARGET 을 넘버로 출력
-                builder.append(target.getIndex()+1);
-            }
-            else {
-                builder.append("0"); //모르면 0
-            }
+            builder.append(documentLabel(doc)+1); //TARGET 을 넘버로 출력, 모르면 0
 
             builder.append(" ");
             docLen = currentDocTopics.length;
@@ -1579,7 +1508,7 @@ public class WeightedLDAHyper implements Serializable {
                 builder.append((Integer)(sortedTopics[i].getID()+1) + ":" +
                         sortedTopics[i].getWeight() + " ");
             }
-            builder.append("#"+data.get(doc).instance.getName());
+            builder.append("#"+documentName(doc));
             out.println(builder);
 
             Arrays.fill(topicCounts, 0);
@@ -1587,6 +1516,32 @@ public class WeightedLDAHyper implements Serializable {
 
     }
 
+    /**
+     * Same topic proportions as {@link #printDocumentTopicsSvmStyle(File)}, written as a binary
+     * {@link SparseFeatureMatrix} (one row per document, one column per topic).
+     */
+    public void writeDocumentTopicsMatrix (File f) throws IOException {
+        Alphabet labelAlphabet = documentTargetAlphabet();
+        SparseFeatureMatrix.Writer writer = new SparseFeatureMatrix.Writer(f, numTopics, labelAlphabet, null);
+        int[] topicCounts = new int[ numTopics ];
+
+        for (int doc = 0; doc < numDocuments(); doc++) {
+            int[] currentDocTopics = documentTopics(doc);
+            int docLen = currentDocTopics.length;
+            for (int token=0; token < docLen; token++) {
+                topicCounts[ currentDocTopics[token] ]++;
+            }
+
+            writer.startRow(documentLabel(doc), documentName(doc));
+            for (int topic = 0; topic < numTopics; topic++) {
+                writer.addEntry(topic, (alpha[topic] + topicCounts[topic]) / (docLen + alphaSum));
+            }
+
+            Arrays.fill(topicCounts, 0);
+        }
+        writer.close();
+    }
+
     public void printDocumentTopicsSvmStyleForMyKurtosisExp (File f) throws IOException {
         printDocumentTopicsSvmStyleForMyKurtosisExp(new PrintWriter(new FileWriter(f), true));
     }
@@ -1648,7 +1603,7 @@ public class WeightedLDAHyper implements Serializable {
             double oneDocKurtSum = 0;
             for (int position = 0; position < docLen; position++) {
                 int type = tokens[position];
-                TIntIntHashMap currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
+                int[] currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
                 oneDocKurtosis[position] = getKurtosFromMap(currentTypeTopicCounts, numTopics);
                 oneDocKurtSum+=oneDocKurtosis[position];
             }
@@ -1708,7 +1663,7 @@ public class WeightedLDAHyper implements Serializable {
         // For My Exp Weighted Topic model - Measure
         typeTopicWeight = new double[numTypes];
         for (int type=0; type < numTypes; type++) {
-            TIntIntHashMap currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
+            int[] currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
             typeTopicWeight[type] = getVarianceFromMap(currentTypeTopicCounts, numTopics);
         }
 
@@ -1876,7 +1831,6 @@ public class WeightedLDAHyper implements Serializable {
 		try {
 			ObjectInputStream ois = new ObjectInputStream (new FileInputStream(f));
 			lda = (WeightedLDAHyper) ois.readObject();
-			lda.initializeTypeTopicCounts();  // To work around a bug in Trove?
 			ois.close();
 		}
 		catch (IOException e) {
@@ -1891,7 +1845,8 @@ public class WeightedLDAHyper implements Serializable {
 	// Serialization
 
 	private static final long serialVersionUID = 1;
-	private static final int CURRENT_SERIAL_VERSION = 0;
+	// Version 1 stores the type/topic counts as packed arrays, version 0 as TIntIntHashMaps
+	private static final int CURRENT_SERIAL_VERSION = 1;
 	private static final int NULL_INTEGER = -1;
 
 	private void writeObject (ObjectOutputStream out) throws IOException {
@@ -1929,8 +1884,9 @@ public class WeightedLDAHyper implements Serializable {
 		out.writeObject(formatter);
 		out.writeBoolean(printLogLikelihood);
 
-		out.writeObject(docLengthCounts);
-		out.writeObject(topicDocCounts);
+		int histogramSize = alphaStatistics.getMaxLength() + 1;
+		out.writeObject(alphaStatistics.getLengthHistogram(histogramSize));
+		out.writeObject(alphaStatistics.getHistograms(histogramSize));
 
 		for (int fi = 0; fi < numTypes; fi++)
 			out.writeObject (typeTopicCounts[fi]);
@@ -1974,15 +1930,22 @@ public class WeightedLDAHyper implements Serializable {
 		formatter = (NumberFormat) in.readObject();
 		printLogLikelihood = in.readBoolean();
 
-		docLengthCounts = (int[]) in.readObject();
-		topicDocCounts = (int[][]) in.readObject();
+		int[] docLengthCounts = (int[]) in.readObject();
+		int[][] topicDocCounts = (int[][]) in.readObject();
+		alphaStatistics = CountHistograms.fromDense(topicDocCounts, docLengthCounts);
 
 		int numDocs = data.size();
 		this.numTypes = alphabet.size();
 
-		typeTopicCounts = new TIntIntHashMap[numTypes];
-		for (int fi = 0; fi < numTypes; fi++)
-			typeTopicCounts[fi] = (TIntIntHashMap) in.readObject();
+		initializeTopicMask();
+
+		typeTopicCounts = new int[numTypes][];
+		for (int fi = 0; fi < numTypes; fi++) {
+			if (version == 0)
+				typeTopicCounts[fi] = packTypeTopicCounts ((gnu.trove.TIntIntHashMap) in.readObject());
+			else
+				typeTopicCounts[fi] = (int[]) in.readObject();
+		}
 		tokensPerTopic = new int[numTopics];
 		for (int ti = 0; ti < numTopics; ti++)
 			tokensPerTopic[ti] = in.readInt();
@@ -2144,156 +2107,27 @@ public class WeightedLDAHyper implements Serializable {
 //
 //	}
 
+    /**
+     *  The empirical likelihood of the testing documents, averaged over <code>numSamples</code> topic
+     *   distributions drawn from the prior. Runs on the likelihood executor if one is set.
+     */
     public double empiricalLikelihood(int numSamples, InstanceList testing) {
-        double[][] likelihoods = new double[ testing.size() ][ numSamples ];
-        double[] multinomial = new double[numTypes];
-        double[] topicDistribution, currentSample, currentWeights;
-        Dirichlet topicPrior = new Dirichlet(alpha);
-
-        int sample, doc, topic, type, token, seqLen;
-//        FeatureSequence fs;
-        FeatureVector fv;
-
-
-        for (sample = 0; sample < numSamples; sample++) {
-            topicDistribution = topicPrior.nextDistribution();
-            Arrays.fill(multinomial, 0.0);
-
-            for (topic = 0; topic < numTopics; topic++) {
-                for (type=0; type<numTypes; type++) {
-                    multinomial[type] +=
-                            topicDistribution[topic] *
-                                    (beta + typeTopicCounts[type].get(topic)) /
-                                    (betaSum + tokensPerTopic[topic]);
-                }
-            }
-
-            // Convert to log probabilities
-            for (type=0; type<numTypes; type++) {
-                assert(multinomial[type] > 0.0);
-                multinomial[type] = Math.log(multinomial[type]);
-            }
-
-            for (doc=0; doc<testing.size(); doc++) {
-                fv = (FeatureVector) testing.get(doc).getData();
-                seqLen = fv.getIndices().length;
-
-                for (token = 0; token < seqLen; token++) {
-                    type = fv.getIndices()[token];
-
-                    // Adding this check since testing instances may
-                    //   have types not found in training instances,
-                    //  as pointed out by Steven Bethard.
-                    if (type < numTypes) {
-                        likelihoods[doc][sample] += multinomial[type];
-                    }
-                }
-            }
-        }
-
-        double averageLogLikelihood = 0.0;
-        double logNumSamples = Math.log(numSamples);
-        for (doc=0; doc<testing.size(); doc++) {
-            double max = Double.NEGATIVE_INFINITY;
-            for (sample = 0; sample < numSamples; sample++) {
-                if (likelihoods[doc][sample] > max) {
-                    max = likelihoods[doc][sample];
-                }
-            }
-
-            double sum = 0.0;
-            for (sample = 0; sample < numSamples; sample++) {
-                sum += Math.exp(likelihoods[doc][sample] - max);
-            }
-
-            averageLogLikelihood += Math.log(sum) + max - logNumSamples;
+        try {
+            return likelihood().empiricalLikelihood(numSamples, testing,
+                    likelihoodExecutor, likelihoodTasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Double.NaN;
         }
-
-        return averageLogLikelihood;
-
     }
 
 	public double modelLogLikelihood() {
-		double logLikelihood = 0.0;
-		int nonZeroTopics;
-
-		// The likelihood of the model is a combination of a 
-		// Dirichlet-multinomial for the words in each topic
-		// and a Dirichlet-multinomial for the topics in each
-		// document.
-
-		// The likelihood function of a dirichlet multinomial is
-		//	 Gamma( sum_i alpha_i )	 prod_i Gamma( alpha_i + N_i )
-		//	prod_i Gamma( alpha_i )	  Gamma( sum_i (alpha_i + N_i) )
-
-		// So the log likelihood is 
-		//	logGamma ( sum_i alpha_i ) - logGamma ( sum_i (alpha_i + N_i) ) + 
-		//	 sum_i [ logGamma( alpha_i + N_i) - logGamma( alpha_i ) ]
-
-		// Do the documents first
-
-		int[] topicCounts = new int[numTopics];
-		double[] topicLogGammas = new double[numTopics];
-		int[] docTopics;
-
-		for (int topic=0; topic < numTopics; topic++) {
-			topicLogGammas[ topic ] = Dirichlet.logGammaStirling( alpha[topic] );
-		}
-	
-		for (int doc=0; doc < data.size(); doc++) {
-			LabelSequence topicSequence =	(LabelSequence) data.get(doc).topicSequence;
-
-			docTopics = topicSequence.getFeatures();
-
-			for (int token=0; token < docTopics.length; token++) {
-				topicCounts[ docTopics[token] ]++;
-			}
-
-			for (int topic=0; topic < numTopics; topic++) {
-				if (topicCounts[topic] > 0) {
-					logLikelihood += (Dirichlet.logGammaStirling(alpha[topic] + topicCounts[topic]) -
-									  topicLogGammas[ topic ]);
-				}
-			}
-
-			// subtract the (count + parameter) sum term
-			logLikelihood -= Dirichlet.logGammaStirling(alphaSum + docTopics.length);
-
-			Arrays.fill(topicCounts, 0);
-		}
-	
-		// add the parameter sum term
-		logLikelihood += data.size() * Dirichlet.logGammaStirling(alphaSum);
-
-		// And the topics
-
-		// Count the number of type-topic pairs
-		int nonZeroTypeTopics = 0;
-
-		for (int type=0; type < numTypes; type++) {
-			int[] usedTopics = typeTopicCounts[type].keys();
-
-			for (int topic : usedTopics) {
-				int count = typeTopicCounts[type].get(topic);
-				if (count > 0) {
-					nonZeroTypeTopics++;
-					logLikelihood +=
-						Dirichlet.logGammaStirling(beta + count);
-				}
-			}
-		}
-	
-		for (int topic=0; topic < numTopics; topic++) {
-			logLikelihood -= 
-				Dirichlet.logGammaStirling( (beta * numTopics) +
-											tokensPerTopic[ topic ] );
+		try {
+			return likelihood().modelLogLikelihood(likelihoodExecutor, likelihoodTasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Double.NaN;
 		}
-	
-		logLikelihood += 
-			(Dirichlet.logGammaStirling(beta * numTopics)) -
-			(Dirichlet.logGammaStirling(beta) * nonZeroTypeTopics);
-	
-		return logLikelihood;
 	}
 	
 	// Recommended to use mallet/bin/vectors2topics instead.
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics;
+
+import cc.mallet.types.*;
+import cc.mallet.util.Randoms;
+import edu.kaist.irlab.textcontrol.SparseFeatureMatrix;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Topic inference for new documents under a trained (Balance) Weighted Topic Model, based on Mallet Source
+ * 'TopicInferencer'. The type/topic counts, topic totals, term weights and balance terms of the model are frozen;
+ * only the topic assignments of the new document are sampled, with the same conditional as the model's last
+ * iterations. Documents must be piped with the training alphabet. Out of vocabulary words are ignored.
+ * <p/>
+ * The returned topic features are the same proportions the model writes for its training documents,
+ * (alpha + count) / (docLength + alphaSum), averaged over the saved samples.
+ *
+ * @author Seonggyu Lee
+ */
+public class WeightedTopicInferencer implements Serializable {
+
+    protected int numTopics;
+
+    // These values are used to encode type/topic counts as
+    //  count/topic pairs in a single int.
+    protected int topicMask;
+    protected int topicBits;
+
+    protected int numTypes;
+
+    protected double[] alpha;
+    protected double alphaSum;
+    protected double beta;
+    protected double betaSum;
+
+    protected int[][] typeTopicCounts; // indexed by <feature index, nonzero topic index>
+    protected int[] tokensPerTopic; // indexed by <topic index>
+    protected double[] weightSumPerTopic; // sum_w n_{w|t} * typeTopicWeight[w], indexed by <topic index>
+    protected double[] typeTopicWeight; // indexed by <feature index>
+    protected double[] balancePerTopic; // indexed by <topic index>
+    protected boolean useWeightedCounts; // the model sampled with weighted topic counts in its last iteration
+    protected double[] topicNormalizers; // denominator of each topic in all sampling buckets, indexed by <topic index>
+
+    protected Alphabet alphabet;
+
+    protected int randomSeed;
+
+    protected double smoothingOnlyMass = 0.0;
+
+    public WeightedTopicInferencer(int[][] typeTopicCounts, int[] tokensPerTopic, double[] typeTopicWeight,
+                                   double[] balancePerTopic, boolean useWeightedCounts, Alphabet alphabet,
+                                   double[] alpha, double beta, double betaSum) {
+        this.typeTopicCounts = typeTopicCounts;
+        this.tokensPerTopic = tokensPerTopic;
+        this.typeTopicWeight = typeTopicWeight;
+        this.balancePerTopic = balancePerTopic;
+        this.useWeightedCounts = useWeightedCounts;
+        this.alphabet = alphabet;
+
+        numTopics = tokensPerTopic.length;
+        numTypes = typeTopicCounts.length;
+
+        if (Integer.bitCount(numTopics) == 1) {
+            // exact power of 2
+            topicMask = numTopics - 1;
+            topicBits = Integer.bitCount(topicMask);
+        }
+        else {
+            // otherwise add an extra bit
+            topicMask = Integer.highestOneBit(numTopics) * 2 - 1;
+            topicBits = Integer.bitCount(topicMask);
+        }
+
+        this.alpha = alpha;
+        this.beta = beta;
+        this.betaSum = betaSum;
+
+        initializeCachedValues();
+        randomSeed = new Randoms().nextInt();
+    }
+
+    // Topic weight sums and the smoothing-only bucket follow from the frozen counts
+    private void initializeCachedValues() {
+        weightSumPerTopic = new double[numTopics];
+        for (int type = 0; type < numTypes; type++) {
+            int[] currentTypeTopicCounts = typeTopicCounts[type];
+            int index = 0;
+            while (index < currentTypeTopicCounts.length &&
+                    currentTypeTopicCounts[index] > 0) {
+                weightSumPerTopic[currentTypeTopicCounts[index] & topicMask]+=
+                        (currentTypeTopicCounts[index] >> topicBits)*typeTopicWeight[type];
+                index++;
+            }
+        }
+
+        alphaSum = 0.0;
+        smoothingOnlyMass = 0.0;
+        topicNormalizers = new double[numTopics];
+        for (int topic = 0; topic < numTopics; topic++) {
+            topicNormalizers[topic] = (useWeightedCounts ? weightSumPerTopic[topic] : tokensPerTopic[topic]) + betaSum;
+            alphaSum += alpha[topic];
+            smoothingOnlyMass += alpha[topic] * beta / topicNormalizers[topic];
+        }
+    }
+
+    public int getNumTopics() { return numTopics; }
+    public Alphabet getAlphabet() { return alphabet; }
+
+    /** Each document is sampled with its own random numbers from this seed and its index, so results do not depend on the threads. */
+    public void setRandomSeed(int seed) {
+        randomSeed = seed;
+    }
+
+    /**
+     *  Use Gibbs sampling to infer the topic features of one document.
+     *  Topics are initialized to the most probable topic for each token.
+     *  Using zero iterations returns exactly this initial topic distribution.
+     */
+    public double[] getSampledDistribution(Instance instance, int numIterations, int thinning, int burnIn) {
+        return new Sampler().sample(instance, numIterations, thinning, burnIn, new Randoms(randomSeed));
+    }
+
+    /**
+     *  Infer the topic features of every instance, with the documents split between <code>numThreads</code> threads.
+     */
+    public double[][] getSampledDistributions(final InstanceList instances, final int numIterations,
+                                              final int thinning, final int burnIn, int numThreads) throws IOException {
+        final double[][] distributions = new double[instances.size()][];
+        numThreads = Math.max(1, Math.min(numThreads, instances.size()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+        int docsPerThread = instances.size() / numThreads;
+        int offset = 0;
+        for (int thread = 0; thread < numThreads; thread++) {
+            final int startDoc = offset;
+            final int endDoc = thread == numThreads - 1 ? instances.size() : offset + docsPerThread;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    Sampler sampler = new Sampler();
+                    for (int doc = startDoc; doc < endDoc; doc++) {
+                        distributions[doc] = sampler.sample(instances.get(doc), numIterations, thinning, burnIn,
+                                new Randoms(randomSeed + doc));
+                    }
+                }
+            }));
+            offset = endDoc;
+        }
+        executor.shutdown();
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Topic inference was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Topic inference failed.", e.getCause());
+        }
+        return distributions;
+    }
+
+    /**
+     *  Infer the topic features of the instances and write them in the format of
+     *   {@link WeightedLDAHyper#printDocumentTopicsSvmStyle(File)}.
+     */
+    public void printDocumentTopicsSvmStyle(InstanceList instances, File f, int numIterations, int thinning,
+                                            int burnIn, int numThreads) throws IOException {
+        double[][] distributions = getSampledDistributions(instances, numIterations, thinning, burnIn, numThreads);
+
+        PrintWriter out = new PrintWriter(new FileWriter(f));
+        out.print ("#LabelNum topic proportion ... #docName\n");
+        for (int doc = 0; doc < instances.size(); doc++) {
+            Instance instance = instances.get(doc);
+            StringBuilder builder = new StringBuilder();
+            if (instance.getTarget() != null) {
+                builder.append(((Label) instance.getTarget()).getIndex()+1);
+            }
+            else {
+                builder.append("0");
+            }
+            builder.append(" ");
+            for (int topic = 0; topic < numTopics; topic++) {
+                builder.append((topic+1) + ":" + distributions[doc][topic] + " ");
+            }
+            builder.append("#"+instance.getName());
+            out.println(builder);
+        }
+        out.close();
+    }
+
+    /**
+     *  Infer the topic features of the instances and write them as a binary {@link SparseFeatureMatrix},
+     *   like {@link WeightedLDAHyper#writeDocumentTopicsMatrix(File)}.
+     */
+    public void writeDocumentTopicsMatrix(InstanceList instances, File f, int numIterations, int thinning,
+                                          int burnIn, int numThreads) throws IOException {
+        double[][] distributions = getSampledDistributions(instances, numIterations, thinning, burnIn, numThreads);
+
+        SparseFeatureMatrix.Writer writer = new SparseFeatureMatrix.Writer(f, numTopics, instances.getTargetAlphabet(), null);
+        for (int doc = 0; doc < instances.size(); doc++) {
+            Instance instance = instances.get(doc);
+            int label = instance.getTarget() != null ? ((Label) instance.getTarget()).getIndex() : -1;
+            writer.startRow(label, instance.getName().toString());
+            for (int topic = 0; topic < numTopics; topic++) {
+                writer.addEntry(topic, distributions[doc][topic]);
+            }
+        }
+        writer.close();
+    }
+
+    /**
+     *  The buffers for sampling one document at a time. One sampler is used by one thread only.
+     */
+    protected class Sampler {
+        int[] localTopicCounts = new int[numTopics];
+        double[] localTopicWeights = new double[numTopics];
+        double[] cachedCoefficients = new double[numTopics];
+        double[] topicTermScores = new double[numTopics];
+        int[] topics = new int[0];
+        double[] tokenWeights = new double[0];
+
+        // The document part of a topic, as in WeightedWorkerRunnable
+        double localTopicMass(int topic) {
+            return useWeightedCounts ? localTopicWeights[topic]*balancePerTopic[topic] : localTopicCounts[topic];
+        }
+
+        // The coefficient of n_{w|t} in the topic/term bucket
+        double coefficient(int topic) {
+            return (alpha[topic] + localTopicMass(topic)) / topicNormalizers[topic];
+        }
+
+        double[] sample(Instance instance, int numIterations, int thinning, int burnIn, Randoms random) {
+            FeatureSequence tokens = (FeatureSequence) instance.getData();
+            int docLength = tokens.size();
+            if (topics.length < docLength) {
+                topics = new int[docLength];
+                tokenWeights = new double[docLength];
+            }
+            Arrays.fill(localTopicCounts, 0);
+            Arrays.fill(localTopicWeights, 0.0);
+
+            int type;
+            int[] currentTypeTopicCounts;
+
+            // Term weight per each token, normalized so that the sum is the number of known tokens
+            int knownTokens = 0;
+            double weightSum = 0.0;
+            for (int position = 0; position < docLength; position++) {
+                type = tokens.getIndexAtPosition(position);
+                if (type < numTypes && typeTopicCounts[type].length != 0) {
+                    tokenWeights[position] = typeTopicWeight[type];
+                    weightSum += tokenWeights[position];
+                    knownTokens++;
+                }
+            }
+            for (int position = 0; position < docLength; position++) {
+                tokenWeights[position] = weightSum > 0 ? tokenWeights[position]*knownTokens/weightSum : 0.0;
+            }
+
+            // Initialize all positions to the most common topic for that type.
+            for (int position = 0; position < docLength; position++) {
+                type = tokens.getIndexAtPosition(position);
+
+                // Ignore out of vocabulary terms
+                if (type < numTypes && typeTopicCounts[type].length != 0) {
+                    topics[position] = typeTopicCounts[type][0] & topicMask;
+                    localTopicCounts[topics[position]]++;
+                    localTopicWeights[topics[position]]+=tokenWeights[position];
+                }
+            }
+
+            double topicBetaMass = 0.0;
+            for (int topic = 0; topic < numTopics; topic++) {
+                topicBetaMass += beta * localTopicMass(topic) / topicNormalizers[topic];
+                cachedCoefficients[topic] = coefficient(topic);
+            }
+
+            double[] result = new double[numTopics];
+            double sum = 0.0;
+
+            for (int iteration = 1; iteration <= numIterations; iteration++) {
+
+                //  Iterate over the positions (words) in the document
+                for (int position = 0; position < docLength; position++) {
+                    type = tokens.getIndexAtPosition(position);
+
+                    // ignore out-of-vocabulary terms
+                    if (type >= numTypes || typeTopicCounts[type].length == 0) { continue; }
+
+                    int oldTopic = topics[position];
+                    currentTypeTopicCounts = typeTopicCounts[type];
+
+                    // Remove this token from the document counts. The model counts are clamped.
+                    topicBetaMass -= beta * localTopicMass(oldTopic) / topicNormalizers[oldTopic];
+                    localTopicCounts[oldTopic]--;
+                    localTopicWeights[oldTopic]-=tokenWeights[position];
+                    if (localTopicCounts[oldTopic] == 0) localTopicWeights[oldTopic] = 0.0; // no rounding residue
+                    topicBetaMass += beta * localTopicMass(oldTopic) / topicNormalizers[oldTopic];
+                    cachedCoefficients[oldTopic] = coefficient(oldTopic);
+
+                    double topicTermMass = 0.0;
+                    int index = 0;
+                    while (index < currentTypeTopicCounts.length &&
+                            currentTypeTopicCounts[index] > 0) {
+                        int currentTopic = currentTypeTopicCounts[index] & topicMask;
+                        int currentValue = currentTypeTopicCounts[index] >> topicBits;
+
+                        double score = cachedCoefficients[currentTopic] * currentValue;
+                        topicTermMass += score;
+                        topicTermScores[index] = score;
+                        index++;
+                    }
+
+                    double sample = random.nextUniform() * (smoothingOnlyMass + topicBetaMass + topicTermMass);
+                    int newTopic = -1;
+
+                    if (sample < topicTermMass) {
+                        int i = -1;
+                        while (sample > 0) {
+                            i++;
+                            sample -= topicTermScores[i];
+                        }
+                        newTopic = currentTypeTopicCounts[i] & topicMask;
+                    }
+                    else {
+                        sample -= topicTermMass;
+
+                        if (sample < topicBetaMass) {
+                            sample /= beta;
+                            for (int topic = 0; topic < numTopics; topic++) {
+                                if (localTopicCounts[topic] == 0) { continue; }
+                                newTopic = topic; // the last non-zero topic catches rounding errors
+                                sample -= localTopicMass(topic) / topicNormalizers[topic];
+                                if (sample <= 0.0) { break; }
+                            }
+                        }
+                        else {
+                            sample -= topicBetaMass;
+                            sample /= beta;
+
+                            newTopic = 0;
+                            sample -= alpha[newTopic] / topicNormalizers[newTopic];
+                            while (sample > 0.0 && newTopic < numTopics - 1) {
+                                newTopic++;
+                                sample -= alpha[newTopic] / topicNormalizers[newTopic];
+                            }
+                        }
+                    }
+
+                    topics[position] = newTopic;
+
+                    topicBetaMass -= beta * localTopicMass(newTopic) / topicNormalizers[newTopic];
+                    localTopicCounts[newTopic]++;
+                    localTopicWeights[newTopic]+=tokenWeights[position];
+                    topicBetaMass += beta * localTopicMass(newTopic) / topicNormalizers[newTopic];
+                    cachedCoefficients[newTopic] = coefficient(newTopic);
+                }
+
+                if (iteration > burnIn &&
+                        (iteration - burnIn) % thinning == 0) {
+
+                    // Save a sample
+                    for (int topic=0; topic < numTopics; topic++) {
+                        result[topic] += alpha[topic] + localTopicCounts[topic];
+                        sum += alpha[topic] + localTopicCounts[topic];
+                    }
+                }
+            }
+
+            if (sum == 0.0) {
+                // Save at least one sample
+                for (int topic=0; topic < numTopics; topic++) {
+                    result[topic] = alpha[topic] + localTopicCounts[topic];
+                    sum += result[topic];
+                }
+            }
+
+            // Normalize
+            for (int topic=0; topic < numTopics; topic++) {
+                result[topic] /= sum;
+            }
+            return result;
+        }
+    }
+
+    public void write(File f) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f));
+        oos.writeObject(this);
+        oos.close();
+    }
+
+    public static WeightedTopicInferencer read(File f) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f));
+        WeightedTopicInferencer inferencer = (WeightedTopicInferencer) ois.readObject();
+        ois.close();
+        return inferencer;
+    }
+
+    // Serialization
+
+    private static final long serialVersionUID = 1;
+    private static final int CURRENT_SERIAL_VERSION = 0;
+
+    private void writeObject (ObjectOutputStream out) throws IOException {
+        out.writeInt (CURRENT_SERIAL_VERSION);
+
+        out.writeObject(alphabet);
+        out.writeInt(numTopics);
+        out.writeInt(topicMask);
+        out.writeInt(topicBits);
+        out.writeInt(numTypes);
+
+        out.writeObject(alpha);
+        out.writeDouble(beta);
+        out.writeDouble(betaSum);
+
+        out.writeObject(typeTopicCounts);
+        out.writeObject(tokensPerTopic);
+        out.writeObject(typeTopicWeight);
+        out.writeObject(balancePerTopic);
+        out.writeBoolean(useWeightedCounts);
+
+        out.writeInt(randomSeed);
+    }
+
+    private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int version = in.readInt ();
+
+        alphabet = (Alphabet) in.readObject();
+        numTopics = in.readInt();
+        topicMask = in.readInt();
+        topicBits = in.readInt();
+        numTypes = in.readInt();
+
+        alpha = (double[]) in.readObject();
+        beta = in.readDouble();
+        betaSum = in.readDouble();
+
+        typeTopicCounts = (int[][]) in.readObject();
+        tokensPerTopic = (int[]) in.readObject();
+        typeTopicWeight = (double[]) in.readObject();
+        balancePerTopic = (double[]) in.readObject();
+        useWeightedCounts = in.readBoolean();
+
+        randomSeed = in.readInt();
+
+        initializeCachedValues();
+    }
+}
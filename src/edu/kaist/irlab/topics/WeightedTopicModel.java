@@ -10,11 +10,17 @@
 package edu.kaist.irlab.topics;
 
 import cc.mallet.types.*;
+import cc.mallet.util.Randoms;
+import edu.kaist.irlab.textcontrol.SparseFeatureMatrix;
 import edu.kaist.irlab.textcontrol.TermWeight;
-import gnu.trove.TIntIntHashMap;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * WeightedTopicModel based on Mallet Source 'DMRTopicModel'.
@@ -27,15 +33,9 @@ public class WeightedTopicModel extends WeightedLDAHyper {
     int numFeatures;
     int defaultFeatureIndex;
 
-    public static int numTopics = 50;
-    public static double initAlphaSum = 50;
-    public static int burnOverIteration = 100; // Variance Term Weighting start over than this iteration
-    private static String filePreName; //pre name of output file name
-    public static int burnInPeriod =  40;// This number used for async Dirichlet alpha prior
-    private static String idfWeight; //pre name of output file name
-    private static String testFileNameForEmpiricalLikelihood; //This file would be used for Empirical Likelihood
+    protected String idfWeight; // IDF Term Weight object file name. null if IDF weighting is not used.
 
-    public static String likelihoodLog = "";
+    public String likelihoodLog = "";
 
 //    Pipe parameterPipe = null;
 //    Pipe invParameterPipe = null;
@@ -47,21 +47,337 @@ public class WeightedTopicModel extends WeightedLDAHyper {
     protected double[] balancePerTopic; // indexed by <topic index>
     protected double[] balancePerTopicOneDoc; // indexed by <topic index>
 
+    int numThreads = 1;
+
+    protected double[] typeWeightSumPerTopic; // sum_w n_{w|t} * typeTopicWeight[w] before normalization, indexed by <topic index>
+    protected double weightRate = 1.0; // normalizes the term weights to one per token
+    protected boolean[] dirtyTypes; // types with a token that changed topic since their weight was computed
+    protected int[] weightedTokensPerTopic; // topic totals at the last full term weight computation
+    protected boolean varianceWeights = false; // whether typeTopicWeight holds variance weights
+    protected double weightRefreshTolerance = 0.0;
+    protected boolean asyncLikelihood = false;
+
     public WeightedTopicModel(int numberOfTopics, double initAlphaSum) {
 		super(numberOfTopics, initAlphaSum);
 	}
 
+    public void setNumThreads(int threads) {
+        this.numThreads = threads;
+    }
+
+    /**
+     *  Variance weights depend on every topic total. Between full recomputations only the weights
+     *   of types whose counts changed are updated, as long as no topic total moved by more than
+     *   this fraction. The default 0 recomputes all weights every iteration, which is exact;
+     *   a tolerance above 0 trades the exact weights for speed, and changes the sampled topics.
+     */
+    public void setWeightRefreshTolerance(double tolerance) {
+        this.weightRefreshTolerance = tolerance;
+    }
+
+    /**
+     *  Compute the empirical likelihood and the model log likelihood on a copy of the counts,
+     *   on other threads, while sampling goes on. The results are printed and logged when they are ready.
+     */
+    public void setAsyncLikelihood(boolean asyncLikelihood) {
+        this.asyncLikelihood = asyncLikelihood;
+    }
+
+    public void setIdfTermWeightFile(String idfWeight) {
+        this.idfWeight = idfWeight;
+    }
+
+    /**
+     *  Split the documents into one block per thread. Each worker gets its own copy
+     *  of the type/topic counts, the topic totals and the topic weight sums.
+     *  A single worker samples the model's own arrays and needs no merge step.
+     */
+    protected WeightedWorkerRunnable[] makeRunnables() {
+        WeightedWorkerRunnable[] runnables = new WeightedWorkerRunnable[numThreads];
+
+        int docsPerThread = numDocuments() / numThreads;
+        int offset = 0;
+
+        if (numThreads > 1) {
+
+            for (int thread = 0; thread < numThreads; thread++) {
+                int[][] runnableCounts = new int[numTypes][];
+                for (int type = 0; type < numTypes; type++) {
+                    runnableCounts[type] = typeTopicCounts[type].clone();
+                }
+
+                // some docs may be missing at the end due to integer division
+                if (thread == numThreads - 1) {
+                    docsPerThread = numDocuments() - offset;
+                }
+
+                runnables[thread] = newRunnable(new Randoms(random.nextInt()),
+                        runnableCounts, tokensPerTopic.clone(), weightSumPerTopic.clone(),
+                        offset, docsPerThread);
+                runnables[thread].initializeAlphaStatistics();
+
+                offset += docsPerThread;
+            }
+        }
+        else {
+
+            // If there is only one thread, copy the typeTopicCounts
+            //  arrays directly, rather than allocating new memory.
+
+            runnables[0] = newRunnable(random,
+                    typeTopicCounts, tokensPerTopic, weightSumPerTopic,
+                    offset, docsPerThread);
+            runnables[0].initializeAlphaStatistics();
+
+            // If there is only one thread, we
+            //  can avoid communications overhead.
+            // This switch informs the thread not to
+            //  gather statistics for its portion of the data.
+            runnables[0].makeOnlyThread();
+        }
+        return runnables;
+    }
+
+    /** A worker that samples the documents from <code>startDoc</code> on with the given counts. */
+    protected WeightedWorkerRunnable newRunnable(Randoms random, int[][] typeTopicCounts,
+                                                 int[] tokensPerTopic, double[] weightSumPerTopic,
+                                                 int startDoc, int numDocs) {
+        return new WeightedWorkerRunnable(numTopics,
+                alpha, alphaSum, beta, betaSum,
+                random, data,
+                typeTopicCounts, tokensPerTopic, weightSumPerTopic,
+                startDoc, numDocs);
+    }
+
+    /**
+     *  Run one sweep on every worker, then sum the workers' local counts into the
+     *  global counts and copy the result back to the workers for the next sweep.
+     */
+    protected void sampleWithRunnables(WeightedWorkerRunnable[] runnables, ExecutorService executor,
+                                       boolean useVarianceTopicModel) throws IOException {
+        List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+        for (int thread = 0; thread < numThreads; thread++) {
+            runnables[thread].resetAlpha(alpha, alphaSum);
+            runnables[thread].setIterationWeights(typeTopicWeight, balancePerTopic,
+                    useVarianceTopicModel, useBetaWeightedModel);
+            runnables[thread].setDirtyTypes(dirtyTypes);
+            System.arraycopy(weightSumPerTopic, 0, runnables[thread].getWeightSumPerTopic(), 0, numTopics);
+            if (executor == null) {
+                runnables[thread].run();
+            } else {
+                futures.add(executor.submit(runnables[thread]));
+            }
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Weighted topic sampling was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Weighted topic sampling failed.", e.getCause());
+        }
+
+        if (numThreads == 1) { return; }
+
+        // Merge
+        Arrays.fill(tokensPerTopic, 0);
+        for (int type = 0; type < numTypes; type++) {
+            // Here the global counts are cleared only up to the first zero entry
+            int[] targetCounts = typeTopicCounts[type];
+            int position = 0;
+            while (position < targetCounts.length && targetCounts[position] > 0) {
+                targetCounts[position] = 0;
+                position++;
+            }
+        }
+        for (int thread = 0; thread < numThreads; thread++) {
+            int[] sourceTotals = runnables[thread].getTokensPerTopic();
+            for (int topic = 0; topic < numTopics; topic++) {
+                tokensPerTopic[topic] += sourceTotals[topic];
+            }
+            int[][] sourceTypeTopicCounts = runnables[thread].getTypeTopicCounts();
+            for (int type = 0; type < numTypes; type++) {
+                int[] sourceCounts = sourceTypeTopicCounts[type];
+
+                int sourceIndex = 0;
+                while (sourceIndex < sourceCounts.length &&
+                        sourceCounts[sourceIndex] > 0) {
+                    int topic = sourceCounts[sourceIndex] & topicMask;
+                    int count = sourceCounts[sourceIndex] >> topicBits;
+
+                    addTypeTopicCount(typeTopicCounts[type], topic, count);
+
+                    sourceIndex++;
+                }
+            }
+        }
+
+        // Broadcast
+        for (int thread = 0; thread < numThreads; thread++) {
+            System.arraycopy(tokensPerTopic, 0, runnables[thread].getTokensPerTopic(), 0, numTopics);
+            int[][] targetTypeTopicCounts = runnables[thread].getTypeTopicCounts();
+            for (int type = 0; type < numTypes; type++) {
+                int[] targetCounts = targetTypeTopicCounts[type];
+                int[] sourceCounts = typeTopicCounts[type];
+                System.arraycopy(sourceCounts, 0, targetCounts, 0, sourceCounts.length);
+            }
+        }
+    }
+
+    /** Print and log the likelihoods of an iteration. The empirical likelihood is NaN without testing instances. */
+    protected void reportLikelihood(int iteration, double el, double ll) {
+        if (!Double.isNaN(el)) {
+            System.out.println("Empirical Likelihood: "+el+"\t"+ "model log likelihood: "+ll + "\t");
+            likelihoodLog+="Iteration Num:\t"+iteration+"\t"+"Empirical Likelihood:\t"+el+"\t"+ "model log likelihood:\t"+ll + "\t"+"\n";
+        }else{
+            System.out.println("model log likelihood : "+ll);
+            likelihoodLog+="Iteration Num:\t"+iteration+"\t"+ "model log likelihood:\t"+ll + "\t"+"\n";
+        }
+    }
+
+    /** Likelihoods of a snapshot, as { iteration, empirical likelihood (NaN without testing instances), model log likelihood }. */
+    protected static Callable<double[]> likelihoodTask(final int iteration, final TopicModelLikelihood snapshot,
+                                                       final InstanceList testing,
+                                                       final ExecutorService executor, final int numTasks) {
+        return new Callable<double[]>() {
+            public double[] call() throws InterruptedException {
+                double el = testing != null ? snapshot.empiricalLikelihood(1000, testing, executor, numTasks) : Double.NaN;
+                double ll = snapshot.modelLogLikelihood(executor, numTasks);
+                return new double[] { iteration, el, ll };
+            }
+        };
+    }
+
+    /** Report the finished likelihoods in iteration order. If <code>wait</code>, wait for all of them. */
+    protected void reportLikelihoods(LinkedList<Future<double[]>> pending, boolean wait) throws IOException {
+        try {
+            while (!pending.isEmpty() && (wait || pending.getFirst().isDone())) {
+                double[] likelihoods = pending.removeFirst().get();
+                System.out.print("<" + (int) likelihoods[0] + "> ");
+                reportLikelihood((int) likelihoods[0], likelihoods[1], likelihoods[2]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Likelihood evaluation was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Likelihood evaluation failed.", e.getCause());
+        }
+    }
+
+    /**
+     *  Gather the workers' document/topic histograms for Dirichlet estimation.
+     */
+    protected void sumAlphaStatistics(WeightedWorkerRunnable[] runnables) {
+        for (int thread = 0; thread < numThreads; thread++) {
+            CountHistograms sourceStatistics = runnables[thread].getAlphaStatistics();
+            alphaStatistics.addAll(sourceStatistics);
+            sourceStatistics.clear();
+        }
+    }
+
+    /**
+     *  The weight of a type: its IDF if an IDF term weight file is given,
+     *   otherwise its topic variance in the weighted phase, otherwise 1.
+     */
+    protected double getTypeWeight(int type, boolean useVarianceTopicModel) {
+        if (idfTermWeight != null) return idfTermWeight[type];
+        if (useVarianceTopicModel) return getVarianceFromMap(typeTopicCounts[type], numTopics);
+        return 1.0;
+    }
+
+    /**
+     *  Compute the weight of every type and rebuild the weighted topic sums from the counts.
+     */
+    protected void initializeTypeWeights(WeightedWorkerRunnable[] runnables, boolean useVarianceTopicModel) {
+        if (typeTopicWeight == null || typeTopicWeight.length != numTypes) {
+            typeTopicWeight = new double[numTypes];
+        }
+        if (typeWeightSumPerTopic == null) {
+            typeWeightSumPerTopic = new double[numTopics];
+        }
+        Arrays.fill(typeWeightSumPerTopic, 0.0);
+
+        for (int type=0; type < numTypes; type++) {
+            typeTopicWeight[type] = getTypeWeight(type, useVarianceTopicModel);
+
+            int[] currentTypeTopicCounts = typeTopicCounts[type];
+            int index = 0;
+            while (index < currentTypeTopicCounts.length &&
+                    currentTypeTopicCounts[index] > 0) {
+                typeWeightSumPerTopic[currentTypeTopicCounts[index] & topicMask]+=
+                        (currentTypeTopicCounts[index] >> topicBits)*typeTopicWeight[type];
+                index++;
+            }
+        }
+
+        // The sampling deltas are already included in the rebuilt sums
+        for (WeightedWorkerRunnable runnable : runnables) {
+            Arrays.fill(runnable.getTypeWeightDeltaPerTopic(), 0.0);
+        }
+        Arrays.fill(dirtyTypes, false);
+        weightedTokensPerTopic = tokensPerTopic.clone();
+        varianceWeights = useVarianceTopicModel;
+    }
+
+    /**
+     *  Add the workers' topic changes to the weighted topic sums and
+     *   recompute the weights of the types whose counts changed.
+     */
+    protected void updateTypeWeights(WeightedWorkerRunnable[] runnables, boolean useVarianceTopicModel) {
+        for (WeightedWorkerRunnable runnable : runnables) {
+            double[] delta = runnable.getTypeWeightDeltaPerTopic();
+            for (int topic = 0; topic < numTopics; topic++) {
+                typeWeightSumPerTopic[topic]+=delta[topic];
+            }
+            Arrays.fill(delta, 0.0);
+        }
+
+        // Fixed weights (uniform or IDF) do not depend on the counts.
+        if (!useVarianceTopicModel || idfTermWeight != null) {
+            Arrays.fill(dirtyTypes, false);
+            return;
+        }
+
+        for (int type=0; type < numTypes; type++) {
+            if (!dirtyTypes[type]) { continue; }
+            dirtyTypes[type] = false;
+
+            double oldWeight = typeTopicWeight[type];
+            typeTopicWeight[type] = getTypeWeight(type, true);
+            double weightChange = typeTopicWeight[type] - oldWeight;
+
+            int[] currentTypeTopicCounts = typeTopicCounts[type];
+            int index = 0;
+            while (index < currentTypeTopicCounts.length &&
+                    currentTypeTopicCounts[index] > 0) {
+                typeWeightSumPerTopic[currentTypeTopicCounts[index] & topicMask]+=
+                        (currentTypeTopicCounts[index] >> topicBits)*weightChange;
+                index++;
+            }
+        }
+    }
+
+    /**
+     *  Variance weights of unchanged types go stale as the topic totals move.
+     *  Ask for a full recomputation once any topic total moved by more than the tolerance.
+     */
+    protected boolean shouldRefreshTypeWeights(boolean useVarianceTopicModel) {
+        if (!useVarianceTopicModel || idfTermWeight != null) return false;
+        for (int topic = 0; topic < numTopics; topic++) {
+            int change = Math.abs(tokensPerTopic[topic] - weightedTokensPerTopic[topic]);
+            if (change > weightRefreshTolerance * weightedTokensPerTopic[topic]) return true;
+        }
+        return false;
+    }
+
 	public void estimate (int iterationsThisRound) throws IOException {
         likelihoodLog = "";
 
-        numFeatures = data.get(0).instance.getTargetAlphabet().size() + 1;
+        numFeatures = documentTargetAlphabet().size() + 1;
         defaultFeatureIndex = numFeatures - 1;
 
-		int numDocs = data.size(); // TODO consider beginning by sub-sampling?
-
-		alphaCache = new double[numDocs][numTopics];
-        alphaSumCache = new double[numDocs];
-
 		long startTime = System.currentTimeMillis();
         int maxIteration = iterationsSoFar + iterationsThisRound;
 
@@ -85,133 +401,150 @@ public class WeightedTopicModel extends WeightedLDAHyper {
         }
 
 
-        // Main Iteration Start
-        for ( ; iterationsSoFar <= maxIteration; iterationsSoFar++) {
-            long iterationStart = System.currentTimeMillis();
-            boolean useVarianceTopicModel = (burnOverIteration<iterationsSoFar);
-            useBetaWeightedModel = useVarianceTopicModel;
-
-            //Print likelihood
-            if (showTopicsInterval != 0 && iterationsSoFar != 0 && iterationsSoFar % 50 == 0) { // 50단위로 likelihood 계산
-                System.out.println();
-                // evaluation likelihood
-                if (testing != null) {
-                    double el = empiricalLikelihood(1000, testing);
-                    double ll = modelLogLikelihood();
-                    System.out.println("Empirical Likelihood: "+el+"\t"+ "model log likelihood: "+ll + "\t");
-                    likelihoodLog+="Iteration Num:\t"+iterationsSoFar+"\t"+"Empirical Likelihood:\t"+el+"\t"+ "model log likelihood:\t"+ll + "\t"+"\n";
-                }else{
-                    double ll = modelLogLikelihood();
-                    System.out.println("model log likelihood : "+ll);
-                    likelihoodLog+="Iteration Num:\t"+iterationsSoFar+"\t"+ "model log likelihood:\t"+ll + "\t"+"\n";
+        typeTopicWeight = null; // computed from scratch in the first iteration
+        dirtyTypes = new boolean[numTypes];
+        WeightedWorkerRunnable[] runnables = makeRunnables();
+        ExecutorService executor = null;
+        if (numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads);
+        }
+        likelihoodExecutor = executor;
+        likelihoodTasks = numThreads;
+
+        // Likelihoods of earlier iterations, computed on snapshots while sampling goes on
+        ExecutorService likelihoodThread = null;
+        ExecutorService likelihoodPool = null;
+        LinkedList<Future<double[]>> pendingLikelihoods = new LinkedList<Future<double[]>>();
+        if (asyncLikelihood) {
+            likelihoodThread = Executors.newSingleThreadExecutor();
+            if (numThreads > 1) likelihoodPool = Executors.newFixedThreadPool(numThreads);
+        }
+
+        try {
+            // Main Iteration Start
+            for ( ; iterationsSoFar <= maxIteration; iterationsSoFar++) {
+                long iterationStart = System.currentTimeMillis();
+                boolean useVarianceTopicModel = (burnOverIteration<iterationsSoFar);
+                useBetaWeightedModel = useVarianceTopicModel;
+
+                //Print likelihood
+                if (showTopicsInterval != 0 && iterationsSoFar != 0 && iterationsSoFar % 50 == 0) { // 50단위로 likelihood 계산
+                    System.out.println();
+                    // evaluation likelihood
+                    if (asyncLikelihood) {
+                        reportLikelihoods(pendingLikelihoods, false);
+                        pendingLikelihoods.add(likelihoodThread.submit(likelihoodTask(iterationsSoFar,
+                                likelihoodSnapshot(), testing, likelihoodPool, numThreads)));
+                    } else {
+                        double el = testing != null ? empiricalLikelihood(1000, testing) : Double.NaN;
+                        double ll = modelLogLikelihood();
+                        reportLikelihood(iterationsSoFar, el, ll);
+                    }
                 }
-            }
 
-            if (showTopicsInterval != 0 && iterationsSoFar != 0 && iterationsSoFar % showTopicsInterval == 0) {
-                System.out.println();
-                printTopWords (System.out, wordsPerTopic, false);
-			}
+                if (showTopicsInterval != 0 && iterationsSoFar != 0 && iterationsSoFar % showTopicsInterval == 0) {
+                    System.out.println();
+                    printTopWords (System.out, wordsPerTopic, false);
+				}
 
-			if (saveStateInterval != 0 && iterationsSoFar % saveStateInterval == 0) {
-                this.printState(new File(stateFilename + '.' + iterationsSoFar + ".gz"));
-            }
+				if (saveStateInterval != 0 && iterationsSoFar % saveStateInterval == 0) {
+                    this.printState(new File(stateFilename + '.' + iterationsSoFar + ".gz"));
+                }
 
-			if (iterationsSoFar > burninPeriod && optimizeInterval != 0 &&
-				iterationsSoFar % optimizeInterval == 0) {
+				if (iterationsSoFar > burninPeriod && optimizeInterval != 0 &&
+					iterationsSoFar % optimizeInterval == 0) {
 
 
-			}
-            // TODO this condition should also check that we have more than one sample to work with here
-            // (The number of samples actually obtained is not yet tracked.)
-            if (iterationsSoFar > burninPeriod && optimizeInterval != 0 &&
-                    iterationsSoFar % optimizeInterval == 0) {
+				}
+                // TODO this condition should also check that we have more than one sample to work with here
+                // (The number of samples actually obtained is not yet tracked.)
+                if (iterationsSoFar > burninPeriod && optimizeInterval != 0 &&
+                        iterationsSoFar % optimizeInterval == 0) {
 
-                alphaSum = Dirichlet.learnParameters(alpha, topicDocCounts, docLengthCounts);
+                    sumAlphaStatistics(runnables);
+                    alphaSum = Dirichlet.learnParameters(alpha, alphaStatistics, 1.00001, 1.0, 200, executor, numThreads);
 
-                smoothingOnlyMass = 0.0;
-                for (int topic = 0; topic < numTopics; topic++) {
-                    smoothingOnlyMass += alpha[topic] * beta / (tokensPerTopic[topic] + betaSum);
-                    if(useBetaWeightedModel){
-                        cachedCoefficients[topic] =  alpha[topic] / (weightSumPerTopic[topic] + betaSum);
-                    }else{
-                    cachedCoefficients[topic] =  alpha[topic] / (tokensPerTopic[topic] + betaSum);
+                    smoothingOnlyMass = 0.0;
+                    for (int topic = 0; topic < numTopics; topic++) {
+                        smoothingOnlyMass += alpha[topic] * beta / (tokensPerTopic[topic] + betaSum);
+                        if(useBetaWeightedModel){
+                            cachedCoefficients[topic] =  alpha[topic] / (weightSumPerTopic[topic] + betaSum);
+                        }else{
+                        cachedCoefficients[topic] =  alpha[topic] / (tokensPerTopic[topic] + betaSum);
+                        }
                     }
+                    clearHistograms();
                 }
-                clearHistograms();
-            }
 
 
-            // For Weighted Topic Model
-            typeTopicWeight = new double[numTypes];
-            if(idfWeight!=null){
-                typeTopicWeight=idfTermWeight;
-            }if(useVarianceTopicModel){
-                for (int type=0; type < numTypes; type++) {
-                    TIntIntHashMap currentTypeTopicCounts = typeTopicCounts[type];  // this is important value similar with beta
-                    typeTopicWeight[type] = getVarianceFromMap(currentTypeTopicCounts, numTopics);
+                // For Weighted Topic Model
+                // Term weights are kept incrementally. Only the types whose counts changed are recomputed,
+                // unless the topic totals moved too far since the last full computation.
+                if (typeTopicWeight == null || varianceWeights != useVarianceTopicModel ||
+                        shouldRefreshTypeWeights(useVarianceTopicModel)) {
+                    initializeTypeWeights(runnables, useVarianceTopicModel);
+                } else {
+                    updateTypeWeights(runnables, useVarianceTopicModel);
                 }
-            }else{
-                Arrays.fill(typeTopicWeight, 1.0);
-            }
-
-
-            // Term Weight normalization
-            Arrays.fill(weightSumPerTopic,0.0);
-            totalWeights = 0.0;
 
-            for (int type=0; type < numTypes; type++) {
-                TIntIntHashMap currentTypeTopicCounts = typeTopicCounts[type];
-                int[] topicTermIndices = currentTypeTopicCounts.keys();
-                int[] topicTermValues = currentTypeTopicCounts.getValues();
-                for (int i = 0; i < topicTermIndices.length; i++) {
-                    double currentWeight = topicTermValues[i]*typeTopicWeight[type];
-                    weightSumPerTopic[topicTermIndices[i]]+=currentWeight;
-                    totalWeights+=currentWeight;
+                // Term Weight normalization
+                // The weights are normalized to one per token only through weightSumPerTopic.
+                // The samplers rescale the weights of each document, so typeTopicWeight itself is left as is.
+                totalWeights = 0.0;
+                for (int topic = 0; topic < numTopics; topic++) {
+                    totalWeights+=typeWeightSumPerTopic[topic];
                 }
-            }
-
-            double weightRate = totalTokens/totalWeights;
-            for (int topic = 0; topic < numTopics; topic++) {
-                weightSumPerTopic[topic]*=weightRate;
-            }
-            for (int type=0; type < numTypes; type++) {
-                typeTopicWeight[type]*=weightRate;
-            }
-            totalWeights*=weightRate;
+                weightRate = totalTokens/totalWeights;
+                for (int topic = 0; topic < numTopics; topic++) {
+                    weightSumPerTopic[topic]=typeWeightSumPerTopic[topic]*weightRate;
+                }
+                totalWeights*=weightRate;
 
-            // Balancing Term
-            for (int topic=0; topic < numTopics; topic++) {
-                if(useBalancedModel&&useVarianceTopicModel) balancePerTopic[topic]=(double) totalTokens/tokensPerTopic[topic]/numTopics;
-                else balancePerTopic[topic]=1.0;
-            }
+                // Balancing Term
+                for (int topic=0; topic < numTopics; topic++) {
+                    if(useBalancedModel&&useVarianceTopicModel) balancePerTopic[topic]=(double) totalTokens/tokensPerTopic[topic]/numTopics;
+                    else balancePerTopic[topic]=1.0;
+                }
 
 
-            // Loop over every document in the corpus
-            // sampling step
-            for (int doc = 0; doc < numDocs; doc++) {
-                FeatureSequence tokenSequence = (FeatureSequence) data.get(doc).instance.getData();
-                LabelSequence topicSequence = data.get(doc).topicSequence;
-                balancePerTopicOneDoc = balancePerTopic.clone();
+                // Loop over every document in the corpus
+                // sampling step
+                sampleWithRunnables(runnables, executor, useVarianceTopicModel); // Sampling Complete
+                if (isCheckpointDue(maxIteration)) {
+                    sumAlphaStatistics(runnables); // the checkpoint keeps the histograms for the next alpha optimization
+                    checkpointIfDue(maxIteration);
+                }
 
-                sampleBalancedTopicsForOneDoc(tokenSequence, topicSequence,
-                        true, false, balancePerTopicOneDoc, useVarianceTopicModel); //shouldSaveState For Dirichlet Estimation
-            } // Sampling Complete
 
+				long ms = System.currentTimeMillis() - iterationStart;
+				if (ms > 1000) {
+					System.out.print(Math.round(ms / 1000) + "s ");
+				}
+				else {
+					System.out.print(ms + "ms ");
+				}
 
-			long ms = System.currentTimeMillis() - iterationStart;
-			if (ms > 1000) {
-				System.out.print(Math.round(ms / 1000) + "s ");
-			}
-			else {
-				System.out.print(ms + "ms ");
-			}
+                if (iterationsSoFar % 10 == 0) {
+                    System.out.println ("<" + iterationsSoFar + "> ");
+                    if (printLogLikelihood) System.out.println (modelLogLikelihood());
+                }
+                System.out.flush();
+			} //Iteration Complete
+
+            reportLikelihoods(pendingLikelihoods, true);
+        } finally {
+            // Also on failure, so that the pools of a failed run do not keep the VM alive
+            if (likelihoodThread != null) likelihoodThread.shutdownNow();
+            if (likelihoodPool != null) likelihoodPool.shutdownNow();
+            likelihoodExecutor = null;
+            if (executor != null) executor.shutdownNow();
+            finishCheckpoints();
+        }
 
-            if (iterationsSoFar % 10 == 0) {
-                System.out.println ("<" + iterationsSoFar + "> ");
-                if (printLogLikelihood) System.out.println (modelLogLikelihood());
-            }
-            System.out.flush();
-		} //Iteration Complete
+        // Report the term weights in the same scale as weightSumPerTopic
+        for (int type=0; type < numTypes; type++) {
+            typeTopicWeight[type]*=weightRate;
+        }
 
 		long seconds = Math.round((System.currentTimeMillis() - startTime)/1000.0);
         long minutes = seconds / 60;    seconds %= 60;
@@ -229,6 +562,11 @@ public class WeightedTopicModel extends WeightedLDAHyper {
         // Create a "fake" pipe with the features in the data and 
         //  a trove int-int hashmap of topic counts in the target.
         
+        int numDocs = data.size(); // TODO consider beginning by sub-sampling?
+        if (alphaCache == null || alphaCache.length != numDocs) {
+            alphaCache = new double[numDocs][numTopics];
+            alphaSumCache = new double[numDocs];
+        }
 
         for (int doc=0; doc < data.size(); doc++) {
             
@@ -317,7 +655,7 @@ public class WeightedTopicModel extends WeightedLDAHyper {
 //        double hurdle =summax*0.9; //
 //        if(sum>hurdle&&useSuperSemi)newValues[0]=1.0;
 
-        return new FeatureVector (data.get(0).instance.getTargetAlphabet(), newIndices, newValues);
+        return new FeatureVector (documentTargetAlphabet(), newIndices, newValues);
     }
 
 
@@ -346,10 +684,12 @@ public class WeightedTopicModel extends WeightedLDAHyper {
         int[] typeCount = new int[numTypes];
         Arrays.fill(typeCount, 0);
         for (int type = 0; type < numTypes; type++) {
-            TIntIntHashMap currentTypeTopicCounts = typeTopicCounts[type];
-            int[] typeCounts = currentTypeTopicCounts.getValues();
-            for (int t = 0; t < typeCounts.length; t++) {
-                typeCount[type]+=typeCounts[t];
+            int[] currentTypeTopicCounts = typeTopicCounts[type];
+            int index = 0;
+            while (index < currentTypeTopicCounts.length &&
+                    currentTypeTopicCounts[index] > 0) {
+                typeCount[type]+=currentTypeTopicCounts[index] >> topicBits;
+                index++;
             }
         }
 
@@ -372,6 +712,26 @@ public class WeightedTopicModel extends WeightedLDAHyper {
     }
 
 
+    /**
+     *  An inferencer for new documents with a copy of the current counts, term weights and balance terms.
+     *  Call it after {@link #estimate(int)}; before any estimation the weights are uniform.
+     */
+    public WeightedTopicInferencer getInferencer() {
+        int[][] typeTopicCountsCopy = new int[numTypes][];
+        for (int type = 0; type < numTypes; type++) {
+            typeTopicCountsCopy[type] = typeTopicCounts[type].clone();
+        }
+        double[] typeWeights = new double[numTypes];
+        if (typeTopicWeight != null) System.arraycopy(typeTopicWeight, 0, typeWeights, 0, numTypes);
+        else Arrays.fill(typeWeights, 1.0);
+        double[] balance = new double[numTopics];
+        if (balancePerTopic != null) System.arraycopy(balancePerTopic, 0, balance, 0, numTopics);
+        else Arrays.fill(balance, 1.0);
+
+        return new WeightedTopicInferencer(typeTopicCountsCopy, tokensPerTopic.clone(), typeWeights, balance,
+                varianceWeights, alphabet, alpha.clone(), beta, betaSum);
+    }
+
     public static TermWeight readTermWeightObject(File parameterFile) throws IOException, ClassNotFoundException {
         ObjectInputStream in = new ObjectInputStream(new FileInputStream(parameterFile));
         TermWeight termWeight = (TermWeight) in.readObject();
@@ -385,7 +745,55 @@ public class WeightedTopicModel extends WeightedLDAHyper {
     private static final int NULL_INTEGER = -1;
 
     public static void execution(String[] args) throws IOException, ClassCastException {
-        //args 0: all files vector. This vector is maded by Text2Vectors or Text2WeightedTopicModel
+        String testFileNameForEmpiricalLikelihood =  args.length > 7 ?  args[7] : null ;
+        InstanceList testingForEL = null;
+        if (testFileNameForEmpiricalLikelihood!=null) testingForEL = InstanceList.load (new File(testFileNameForEmpiricalLikelihood));
+
+        File input = new File(args[0]);
+        if (MappedTokenStore.isStore(input)) {
+            MappedTokenStore store = MappedTokenStore.open(input);
+            try {
+                execution(args, store, testingForEL);
+            } finally {
+                store.close();
+            }
+            return;
+        }
+        if (BinaryInstanceList.isBinary(input)) {
+            // Sample from the mapped columns of the list, with the topics in a directory beside it
+            MappedTokenStore store = MappedTokenStore.create(new File(input.getPath() + ".topics"),
+                    BinaryInstanceList.open(input));
+            try {
+                execution(args, store, testingForEL);
+            } finally {
+                store.close();
+            }
+            return;
+        }
+
+        InstanceList allfiles = InstanceList.load (input);
+        execution(args, allfiles, testingForEL);
+    }
+
+    /**
+     * Same as {@link #execution(String[])}, but with the corpus and the empirical likelihood instances already loaded.
+     * The instance lists are only read, so several models can be trained at the same time on the same lists.
+     */
+    public static void execution(String[] args, InstanceList allfiles, InstanceList testingForEL) throws IOException {
+        execution(args, allfiles, null, testingForEL);
+    }
+
+    /**
+     * Same as {@link #execution(String[])}, trained out of core on the documents of the store
+     * (see {@link MappedWeightedTopicModel}). The topic assignments are left in the store.
+     */
+    public static void execution(String[] args, MappedTokenStore store, InstanceList testingForEL) throws IOException {
+        execution(args, null, store, testingForEL);
+    }
+
+    private static void execution(String[] args, InstanceList allfiles, MappedTokenStore store,
+                                  InstanceList testingForEL) throws IOException {
+        //args 0: all files vector, or a MappedTokenStore directory. This vector is maded by Text2Vectors or Text2WeightedTopicModel
         //args 1: number of topic
         //args 2: alpha Sum
         //args 3: Variance Term Weighting start over than this iteration
@@ -394,35 +802,58 @@ public class WeightedTopicModel extends WeightedLDAHyper {
         //args 6: True/False for Balance Weighted Topic Model
         //args 7: Test file name and location for Empirical Likelihood.
         //args 8: IDF Term Weight File Location
-
-
-        InstanceList allfiles = InstanceList.load (new File(args[0]));
-
-        numTopics = args.length > 1 ? Integer.parseInt(args[1]) : 50;
-        initAlphaSum = args.length > 2 ? Double.parseDouble(args[2]) : 50;
-        burnOverIteration = args.length > 3 ? Integer.parseInt(args[3]) : 100;
-        filePreName =  args.length > 4 ?  args[4] : "None";
-        burnInPeriod =  args.length > 5 ? Integer.parseInt(args[5]) : 200;
-        useBalancedModel =  args.length > 6 ? Boolean.parseBoolean(args[6]) : true;
-        testFileNameForEmpiricalLikelihood =  args.length > 7 ?  args[7] : null ;
-        idfWeight =  args.length > 8 ?  args[8] : null ;
-
-
-        InstanceList testingForEL = null;
-        if (testFileNameForEmpiricalLikelihood!=null) testingForEL = InstanceList.load (new File(testFileNameForEmpiricalLikelihood));
-
-
-        WeightedTopicModel wtm = new WeightedTopicModel(numTopics,initAlphaSum);
+        //args 9: Number of sampling threads
+        //args 10: Write a checkpoint every this many iterations (0: never)
+        //args 11: True/False for resuming from the checkpoint of a previous run
+        //args 12: True/False for computing the likelihoods while sampling goes on
+        //args 13: Variance term weight refresh tolerance (0: exact weights every iteration)
+
+
+
+        int numTopics = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        double initAlphaSum = args.length > 2 ? Double.parseDouble(args[2]) : 50;
+        int burnOverIteration = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        String filePreName =  args.length > 4 ?  args[4] : "None";
+        int burnInPeriod =  args.length > 5 ? Integer.parseInt(args[5]) : 200;
+        boolean useBalancedModel =  args.length > 6 ? Boolean.parseBoolean(args[6]) : true;
+        String idfWeight =  args.length > 8 ?  args[8] : null ;
+        int numThreads =  args.length > 9 && args[9] != null ? Integer.parseInt(args[9]) : 1;
+        int checkpointInterval =  args.length > 10 && args[10] != null ? Integer.parseInt(args[10]) : 0;
+        boolean resume =  args.length > 11 && Boolean.parseBoolean(args[11]);
+        boolean asyncLikelihood =  args.length > 12 && Boolean.parseBoolean(args[12]);
+        double weightRefreshTolerance =  args.length > 13 && args[13] != null ? Double.parseDouble(args[13]) : 0.0;
+        int numIterations = 1000;
+        File checkpointFile = new File(filePreName + "_Checkpoint.bin");
+
+
+        WeightedTopicModel wtm = store != null ?
+                new MappedWeightedTopicModel(numTopics,initAlphaSum) : new WeightedTopicModel(numTopics,initAlphaSum);
         wtm.setOptimizeInterval(100);
         wtm.setTopicDisplay(100, 20);
         wtm.setTestingInstances(testingForEL);
         wtm.setBurninPeriod(burnInPeriod);
         wtm.setBurnOverIteration(burnOverIteration);
-        wtm.addInstances(allfiles);
+        wtm.setUseBalancedModel(useBalancedModel);
+        wtm.setIdfTermWeightFile(idfWeight);
+        wtm.setNumThreads(numThreads);
+        wtm.setAsyncLikelihood(asyncLikelihood);
+        wtm.setWeightRefreshTolerance(weightRefreshTolerance);
+        if (store != null) ((MappedWeightedTopicModel) wtm).addInstances(store);
+        else wtm.addInstances(allfiles);
+        wtm.setCheckpoint(checkpointInterval, checkpointFile);
+
+        if (resume) {
+            if (checkpointFile.isFile()) {
+                wtm.readCheckpoint(checkpointFile);
+                System.out.println("Resume from iteration " + wtm.iterationsSoFar + " of " + checkpointFile);
+            } else {
+                System.out.println("No checkpoint " + checkpointFile + ", start from the first iteration.");
+            }
+        }
 
 
         // Core Step of Topic Model
-        wtm.estimate(1000);
+        wtm.estimate(numIterations - wtm.iterationsSoFar);
 
 
         // Print Output
@@ -430,9 +861,11 @@ public class WeightedTopicModel extends WeightedLDAHyper {
         wtm.printTopWords(new File(filePreName + "_TopWordsPerTopic.txt"), 51, false);
 
         wtm.printDocumentTopicsSvmStyle(new File(filePreName + "_TopicFeaturesPerDoc_Svmlight.txt")); // Topic Features Per all documents
+        wtm.writeDocumentTopicsMatrix(new File(filePreName + "_TopicFeaturesPerDoc" + SparseFeatureMatrix.FILE_SUFFIX)); // Same, binary
         wtm.writeStopwords(new File(filePreName+"_TermWeightList.txt")); // print term weight list
 
         wtm.writeTermWeightObject(new File(filePreName + "_TermWeightObject.ser"));
+        wtm.getInferencer().write(new File(filePreName + "_Inferencer.ser")); // for topic features of new documents
 
     }
 
@@ -0,0 +1,664 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics;
+
+import cc.mallet.types.CountHistograms;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.LabelSequence;
+import cc.mallet.util.Randoms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A parallel (Balance) Weighted Topic Model runnable task based on Mallet Source 'WorkerRunnable'.
+ * Each worker samples a block of documents against its own copy of the type/topic counts,
+ * topic totals and topic weight sums. The model merges the workers' counts after every sweep.
+ *
+ * @author Seonggyu Lee
+ */
+
+public class WeightedWorkerRunnable implements Runnable {
+
+    ArrayList<WeightedLDAHyper.Topication> data;
+    int startDoc, numDocs;
+
+    protected int numTopics; // Number of topics to be fit
+    protected int numTypes;
+
+    // These values are used to encode type/topic counts as
+    //  count/topic pairs in a single int.
+    protected int topicMask;
+    protected int topicBits;
+
+    protected double[] alpha;	 // Dirichlet(alpha,alpha,...) is the distribution over topics
+    protected double alphaSum;
+    protected double beta;   // Prior on per-topic multinomial distribution over words
+    protected double betaSum;
+
+    protected double smoothingOnlyMass = 0.0;
+    protected double[] cachedCoefficients;
+
+    protected int[][] typeTopicCounts; // indexed by <feature index, nonzero topic index>
+    protected int[] tokensPerTopic; // indexed by <topic index>
+    protected double[] weightSumPerTopic; // indexed by <topic index>
+
+    // Shared read-only values of the current iteration. These are set by the model before each sweep.
+    protected double[] typeTopicWeight; // indexed by <feature index>
+    protected double[] balancePerTopic; // indexed by <topic index>
+    protected boolean useVarianceTopicModel = false;
+    protected boolean useBetaWeightedModel = false;
+
+    // Change of sum_w n_{w|t} * typeTopicWeight[w] caused by this worker's sampling, indexed by <topic index>
+    protected double[] typeWeightDeltaPerTopic;
+    // Types with a token that changed topic. Shared by all workers, which only ever set entries to true.
+    protected boolean[] dirtyTypes;
+
+    // for dirichlet estimation
+    protected CountHistograms alphaStatistics; // document sizes and document/topic counts
+
+    boolean shouldSaveState = true;
+    boolean shouldBuildLocalCounts = true;
+
+    protected Randoms random;
+
+    // Per-document buffers, reused across documents to avoid garbage collection overhead.
+    protected double[] oneDocKurtosis = new double[0]; // Term weight per each token
+    protected int[] localTopicCounts;
+    protected int[] localTopicIndex;
+    protected double[] localTopicWeights;
+    protected double[] topicTermScores;
+
+    public WeightedWorkerRunnable(int numTopics,
+                                  double[] alpha, double alphaSum,
+                                  double beta, double betaSum, Randoms random,
+                                  ArrayList<WeightedLDAHyper.Topication> data,
+                                  int[][] typeTopicCounts,
+                                  int[] tokensPerTopic,
+                                  double[] weightSumPerTopic,
+                                  int startDoc, int numDocs) {
+
+        this.data = data;
+
+        this.numTopics = numTopics;
+        this.numTypes = typeTopicCounts.length;
+
+        if (Integer.bitCount(numTopics) == 1) {
+            // exact power of 2
+            topicMask = numTopics - 1;
+            topicBits = Integer.bitCount(topicMask);
+        }
+        else {
+            // otherwise add an extra bit
+            topicMask = Integer.highestOneBit(numTopics) * 2 - 1;
+            topicBits = Integer.bitCount(topicMask);
+        }
+
+        this.typeTopicCounts = typeTopicCounts;
+        this.tokensPerTopic = tokensPerTopic;
+        this.weightSumPerTopic = weightSumPerTopic;
+
+        this.alphaSum = alphaSum;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.betaSum = betaSum;
+        this.random = random;
+
+        this.startDoc = startDoc;
+        this.numDocs = numDocs;
+
+        cachedCoefficients = new double[ numTopics ];
+
+        localTopicCounts = new int[numTopics];
+        localTopicIndex = new int[numTopics];
+        localTopicWeights = new double[numTopics];
+        topicTermScores = new double[numTopics];
+        typeWeightDeltaPerTopic = new double[numTopics];
+    }
+
+    /**
+     *  If there is only one thread, we don't need to go through
+     *   communication overhead. This method asks this worker not
+     *   to prepare local type-topic counts. The method should be
+     *   called when we are using this code in a non-threaded environment.
+     */
+    public void makeOnlyThread() {
+        shouldBuildLocalCounts = false;
+    }
+
+    public int[] getTokensPerTopic() { return tokensPerTopic; }
+    public double[] getWeightSumPerTopic() { return weightSumPerTopic; }
+    public int[][] getTypeTopicCounts() { return typeTopicCounts; }
+    public double[] getTypeWeightDeltaPerTopic() { return typeWeightDeltaPerTopic; }
+
+    public CountHistograms getAlphaStatistics() { return alphaStatistics; }
+
+    public void initializeAlphaStatistics() {
+        alphaStatistics = new CountHistograms(numTopics);
+    }
+
+    public void resetAlpha(double[] alpha, double alphaSum) {
+        this.alpha = alpha;
+        this.alphaSum = alphaSum;
+    }
+
+    /**
+     *  Set the term weights and balance terms used in the next sweep.
+     *  These arrays are only read by the workers.
+     */
+    public void setIterationWeights(double[] typeTopicWeight, double[] balancePerTopic,
+                                    boolean useVarianceTopicModel, boolean useBetaWeightedModel) {
+        this.typeTopicWeight = typeTopicWeight;
+        this.balancePerTopic = balancePerTopic;
+        this.useVarianceTopicModel = useVarianceTopicModel;
+        this.useBetaWeightedModel = useBetaWeightedModel;
+    }
+
+    /**
+     *  Set the flags used to report types whose topic counts changed,
+     *   so the model only recomputes the weights of those types.
+     */
+    public void setDirtyTypes(boolean[] dirtyTypes) {
+        this.dirtyTypes = dirtyTypes;
+    }
+
+    /**
+     *  Once we have sampled the local counts, trash the
+     *   "global" type topic counts and reuse the space to
+     *   build a summary of the type topic counts specific to
+     *   this worker's section of the corpus.
+     */
+    public void buildLocalTypeTopicCounts () {
+
+        clearLocalTypeTopicCounts();
+
+        for (int doc = startDoc;
+             doc < data.size() && doc < startDoc + numDocs;
+             doc++) {
+
+            FeatureSequence tokens = (FeatureSequence) data.get(doc).instance.getData();
+            int[] topics = data.get(doc).topicSequence.getFeatures();
+
+            addLocalTypeTopicCounts(tokens.getFeatures(), topics, tokens.size());
+        }
+    }
+
+    /** Clear the topic totals and the type/topic counts before they are rebuilt from the assignments. */
+    protected void clearLocalTypeTopicCounts () {
+
+        // Clear the topic totals
+        Arrays.fill(tokensPerTopic, 0);
+
+        // Clear the type/topic counts, only
+        //  looking at the entries before the first 0 entry.
+
+        for (int type = 0; type < typeTopicCounts.length; type++) {
+
+            int[] topicCounts = typeTopicCounts[type];
+
+            int position = 0;
+            while (position < topicCounts.length &&
+                    topicCounts[position] > 0) {
+                topicCounts[position] = 0;
+                position++;
+            }
+        }
+    }
+
+    /** Add the first <code>length</code> tokens and their topics to the counts. */
+    protected void addLocalTypeTopicCounts (int[] tokens, int[] topics, int length) {
+
+        for (int position = 0; position < length; position++) {
+
+            int topic = topics[position];
+
+            tokensPerTopic[topic]++;
+
+            // The format for these arrays is
+            //  the topic in the rightmost bits
+            //  the count in the remaining (left) bits.
+            // Since the count is in the high bits, sorting (desc)
+            //  by the numeric value of the int guarantees that
+            //  higher counts will be before the lower counts.
+
+            int type = tokens[position];
+            int[] currentTypeTopicCounts = typeTopicCounts[ type ];
+
+            // Start by assuming that the array is either empty
+            //  or is in sorted (descending) order.
+
+            // Here we are only adding counts, so if we find
+            //  an existing location with the topic, we only need
+            //  to ensure that it is not larger than its left neighbor.
+
+            int index = 0;
+            int currentTopic = currentTypeTopicCounts[index] & topicMask;
+            int currentValue;
+
+            while (currentTypeTopicCounts[index] > 0 && currentTopic != topic) {
+                index++;
+                if (index == currentTypeTopicCounts.length) {
+                    throw new IllegalStateException("overflow on type " + type);
+                }
+                currentTopic = currentTypeTopicCounts[index] & topicMask;
+            }
+            currentValue = currentTypeTopicCounts[index] >> topicBits;
+
+            if (currentValue == 0) {
+                // new value is 1, so we don't have to worry about sorting
+                //  (except by topic suffix, which doesn't matter)
+
+                currentTypeTopicCounts[index] =
+                        (1 << topicBits) + topic;
+            }
+            else {
+                currentTypeTopicCounts[index] =
+                        ((currentValue + 1) << topicBits) + topic;
+
+                // Now ensure that the array is still sorted by
+                //  bubbling this value up.
+                while (index > 0 &&
+                        currentTypeTopicCounts[index] > currentTypeTopicCounts[index - 1]) {
+                    int temp = currentTypeTopicCounts[index];
+                    currentTypeTopicCounts[index] = currentTypeTopicCounts[index - 1];
+                    currentTypeTopicCounts[index - 1] = temp;
+
+                    index--;
+                }
+            }
+        }
+    }
+
+    public void run () {
+
+        // Initialize the smoothing-only sampling bucket
+        smoothingOnlyMass = 0;
+
+        // Initialize the cached coefficients, using only smoothing.
+        //  These values will be selectively replaced in documents with
+        //  non-zero counts in particular topics.
+        for (int topic=0; topic < numTopics; topic++) {
+            smoothingOnlyMass += alpha[topic] * beta / topicNormalizer(topic);
+            cachedCoefficients[topic] = alpha[topic] / topicNormalizer(topic);
+        }
+
+        sampleDocuments();
+
+        if (shouldBuildLocalCounts) {
+            buildLocalTypeTopicCounts();
+        }
+    }
+
+    /** Sample every document of this worker once. */
+    protected void sampleDocuments () {
+        for (int doc = startDoc;
+             doc < data.size() && doc < startDoc + numDocs;
+             doc++) {
+
+            FeatureSequence tokenSequence =
+                    (FeatureSequence) data.get(doc).instance.getData();
+            LabelSequence topicSequence = data.get(doc).topicSequence;
+
+            sampleBalancedTopicsForOneDoc(tokenSequence, topicSequence);
+        }
+    }
+
+    /**
+     *  The denominator of a topic, shared by the three sampling buckets:
+     *   the term weight sum of the topic in the variance model, its number of tokens otherwise.
+     */
+    private double topicNormalizer(int topic) {
+        return useVarianceTopicModel ? weightSumPerTopic[topic] + betaSum : tokensPerTopic[topic] + betaSum;
+    }
+
+    /**
+     *  The document part of a topic: the balanced term weights of its tokens in the variance model,
+     *   the number of its tokens otherwise.
+     */
+    private double localTopicMass(int topic) {
+        return useVarianceTopicModel ? localTopicWeights[topic] * balancePerTopic[topic] : localTopicCounts[topic];
+    }
+
+    /**
+     *  Gibbs Sampling Step for (Balance) Weighted Topic Model over the packed type/topic counts.
+     *  <p/>
+     *  With d_t the document part of topic t ({@link #localTopicMass}) and z_t its denominator ({@link #topicNormalizer}),
+     *   p(t) is proportional to (alpha_t + d_t) * (n_{w|t} + beta) / z_t, which is split like SparseLDA into
+     *   the smoothing-only bucket alpha_t * beta / z_t (kept for all topics, updated per token),
+     *   the document bucket beta * d_t / z_t (topics of the document)
+     *   and the topic/term bucket n_{w|t} * (alpha_t + d_t) / z_t (topics of the word, with cachedCoefficients).
+     *  The cost of a token grows with the topics of its document and word, not with the number of topics.
+     */
+    protected void sampleBalancedTopicsForOneDoc (FeatureSequence tokenSequence,
+                                                  FeatureSequence topicSequence) {
+        sampleBalancedTopicsForOneDoc(tokenSequence.getFeatures(), topicSequence.getFeatures(),
+                tokenSequence.getLength());
+    }
+
+    /** The same sampling step over the feature indices and topics of the first <code>docLength</code> positions. */
+    protected void sampleBalancedTopicsForOneDoc (int[] tokens, int[] oneDocTopics, int docLength) {
+
+        int[] currentTypeTopicCounts;
+        int type, oldTopic, newTopic;
+
+        // Term weight per each token, normalized so that the sum is docLength
+        if (oneDocKurtosis.length < docLength) {
+            oneDocKurtosis = new double[docLength];
+        }
+        double oneDocKurtSum = 0;
+        for (int position = 0; position < docLength; position++) {
+            type = tokens[position];
+            oneDocKurtosis[position] = typeTopicWeight[type];
+            oneDocKurtSum+=oneDocKurtosis[position];
+        }
+        for (int i = 0; i < docLength; i++) {
+            oneDocKurtosis[i]= oneDocKurtosis[i]*docLength/oneDocKurtSum;
+        }
+
+        //		populate topic counts
+        for (int position = 0; position < docLength; position++) {
+            localTopicCounts[oneDocTopics[position]]++;
+            localTopicWeights[oneDocTopics[position]]+=oneDocKurtosis[position];
+        }
+
+        // Build an array that densely lists the topics that
+        //  have non-zero counts.
+        int denseIndex = 0;
+        for (int topic = 0; topic < numTopics; topic++) {
+            if (localTopicCounts[topic] != 0) {
+                localTopicIndex[denseIndex] = topic;
+                denseIndex++;
+            }
+        }
+
+        // Record the total number of non-zero topics
+        int nonZeroTopics = denseIndex;
+
+        //Initialize the topic count/beta sampling bucket
+        double topicBetaMass = 0.0;
+        for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
+            int topic = localTopicIndex[denseIndex];
+            topicBetaMass += beta * localTopicMass(topic) / topicNormalizer(topic);
+
+            //update the coefficients for the non-zero topics
+            cachedCoefficients[topic] = (alpha[topic] + localTopicMass(topic)) / topicNormalizer(topic);
+        }
+
+        double topicTermMass = 0.0;
+
+        int i;
+        double score;
+
+        //	Iterate over the positions (words) in the document
+        for (int position = 0; position < docLength; position++) {
+            type = tokens[position];
+            oldTopic = oneDocTopics[position];
+
+            currentTypeTopicCounts = typeTopicCounts[type];
+
+            //	Remove this token from all counts.
+            smoothingOnlyMass -= alpha[oldTopic] * beta / topicNormalizer(oldTopic);
+            topicBetaMass -= beta * localTopicMass(oldTopic) / topicNormalizer(oldTopic);
+
+            if(useVarianceTopicModel)localTopicWeights[oldTopic]-=oneDocKurtosis[position];
+            localTopicCounts[oldTopic]--;
+            if (localTopicCounts[oldTopic] == 0) localTopicWeights[oldTopic] = 0.0; // no rounding residue
+
+            // Maintain the dense index, if we are deleting
+            //  the old topic
+            if (localTopicCounts[oldTopic] == 0) {
+                denseIndex = 0;
+                while (localTopicIndex[denseIndex] != oldTopic) {
+                    denseIndex++;
+                }
+                while (denseIndex < nonZeroTopics) {
+                    if (denseIndex < localTopicIndex.length - 1) {
+                        localTopicIndex[denseIndex] =
+                                localTopicIndex[denseIndex + 1];
+                    }
+                    denseIndex++;
+                }
+                nonZeroTopics --;
+            }
+
+            tokensPerTopic[oldTopic]--;
+            if(useBetaWeightedModel||useVarianceTopicModel) weightSumPerTopic[oldTopic]-=oneDocKurtosis[position];
+
+            smoothingOnlyMass += alpha[oldTopic] * beta / topicNormalizer(oldTopic);
+            topicBetaMass += beta * localTopicMass(oldTopic) / topicNormalizer(oldTopic);
+
+            cachedCoefficients[oldTopic] =
+                    (alpha[oldTopic] + localTopicMass(oldTopic)) / topicNormalizer(oldTopic);
+
+            // Now go over the type/topic counts, decrementing
+            //  where appropriate, and calculating the score
+            //  for each topic at the same time.
+
+            int index = 0;
+            int currentTopic, currentValue;
+            boolean alreadyDecremented = false;
+
+            topicTermMass = 0.0;
+
+            while (index < currentTypeTopicCounts.length &&
+                    currentTypeTopicCounts[index] > 0) {
+                currentTopic = currentTypeTopicCounts[index] & topicMask;
+                currentValue = currentTypeTopicCounts[index] >> topicBits;
+
+                if (! alreadyDecremented &&
+                        currentTopic == oldTopic) {
+
+                    // We're decrementing and adding up the
+                    //  sampling weights at the same time, but
+                    //  decrementing may require us to reorder
+                    //  the topics, so after we're done here,
+                    //  look at this cell in the array again.
+
+                    currentValue --;
+                    if (currentValue == 0) {
+                        currentTypeTopicCounts[index] = 0;
+                    }
+                    else {
+                        currentTypeTopicCounts[index] =
+                                (currentValue << topicBits) + oldTopic;
+                    }
+
+                    // Shift the reduced value to the right, if necessary.
+
+                    int subIndex = index;
+                    while (subIndex < currentTypeTopicCounts.length - 1 &&
+                            currentTypeTopicCounts[subIndex] < currentTypeTopicCounts[subIndex + 1]) {
+                        int temp = currentTypeTopicCounts[subIndex];
+                        currentTypeTopicCounts[subIndex] = currentTypeTopicCounts[subIndex + 1];
+                        currentTypeTopicCounts[subIndex + 1] = temp;
+
+                        subIndex++;
+                    }
+
+                    alreadyDecremented = true;
+                }
+                else {
+                    score =
+                            cachedCoefficients[currentTopic] * currentValue;
+                    topicTermMass += score;
+                    topicTermScores[index] = score;
+
+                    index++;
+                }
+            }
+
+            double sample = random.nextUniform() * (smoothingOnlyMass + topicBetaMass + topicTermMass);
+            double origSample = sample;
+
+            //	Make sure it actually gets set
+            newTopic = -1;
+
+            if (sample < topicTermMass) {
+                i = -1;
+                while (sample > 0) {
+                    i++;
+                    sample -= topicTermScores[i];
+                }
+
+                newTopic = currentTypeTopicCounts[i] & topicMask;
+                currentValue = currentTypeTopicCounts[i] >> topicBits;
+
+                currentTypeTopicCounts[i] = ((currentValue + 1) << topicBits) + newTopic;
+
+                // Bubble the new value up, if necessary
+
+                while (i > 0 &&
+                        currentTypeTopicCounts[i] > currentTypeTopicCounts[i - 1]) {
+                    int temp = currentTypeTopicCounts[i];
+                    currentTypeTopicCounts[i] = currentTypeTopicCounts[i - 1];
+                    currentTypeTopicCounts[i - 1] = temp;
+
+                    i--;
+                }
+            }
+            else {
+                sample -= topicTermMass;
+
+                if (sample < topicBetaMass) {
+                    sample /= beta;
+
+                    for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
+                        int topic = localTopicIndex[denseIndex];
+
+                        sample -= localTopicMass(topic) / topicNormalizer(topic);
+
+                        if (sample <= 0.0) {
+                            newTopic = topic;
+                            break;
+                        }
+                    }
+                }
+                else {
+                    sample -= topicBetaMass;
+
+                    sample /= beta;
+
+                    for (int topic = 0; topic < numTopics; topic++) {
+                        sample -= alpha[topic] / topicNormalizer(topic);
+
+                        if (sample <= 0.0) {
+                            newTopic = topic;
+                            break;
+                        }
+                    }
+                }
+
+                if (newTopic == -1) {
+                    System.err.println("WeightedWorkerRunnable sampling error: "+ origSample + " " + sample + " " + smoothingOnlyMass + " " +
+                            topicBetaMass + " " + topicTermMass);
+                    newTopic = numTopics-1; // TODO is this appropriate
+                }
+
+                addTypeTopicCount(currentTypeTopicCounts, newTopic);
+            }
+
+            //			Put that new topic into the counts
+            oneDocTopics[position] = newTopic;
+
+            if (newTopic != oldTopic) {
+                typeWeightDeltaPerTopic[oldTopic] -= typeTopicWeight[type];
+                typeWeightDeltaPerTopic[newTopic] += typeTopicWeight[type];
+                if (dirtyTypes != null) dirtyTypes[type] = true;
+            }
+
+            smoothingOnlyMass -= alpha[newTopic] * beta / topicNormalizer(newTopic);
+            topicBetaMass -= beta * localTopicMass(newTopic) / topicNormalizer(newTopic);
+
+            if(useVarianceTopicModel) localTopicWeights[newTopic]+=oneDocKurtosis[position];
+            localTopicCounts[newTopic]++;
+
+            // If this is a new topic for this document,
+            //  add the topic to the dense index.
+            if (localTopicCounts[newTopic] == 1) {
+
+                // First find the point where we
+                //  should insert the new topic by going to
+                //  the end (which is the only reason we're keeping
+                //  track of the number of non-zero
+                //  topics) and working backwards
+
+                denseIndex = nonZeroTopics;
+
+                while (denseIndex > 0 &&
+                        localTopicIndex[denseIndex - 1] > newTopic) {
+
+                    localTopicIndex[denseIndex] =
+                            localTopicIndex[denseIndex - 1];
+                    denseIndex--;
+                }
+
+                localTopicIndex[denseIndex] = newTopic;
+                nonZeroTopics++;
+            }
+
+            tokensPerTopic[newTopic]++;
+            if(useVarianceTopicModel||useBetaWeightedModel) weightSumPerTopic[newTopic]+=oneDocKurtosis[position];
+
+            //			update the coefficients for the non-zero topics
+            cachedCoefficients[newTopic] =
+                    (alpha[newTopic] + localTopicMass(newTopic)) / topicNormalizer(newTopic);
+
+            smoothingOnlyMass += alpha[newTopic] * beta / topicNormalizer(newTopic);
+            topicBetaMass += beta * localTopicMass(newTopic) / topicNormalizer(newTopic);
+        }
+
+        if (shouldSaveState) {
+            //			Update the document-topic count histogram,
+            //			for dirichlet estimation
+            alphaStatistics.addLength(docLength);
+            for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
+                int topic = localTopicIndex[denseIndex];
+                alphaStatistics.addCount(topic, localTopicCounts[topic]);
+            }
+        }
+
+        //		Clean up our mess: reset the coefficients to values with only
+        //		smoothing. The next doc will update its own non-zero topics...
+        for (denseIndex = 0; denseIndex < nonZeroTopics; denseIndex++) {
+            int topic = localTopicIndex[denseIndex];
+            cachedCoefficients[topic] = alpha[topic] / topicNormalizer(topic);
+            localTopicCounts[topic] = 0;
+            localTopicWeights[topic] = 0.0;
+        }
+    }
+
+    /**
+     *  Add one token of <code>topic</code> to a packed count/topic array
+     *   and bubble it up to keep the array sorted.
+     */
+    private void addTypeTopicCount (int[] currentTypeTopicCounts, int topic) {
+        int index = 0;
+        while (currentTypeTopicCounts[index] > 0 &&
+                (currentTypeTopicCounts[index] & topicMask) != topic) {
+            index++;
+            if (index == currentTypeTopicCounts.length) {
+                throw new IllegalStateException("type/topic count overflow on topic " + topic);
+            }
+        }
+
+        int currentValue = currentTypeTopicCounts[index] >> topicBits;
+        currentTypeTopicCounts[index] = ((currentValue + 1) << topicBits) + topic;
+
+        // Now ensure that the array is still sorted by
+        //  bubbling this value up.
+        while (index > 0 &&
+                currentTypeTopicCounts[index] > currentTypeTopicCounts[index - 1]) {
+            int temp = currentTypeTopicCounts[index];
+            currentTypeTopicCounts[index] = currentTypeTopicCounts[index - 1];
+            currentTypeTopicCounts[index - 1] = temp;
+            index--;
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics.tests;
+
+import cc.mallet.pipe.*;
+import cc.mallet.types.BinaryInstanceList;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import edu.kaist.irlab.topics.MappedTokenStore;
+import edu.kaist.irlab.topics.MappedWeightedTopicModel;
+import edu.kaist.irlab.topics.TopicModelCheckpoint;
+import edu.kaist.irlab.topics.WeightedTopicModel;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Trains an out-of-core weighted topic model with checkpoints and likelihoods computed while
+ * sampling goes on, and checks that a checkpoint restores the same state into another model.
+ *
+ * @author Seonggyu Lee
+ */
+public class TestMappedWeightedTopicModel extends TestCase {
+
+    private static final String[][] WORDS = {
+            {"ball", "team", "goal", "match", "coach", "league"},
+            {"vote", "bill", "senate", "party", "law", "election"},
+            {"star", "planet", "orbit", "telescope", "galaxy", "comet"},
+    };
+
+    private File directory;
+
+    public TestMappedWeightedTopicModel(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("mappedTopicModel", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    protected void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) delete(child);
+        }
+        file.delete();
+    }
+
+    private static InstanceList makeInstances() {
+        SerialPipes pipes = new SerialPipes(new Pipe[] {
+                new Target2Label(),
+                new CharSequence2TokenSequence(),
+                new TokenSequence2FeatureSequence(),
+        });
+        InstanceList instances = new InstanceList(pipes);
+        for (int doc = 0; doc < 24; doc++) {
+            int label = doc % WORDS.length;
+            StringBuilder text = new StringBuilder();
+            for (int position = 0; position < 8 + doc % 9; position++) {
+                String[] words = WORDS[position % 5 == 4 ? (label + 1) % WORDS.length : label];
+                text.append(words[(doc * 7 + position * 3) % words.length]).append(' ');
+            }
+            instances.addThruPipe(new Instance(text.toString(), "label" + label, "doc" + doc, null));
+        }
+        return instances;
+    }
+
+    private static MappedWeightedTopicModel newModel() {
+        MappedWeightedTopicModel model = new MappedWeightedTopicModel(3, 1.0);
+        model.setRandomSeed(1);
+        model.setTopicDisplay(50, 5);
+        model.setOptimizeInterval(10);
+        model.setBurninPeriod(10);
+        model.setBurnOverIteration(10);
+        model.setNumThreads(2);
+        return model;
+    }
+
+    private static int[][] topics(MappedTokenStore store) {
+        MappedTokenStore.Cursor cursor = store.cursor();
+        int[][] topics = new int[store.size()][];
+        for (int doc = 0; doc < store.size(); doc++) {
+            topics[doc] = new int[store.getLength(doc)];
+            cursor.readTopics(doc, topics[doc]);
+        }
+        return topics;
+    }
+
+    private static int[] counts(WeightedTopicModel model, int numTypes) {
+        int[] counts = new int[numTypes * model.getNumTopics()];
+        for (int type = 0; type < numTypes; type++) {
+            for (int topic = 0; topic < model.getNumTopics(); topic++) {
+                counts[type * model.getNumTopics() + topic] = model.getCountFeatureTopic(type, topic);
+            }
+        }
+        return counts;
+    }
+
+    public void testCheckpointsAndAsyncLikelihood() throws Exception {
+        InstanceList instances = makeInstances();
+        File storeDirectory = new File(directory, "store");
+        MappedTokenStore store = MappedTokenStore.create(storeDirectory, instances.iterator());
+        File checkpointFile = new File(directory, "checkpoint.bin");
+
+        MappedWeightedTopicModel model = newModel();
+        model.setAsyncLikelihood(true);
+        model.setCheckpoint(20, checkpointFile);
+        model.addInstances(store);
+        model.estimate(60);
+        assertTrue(checkpointFile.isFile());
+        int numTypes = instances.getDataAlphabet().size();
+
+        // A snapshot of the trained model restores into a model over a second store of the same documents
+        TopicModelCheckpoint snapshot = model.snapshot();
+        MappedTokenStore other = MappedTokenStore.create(new File(directory, "other"), instances.iterator());
+        MappedWeightedTopicModel restored = newModel();
+        restored.addInstances(other);
+        restored.restore(snapshot);
+        assertTrue(Arrays.deepEquals(topics(store), topics(other)));
+        assertTrue(Arrays.equals(counts(model, numTypes), counts(restored, numTypes)));
+        assertEquals(model.modelLogLikelihood(), restored.modelLogLikelihood());
+
+        // The same through the file, which is read straight into the store
+        File snapshotFile = new File(directory, "snapshot.bin");
+        snapshot.write(snapshotFile);
+        MappedTokenStore third = MappedTokenStore.create(new File(directory, "third"), instances.iterator());
+        MappedWeightedTopicModel read = newModel();
+        read.addInstances(third);
+        read.readCheckpoint(snapshotFile);
+        assertEquals(model.iterationsSoFar, read.iterationsSoFar);
+        assertTrue(Arrays.deepEquals(topics(store), topics(third)));
+        assertTrue(Arrays.equals(counts(model, numTypes), counts(read, numTypes)));
+
+        // A model on the heap reads the checkpoint of the out-of-core model
+        WeightedTopicModel heap = new WeightedTopicModel(3, 1.0);
+        heap.addInstances(instances);
+        heap.readCheckpoint(snapshotFile);
+        assertTrue(Arrays.equals(counts(model, numTypes), counts(heap, numTypes)));
+        assertEquals(model.modelLogLikelihood(), heap.modelLogLikelihood(), 1e-9);
+
+        // The resumed run samples on from the checkpoint written during training
+        read.readCheckpoint(checkpointFile);
+        read.estimate(60 - read.iterationsSoFar);
+
+        store.close();
+        other.close();
+        third.close();
+    }
+
+    public void testInstanceList() throws Exception {
+        InstanceList instances = makeInstances();
+        MappedWeightedTopicModel model = newModel();
+        model.addInstances(instances);
+        assertEquals(instances.size(), model.getStore().size());
+        model.estimate(20);
+        int total = 0;
+        for (int topic = 0; topic < model.getNumTopics(); topic++) total += model.getCountTokensPerTopic(topic);
+        assertEquals(model.getStore().getNumTokens(), total);
+    }
+
+    public void testBinaryInstanceList() throws Exception {
+        InstanceList instances = makeInstances();
+        File listFile = new File(directory, "instances.mallet");
+        instances.saveBinary(listFile);
+
+        // The store over the list reads the documents the copying store holds
+        MappedTokenStore copied = MappedTokenStore.create(new File(directory, "copied"), instances.iterator());
+        MappedTokenStore mapped = MappedTokenStore.create(new File(directory, "mapped"), BinaryInstanceList.open(listFile));
+        assertEquals(copied.size(), mapped.size());
+        assertEquals(copied.getNumTokens(), mapped.getNumTokens());
+        assertEquals(copied.getMaxLength(), mapped.getMaxLength());
+        MappedTokenStore.Cursor copiedCursor = copied.cursor();
+        MappedTokenStore.Cursor mappedCursor = mapped.cursor();
+        int[] copiedTokens = new int[copied.getMaxLength()];
+        int[] mappedTokens = new int[mapped.getMaxLength()];
+        for (int doc = 0; doc < copied.size(); doc++) {
+            assertEquals(copied.getLength(doc), mapped.getLength(doc));
+            assertEquals(copied.getLabel(doc), mapped.getLabel(doc));
+            assertEquals(copied.getName(doc), mapped.getName(doc));
+            int length = copiedCursor.readTokens(doc, copiedTokens);
+            assertEquals(length, mappedCursor.readTokens(doc, mappedTokens));
+            assertTrue(Arrays.equals(Arrays.copyOf(copiedTokens, length), Arrays.copyOf(mappedTokens, length)));
+        }
+
+        // The same model trained on each store samples the same topics
+        MappedWeightedTopicModel copiedModel = newModel();
+        copiedModel.setNumThreads(1);
+        copiedModel.addInstances(copied);
+        copiedModel.estimate(20);
+        MappedWeightedTopicModel mappedModel = newModel();
+        mappedModel.setNumThreads(1);
+        mappedModel.addInstances(mapped);
+        mappedModel.estimate(20);
+        assertTrue(Arrays.deepEquals(topics(copied), topics(mapped)));
+        assertEquals(copiedModel.modelLogLikelihood(), mappedModel.modelLogLikelihood());
+
+        copied.close();
+        mapped.close();
+    }
+
+    public void testEmptyStore() throws Exception {
+        InstanceList instances = makeInstances();
+        try {
+            MappedTokenStore.create(new File(directory, "empty"), new InstanceList(instances.getPipe()).iterator());
+            fail("a store without instances has no alphabets");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        MappedTokenStore empty = MappedTokenStore.create(new File(directory, "empty"),
+                instances.getDataAlphabet(), instances.getTargetAlphabet(), new InstanceList(instances.getPipe()).iterator());
+        empty.close();
+        MappedTokenStore reopened = MappedTokenStore.open(new File(directory, "empty"));
+        assertEquals(0, reopened.size());
+        assertSame(reopened.getDataAlphabet(), reopened.getDataAlphabet());
+        assertEquals(instances.getDataAlphabet().size(), reopened.getDataAlphabet().size());
+        reopened.close();
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestMappedWeightedTopicModel.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
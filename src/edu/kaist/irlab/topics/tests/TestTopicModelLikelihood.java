@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics.tests;
+
+import cc.mallet.pipe.*;
+import cc.mallet.types.Dirichlet;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import edu.kaist.irlab.topics.TopicModelLikelihood;
+import edu.kaist.irlab.topics.WeightedLDAHyper;
+import edu.kaist.irlab.topics.WeightedTopicModel;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks that the model log likelihood split into tasks on an executor is the one
+ * computed serially, document by document and type by type.
+ *
+ * @author Seonggyu Lee
+ */
+public class TestTopicModelLikelihood extends TestCase {
+
+    private static final String[][] WORDS = {
+            {"ball", "team", "goal", "match", "coach", "league"},
+            {"vote", "bill", "senate", "party", "law", "election"},
+            {"star", "planet", "orbit", "telescope", "galaxy", "comet"},
+    };
+
+    private static final int NUM_TOPICS = 3;
+    private static final double ALPHA_SUM = 1.0;
+
+    public TestTopicModelLikelihood(String name) {
+        super(name);
+    }
+
+    private static WeightedTopicModel train() throws Exception {
+        SerialPipes pipes = new SerialPipes(new Pipe[] {
+                new Target2Label(),
+                new CharSequence2TokenSequence(),
+                new TokenSequence2FeatureSequence(),
+        });
+        InstanceList instances = new InstanceList(pipes);
+        for (int doc = 0; doc < 31; doc++) {
+            int label = doc % WORDS.length;
+            StringBuilder text = new StringBuilder();
+            for (int position = 0; position < 5 + doc % 17; position++) {
+                String[] words = WORDS[position % 4 == 3 ? (label + 1) % WORDS.length : label];
+                text.append(words[(doc * 5 + position * 3) % words.length]).append(' ');
+            }
+            instances.addThruPipe(new Instance(text.toString(), "label" + label, "doc" + doc, null));
+        }
+
+        // No hyperparameter optimization, so alpha and beta stay at their known initial values
+        WeightedTopicModel model = new WeightedTopicModel(NUM_TOPICS, ALPHA_SUM);
+        model.setRandomSeed(1);
+        model.setTopicDisplay(0, 10);
+        model.setOptimizeInterval(0);
+        model.setBurninPeriod(5);
+        model.setBurnOverIteration(5);
+        model.setNumThreads(2);
+        model.addInstances(instances);
+        model.estimate(20);
+        return model;
+    }
+
+    /** The log likelihood as the model computed it before it was split into tasks. */
+    private static double serialLogLikelihood(WeightedTopicModel model) {
+        double alpha = ALPHA_SUM / NUM_TOPICS;
+        double beta = WeightedLDAHyper.DEFAULT_BETA;
+        double logLikelihood = 0.0;
+
+        int[] topicCounts = new int[NUM_TOPICS];
+        for (WeightedLDAHyper.Topication topication : model.getData()) {
+            int[] docTopics = topication.topicSequence.getFeatures();
+            for (int token = 0; token < docTopics.length; token++) {
+                topicCounts[docTopics[token]]++;
+            }
+            for (int topic = 0; topic < NUM_TOPICS; topic++) {
+                if (topicCounts[topic] > 0) {
+                    logLikelihood += Dirichlet.logGammaStirling(alpha + topicCounts[topic]) -
+                            Dirichlet.logGammaStirling(alpha);
+                }
+                topicCounts[topic] = 0;
+            }
+            logLikelihood -= Dirichlet.logGammaStirling(ALPHA_SUM + docTopics.length);
+        }
+        logLikelihood += model.getData().size() * Dirichlet.logGammaStirling(ALPHA_SUM);
+
+        int nonZeroTypeTopics = 0;
+        for (int type = 0; type < model.getAlphabet().size(); type++) {
+            for (int topic = 0; topic < NUM_TOPICS; topic++) {
+                int count = model.getCountFeatureTopic(type, topic);
+                if (count > 0) {
+                    nonZeroTypeTopics++;
+                    logLikelihood += Dirichlet.logGammaStirling(beta + count);
+                }
+            }
+        }
+        for (int topic = 0; topic < NUM_TOPICS; topic++) {
+            logLikelihood -= Dirichlet.logGammaStirling(beta * NUM_TOPICS + model.getCountTokensPerTopic(topic));
+        }
+        logLikelihood += Dirichlet.logGammaStirling(beta * NUM_TOPICS) -
+                Dirichlet.logGammaStirling(beta) * nonZeroTypeTopics;
+        return logLikelihood;
+    }
+
+    private static void assertClose(double expected, double actual) {
+        assertEquals(expected, actual, Math.abs(expected) * 1e-12);
+    }
+
+    public void testTasksMatchSerial() throws Exception {
+        WeightedTopicModel model = train();
+        double expected = serialLogLikelihood(model);
+        assertTrue(expected < 0);
+
+        TopicModelLikelihood likelihood = TopicModelLikelihood.of(model);
+        assertClose(expected, likelihood.modelLogLikelihood(null, 1));
+        assertClose(expected, model.modelLogLikelihood());
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            double oneTask = likelihood.modelLogLikelihood(executor, 1);
+            assertClose(expected, oneTask);
+            for (int numTasks : new int[] {2, 3, 7, 64}) {
+                double split = likelihood.modelLogLikelihood(executor, numTasks);
+                assertClose(expected, split);
+                // The parts are summed in task order, so the same split gives the same bits
+                assertEquals(split, likelihood.modelLogLikelihood(executor, numTasks));
+            }
+
+            // A snapshot keeps the value of the counts it was taken from
+            assertClose(expected, TopicModelLikelihood.snapshot(model).modelLogLikelihood(executor, 4));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTopicModelLikelihood.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
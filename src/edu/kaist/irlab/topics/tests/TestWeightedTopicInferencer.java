@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics.tests;
+
+import cc.mallet.pipe.*;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import edu.kaist.irlab.topics.WeightedTopicInferencer;
+import edu.kaist.irlab.topics.WeightedTopicModel;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Trains a small weighted topic model and checks that the topic features inferred for its
+ * documents do not depend on the number of threads or on a write/read round trip.
+ *
+ * @author Seonggyu Lee
+ */
+public class TestWeightedTopicInferencer extends TestCase {
+
+    private static final String[][] WORDS = {
+            {"ball", "team", "goal", "match", "coach", "league"},
+            {"vote", "bill", "senate", "party", "law", "election"},
+            {"star", "planet", "orbit", "telescope", "galaxy", "comet"},
+    };
+
+    public TestWeightedTopicInferencer(String name) {
+        super(name);
+    }
+
+    private static InstanceList makeInstances() {
+        SerialPipes pipes = new SerialPipes(new Pipe[] {
+                new Target2Label(),
+                new CharSequence2TokenSequence(),
+                new TokenSequence2FeatureSequence(),
+        });
+        InstanceList instances = new InstanceList(pipes);
+        for (int doc = 0; doc < 30; doc++) {
+            int label = doc % WORDS.length;
+            StringBuilder text = new StringBuilder();
+            for (int position = 0; position < 20; position++) {
+                // Mostly words of the document's own label, every fifth word from the next one
+                String[] words = WORDS[position % 5 == 4 ? (label + 1) % WORDS.length : label];
+                text.append(words[(doc * 7 + position * 3) % words.length]).append(' ');
+            }
+            instances.addThruPipe(new Instance(text.toString(), "label" + label, "doc" + doc, null));
+        }
+        return instances;
+    }
+
+    private static WeightedTopicInferencer train(InstanceList instances) throws Exception {
+        WeightedTopicModel model = new WeightedTopicModel(3, 1.0);
+        model.setRandomSeed(1);
+        model.setTopicDisplay(0, 10);
+        model.setOptimizeInterval(10);
+        model.setBurninPeriod(10);
+        model.setBurnOverIteration(10);
+        model.setNumThreads(2);
+        model.addInstances(instances);
+        model.estimate(40);
+        return model.getInferencer();
+    }
+
+    private static void assertSameDistributions(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int doc = 0; doc < expected.length; doc++) {
+            assertTrue("document " + doc + ": " + Arrays.toString(expected[doc]) + " != " + Arrays.toString(actual[doc]),
+                    Arrays.equals(expected[doc], actual[doc]));
+        }
+    }
+
+    public void testThreadsAndSerialization() throws Exception {
+        InstanceList instances = makeInstances();
+        WeightedTopicInferencer inferencer = train(instances);
+        inferencer.setRandomSeed(7);
+
+        double[][] serial = inferencer.getSampledDistributions(instances, 50, 5, 10, 1);
+        assertSameDistributions(serial, inferencer.getSampledDistributions(instances, 50, 5, 10, 4));
+        assertSameDistributions(serial, inferencer.getSampledDistributions(instances, 50, 5, 10, instances.size()));
+
+        // Each document is sampled from the seed plus its index, so the first one matches a single call
+        assertTrue(Arrays.equals(serial[0], inferencer.getSampledDistribution(instances.get(0), 50, 5, 10)));
+
+        File file = File.createTempFile("inferencer", ".ser");
+        try {
+            inferencer.write(file);
+            WeightedTopicInferencer read = WeightedTopicInferencer.read(file);
+            assertEquals(inferencer.getNumTopics(), read.getNumTopics());
+            assertEquals(inferencer.getAlphabet().size(), read.getAlphabet().size());
+            assertSameDistributions(serial, read.getSampledDistributions(instances, 50, 5, 10, 3));
+        } finally {
+            file.delete();
+        }
+
+        // The model found the three groups of words: each document is mostly one topic
+        for (double[] distribution : serial) {
+            double max = 0;
+            for (double p : distribution) max = Math.max(max, p);
+            assertTrue(Arrays.toString(distribution), max > 0.5);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWeightedTopicInferencer.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
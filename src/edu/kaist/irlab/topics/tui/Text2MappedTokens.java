@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2014. Seonggyu Lee. All Rights Reserved.
+ * User: Seonggyu Lee
+ * Date: 14. 9. 30 오후 6:24
+ * Last Modified : 14. 9. 30 오후 6:24
+ * User email: shalomeir@gmail.com
+ */
+
+package edu.kaist.irlab.topics.tui;
+
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.iterator.FileIterator;
+import cc.mallet.types.BinaryInstanceList;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.CommandOption;
+import cc.mallet.util.MalletLogger;
+import edu.kaist.irlab.topics.MappedTokenStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+/**
+ * Write document files, or an instance list, to a {@link MappedTokenStore} for out-of-core topic training.
+ * The files are read one at a time through the pipe of an existing instance list, which must produce
+ * feature sequences (as Text2VariedTopicModels does), so the corpus is never held in memory. Only the pipe
+ * of that list is kept; a list saved in the binary format is also written to the store one instance at a time,
+ * though WeightedTopicModel can sample from such a list directly. The store directory is given to
+ * WeightedTopicModel in place of the instance list file.
+ *
+ * @author Seonggyu Lee
+ */
+public class Text2MappedTokens {
+
+    private static Logger logger = MalletLogger.getLogger(Text2MappedTokens.class.getName());
+
+    static CommandOption.SpacedStrings classDirs =	new CommandOption.SpacedStrings
+            (Text2MappedTokens.class, "input", "DIR...", true, null,
+                    "The directories containing text files, one directory per class", null);
+
+    static CommandOption.File usePipeFromVectorsFile = new CommandOption.File
+            (Text2MappedTokens.class, "use-pipe-from", "FILE", true, null,
+                    "Use the pipe and alphabets of this instance list to read the text files. " +
+                            "Without --input, the instances of this list are written to the store.", null);
+
+    static CommandOption.File outputDir = new CommandOption.File
+            (Text2MappedTokens.class, "output", "DIR", true, null,
+                    "Write the store to this directory.", null);
+
+    public static void main (String[] args) throws IOException {
+        CommandOption.setSummary (Text2MappedTokens.class,
+                "A tool for writing document files to a memory-mapped token store.");
+        CommandOption.process (Text2MappedTokens.class, args);
+
+        if (usePipeFromVectorsFile.value == null || outputDir.value == null) {
+            throw new IllegalArgumentException("You must include --use-pipe-from FILE and --output DIR");
+        }
+
+        Pipe pipe;
+        Iterator<Instance> instances;
+        BinaryInstanceList binary = null;
+        if (classDirs.value != null && classDirs.value.length > 0) {
+            File[] directories = new File[classDirs.value.length];
+            for (int i = 0; i < directories.length; i++) {
+                directories[i] = new File(classDirs.value[i]);
+            }
+            pipe = InstanceList.loadPipe(usePipeFromVectorsFile.value);
+            instances = pipe.newIteratorFrom(new FileIterator(directories, FileIterator.STARTING_DIRECTORIES, true));
+        } else if (BinaryInstanceList.isBinary(usePipeFromVectorsFile.value)) {
+            // Read one instance at a time from the mapped list
+            binary = BinaryInstanceList.open(usePipeFromVectorsFile.value);
+            pipe = binary.getPipe();
+            instances = binary.iterator();
+        } else {
+            InstanceList previous = InstanceList.load(usePipeFromVectorsFile.value);
+            pipe = previous.getPipe();
+            instances = previous.iterator();
+        }
+
+        MappedTokenStore store = MappedTokenStore.create(outputDir.value,
+                pipe.getDataAlphabet(), pipe.getTargetAlphabet(), instances);
+        if (binary != null) binary.close();
+        logger.info(store.size() + " documents, " + store.getNumTokens() + " tokens written to " + outputDir.value);
+        store.close();
+    }
+}
@@ -8,23 +8,26 @@
 
 package edu.kaist.irlab.topics.tui;
 
-import cc.mallet.classify.tui.SvmLight2Vectors;
 import cc.mallet.pipe.*;
 import cc.mallet.pipe.iterator.FileIterator;
+import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import cc.mallet.util.CharSequenceLexer;
 import cc.mallet.util.CommandOption;
 import cc.mallet.util.MalletLogger;
 import cc.mallet.util.Strings;
 import edu.kaist.irlab.sglee.util.MyFileWriter;
-import edu.kaist.irlab.textcontrol.SvmLights2SvmLight;
-import edu.kaist.irlab.textcontrol.Vectors2SvmStyleBow;
+import edu.kaist.irlab.textcontrol.SparseFeatureMatrix;
+import edu.kaist.irlab.textcontrol.VariedFeatureSetWriter;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -243,6 +246,17 @@ public class Text2VariedSvmLightFeatures {
 		(Text2VariedSvmLightFeatures.class, "encoding", "STRING", true, Charset.defaultCharset().displayName(),
 		 "Character encoding for input file", null);
 
+	static CommandOption.String featureFormat = new CommandOption.String
+		(Text2VariedSvmLightFeatures.class, "feature-format", "svmlight|binary", true, "svmlight",
+		 "svmlight writes the feature sets as SVMlight text (train_Svmlight.txt, test_Svmlight.txt). " +
+		 "binary writes them as memory mapped SparseFeatureMatrix files (train.csr, test.csr), " +
+		 "which ExecuteSvmMulticlass reads without parsing.", null);
+
+	static CommandOption.Boolean saveInstanceLists = new CommandOption.Boolean
+		(Text2VariedSvmLightFeatures.class, "save-instance-lists", "[TRUE|FALSE]", false, false,
+		 "If true, also keep the train and test instance lists and write train.mallet and test.mallet. " +
+		 "The memory then grows with the corpus.", null);
+
 	static CommandOption.String tokenRegex = new CommandOption.String
 		(Text2VariedSvmLightFeatures.class, "token-regex", "REGEX", true, CharSequenceLexer.LEX_ALPHA.toString(),
 		 "Regular expression used for tokenization.\n" +
@@ -264,197 +278,23 @@ public class Text2VariedSvmLightFeatures {
         String malletTrainInstanceName = outputRealDir+"/train.mallet";
         String malletTestInstanceName = outputRealDir+"/test.mallet";
 
-        //additional Common File Name
-        String strTrain = "train";
-        String strTest = "test";
-        String[] strTrTs = {"train","test"};
-        String suffixSvmTxt = "_Svmlight.txt";
-        String suffixStatTxt = "_stat.txt";
-        String suffixPipe = "_pipe.mallet";
+        boolean binaryMatrix = featureFormat.value.equals("binary");
 
 
         //TermWeight File Location
-        String ldaTermWeight = topicDir.value+"/BasicLDA/lda_TermWeightObject.ser";
-        if(!new File(ldaTermWeight).isFile()) ldaTermWeight=null;
-
-        String wtmTermWeight = topicDir.value+"/WTM/wtm_TermWeightObject.ser";
-        if(!new File(wtmTermWeight).isFile()) wtmTermWeight=null;
-
-        String bwtmTermWeight = topicDir.value+"/BWTM/bwtm_TermWeightObject.ser";
-        if(!new File(bwtmTermWeight).isFile()) bwtmTermWeight=null;
+        File ldaTermWeight = new File(topicDir.value+"/BasicLDA/lda_TermWeightObject.ser");
+        File wtmTermWeight = new File(topicDir.value+"/WTM/wtm_TermWeightObject.ser");
+        File bwtmTermWeight = new File(topicDir.value+"/BWTM/bwtm_TermWeightObject.ser");
 
-        String idfWtmTermWeight = topicDir.value+"/IdfWTM/idfWtm_TermWeightObject.ser";
-        if(!new File(idfWtmTermWeight).isFile()) idfWtmTermWeight=null;
-
-        String idfBwtmTermWeight = topicDir.value+"/IdfBWTM/idfBwtm_TermWeightObject.ser";
-        if(!new File(idfBwtmTermWeight).isFile()) idfBwtmTermWeight=null;
-
-        String idfTermWeight = topicDir.value+"/Idf_TermWeightObject.ser";
-        if(!new File(idfTermWeight).isFile()) {
-            idfTermWeight = topicDir.value+"/../Idf_TermWeightObject.ser";
-            if(!new File(idfTermWeight).isFile()) idfTermWeight=null;
-        }
+        File idfTermWeight = new File(topicDir.value+"/Idf_TermWeightObject.ser");
+        if(!idfTermWeight.isFile()) idfTermWeight = new File(topicDir.value+"/../Idf_TermWeightObject.ser");
 
         //Topic Model feature per each document from Topic Dir
-        String ldaTopicmodel = topicDir.value+"/BasicLDA/lda_TopicFeaturesPerDoc_Svmlight.txt";
-        if(!new File(ldaTopicmodel).isFile()) ldaTopicmodel=null;
-
-        String wtmTopicmodel = topicDir.value+"/WTM/wtm_TopicFeaturesPerDoc_Svmlight.txt";
-        if(!new File(wtmTopicmodel).isFile()) wtmTopicmodel=null;
-
-        String bwtmTopicmodel = topicDir.value+"/BWTM/bwtm_TopicFeaturesPerDoc_Svmlight.txt";
-        if(!new File(bwtmTopicmodel).isFile()) bwtmTopicmodel=null;
-
-        String idfWtmTopicmodel = topicDir.value+"/IdfWTM/idfWtm_TopicFeaturesPerDoc_Svmlight.txt";
-        if(!new File(idfWtmTopicmodel).isFile()) idfWtmTopicmodel=null;
-
-        String idfBwtmTopicmodel = topicDir.value+"/IdfBWTM/idfBwtm_TopicFeaturesPerDoc_Svmlight.txt";
-        if(!new File(idfBwtmTopicmodel).isFile()) idfBwtmTopicmodel=null;
-
-
-        //Bag of Words Output Directories
-        String dirTfBow1=null;
-        if(printTfBow1.value) {
-            String featureName = "TfBow1";
-            dirTfBow1 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirTfBow1);
-        }
-
-        String dirTfIdfBow2=null;
-        if(printTfIdfBow2.value) {
-            String featureName = "TfIdfBow2";
-            dirTfIdfBow2 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirTfIdfBow2);
-        }
-
-        String dirBasicLdaBow3=null;
-        if(printBasicLdaBow3.value) {
-            String featureName = "BasicLdaBow3";
-            dirBasicLdaBow3 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirBasicLdaBow3);
-        }
-
-        String dirWtmBow4=null;
-        if(printWtmBow4.value) {
-            String featureName = "WtmBow4";
-            dirWtmBow4 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirWtmBow4);
-        }
-
-        String dirBwtmBow5=null;
-        if(printBwtmBow5.value) {
-            String featureName = "BwtmBow5";
-            dirBwtmBow5 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirBwtmBow5);
-        }
-
-
-        //Topic Features Output Directories
-        String dirBasicLdaFeature1=null;
-        if(printBasicLdaFeature1.value) {
-            String featureName = "BasicLdaFeature1";
-            dirBasicLdaFeature1 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirBasicLdaFeature1);
-        }
-
-        String dirWtmFeature2=null;
-        if(printWtmFeature2.value) {
-            String featureName = "WtmFeature2";
-            dirWtmFeature2 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirWtmFeature2);
-        }
-
-        String dirBwtmFeature3=null;
-        if(printBwtmFeature3.value) {
-            String featureName = "BwtmFeature3";
-            dirBwtmFeature3 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirBwtmFeature3);
-        }
-
-        String dirIdfWtmFeature4=null;
-        if(printIdfWtmFeature4.value) {
-            String featureName = "IdfWtmFeature4";
-            dirIdfWtmFeature4 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirIdfWtmFeature4);
-        }
-
-        String dirIdfBwtmFeature5=null;
-        if(printIdfBwtmFeature5.value) {
-            String featureName = "IdfBwtmFeature5";
-            dirIdfBwtmFeature5 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirIdfBwtmFeature5);
-        }
-
-        //Topic and BOW Mixed Features Output Directories
-        String dirTfBasicldaMix1=null;
-        if(printTfBasicldaMix1.value) {
-            String featureName = "TfBasicldaMix1";
-            dirTfBasicldaMix1 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirTfBasicldaMix1);
-        }
-
-        String dirIdfBasicldaMix2=null;
-        if(printIdfBasicldaMix2.value) {
-            String featureName = "IdfBasicldaMix2";
-            dirIdfBasicldaMix2 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirIdfBasicldaMix2);
-        }
-
-        String dirWtmWtmMix3=null;
-        if(printWtmWtmMix3.value) {
-            String featureName = "WtmWtmMix3";
-            dirWtmWtmMix3 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirWtmWtmMix3);
-        }
-
-        String dirBwtmBwtmMix4=null;
-        if(printBwtmBwtmMix4.value) {
-            String featureName = "BwtmBwtmMix4";
-            dirBwtmBwtmMix4 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirBwtmBwtmMix4);
-        }
-
-        String dirWtmBwtmMix5=null;
-        if(printWtmBwtmMix5.value) {
-            String featureName = "WtmBwtmMix5";
-            dirWtmBwtmMix5 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirWtmBwtmMix5);
-        }
-
-        String dirBwtmWtmMix6=null;
-        if(printBwtmWtmMix6.value) {
-            String featureName = "BwtmWtmMix6";
-            dirBwtmWtmMix6 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirBwtmWtmMix6);
-        }
-
-        String dirIdfIdfWtmMix7=null;
-        if(printIdfIdfWtmMix7.value) {
-            String featureName = "IdfIdfWtmMix7";
-            dirIdfIdfWtmMix7 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirIdfIdfWtmMix7);
-        }
-
-        String dirIdfIdfBwtmMix8=null;
-        if(printIdfIdfBwtmMix8.value) {
-            String featureName = "IdfIdfBwtmMix8";
-            dirIdfIdfBwtmMix8 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirIdfIdfBwtmMix8);
-        }
-
-        String dirIdfWtmMix9=null;
-        if(printIdfWtmMix9.value) {
-            String featureName = "IdfWtmMix9";
-            dirIdfWtmMix9 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirIdfWtmMix9);
-        }
-
-        String dirIdfBwtmMix10=null;
-        if(printIdfBwtmMix10.value) {
-            String featureName = "IdfBwtmMix10";
-            dirIdfBwtmMix10 = outputRealDir+"/"+featureName+"/";
-            MyFileWriter.directoryConfirmAndMake(dirIdfBwtmMix10);
-        }
+        String ldaTopicmodel = topicDir.value+"/BasicLDA/lda";
+        String wtmTopicmodel = topicDir.value+"/WTM/wtm";
+        String bwtmTopicmodel = topicDir.value+"/BWTM/bwtm";
+        String idfWtmTopicmodel = topicDir.value+"/IdfWTM/idfWtm";
+        String idfBwtmTopicmodel = topicDir.value+"/IdfBWTM/idfBwtm";
 
 
         //Time print
@@ -659,580 +499,99 @@ public class Text2VariedSvmLightFeatures {
 
 
         //Real Start.
-        InstanceList trainInstances = new InstanceList (instancePipe);
-        InstanceList testInstances = new InstanceList (instancePipe);
-
-        boolean removeCommonPrefix = true;
-        trainInstances.addThruPipe (new FileIterator(trainDirectories, FileIterator.STARTING_DIRECTORIES, removeCommonPrefix));
-        testInstances.addThruPipe (new FileIterator(testDirectories, FileIterator.STARTING_DIRECTORIES, removeCommonPrefix));
-
-
-        // write train vector file
-		ObjectOutputStream oos;
-		oos = new ObjectOutputStream(new FileOutputStream(new File(malletTrainInstanceName)));
-		oos.writeObject(trainInstances);
-		oos.close();
-        System.out.println("Train instances file is written. Number of instances : " + trainInstances.size());
-
-        // write test vector file
-        oos = new ObjectOutputStream(new FileOutputStream(new File(malletTestInstanceName)));
-        oos.writeObject(testInstances);
-        oos.close();
-        System.out.println("Test instances file is written. Number of instances : " + testInstances.size());
-
-
-
-        //Print Bag of Words Features
-        //args 0: "--input"
-        //args 1: input file directory
-        //args 2: "--output"
-        //args 3: output PreName
-        //args 4: "--training-doc-num"
-        //args 5: training document number for hurdle
-        //args 6: "--weightedinput"
-        //args 7: For Term Weight
-
-
-        if(printTfBow1.value) {
-            System.out.println("Printing TfBow1 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                int inputArgsNum = 4;
-                String[] bowArgs = new String[inputArgsNum];
-                bowArgs[0]="--input";
-
-                if(tr=="train") bowArgs[1]=malletTrainInstanceName;
-                if(tr=="test") bowArgs[1]=malletTestInstanceName;
-
-                bowArgs[2]="--output";
-                bowArgs[3]=dirTfBow1+tr;
-
-                Vectors2SvmStyleBow.main(bowArgs);
-            }
-            String[] pipeArgs = new String[4]; // for Pipe generation.
-            pipeArgs[0]="--input";
-            pipeArgs[1]=dirTfBow1+strTrain+"_Svmlight.txt";
-            pipeArgs[2]="--output";
-            pipeArgs[3]=dirTfBow1+strTrain+suffixPipe;
-            SvmLight2Vectors.main(pipeArgs);
-        }
-
-        if(printTfIdfBow2.value) {
-            System.out.println("Printing TfIdfBow2 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                int inputArgsNum = 8;
-                String[] bowArgs = new String[inputArgsNum];
-                bowArgs[0]="--input";
-                if(tr=="train") bowArgs[1]=malletTrainInstanceName;
-                if(tr=="test") bowArgs[1]=malletTestInstanceName;
-
-                bowArgs[2]="--output";
-                bowArgs[3]=dirTfIdfBow2+tr;
-
-                bowArgs[4]="--training-doc-num";
-                bowArgs[5]=Integer.toString(trainInstances.size());
-
-                bowArgs[6]="--weightedinput";
-                bowArgs[7]=idfTermWeight;
-
-                Vectors2SvmStyleBow.main(bowArgs);
-            }
-            String[] pipeArgs = new String[4]; // for Pipe generation.
-            pipeArgs[0]="--input";
-            pipeArgs[1]=dirTfIdfBow2+strTrain+"_Svmlight.txt";
-            pipeArgs[2]="--output";
-            pipeArgs[3]=dirTfIdfBow2+strTrain+"_pipe.mallet";
-            SvmLight2Vectors.main(pipeArgs);
-        }
-
-        if(printBasicLdaBow3.value) {
-            System.out.println("Printing BasicLdaBow3 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                int inputArgsNum = 8;
-                String[] bowArgs = new String[inputArgsNum];
-                bowArgs[0]="--input";
-                if(tr=="train") bowArgs[1]=malletTrainInstanceName;
-                if(tr=="test") bowArgs[1]=malletTestInstanceName;
-
-                bowArgs[2]="--output";
-                bowArgs[3]=dirBasicLdaBow3+tr;
-
-                bowArgs[4]="--training-doc-num";
-                bowArgs[5]=Integer.toString(trainInstances.size());
-
-                bowArgs[6]="--weightedinput";
-                bowArgs[7]=ldaTermWeight;
-
-                Vectors2SvmStyleBow.main(bowArgs);
-            }
-            String[] pipeArgs = new String[4]; // for Pipe generation.
-            pipeArgs[0]="--input";
-            pipeArgs[1]=dirBasicLdaBow3+strTrain+"_Svmlight.txt";
-            pipeArgs[2]="--output";
-            pipeArgs[3]=dirBasicLdaBow3+strTrain+"_pipe.mallet";
-            SvmLight2Vectors.main(pipeArgs);
-        }
-
-        if(printWtmBow4.value) {
-            System.out.println("Printing WtmBow4 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                int inputArgsNum = 8;
-                String[] bowArgs = new String[inputArgsNum];
-                bowArgs[0]="--input";
-                if(tr=="train") bowArgs[1]=malletTrainInstanceName;
-                if(tr=="test") bowArgs[1]=malletTestInstanceName;
-
-                bowArgs[2]="--output";
-                bowArgs[3]=dirWtmBow4+tr;
-
-                bowArgs[4]="--training-doc-num";
-                bowArgs[5]=Integer.toString(trainInstances.size());
-
-                bowArgs[6]="--weightedinput";
-                bowArgs[7]=wtmTermWeight;
-
-                Vectors2SvmStyleBow.main(bowArgs);
-            }
-            String[] pipeArgs = new String[4]; // for Pipe generation.
-            pipeArgs[0]="--input";
-            pipeArgs[1]=dirWtmBow4+strTrain+"_Svmlight.txt";
-            pipeArgs[2]="--output";
-            pipeArgs[3]=dirWtmBow4+strTrain+"_pipe.mallet";
-            SvmLight2Vectors.main(pipeArgs);
-        }
-
-        if(printBwtmBow5.value) {
-            System.out.println("Printing BwtmBow5 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                int inputArgsNum = 8;
-                String[] bowArgs = new String[inputArgsNum];
-                bowArgs[0]="--input";
-                if(tr=="train") bowArgs[1]=malletTrainInstanceName;
-                if(tr=="test") bowArgs[1]=malletTestInstanceName;
-
-                bowArgs[2]="--output";
-                bowArgs[3]=dirBwtmBow5+tr;
-
-                bowArgs[4]="--training-doc-num";
-                bowArgs[5]=Integer.toString(trainInstances.size());
-
-                bowArgs[6]="--weightedinput";
-                bowArgs[7]=bwtmTermWeight;
-
-                Vectors2SvmStyleBow.main(bowArgs);
-            }
-            String[] pipeArgs = new String[4]; // for Pipe generation.
-            pipeArgs[0]="--input";
-            pipeArgs[1]=dirBwtmBow5+strTrain+"_Svmlight.txt";
-            pipeArgs[2]="--output";
-            pipeArgs[3]=dirBwtmBow5+strTrain+"_pipe.mallet";
-            SvmLight2Vectors.main(pipeArgs);
-        }
-
-
-        //Print Topic Features
-        //args 0: "--input"
-        //args 1: input file1 (BOW) Always you have to load this file if you just use topic feature. (tr/ts)
-        //args 2: input file2 (Topic Model)
-        //args 3: "--inputfnum"
-        //args 4: alphabet max size
-        //args 5: topic number
-        String strTopicNum = "50";
-        //args 6: "--output"
-        //args 7: always training vector
-        //args 8: "--statsoutput"
-        //args 9: always training vector
-        //args 10: "--training-doc-num"
-        //args 11: always training vector
-        //args 12: "--print2ndOnly"
-        //args 13: if true, print only topic feature. So this is mandatory for topic feature.
-        int inputArgsNum = 14;
-
-        if(printBasicLdaFeature1.value) {
-            System.out.println("Printing BasicLdaFeature1 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] featureArgs = new String[inputArgsNum];
-                featureArgs[0]="--input";
-                featureArgs[1]=dirTfBow1+tr+suffixSvmTxt; //training and test switched
-                featureArgs[2]=ldaTopicmodel; //topic feature
-
-                featureArgs[3]="--inputfnum";
-                featureArgs[4]= String.valueOf(trainInstances.getAlphabet().size());
-                featureArgs[5]=strTopicNum; //topic number. defualt is 50.
-
-                featureArgs[6]="--output";
-                featureArgs[7]= dirBasicLdaFeature1+tr+suffixSvmTxt; //training and test switched
-                featureArgs[8]="--statsoutput";
-                featureArgs[9]= dirBasicLdaFeature1+tr+suffixStatTxt; //training and test switched
-
-                featureArgs[10]="--training-doc-num";
-                featureArgs[11]=Integer.toString(trainInstances.size());
-
-                featureArgs[12]="--print2ndOnly";
-                featureArgs[13]="true";
-
-                SvmLights2SvmLight.main(featureArgs);
-            }
-        }
-
-        if(printWtmFeature2.value) {
-            System.out.println("Printing WtmFeature2 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] featureArgs = new String[inputArgsNum];
-                featureArgs[0]="--input";
-                featureArgs[1]=dirTfBow1+tr+suffixSvmTxt; //training and test switched
-                featureArgs[2]=wtmTopicmodel; //topic feature
-
-                featureArgs[3]="--inputfnum";
-                featureArgs[4]= String.valueOf(trainInstances.getAlphabet().size());
-                featureArgs[5]=strTopicNum; //topic number. defualt is 50.
-
-                featureArgs[6]="--output";
-                featureArgs[7]= dirWtmFeature2+tr+suffixSvmTxt; //training and test switched
-                featureArgs[8]="--statsoutput";
-                featureArgs[9]= dirWtmFeature2+tr+suffixStatTxt; //training and test switched
-
-                featureArgs[10]="--training-doc-num";
-                featureArgs[11]=Integer.toString(trainInstances.size());
-
-                featureArgs[12]="--print2ndOnly";
-                featureArgs[13]="true";
-
-                SvmLights2SvmLight.main(featureArgs);
-            }
-        }
-
-        if(printBwtmFeature3.value) {
-            System.out.println("Printing BwtmFeature3 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] featureArgs = new String[inputArgsNum];
-                featureArgs[0]="--input";
-                featureArgs[1]=dirTfBow1+tr+suffixSvmTxt; //training and test switched
-                featureArgs[2]=bwtmTopicmodel; //topic feature **
-
-                featureArgs[3]="--inputfnum";
-                featureArgs[4]= String.valueOf(trainInstances.getAlphabet().size());
-                featureArgs[5]=strTopicNum; //topic number. defualt is 50.
-
-                featureArgs[6]="--output";
-                featureArgs[7]= dirBwtmFeature3+tr+suffixSvmTxt; //training and test switched **
-                featureArgs[8]="--statsoutput";
-                featureArgs[9]= dirBwtmFeature3+tr+suffixStatTxt; //training and test switched **
-
-                featureArgs[10]="--training-doc-num";
-                featureArgs[11]=Integer.toString(trainInstances.size());
-
-                featureArgs[12]="--print2ndOnly";
-                featureArgs[13]="true";
-
-                SvmLights2SvmLight.main(featureArgs);
-            }
-        }
-
-        if(printIdfWtmFeature4.value) {
-            System.out.println("Printing IdfWtmFeature4 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] featureArgs = new String[inputArgsNum];
-                featureArgs[0]="--input";
-                featureArgs[1]=dirTfBow1+tr+suffixSvmTxt; //training and test switched
-                featureArgs[2]=idfWtmTopicmodel; //topic feature **
-
-                featureArgs[3]="--inputfnum";
-                featureArgs[4]= String.valueOf(trainInstances.getAlphabet().size());
-                featureArgs[5]=strTopicNum; //topic number. defualt is 50.
-
-                featureArgs[6]="--output";
-                featureArgs[7]= dirIdfWtmFeature4+tr+suffixSvmTxt; //training and test switched **
-                featureArgs[8]="--statsoutput";
-                featureArgs[9]= dirIdfWtmFeature4+tr+suffixStatTxt; //training and test switched **
-
-                featureArgs[10]="--training-doc-num";
-                featureArgs[11]=Integer.toString(trainInstances.size());
-
-                featureArgs[12]="--print2ndOnly";
-                featureArgs[13]="true";
-
-                SvmLights2SvmLight.main(featureArgs);
-            }
-        }
-
-        if(printIdfBwtmFeature5.value) {
-            System.out.println("Printing IdfBwtmFeature5 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] featureArgs = new String[inputArgsNum];
-                featureArgs[0]="--input";
-                featureArgs[1]=dirTfBow1+tr+suffixSvmTxt; //training and test switched
-                featureArgs[2]=idfBwtmTopicmodel; //topic feature **
-
-                featureArgs[3]="--inputfnum";
-                featureArgs[4]= String.valueOf(trainInstances.getAlphabet().size());
-                featureArgs[5]=strTopicNum; //topic number. defualt is 50.
-
-                featureArgs[6]="--output";
-                featureArgs[7]= dirIdfBwtmFeature5+tr+suffixSvmTxt; //training and test switched **
-                featureArgs[8]="--statsoutput";
-                featureArgs[9]= dirIdfBwtmFeature5+tr+suffixStatTxt; //training and test switched **
-
-                featureArgs[10]="--training-doc-num";
-                featureArgs[11]=Integer.toString(trainInstances.size());
-
-                featureArgs[12]="--print2ndOnly";
-                featureArgs[13]="true";
-
-                SvmLights2SvmLight.main(featureArgs);
-            }
-        }
-
-
-        // Topic and BOW Mixed Features
-        //Mix.1. Basic TF + Basic LDA
-//        --use-pipe-from
-//        data/corpus/20news-forMyExp/tr20/train_svmlight_forpipe.mallet
-
-        inputArgsNum = 16;
-        if(printTfBasicldaMix1.value) {
-            System.out.println("Printing TfBasicldaMix1 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirTfBow1+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=ldaTopicmodel; //topic feature
-
-                mixArgs[3]="--inputfnum";
-                mixArgs[4]= String.valueOf(trainInstances.getAlphabet().size());
-                mixArgs[5]= strTopicNum; //topic number. defualt is 50.
-
-                mixArgs[6]="--output";
-                mixArgs[7]= dirTfBasicldaMix1+tr+suffixSvmTxt; //training and test switched
-                mixArgs[8]="--statsoutput";
-                mixArgs[9]= dirTfBasicldaMix1+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[10]="--training-doc-num";
-                mixArgs[11]=Integer.toString(trainInstances.size());
-
-                mixArgs[12]="--print2ndOnly";
-                mixArgs[13]="false";
-
-                mixArgs[14]="--use-pipe-from";
-                mixArgs[15]=dirTfBow1+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-
-
-            }
-        }
-
-        inputArgsNum = 9;
-        //Mix.2. tf*idf + Basic LDA
-        if(printIdfBasicldaMix2.value) {
-            System.out.println("Printing IdfBasicldaMix2 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirTfIdfBow2+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=ldaTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirIdfBasicldaMix2+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirIdfBasicldaMix2+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirTfIdfBow2+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
-        }
-
-        //Mix.3. wtm + wtm
-        if(printWtmWtmMix3.value) {
-            System.out.println("Printing WtmWtmMix3 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirWtmBow4+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=wtmTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirWtmWtmMix3+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirWtmWtmMix3+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirWtmBow4+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
-        }
-
-        //Mix.4. bwtm + bwtm
-        if(printBwtmBwtmMix4.value) {
-            System.out.println("Printing BwtmBwtmMix4 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirBwtmBow5+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=bwtmTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirBwtmBwtmMix4+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirBwtmBwtmMix4+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirBwtmBow5+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
-        }
-
-        //Mix.5. wtm + bwtm
-        if(printWtmBwtmMix5.value) {
-            System.out.println("Printing WtmBwtmMix5 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirWtmBow4+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=bwtmTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirWtmBwtmMix5+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirWtmBwtmMix5+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirWtmBow4+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
-        }
-
-        //Mix.6. bwtm + wtm
-        if(printBwtmWtmMix6.value) {
-            System.out.println("Printing BwtmWtmMix6 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirBwtmBow5+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=wtmTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirBwtmWtmMix6+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirBwtmWtmMix6+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirBwtmBow5+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
-        }
-
-        //Mix.7. idf + idfwtm
-        if(printIdfIdfWtmMix7.value) {
-            System.out.println("Printing IdfIdfWtmMix7 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirTfIdfBow2+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=idfWtmTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirIdfIdfWtmMix7+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirIdfIdfWtmMix7+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirTfIdfBow2+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
-        }
-
-        //Mix.8. idf + idfbwtm
-        if(printIdfIdfBwtmMix8.value) {
-            System.out.println("Printing IdfIdfBwtmMix8 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirTfIdfBow2+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=idfBwtmTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirIdfIdfBwtmMix8+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirIdfIdfBwtmMix8+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirTfIdfBow2+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
-        }
-
-        //Mix.9. idf + wtm
-        if(printIdfWtmMix9.value) {
-            System.out.println("Printing IdfWtmMix9 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirTfIdfBow2+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=wtmTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirIdfWtmMix9+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirIdfWtmMix9+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirTfIdfBow2+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
-        }
-
-        //Mix.10. idf + bwtm
-        if(printIdfBwtmMix10.value) {
-            System.out.println("Printing IdfBwtmMix10 start at " + dateFormat.format(Calendar.getInstance().getTime()));
-
-            for(String tr:strTrTs){
-                String[] mixArgs = new String[inputArgsNum];
-                mixArgs[0]="--input";
-                mixArgs[1]=dirTfIdfBow2+tr+suffixSvmTxt; //training and test switched
-                mixArgs[2]=bwtmTopicmodel; //topic feature
-
-                mixArgs[3]="--output";
-                mixArgs[4]= dirIdfBwtmMix10+tr+suffixSvmTxt; //training and test switched
-                mixArgs[5]="--statsoutput";
-                mixArgs[6]= dirIdfBwtmMix10+tr+suffixStatTxt; //training and test switched
-
-                mixArgs[7]="--use-pipe-from";
-                mixArgs[8]=dirTfIdfBow2+strTrain+suffixPipe;
-
-                SvmLights2SvmLight.main(mixArgs);
-            }
+        // Count the documents and labels first (file names only), they are needed before the first row is written.
+        int numTrainingDocs = 0;
+        Set<Object> labels = new HashSet<Object>();
+        if (instancePipe.getTargetAlphabet() != null) {
+            for (int i = 0; i < instancePipe.getTargetAlphabet().size(); i++) labels.add(instancePipe.getTargetAlphabet().lookupObject(i));
+        }
+        Iterator<Instance> files = new FileIterator(trainDirectories, FileIterator.STARTING_DIRECTORIES, true);
+        while (files.hasNext()) {
+            labels.add(files.next().getTarget());
+            numTrainingDocs++;
+        }
+        files = new FileIterator(testDirectories, FileIterator.STARTING_DIRECTORIES, true);
+        while (files.hasNext()) {
+            labels.add(files.next().getTarget());
+        }
+
+        VariedFeatureSetWriter writer = new VariedFeatureSetWriter(instancePipe.getDataAlphabet(), instancePipe.getTargetAlphabet(),
+                binaryMatrix, true, numTrainingDocs, labels.size());
+        String dir = outputRealDir + "/";
+
+        //Bag of Words Features
+        if(printTfBow1.value) writer.addFeatureSet(dir+"TfBow1/", true, null, null);
+        if(printTfIdfBow2.value) writer.addFeatureSet(dir+"TfIdfBow2/", true, idfTermWeight, null);
+        if(printBasicLdaBow3.value) writer.addFeatureSet(dir+"BasicLdaBow3/", true, ldaTermWeight, null);
+        if(printWtmBow4.value) writer.addFeatureSet(dir+"WtmBow4/", true, wtmTermWeight, null);
+        if(printBwtmBow5.value) writer.addFeatureSet(dir+"BwtmBow5/", true, bwtmTermWeight, null);
+
+        //Topic Features
+        if(printBasicLdaFeature1.value) writer.addFeatureSet(dir+"BasicLdaFeature1/", false, null, getTopicFeatureMatrix(ldaTopicmodel, outputRealDir));
+        if(printWtmFeature2.value) writer.addFeatureSet(dir+"WtmFeature2/", false, null, getTopicFeatureMatrix(wtmTopicmodel, outputRealDir));
+        if(printBwtmFeature3.value) writer.addFeatureSet(dir+"BwtmFeature3/", false, null, getTopicFeatureMatrix(bwtmTopicmodel, outputRealDir));
+        if(printIdfWtmFeature4.value) writer.addFeatureSet(dir+"IdfWtmFeature4/", false, null, getTopicFeatureMatrix(idfWtmTopicmodel, outputRealDir));
+        if(printIdfBwtmFeature5.value) writer.addFeatureSet(dir+"IdfBwtmFeature5/", false, null, getTopicFeatureMatrix(idfBwtmTopicmodel, outputRealDir));
+
+        //Topic and BOW Mixed Features
+        if(printTfBasicldaMix1.value) writer.addFeatureSet(dir+"TfBasicldaMix1/", true, null, getTopicFeatureMatrix(ldaTopicmodel, outputRealDir));
+        if(printIdfBasicldaMix2.value) writer.addFeatureSet(dir+"IdfBasicldaMix2/", true, idfTermWeight, getTopicFeatureMatrix(ldaTopicmodel, outputRealDir));
+        if(printWtmWtmMix3.value) writer.addFeatureSet(dir+"WtmWtmMix3/", true, wtmTermWeight, getTopicFeatureMatrix(wtmTopicmodel, outputRealDir));
+        if(printBwtmBwtmMix4.value) writer.addFeatureSet(dir+"BwtmBwtmMix4/", true, bwtmTermWeight, getTopicFeatureMatrix(bwtmTopicmodel, outputRealDir));
+        if(printWtmBwtmMix5.value) writer.addFeatureSet(dir+"WtmBwtmMix5/", true, wtmTermWeight, getTopicFeatureMatrix(bwtmTopicmodel, outputRealDir));
+        if(printBwtmWtmMix6.value) writer.addFeatureSet(dir+"BwtmWtmMix6/", true, bwtmTermWeight, getTopicFeatureMatrix(wtmTopicmodel, outputRealDir));
+        if(printIdfIdfWtmMix7.value) writer.addFeatureSet(dir+"IdfIdfWtmMix7/", true, idfTermWeight, getTopicFeatureMatrix(idfWtmTopicmodel, outputRealDir));
+        if(printIdfIdfBwtmMix8.value) writer.addFeatureSet(dir+"IdfIdfBwtmMix8/", true, idfTermWeight, getTopicFeatureMatrix(idfBwtmTopicmodel, outputRealDir));
+        if(printIdfWtmMix9.value) writer.addFeatureSet(dir+"IdfWtmMix9/", true, idfTermWeight, getTopicFeatureMatrix(wtmTopicmodel, outputRealDir));
+        if(printIdfBwtmMix10.value) writer.addFeatureSet(dir+"IdfBwtmMix10/", true, idfTermWeight, getTopicFeatureMatrix(bwtmTopicmodel, outputRealDir));
+
+        // One pass: every document is read, piped and written to all feature sets, then dropped
+        System.out.println("Printing " + writer.numFeatureSets() + " feature sets start at " + dateFormat.format(Calendar.getInstance().getTime()));
+        InstanceList trainInstances = saveInstanceLists.value ? new InstanceList (instancePipe) : null;
+        InstanceList testInstances = saveInstanceLists.value ? new InstanceList (instancePipe) : null;
+        int numTrain = writeFeatureSets(writer, instancePipe, trainDirectories, true, trainInstances);
+        int numTest = writeFeatureSets(writer, instancePipe, testDirectories, false, testInstances);
+        writer.close();
+        System.out.println("Feature sets are written. Number of instances : " + numTrain + " train, " + numTest + " test");
+
+        if (saveInstanceLists.value) {
+            trainInstances.save(new File(outputRealDir+"/train.mallet"));
+            testInstances.save(new File(outputRealDir+"/test.mallet"));
         }
 
         System.out.println("All Jobs finished at "+dateFormat.format(Calendar.getInstance().getTime()));
 
 	}
 
+    /** Pipe the documents of the directories one at a time and write each to all feature sets. */
+    private static int writeFeatureSets(VariedFeatureSetWriter writer, Pipe instancePipe, File[] directories,
+                                        boolean training, InstanceList keep) throws IOException {
+        Iterator<Instance> documents = instancePipe.newIteratorFrom(
+                new FileIterator(directories, FileIterator.STARTING_DIRECTORIES, true));
+        int numDocs = 0;
+        while (documents.hasNext()) {
+            Instance instance = documents.next();
+            writer.write(training, instance);
+            if (keep != null) keep.add(instance);
+            numDocs++;
+        }
+        return numDocs;
+    }
+
+    /**
+     * The binary topic features written by WeightedTopicModel for a model output name. If the model only has
+     * the text file, it is converted once into the output directory.
+     */
+    private static File getTopicFeatureMatrix(String topicModelPreName, String outputRealDir) throws IOException {
+        File matrix = new File(topicModelPreName + "_TopicFeaturesPerDoc" + SparseFeatureMatrix.FILE_SUFFIX);
+        File text = new File(topicModelPreName + "_TopicFeaturesPerDoc_Svmlight.txt");
+        if (matrix.isFile() || !text.isFile()) return matrix;
+
+        File converted = new File(outputRealDir, matrix.getName());
+        if (!converted.isFile() || converted.lastModified() < text.lastModified()) {
+            SparseFeatureMatrix.convertSvmLight(text, converted);
+        }
+        return converted;
+    }
+
 }
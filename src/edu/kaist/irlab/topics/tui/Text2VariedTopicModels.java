@@ -10,6 +10,10 @@ package edu.kaist.irlab.topics.tui;
 
 import cc.mallet.pipe.*;
 import cc.mallet.pipe.iterator.FileIterator;
+import cc.mallet.pipe.iterator.ParallelFileIterator;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.ConcurrentAlphabet;
+import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import cc.mallet.util.CharSequenceLexer;
 import cc.mallet.util.CommandOption;
@@ -25,6 +29,9 @@ import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -114,6 +121,44 @@ public class Text2VariedTopicModels {
             (Text2VariedTopicModels.class, "alpha", "DECIMAL", true, 50.0,
                     "Alpha parameter: smoothing over topic distribution.",null);
 
+    static CommandOption.Integer numThreads = new CommandOption.Integer
+            (Text2VariedTopicModels.class, "num-threads", "INTEGER", true, 1,
+                    "The number of threads for importing the documents and for parallel Gibbs sampling of each topic model.", null);
+
+    static CommandOption.Boolean concurrentAlphabet = new CommandOption.Boolean
+            (Text2VariedTopicModels.class, "concurrent-alphabet", "true|false", true, false,
+                    "With several threads, also add the words of the documents to the alphabet on the import threads.\n" +
+                    "   The words are then numbered in the order the threads reach them, so runs with the same seed give different models.", null);
+
+    static CommandOption.Boolean concurrentModels = new CommandOption.Boolean
+            (Text2VariedTopicModels.class, "concurrent-models", "true|false", true, false,
+                    "Train all requested topic models at the same time on the same instance list.", null);
+
+    static CommandOption.Integer checkpointInterval = new CommandOption.Integer
+            (Text2VariedTopicModels.class, "checkpoint-interval", "INTEGER", true, 0,
+                    "Write the sampling state of each topic model to <model>_Checkpoint.bin every this many iterations. 0 for never.\n" +
+                    "   The random number generators are not saved, so a resumed run does not repeat the samples of an uninterrupted one.", null);
+
+    static CommandOption.Boolean resume = new CommandOption.Boolean
+            (Text2VariedTopicModels.class, "resume", "true|false", true, false,
+                    "Continue each topic model from its checkpoint of an interrupted run in the same output directory.\n" +
+                    "   Sampling goes on with new random numbers, so the result differs from an uninterrupted run with the same seed.", null);
+
+    static CommandOption.Boolean asyncLikelihood = new CommandOption.Boolean
+            (Text2VariedTopicModels.class, "async-likelihood", "true|false", true, false,
+                    "Compute the likelihoods of each topic model on a copy of its counts while sampling goes on.", null);
+
+    static CommandOption.Boolean binaryVectors = new CommandOption.Boolean
+            (Text2VariedTopicModels.class, "binary-vectors", "true|false", true, false,
+                    "Write the instance list in the memory-mapped binary format, with its alphabets in TextFeatureVector.mallet.alphabets. " +
+                    "Used only when the final data is a plain FeatureSequence. " +
+                    "The weighted topic models trained one after another then sample from the mapped file instead of loading the instances.", null);
+
+    static CommandOption.Double weightRefreshTolerance = new CommandOption.Double
+            (Text2VariedTopicModels.class, "weight-refresh-tolerance", "DECIMAL", true, 0.0,
+                    "Recompute all variance term weights only when a topic total has moved by more than this fraction since the last full computation; " +
+                    "otherwise only the weights of the types whose counts changed are updated. 0 recomputes every weight every iteration, as the exact model does.", null);
+
     //Empirical Likelihood Test
     static CommandOption.String elTestingFile = new CommandOption.String
             (Text2VariedTopicModels.class, "el-testing-file", "FILE", false, null,
@@ -352,31 +397,13 @@ public class Text2VariedTopicModels {
 				}
 			}
 
-			// Add the tokenizer
-			pipeList.add(new CharSequence2TokenSequence(tokenPattern));
-
-			// Allow user to specify an arbitrary Pipe object
-			//  that operates on TokenSequence objects.
-			if (tokenPipe.wasInvoked()) {
-				pipeList.add( (Pipe) tokenPipe.value );
-			}
-
-			if (! preserveCase.value()) {
-				pipeList.add(new TokenSequenceLowercase());
-			}
-
-			if (keepSequenceBigrams.value) {
-				// Remove non-word tokens, but record the fact that they
-				//  were there.
-				pipeList.add(new TokenSequenceRemoveNonAlpha(true));
-			}
-
 			// Stopword removal.
+			TokenSequenceRemoveStopwords stopwordFilter = null;
 			if (stoplistFile.wasInvoked()) {
 
 				// The user specified a new list
 
-				TokenSequenceRemoveStopwords stopwordFilter =
+				stopwordFilter =
 					new TokenSequenceRemoveStopwords(stoplistFile.value,
 													 encoding.value,
 													 false, // don't include default list
@@ -386,39 +413,72 @@ public class Text2VariedTopicModels {
 				if (extraStopwordsFile.wasInvoked()) {
 					stopwordFilter.addStopWords(extraStopwordsFile.value);
 				}
-
-				pipeList.add(stopwordFilter);
 			}
 			else if (removeStopWords.value) {
 
 				// The user did not specify a new list, so use the default
 				//  built-in English list, possibly adding extra words.
 
-				TokenSequenceRemoveStopwords stopwordFilter =
+				stopwordFilter =
 					new TokenSequenceRemoveStopwords(false, keepSequenceBigrams.value);
 
 				if (extraStopwordsFile.wasInvoked()) {
 					stopwordFilter.addStopWords(extraStopwordsFile.value);
 				}
+			}
 
-				pipeList.add(stopwordFilter);
+			boolean defaultGramSizes = gramSizes.value.length == 1 && gramSizes.value[0] == 1;
 
-			}
+			// A plain alphabet keeps the feature pipe on one thread, so the words are numbered in document order
+			Alphabet dataAlphabet = concurrentAlphabet.value && numThreads.value > 1 ? new ConcurrentAlphabet() : new Alphabet();
 
-			// gramSizes is an integer array, with default value [1].
-			//  Check if we have a non-default value.
-			if (! (gramSizes.value.length == 1 && gramSizes.value[0] == 1)) {
-				pipeList.add( new TokenSequenceNGrams(gramSizes.value) );
-			}
+			if (! keepSequenceBigrams.value && ! tokenPipe.wasInvoked() && defaultGramSizes &&
+				CharSequence2FeatureSequence.supports(tokenPattern)) {
 
-			// So far we have a sequence of Token objects that contain
-			//  String values. Look these up in an alphabet and store integer IDs
-			//  ("features") instead of Strings.
-			if (keepSequenceBigrams.value) {
-				pipeList.add( new TokenSequence2FeatureSequenceWithBigrams() );
+				// Tokenize, lowercase, remove stopwords and look up the features
+				//  in one pass, without making Token objects.
+				pipeList.add(new CharSequence2FeatureSequence(tokenPattern, ! preserveCase.value(), stopwordFilter, dataAlphabet));
 			}
 			else {
-				pipeList.add( new TokenSequence2FeatureSequence() );
+
+				// Add the tokenizer
+				pipeList.add(new CharSequence2TokenSequence(tokenPattern));
+
+				// Allow user to specify an arbitrary Pipe object
+				//  that operates on TokenSequence objects.
+				if (tokenPipe.wasInvoked()) {
+					pipeList.add( (Pipe) tokenPipe.value );
+				}
+
+				if (! preserveCase.value()) {
+					pipeList.add(new TokenSequenceLowercase());
+				}
+
+				if (keepSequenceBigrams.value) {
+					// Remove non-word tokens, but record the fact that they
+					//  were there.
+					pipeList.add(new TokenSequenceRemoveNonAlpha(true));
+				}
+
+				if (stopwordFilter != null) {
+					pipeList.add(stopwordFilter);
+				}
+
+				// gramSizes is an integer array, with default value [1].
+				//  Check if we have a non-default value.
+				if (! defaultGramSizes) {
+					pipeList.add( new TokenSequenceNGrams(gramSizes.value) );
+				}
+
+				// So far we have a sequence of Token objects that contain
+				//  String values. Look these up in an alphabet and store integer IDs
+				//  ("features") instead of Strings.
+				if (keepSequenceBigrams.value) {
+					pipeList.add( new TokenSequence2FeatureSequenceWithBigrams() );
+				}
+				else {
+					pipeList.add( new TokenSequence2FeatureSequence(dataAlphabet) );
+				}
 			}
 
 			// For many applications, we do not need to preserve the sequence of features,
@@ -444,7 +504,15 @@ public class Text2VariedTopicModels {
         InstanceList instances = new InstanceList (instancePipe);
 
 		boolean removeCommonPrefix = true;
-		instances.addThruPipe (new FileIterator(directories, FileIterator.STARTING_DIRECTORIES, removeCommonPrefix));
+		Iterator<Instance> files;
+		if (numThreads.value > 1) {
+			// List the directories and read the files ahead on the same number of threads
+			files = new ParallelFileIterator(directories, FileIterator.STARTING_DIRECTORIES, removeCommonPrefix, numThreads.value);
+		}
+		else {
+			files = new FileIterator(directories, FileIterator.STARTING_DIRECTORIES, removeCommonPrefix);
+		}
+		instances.addThruPipe (files, numThreads.value);
 
         //Making directory for all output files.
         MyFileWriter.directoryConfirmAndMake(outputRealDir);
@@ -452,9 +520,14 @@ public class Text2VariedTopicModels {
 
         // write vector file
 		ObjectOutputStream oos;
-		oos = new ObjectOutputStream(new FileOutputStream(new File(textInputInstanceName)));
-		oos.writeObject(instances);
-		oos.close();
+		if (binaryVectors.value && keepSequence.value && !keepSequenceBigrams.value) {
+			instances.saveBinary(new File(textInputInstanceName));
+		}
+		else {
+			oos = new ObjectOutputStream(new FileOutputStream(new File(textInputInstanceName)));
+			oos.writeObject(instances);
+			oos.close();
+		}
         System.out.println("Input instances file is written. Number of instances : " + instances.size());
 
 
@@ -471,13 +544,15 @@ public class Text2VariedTopicModels {
             calendar = Calendar.getInstance();
             System.out.println("Idf Term Weight Printing start at "+dateFormat.format(calendar.getTime()));
             System.out.println("Calculating Inverse Document Frequency per each dictionary type ...");
-            TermWeight idfTermWeight = Vectors2IdfWeight.getIdfTermWeight(instances);
+            TermWeight idfTermWeight = Vectors2IdfWeight.getIdfTermWeight(instances, numThreads.value);
             MyFileWriter.writeObject(idfTermWeight,idfTermWeightObjectFileName);
             Vectors2IdfWeight.writeTermWeightList(idfTermWeight,idfTermWeightListFileName);
             System.out.println("Idf Term Weight files are written. Type number : "+ idfTermWeight.typeAlphabet.size());
         }
 
         //All Topic Modeling Start.
+        //With --concurrent-models, arguments are collected here and all models are trained together at the end.
+        List<String[]> concurrentModelArgs = new ArrayList<String[]>();
 
         //args 0: all files vector. This vector is maded by Text2Vectors or Text2WeightedTopicModel
         //args 1: number of topic
@@ -488,13 +563,18 @@ public class Text2VariedTopicModels {
         //args 6: True/False for Balance Weighted Topic Model
         //args 7: Test file name and location for Empirical Likelihood.
         //args 8: IDF Term Weight File Location
+        //args 9: Number of sampling threads
+        //args 10: Checkpoint interval
+        //args 11: True/False for resuming from the checkpoint
+        //args 12: True/False for computing the likelihoods while sampling goes on
+        //args 13: Variance term weight refresh tolerance (0: exact weights every iteration)
 
         //Execution Basic Latent Dirichlet Allocation.
         if(doBasicLDA.value){
             calendar = Calendar.getInstance();
             System.out.println("Basic LDA start at "+dateFormat.format(calendar.getTime()));
 
-            int inputArgsNum = 9;
+            int inputArgsNum = 14;
             String[] tmArgs = new String[inputArgsNum];
             tmArgs[0]=textInputInstanceName; //Instances
             tmArgs[1]=Integer.toString(numTopics.value); //Topic K Number.
@@ -505,8 +585,14 @@ public class Text2VariedTopicModels {
             tmArgs[6]="false"; //for Balance.
             tmArgs[7]=elTestingFile.value; //For Empirical Likelihood. If 'null', no empirical likelihood.
             tmArgs[8]=null; //This is used for Idf Weighting.
-
-            WeightedTopicModel.execution(tmArgs);
+            tmArgs[9]=Integer.toString(numThreads.value); //Number of sampling threads.
+            tmArgs[10]=Integer.toString(checkpointInterval.value); //Checkpoint of the sampling state every this many iterations.
+            tmArgs[11]=Boolean.toString(resume.value); //Continue from the checkpoint of an interrupted run.
+            tmArgs[12]=Boolean.toString(asyncLikelihood.value); //Likelihoods on a copy of the counts, while sampling goes on.
+            tmArgs[13]=Double.toString(weightRefreshTolerance.value); //Exact variance weights every iteration if 0.
+
+            if(concurrentModels.value) concurrentModelArgs.add(tmArgs);
+            else WeightedTopicModel.execution(tmArgs);
         }
 
         //Execution Basic Latent Dirichlet Allocation.
@@ -514,7 +600,7 @@ public class Text2VariedTopicModels {
             calendar = Calendar.getInstance();
             System.out.println("Weighted Topic Modeling start at "+dateFormat.format(calendar.getTime()));
 
-            int inputArgsNum = 9;
+            int inputArgsNum = 14;
             String[] tmArgs = new String[inputArgsNum];
             tmArgs[0]=textInputInstanceName; //Instances
             tmArgs[1]=Integer.toString(numTopics.value); //Topic K Number.
@@ -525,8 +611,14 @@ public class Text2VariedTopicModels {
             tmArgs[6]="false"; //for Balance.
             tmArgs[7]=elTestingFile.value; //For Empirical Likelihood. If 'null', no empirical likelihood.
             tmArgs[8]=null; //This is used for Idf Weighting.
-
-            WeightedTopicModel.execution(tmArgs);
+            tmArgs[9]=Integer.toString(numThreads.value); //Number of sampling threads.
+            tmArgs[10]=Integer.toString(checkpointInterval.value); //Checkpoint of the sampling state every this many iterations.
+            tmArgs[11]=Boolean.toString(resume.value); //Continue from the checkpoint of an interrupted run.
+            tmArgs[12]=Boolean.toString(asyncLikelihood.value); //Likelihoods on a copy of the counts, while sampling goes on.
+            tmArgs[13]=Double.toString(weightRefreshTolerance.value); //Exact variance weights every iteration if 0.
+
+            if(concurrentModels.value) concurrentModelArgs.add(tmArgs);
+            else WeightedTopicModel.execution(tmArgs);
         }
 
 
@@ -535,7 +627,7 @@ public class Text2VariedTopicModels {
             calendar = Calendar.getInstance();
             System.out.println("Balance Weighted Topic Modeling start at "+dateFormat.format(calendar.getTime()));
 
-            int inputArgsNum = 9;
+            int inputArgsNum = 14;
             String[] tmArgs = new String[inputArgsNum];
             tmArgs[0]=textInputInstanceName; //Instances
             tmArgs[1]=Integer.toString(numTopics.value); //Topic K Number.
@@ -546,8 +638,14 @@ public class Text2VariedTopicModels {
             tmArgs[6]="true"; //for Balance.
             tmArgs[7]=elTestingFile.value; //For Empirical Likelihood. If 'null', no empirical likelihood.
             tmArgs[8]=null; //This is used for Idf Weighting.
-
-            WeightedTopicModel.execution(tmArgs);
+            tmArgs[9]=Integer.toString(numThreads.value); //Number of sampling threads.
+            tmArgs[10]=Integer.toString(checkpointInterval.value); //Checkpoint of the sampling state every this many iterations.
+            tmArgs[11]=Boolean.toString(resume.value); //Continue from the checkpoint of an interrupted run.
+            tmArgs[12]=Boolean.toString(asyncLikelihood.value); //Likelihoods on a copy of the counts, while sampling goes on.
+            tmArgs[13]=Double.toString(weightRefreshTolerance.value); //Exact variance weights every iteration if 0.
+
+            if(concurrentModels.value) concurrentModelArgs.add(tmArgs);
+            else WeightedTopicModel.execution(tmArgs);
         }
 
 
@@ -556,7 +654,7 @@ public class Text2VariedTopicModels {
             calendar = Calendar.getInstance();
             System.out.println("IDF Term Weighted Topic Modeling start at "+dateFormat.format(calendar.getTime()));
 
-            int inputArgsNum = 9;
+            int inputArgsNum = 14;
             String[] tmArgs = new String[inputArgsNum];
             tmArgs[0]=textInputInstanceName; //Instances
             tmArgs[1]=Integer.toString(numTopics.value); //Topic K Number.
@@ -567,8 +665,14 @@ public class Text2VariedTopicModels {
             tmArgs[6]="false"; //for Balance.
             tmArgs[7]=elTestingFile.value; //For Empirical Likelihood. If 'null', no empirical likelihood.
             tmArgs[8]=idfTermWeightObjectFileName; //This is used for Idf Weighting.
-
-            WeightedTopicModel.execution(tmArgs);
+            tmArgs[9]=Integer.toString(numThreads.value); //Number of sampling threads.
+            tmArgs[10]=Integer.toString(checkpointInterval.value); //Checkpoint of the sampling state every this many iterations.
+            tmArgs[11]=Boolean.toString(resume.value); //Continue from the checkpoint of an interrupted run.
+            tmArgs[12]=Boolean.toString(asyncLikelihood.value); //Likelihoods on a copy of the counts, while sampling goes on.
+            tmArgs[13]=Double.toString(weightRefreshTolerance.value); //Exact variance weights every iteration if 0.
+
+            if(concurrentModels.value) concurrentModelArgs.add(tmArgs);
+            else WeightedTopicModel.execution(tmArgs);
         }
 
 
@@ -577,7 +681,7 @@ public class Text2VariedTopicModels {
             calendar = Calendar.getInstance();
             System.out.println("IDF Term Balance Weighted Topic Modeling start at "+dateFormat.format(calendar.getTime()));
 
-            int inputArgsNum = 9;
+            int inputArgsNum = 14;
             String[] tmArgs = new String[inputArgsNum];
             tmArgs[0]=textInputInstanceName; //Instances
             tmArgs[1]=Integer.toString(numTopics.value); //Topic K Number.
@@ -588,8 +692,20 @@ public class Text2VariedTopicModels {
             tmArgs[6]="true"; //for Balance.
             tmArgs[7]=elTestingFile.value; //For Empirical Likelihood. If 'null', no empirical likelihood.
             tmArgs[8]=idfTermWeightObjectFileName; //This is used for Idf Weighting.
+            tmArgs[9]=Integer.toString(numThreads.value); //Number of sampling threads.
+            tmArgs[10]=Integer.toString(checkpointInterval.value); //Checkpoint of the sampling state every this many iterations.
+            tmArgs[11]=Boolean.toString(resume.value); //Continue from the checkpoint of an interrupted run.
+            tmArgs[12]=Boolean.toString(asyncLikelihood.value); //Likelihoods on a copy of the counts, while sampling goes on.
+            tmArgs[13]=Double.toString(weightRefreshTolerance.value); //Exact variance weights every iteration if 0.
+
+            if(concurrentModels.value) concurrentModelArgs.add(tmArgs);
+            else WeightedTopicModel.execution(tmArgs);
+        }
 
-            WeightedTopicModel.execution(tmArgs);
+        if(concurrentModels.value && !concurrentModelArgs.isEmpty()){
+            calendar = Calendar.getInstance();
+            System.out.println(concurrentModelArgs.size()+" topic models start concurrently at "+dateFormat.format(calendar.getTime()));
+            executeConcurrently(concurrentModelArgs, instances);
         }
 
         calendar = Calendar.getInstance();
@@ -597,4 +713,40 @@ public class Text2VariedTopicModels {
 
 	}
 
+    /**
+     * Train every topic model variant at the same time on the same instance list.
+     * Each model keeps its own state and its own sampling thread pool.
+     */
+    private static void executeConcurrently(List<String[]> modelArgs, final InstanceList instances) throws IOException {
+        final InstanceList testingForEL = elTestingFile.value != null ? InstanceList.load(new File(elTestingFile.value)) : null;
+
+        ExecutorService executor = Executors.newFixedThreadPool(modelArgs.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final String[] tmArgs : modelArgs) {
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    WeightedTopicModel.execution(tmArgs, instances, testingForEL);
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for topic models.", e);
+            } catch (ExecutionException e) {
+                logger.severe("Topic model " + modelArgs.get(i)[4] + " failed: " + e.getCause());
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new IOException(failed + " of " + futures.size() + " topic models failed.");
+        }
+    }
+
 }